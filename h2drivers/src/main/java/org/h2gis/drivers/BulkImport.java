@@ -0,0 +1,546 @@
+/*
+ * h2spatial is a library that brings spatial support to the H2 Java database.
+ *
+ * h2spatial is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2014 IRSTV (FR CNRS 2488)
+ *
+ * h2patial is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * h2spatial is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * h2spatial. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+
+package org.h2gis.drivers;
+
+import org.h2gis.drivers.job.JobManager;
+import org.h2gis.h2spatialapi.DriverFunction;
+import org.h2gis.h2spatialapi.EmptyProgressVisitor;
+import org.h2gis.h2spatialapi.ProgressVisitor;
+import org.h2gis.utilities.JDBCUtilities;
+import org.h2gis.utilities.TableLocation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Import the files of a directory, or the files matching a pattern, with the drivers of
+ * {@link DriverManager#getDriverFunctions()}. Each file is imported into its own table named
+ * [table]_[file name], the drivers that create several tables (ex: GPX, OSM) use this name as a prefix. With the
+ * union option the files that share the same columns are appended into a single table, the first set of columns is
+ * stored in [table], the next ones in [table]_2, [table]_3... skipping the names already used. The union option
+ * does not support the files imported into several tables.
+ *
+ * The files are imported by a pool of threads, each thread with its own connection of the DataSource. The calling
+ * connection appends the imported tables in the file order.
+ */
+public class BulkImport {
+    private static final Logger LOG = LoggerFactory.getLogger(BulkImport.class);
+    private final DataSource dataSource;
+    private final List<DriverFunction> driverFunctions = DriverManager.getDriverFunctions();
+    private int threadCount = 1;
+    private boolean union = false;
+
+    /**
+     * @param dataSource Connection provider of the import threads, null to import the files one by one with the
+     *                   calling connection. Do not use a DataSource of the same database from a SQL function, the
+     *                   calling session holds the database lock and the import threads would wait for it.
+     */
+    public BulkImport(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * @param threadCount Number of files imported concurrently, ignored if there is no DataSource
+     */
+    public void setThreadCount(int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("The thread count must be greater than 0");
+        }
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * @return Number of files imported concurrently
+     */
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * @param union True to append the files that share the same columns into a single table
+     */
+    public void setUnion(boolean union) {
+        this.union = union;
+    }
+
+    /**
+     * @return True if the files that share the same columns are appended into a single table
+     */
+    public boolean isUnion() {
+        return union;
+    }
+
+    /**
+     * Add a driver, it takes precedence over the previous drivers of the same file extensions.
+     * @param driverFunction Import driver
+     */
+    public void addDriverFunction(DriverFunction driverFunction) {
+        driverFunctions.add(0, driverFunction);
+    }
+
+    /**
+     * @param file File to import
+     * @return The driver of this file extension or null
+     */
+    private DriverFunction getDriverFunction(File file) {
+        String ext = getExtension(file);
+        for (DriverFunction driverFunction : driverFunctions) {
+            for (String format : driverFunction.getImportFormats()) {
+                if (format.equalsIgnoreCase(ext)) {
+                    return driverFunction;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String getExtension(File file) {
+        String name = file.getName();
+        return name.substring(name.lastIndexOf('.') + 1);
+    }
+
+    private static String getBaseName(File file) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        return dot == -1 ? name : name.substring(0, dot);
+    }
+
+    /**
+     * List the files that can be imported. The dbf files of the shape files are not listed.
+     *
+     * @param path Directory or pattern, ex: /data/tiles/*.shp
+     * @return The files sorted by name
+     */
+    public File[] listFiles(File path) {
+        File[] files = listFiles(path, new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isFile();
+            }
+        });
+        Set<String> shapeFiles = new HashSet<String>();
+        for (File file : files) {
+            if (getExtension(file).equalsIgnoreCase("shp")) {
+                shapeFiles.add(new File(file.getParentFile(), getBaseName(file).toLowerCase()).getPath());
+            }
+        }
+        List<File> importFiles = new ArrayList<File>(files.length);
+        for (File file : files) {
+            if (getDriverFunction(file) != null && !(getExtension(file).equalsIgnoreCase("dbf") &&
+                    shapeFiles.contains(new File(file.getParentFile(), getBaseName(file).toLowerCase()).getPath()))) {
+                importFiles.add(file);
+            }
+        }
+        return importFiles.toArray(new File[importFiles.size()]);
+    }
+
+    /**
+     * Import the files. If an import fails, the tables created by this call are removed.
+     *
+     * @param connection Active connection, do not close this connection.
+     * @param path Directory or pattern, ex: /data/tiles/*.shp
+     * @param tableReference [[catalog.]schema.]table reference, prefix of the created tables. Without schema the
+     *                       tables are created in the current schema of the connection.
+     * @param progress Progress visitor, one step by file
+     * @return The created tables
+     * @throws SQLException
+     * @throws IOException
+     */
+    public List<String> importFiles(Connection connection, File path, String tableReference, ProgressVisitor progress) throws SQLException, IOException {
+        final boolean isH2 = JDBCUtilities.isH2DataBase(connection.getMetaData());
+        // The created tables are named as the table reference
+        TableLocation requestedLocation = TableLocation.parse(tableReference, isH2);
+        // The import threads and the lookup of the created tables must use the same schema
+        TableLocation location = TableLocation.parse(JobManager.qualifyTableReference(connection, tableReference), isH2);
+        File[] files = listFiles(path);
+        if (files.length == 0) {
+            throw new SQLException("No file to import matches " + path);
+        }
+        Set<String> existingTables = getTables(connection, location, location.getTable(), isH2);
+        if (union && existingTables.contains(location.getTable())) {
+            throw new SQLException("The table " + location + " already exists");
+        }
+        // Name the table of each file
+        String[] fileTables = new String[files.length];
+        Set<String> fileTableSet = new HashSet<String>();
+        for (int i = 0; i < files.length; i++) {
+            String name = location.getTable() + "_" + getBaseName(files[i]).replaceAll("[^A-Za-z0-9_]", "_");
+            name = TableLocation.capsIdentifier(name, isH2);
+            String uniqueName = name;
+            for (int suffix = 2; !fileTableSet.add(uniqueName); suffix++) {
+                uniqueName = name + "_" + suffix;
+            }
+            fileTables[i] = uniqueName;
+        }
+        ProgressVisitor filesProgress = progress.subProcess(files.length);
+        List<String> tables = new ArrayList<String>();
+        Map<String, String> unionTables = new HashMap<String, String>();
+        ExecutorService executorService = dataSource != null && threadCount > 1 ?
+                Executors.newFixedThreadPool(threadCount) : null;
+        boolean done = false;
+        try {
+            final int maxPendingFiles = threadCount * 2;
+            Queue<Future<String>> pendingFiles = new ArrayDeque<Future<String>>(maxPendingFiles);
+            int nextFile = 0;
+            int importedFile = 0;
+            while (nextFile < files.length || !pendingFiles.isEmpty()) {
+                while (nextFile < files.length && pendingFiles.size() < maxPendingFiles) {
+                    final File file = files[nextFile];
+                    final String fileTable = new TableLocation(location.getCatalog(), location.getSchema(),
+                            fileTables[nextFile]).toString(isH2);
+                    nextFile++;
+                    if (executorService == null) {
+                        FutureTask<String> futureTask = new FutureTask<String>(
+                                new FileImport(connection, getDriverFunction(file), file, fileTable));
+                        futureTask.run();
+                        pendingFiles.add(futureTask);
+                    } else {
+                        pendingFiles.add(executorService.submit(
+                                new FileImport(null, getDriverFunction(file), file, fileTable)));
+                    }
+                }
+                if (progress.isCanceled()) {
+                    throw new SQLException("Canceled by user");
+                }
+                getTable(pendingFiles.remove());
+                String fileTable = fileTables[importedFile];
+                // Some drivers use the table name as a prefix and create several tables
+                List<String> createdTables = new ArrayList<String>();
+                for (String table : getTables(connection, location, fileTable, isH2)) {
+                    if (!existingTables.contains(table) && fileTable.equals(getFileTable(table, fileTableSet))) {
+                        createdTables.add(table);
+                    }
+                }
+                Collections.sort(createdTables);
+                if (union) {
+                    if (createdTables.size() != 1 || !createdTables.get(0).equals(fileTable)) {
+                        throw new SQLException("The file " + files[importedFile].getName() + " is imported into " +
+                                "several tables, it cannot be appended with the union option");
+                    }
+                    String unionTable = new TableLocation(requestedLocation.getCatalog(), requestedLocation.getSchema(),
+                            appendTable(connection, fileTable, location, isH2, unionTables, fileTableSet,
+                                    existingTables)).toString(isH2);
+                    if (!tables.contains(unionTable)) {
+                        tables.add(unionTable);
+                    }
+                } else {
+                    for (String table : createdTables) {
+                        tables.add(new TableLocation(requestedLocation.getCatalog(), requestedLocation.getSchema(),
+                                table).toString(isH2));
+                    }
+                }
+                importedFile++;
+                filesProgress.endStep();
+            }
+            done = true;
+        } finally {
+            if (executorService != null) {
+                executorService.shutdownNow();
+                if (!done) {
+                    // Wait for the running imports before removing their tables
+                    try {
+                        while (!executorService.awaitTermination(1, TimeUnit.SECONDS)) {
+                            LOG.info("Waiting for the end of the running imports");
+                        }
+                    } catch (InterruptedException ex) {
+                        LOG.warn("Interrupted while waiting for the end of the running imports", ex);
+                    }
+                }
+            }
+            if (!done) {
+                dropTables(connection, location, isH2, existingTables, fileTableSet, unionTables.values());
+            }
+        }
+        return tables;
+    }
+
+    /**
+     * Remove the tables created by a failed import.
+     */
+    private static void dropTables(Connection connection, TableLocation location, boolean isH2,
+                                   Set<String> existingTables, Set<String> fileTableSet,
+                                   Collection<String> unionTables) {
+        try {
+            Statement st = connection.createStatement();
+            try {
+                for (String table : getTables(connection, location, location.getTable(), isH2)) {
+                    if (!existingTables.contains(table) &&
+                            (unionTables.contains(table) || getFileTable(table, fileTableSet) != null)) {
+                        st.execute("DROP TABLE IF EXISTS " +
+                                new TableLocation(location.getCatalog(), location.getSchema(), table).toString(isH2));
+                    }
+                }
+            } finally {
+                st.close();
+            }
+        } catch (SQLException ex) {
+            LOG.error("Unable to remove the imported tables of " + location, ex);
+        }
+    }
+
+    /**
+     * @param table Table name
+     * @param fileTableSet Table names of the files
+     * @return The longest file table name that is the table name or the prefix of the table name, null if none
+     */
+    private static String getFileTable(String table, Set<String> fileTableSet) {
+        for (int end = table.length(); end > 0; end = table.lastIndexOf('_', end - 1)) {
+            String prefix = table.substring(0, end);
+            if (fileTableSet.contains(prefix)) {
+                return prefix;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param connection Active connection
+     * @param location Schema of the tables
+     * @param prefix Table name prefix
+     * @param isH2 True if H2 database
+     * @return The names of the tables of the schema starting with the prefix
+     * @throws SQLException
+     */
+    private static Set<String> getTables(Connection connection, TableLocation location, String prefix, boolean isH2) throws SQLException {
+        Set<String> tables = new HashSet<String>();
+        String schema = location.getSchema().isEmpty() ? (isH2 ? "PUBLIC" : "public") : location.getSchema();
+        ResultSet rs = connection.getMetaData().getTables(location.getCatalog(null), schema, prefix + "%", null);
+        try {
+            while (rs.next()) {
+                String table = rs.getString("TABLE_NAME");
+                // The _ of the prefix is a wildcard
+                if (table.startsWith(prefix)) {
+                    tables.add(table);
+                }
+            }
+        } finally {
+            rs.close();
+        }
+        return tables;
+    }
+
+    /**
+     * Append an imported table into the table of the same columns, or rename it if it is the first table of
+     * these columns.
+     *
+     * @param connection Active connection
+     * @param fileTable Imported table name
+     * @param location Table reference given by the user
+     * @param isH2 True if H2 database
+     * @param unionTables Union table name by columns signature
+     * @param fileTableSet Table names of the files
+     * @param existingTables Tables that existed before the import
+     * @return The name of the table that contains the rows of the imported table
+     * @throws SQLException
+     */
+    private static String appendTable(Connection connection, String fileTable, TableLocation location, boolean isH2,
+                                      Map<String, String> unionTables, Set<String> fileTableSet,
+                                      Set<String> existingTables) throws SQLException {
+        String fileTableReference = new TableLocation(location.getCatalog(), location.getSchema(), fileTable).toString(isH2);
+        int pkIndex = JDBCUtilities.getIntegerPrimaryKey(connection, fileTableReference);
+        StringBuilder signature = new StringBuilder();
+        StringBuilder columns = new StringBuilder();
+        Statement st = connection.createStatement();
+        try {
+            ResultSet rs = st.executeQuery("SELECT * FROM " + fileTableReference + " LIMIT 0");
+            try {
+                ResultSetMetaData metaData = rs.getMetaData();
+                for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                    // The integer primary key is generated again by the union table
+                    if (i != pkIndex) {
+                        String column = TableLocation.quoteIdentifier(metaData.getColumnName(i), isH2);
+                        if (columns.length() > 0) {
+                            columns.append(", ");
+                        }
+                        columns.append(column);
+                        signature.append(column).append(' ').append(metaData.getColumnTypeName(i)).append(';');
+                    }
+                }
+            } finally {
+                rs.close();
+            }
+            String unionTable = unionTables.get(signature.toString());
+            if (unionTable == null) {
+                // The name must not be used by an existing table or by the table of a file
+                unionTable = location.getTable();
+                for (int n = 2; unionTables.containsValue(unionTable) || fileTableSet.contains(unionTable) ||
+                        existingTables.contains(unionTable); n++) {
+                    unionTable = location.getTable() + "_" + n;
+                }
+                st.execute("ALTER TABLE " + fileTableReference + " RENAME TO " +
+                        TableLocation.quoteIdentifier(unionTable, isH2));
+                unionTables.put(signature.toString(), unionTable);
+            } else {
+                st.execute("INSERT INTO " + new TableLocation(location.getCatalog(), location.getSchema(), unionTable).toString(isH2) +
+                        "(" + columns + ") SELECT " + columns + " FROM " + fileTableReference);
+                st.execute("DROP TABLE " + fileTableReference);
+            }
+            return unionTable;
+        } finally {
+            st.close();
+        }
+    }
+
+    /**
+     * Wait for the import of a file.
+     *
+     * @param table
+     * @return The imported table
+     */
+    private static String getTable(Future<String> table) throws IOException, SQLException {
+        try {
+            return table.get();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            } else if (ex.getCause() instanceof SQLException) {
+                throw (SQLException) ex.getCause();
+            } else if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            } else {
+                throw new IOException(ex.getCause());
+            }
+        } catch (InterruptedException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    /**
+     * Import of a single file, with the calling connection or with a connection of the DataSource.
+     */
+    private class FileImport implements Callable<String> {
+        private final Connection connection;
+        private final DriverFunction driverFunction;
+        private final File file;
+        private final String table;
+
+        private FileImport(Connection connection, DriverFunction driverFunction, File file, String table) {
+            this.connection = connection;
+            this.driverFunction = driverFunction;
+            this.file = file;
+            this.table = table;
+        }
+
+        @Override
+        public String call() throws SQLException, IOException {
+            if (connection != null) {
+                driverFunction.importFile(connection, table, file, new EmptyProgressVisitor());
+            } else {
+                Connection importConnection = dataSource.getConnection();
+                try {
+                    driverFunction.importFile(importConnection, table, file, new EmptyProgressVisitor());
+                } finally {
+                    importConnection.close();
+                }
+            }
+            return table;
+        }
+    }
+
+    /**
+     * List the files of a directory, or the files matching a pattern. The pattern is the file name and may contain
+     * the * and ? wildcards.
+     *
+     * @param path Directory or pattern, ex: /data/traces/*.gpx
+     * @param directoryFilter Filter of the files of a directory
+     * @return The files sorted by name
+     */
+    public static File[] listFiles(File path, FileFilter directoryFilter) {
+        File[] files;
+        if (path.isDirectory()) {
+            files = path.listFiles(directoryFilter);
+        } else {
+            File directory = path.getAbsoluteFile().getParentFile();
+            final Pattern pattern = Pattern.compile(globToRegex(path.getName()));
+            files = directory == null ? null : directory.listFiles(new FileFilter() {
+                @Override
+                public boolean accept(File file) {
+                    return file.isFile() && pattern.matcher(file.getName()).matches();
+                }
+            });
+        }
+        if (files == null) {
+            return new File[0];
+        }
+        Arrays.sort(files);
+        return files;
+    }
+
+    /**
+     * @param fileName File name
+     * @return True if the file name contains a wildcard
+     */
+    public static boolean isPattern(String fileName) {
+        return fileName.indexOf('*') >= 0 || fileName.indexOf('?') >= 0;
+    }
+
+    private static String globToRegex(String glob) {
+        StringBuilder regex = new StringBuilder();
+        int start = 0;
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*' || c == '?') {
+                if (i > start) {
+                    regex.append(Pattern.quote(glob.substring(start, i)));
+                }
+                regex.append(c == '*' ? ".*" : ".");
+                start = i + 1;
+            }
+        }
+        if (start < glob.length()) {
+            regex.append(Pattern.quote(glob.substring(start)));
+        }
+        return regex.toString();
+    }
+}
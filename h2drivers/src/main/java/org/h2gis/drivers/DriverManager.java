@@ -26,8 +26,16 @@
 package org.h2gis.drivers;
 
 import org.h2.util.StringUtils;
+import org.h2gis.drivers.csv.CSVDriverFunction;
+import org.h2gis.drivers.csv.CSVEngine;
 import org.h2gis.drivers.dbf.DBFDriverFunction;
 import org.h2gis.drivers.dbf.DBFEngine;
+import org.h2gis.drivers.file_table.FileEngine;
+import org.h2gis.drivers.geojson.GeoJsonDriverFunction;
+import org.h2gis.drivers.geojson.GeoJsonEngine;
+import org.h2gis.drivers.gpx.GPXDriverFunction;
+import org.h2gis.drivers.kml.KMLDriverFunction;
+import org.h2gis.drivers.osm.OSMDriverFunction;
 import org.h2gis.drivers.shp.SHPDriverFunction;
 import org.h2gis.drivers.shp.SHPEngine;
 import org.h2gis.h2spatialapi.AbstractFunction;
@@ -44,6 +52,8 @@ import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.SQLFeatureNotSupportedException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Manage additional table engines in H2.
@@ -54,15 +64,41 @@ public class DriverManager extends AbstractFunction implements ScalarFunction, D
 
     private static final DriverDef[] DRIVERS = new DriverDef[] {
             new DriverDef(DBFEngine.class.getName(),"dbf"),
-            new DriverDef(SHPEngine.class.getName(),"shp")};
+            new DriverDef(SHPEngine.class.getName(),"shp"),
+            new DriverDef(CSVEngine.class.getName(),"csv"),
+            new DriverDef(GeoJsonEngine.class.getName(),"geojson"),
+            new DriverDef(GeoJsonEngine.class.getName(),"geojsonl"),
+            new DriverDef(GeoJsonEngine.class.getName(),"geojsons")};
     private static final int FORMAT = 0;
     private static final int DESCRIPTION = 1;
     private static final String[][] formatDescription = new String[][] {{"dbf", DBFDriverFunction.DESCRIPTION},
-                                                                        {"shp", SHPDriverFunction.DESCRIPTION}};
+                                                                        {"shp", SHPDriverFunction.DESCRIPTION},
+                                                                        {"csv", CSVDriverFunction.DESCRIPTION},
+                                                                        {"geojson", "GeoJSON 1.0"},
+                                                                        {"geojsonl", "Newline delimited GeoJSON"},
+                                                                        {"geojsons", "GeoJSON text sequence (RFC 8142)"}};
+
+    /**
+     * @return New instances of the drivers that copy a file into a table or a table into a file
+     */
+    public static List<DriverFunction> getDriverFunctions() {
+        List<DriverFunction> driverFunctions = new ArrayList<DriverFunction>();
+        driverFunctions.add(new CSVDriverFunction());
+        driverFunctions.add(new DBFDriverFunction());
+        driverFunctions.add(new SHPDriverFunction());
+        driverFunctions.add(new GeoJsonDriverFunction());
+        driverFunctions.add(new GPXDriverFunction());
+        driverFunctions.add(new KMLDriverFunction());
+        driverFunctions.add(new OSMDriverFunction());
+        return driverFunctions;
+    }
 
     public DriverManager() {
         addProperty(PROP_NAME, "FILE_TABLE");
-        addProperty(PROP_REMARKS, "Use the appropriate driver to open a specified file path.");
+        addProperty(PROP_REMARKS, "Use the appropriate driver to open a specified file path.\n" +
+                "Set the optional third argument to true in order to store the spatial indexes of the table in " +
+                "files next to the linked file ([file].[column].idx), they are then not rebuilt when the " +
+                "database is reopened.");
     }
 
     @Override
@@ -87,14 +123,29 @@ public class DriverManager extends AbstractFunction implements ScalarFunction, D
      * @param tableName [[catalog.]schema.]table reference
      */
     public static void openFile(Connection connection, String fileName, String tableName) throws SQLException {
+        openFile(connection, fileName, tableName, false);
+    }
+
+    /**
+     * Create a new table
+     * @param connection Active connection, do not close this connection.
+     * @param fileName File path to write, if exists it may be replaced
+     * @param tableName [[catalog.]schema.]table reference
+     * @param indexFile True to store the spatial indexes in files next to the linked file
+     */
+    public static void openFile(Connection connection, String fileName, String tableName, boolean indexFile) throws SQLException {
         String ext = fileName.substring(fileName.lastIndexOf('.') + 1,fileName.length());
         final boolean isH2 = JDBCUtilities.isH2DataBase(connection.getMetaData());
         for(DriverDef driverDef : DRIVERS) {
             if(driverDef.getFileExt().equalsIgnoreCase(ext)) {
                 Statement st = connection.createStatement();
+                String engineParams = StringUtils.quoteJavaString(URIUtility.fileFromString(fileName).toString());
+                if(indexFile) {
+                    engineParams += ", " + StringUtils.quoteJavaString(FileEngine.OPTION_SPATIAL_INDEX_FILE + "=TRUE");
+                }
                 st.execute(String.format("CREATE TABLE %s COMMENT %s ENGINE %s WITH %s",
                         TableLocation.parse(tableName, isH2).toString(isH2),StringUtils.quoteStringSQL(URIUtility.fileFromString(fileName).toURI().toString()),
-                        StringUtils.quoteJavaString(driverDef.getClassName()),StringUtils.quoteJavaString(URIUtility.fileFromString(fileName).toString())));
+                        StringUtils.quoteJavaString(driverDef.getClassName()),engineParams));
                 st.close();
                 return;
             }
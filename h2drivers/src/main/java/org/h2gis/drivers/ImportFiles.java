@@ -0,0 +1,88 @@
+/*
+ * h2spatial is a library that brings spatial support to the H2 Java database.
+ *
+ * h2spatial is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2014 IRSTV (FR CNRS 2488)
+ *
+ * h2patial is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * h2spatial is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * h2spatial. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+
+package org.h2gis.drivers;
+
+import org.h2gis.h2spatialapi.AbstractFunction;
+import org.h2gis.h2spatialapi.EmptyProgressVisitor;
+import org.h2gis.h2spatialapi.ScalarFunction;
+import org.h2gis.utilities.URIUtility;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * SQL function to import the files of a directory, or the files matching a pattern, with {@link BulkImport}.
+ * The files are imported one by one with the calling connection. A SQL function must not use other connections of
+ * the same database: the calling session holds the database lock, the import threads would wait for it forever.
+ * The files are imported concurrently by the {@link org.h2gis.drivers.job.JobImport} asynchronous job.
+ */
+public class ImportFiles extends AbstractFunction implements ScalarFunction {
+
+    public ImportFiles() {
+        addProperty(PROP_NAME, "IMPORT_FILES");
+        addProperty(PROP_REMARKS, "Import the files of a directory or the files matching a pattern " +
+                "(ex: /data/tiles/*.shp) into the tables [table]_[file name].\n" +
+                "With the union option the files that share the same columns are appended into [table], " +
+                "[table]_2...\n" +
+                "The files are imported one by one, JOB_IMPORT imports them concurrently in background.");
+    }
+
+    @Override
+    public String getJavaStaticMethod() {
+        return "importFiles";
+    }
+
+    /**
+     * Import each file into its own table.
+     *
+     * @param connection Active connection
+     * @param fileName Directory or file name pattern
+     * @param tableReference [[catalog.]schema.]table reference, prefix of the created tables
+     * @throws IOException
+     * @throws SQLException
+     */
+    public static void importFiles(Connection connection, String fileName, String tableReference) throws IOException, SQLException {
+        importFiles(connection, fileName, tableReference, false);
+    }
+
+    /**
+     * @param connection Active connection
+     * @param fileName Directory or file name pattern
+     * @param tableReference [[catalog.]schema.]table reference, prefix of the created tables
+     * @param union True to append the files that share the same columns into a single table
+     * @throws IOException
+     * @throws SQLException
+     */
+    public static void importFiles(Connection connection, String fileName, String tableReference, boolean union) throws IOException, SQLException {
+        BulkImport bulkImport = new BulkImport(null);
+        bulkImport.setUnion(union);
+        // The ? wildcard would be read as an URI query
+        File path = BulkImport.isPattern(fileName) ? new File(fileName) : URIUtility.fileFromString(fileName);
+        bulkImport.importFiles(connection, path, tableReference, new EmptyProgressVisitor());
+    }
+}
@@ -0,0 +1,21 @@
+package org.h2gis.drivers;
+
+import java.io.IOException;
+
+/**
+ * Implement this interface if the file driver is able to read only some fields of a row.
+ * {@link org.h2gis.drivers.file_table.H2TableIndex} reads only the columns used by the query, the other drivers
+ * are read through {@link #getRow(long)}.
+ */
+public interface PartialRowFileDriver extends FileDriver {
+
+    /**
+     * Read only some fields of a row.
+     * @param rowId Row index [0-getRowCount()[
+     * @param fields Fields to read, same length as the row. Fields not read are null in the returned array.
+     *               Null array to read all fields.
+     * @return The row content
+     * @throws java.io.IOException Read error
+     */
+    Object[] getRow(long rowId, boolean[] fields) throws IOException;
+}
@@ -0,0 +1,24 @@
+package org.h2gis.drivers;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+import java.io.IOException;
+
+/**
+ * Implement this interface if the file driver is able to read the envelope of a geometry without reading the
+ * geometry. {@link org.h2gis.drivers.file_table.H2Table} use this envelope to build spatial indexes.
+ */
+public interface SpatialFileDriver extends FileDriver {
+
+    /**
+     * @return The geometry field index in getRow() array.
+     */
+    int getGeometryFieldIndex();
+
+    /**
+     * @param rowId Row index [0-getRowCount()[
+     * @return The envelope of the geometry, null envelope if the geometry is empty
+     * @throws IOException Read error
+     */
+    Envelope getEnvelope(long rowId) throws IOException;
+}
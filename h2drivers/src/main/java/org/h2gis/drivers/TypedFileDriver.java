@@ -0,0 +1,51 @@
+package org.h2gis.drivers;
+
+import java.io.IOException;
+
+/**
+ * Implement this interface if the file driver is able to read numeric fields without creating java objects.
+ * {@link org.h2gis.drivers.file_table.H2TableIndex} reads the rows through {@link #getTypedRow(long, TypedRow)},
+ * the INT, BIGINT and DOUBLE columns are read as primitive numbers.
+ */
+public interface TypedFileDriver extends FileDriver {
+
+    /**
+     * Read a row once, the numeric fields are read without creating java objects.
+     * @param rowId Row index [0-getRowCount()[
+     * @param row Read mode of each field and read values
+     * @throws IOException Read error or a field read as a number is not numeric
+     */
+    void getTypedRow(long rowId, TypedRow row) throws IOException;
+
+    /**
+     * @param rowId Row index [0-getRowCount()[
+     * @param fieldId Numeric field index in getRow() array
+     * @return True if the field value is null
+     * @throws IOException Read error
+     */
+    boolean isNull(long rowId, int fieldId) throws IOException;
+
+    /**
+     * @param rowId Row index [0-getRowCount()[
+     * @param fieldId Numeric field index in getRow() array
+     * @return The field value, the field must not be null
+     * @throws IOException Read error or null field
+     */
+    int getInt(long rowId, int fieldId) throws IOException;
+
+    /**
+     * @param rowId Row index [0-getRowCount()[
+     * @param fieldId Numeric field index in getRow() array
+     * @return The field value, the field must not be null
+     * @throws IOException Read error or null field
+     */
+    long getLong(long rowId, int fieldId) throws IOException;
+
+    /**
+     * @param rowId Row index [0-getRowCount()[
+     * @param fieldId Numeric field index in getRow() array
+     * @return The field value, the field must not be null
+     * @throws IOException Read error or null field
+     */
+    double getDouble(long rowId, int fieldId) throws IOException;
+}
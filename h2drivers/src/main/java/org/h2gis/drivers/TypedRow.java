@@ -0,0 +1,153 @@
+/*
+ * h2spatial is a library that brings spatial support to the H2 Java database.
+ *
+ * h2spatial is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2014 IRSTV (FR CNRS 2488)
+ *
+ * h2patial is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * h2spatial is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * h2spatial. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+
+package org.h2gis.drivers;
+
+/**
+ * Row read by {@link TypedFileDriver#getTypedRow(long, TypedRow)}. Each field is skipped, read as a java object or
+ * read as a primitive number.
+ */
+public class TypedRow {
+    /** The field is not read */
+    public static final byte SKIP = 0;
+    /** The field is read as a java object */
+    public static final byte OBJECT = 1;
+    /** The numeric field is read as a long */
+    public static final byte LONG = 2;
+    /** The numeric field is read as a double */
+    public static final byte DOUBLE = 3;
+    private final byte[] readModes;
+    private final Object[] objects;
+    private final long[] longs;
+    private final double[] doubles;
+    private final boolean[] nulls;
+
+    /**
+     * @param readModes Read mode of each field, {@link #SKIP}, {@link #OBJECT}, {@link #LONG} or {@link #DOUBLE}.
+     *                  The array is not copied.
+     */
+    public TypedRow(byte[] readModes) {
+        this.readModes = readModes;
+        objects = new Object[readModes.length];
+        longs = new long[readModes.length];
+        doubles = new double[readModes.length];
+        nulls = new boolean[readModes.length];
+    }
+
+    /**
+     * @return Field count
+     */
+    public int getFieldCount() {
+        return readModes.length;
+    }
+
+    /**
+     * @param fieldId Field index
+     * @return Read mode of the field
+     */
+    public byte getReadMode(int fieldId) {
+        return readModes[fieldId];
+    }
+
+    /**
+     * @param fieldId Field index
+     * @return True if the field value is null
+     */
+    public boolean isNull(int fieldId) {
+        return nulls[fieldId];
+    }
+
+    /**
+     * @param fieldId Field index
+     * @return Value of a field read as an object
+     */
+    public Object getObject(int fieldId) {
+        return objects[fieldId];
+    }
+
+    /**
+     * @param fieldId Field index
+     * @return Value of a field read as a long, the field must not be null
+     */
+    public long getLong(int fieldId) {
+        return longs[fieldId];
+    }
+
+    /**
+     * @param fieldId Field index
+     * @return Value of a field read as a double, the field must not be null
+     */
+    public double getDouble(int fieldId) {
+        return doubles[fieldId];
+    }
+
+    /**
+     * @param fieldId Field index
+     * @param value Field value, may be null
+     */
+    public void setObject(int fieldId, Object value) {
+        objects[fieldId] = value;
+        nulls[fieldId] = value == null;
+    }
+
+    /**
+     * @param fieldId Field index
+     * @param value Field value
+     */
+    public void setLong(int fieldId, long value) {
+        longs[fieldId] = value;
+        nulls[fieldId] = false;
+    }
+
+    /**
+     * @param fieldId Field index
+     * @param value Field value
+     */
+    public void setDouble(int fieldId, double value) {
+        doubles[fieldId] = value;
+        nulls[fieldId] = false;
+    }
+
+    /**
+     * @param fieldId Field index
+     */
+    public void setNull(int fieldId) {
+        objects[fieldId] = null;
+        nulls[fieldId] = true;
+    }
+
+    /**
+     * Copy a field value into another row
+     * @param fieldId Field index in this row
+     * @param target Target row
+     * @param targetFieldId Field index in the target row
+     */
+    public void copyField(int fieldId, TypedRow target, int targetFieldId) {
+        target.objects[targetFieldId] = objects[fieldId];
+        target.longs[targetFieldId] = longs[fieldId];
+        target.doubles[targetFieldId] = doubles[fieldId];
+        target.nulls[targetFieldId] = nulls[fieldId];
+    }
+}
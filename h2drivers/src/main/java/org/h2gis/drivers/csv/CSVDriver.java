@@ -0,0 +1,379 @@
+/*
+ * h2spatial is a library that brings spatial support to the H2 Java database.
+ *
+ * h2spatial is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2014 IRSTV (FR CNRS 2488)
+ *
+ * h2patial is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * h2spatial is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * h2spatial. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+
+package org.h2gis.drivers.csv;
+
+import com.vividsolutions.jts.io.WKBReader;
+import com.vividsolutions.jts.io.WKTReader;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import org.h2.engine.SysProperties;
+import org.h2gis.drivers.PartialRowFileDriver;
+import org.h2gis.drivers.utility.ReadBufferManager;
+import org.h2gis.drivers.utility.ReaderPool;
+
+/**
+ * Read a CSV file row by row without importing it. The byte offset of each
+ * record is stored in an offset file next to the CSV file, built by a single
+ * scan of the file the first time the file is opened and rebuilt when the CSV
+ * file is modified. The column types are inferred like
+ * {@link CSVReaderDriver}, from all the records by default, see
+ * {@link #setSampleSize(int)}. The inferred types are stored after the
+ * offsets, then the file is parsed only once.
+ *
+ * The records are split at the byte level, then the file must use an ASCII
+ * compatible encoding (UTF-8, ISO-8859-1..).
+ */
+public class CSVDriver implements PartialRowFileDriver {
+    /** Extension appended to the CSV file path for the offset file */
+    public static final String OFFSET_FILE_EXTENSION = "offsets";
+    /** Sample size that infers the column types from all the records */
+    public static final int SAMPLE_ALL_RECORDS = 0;
+    // CSV file length, CSV file last modification, row count and sample size
+    private static final int OFFSET_HEADER_SIZE = 4 * 8;
+    private File csvFile;
+    private File offsetFile;
+    // The offset file is in the temporary directory and deleted on close
+    private boolean temporaryOffsetFile = false;
+    private Charset charset;
+    private CSVSchema schema;
+    private FileInputStream csvInputStream;
+    private FileInputStream offsetInputStream;
+    private ReadBufferManager csvBuffer;
+    private ReadBufferManager offsetBuffer;
+    private long rowCount;
+    private boolean memoryMapped = false;
+    private int sampleSize = SAMPLE_ALL_RECORDS;
+    // Readers used by getRow, shared by concurrent threads
+    private final ReaderPool<RecordReader> readers = new ReaderPool<RecordReader>() {
+        @Override
+        protected RecordReader create() throws IOException {
+            return new RecordReader(csvBuffer.duplicate(), offsetBuffer.duplicate());
+        }
+    };
+
+    /**
+     * @param memoryMapped If true, the file opened by {@link #initDriverFromFile(java.io.File, String)} is read
+     *                     through memory mapped segments.
+     */
+    public void setMemoryMapped(boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+    }
+
+    /**
+     * @return True if the file is read through memory mapped segments.
+     */
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
+    /**
+     * @param sampleSize Number of records parsed by {@link #initDriverFromFile(java.io.File, String)} in order to
+     *                   infer the column types, {@link #SAMPLE_ALL_RECORDS} by default. With a smaller sample, the
+     *                   rows whose values do not match the inferred types cannot be read.
+     */
+    public void setSampleSize(int sampleSize) {
+        if (sampleSize < 0) {
+            throw new IllegalArgumentException("The sample size must be greater than or equal to 0");
+        }
+        this.sampleSize = sampleSize;
+    }
+
+    /**
+     * @return Number of records parsed in order to infer the column types
+     */
+    public int getSampleSize() {
+        return sampleSize;
+    }
+
+    /**
+     * Read the header, infer the column types and open the offset file.
+     * @param csvFile CSV file path
+     * @param forceEncoding File encoding to use, null to use the default file encoding
+     * @throws IOException
+     */
+    public void initDriverFromFile(File csvFile, String forceEncoding) throws IOException {
+        this.csvFile = csvFile;
+        charset = Charset.forName(forceEncoding != null ? forceEncoding : SysProperties.FILE_ENCODING);
+        if (!Arrays.equals(",\"\r\n".getBytes(charset), new byte[]{',', '"', '\r', '\n'})) {
+            throw new IOException("The encoding " + charset.name() + " is not supported by the linked CSV files");
+        }
+        Reader reader = new InputStreamReader(new FileInputStream(csvFile), charset);
+        try {
+            CSVParser.RecordSplitter recordSplitter = new CSVParser.RecordSplitter(reader);
+            schema = CSVSchema.readHeader(recordSplitter);
+            if (schema == null) {
+                throw new IOException("The CSV file " + csvFile.getPath() + " is empty.");
+            }
+            offsetFile = getOffsetFile(csvFile);
+            if (!readColumnTypes(offsetFile)) {
+                schema.inferTypes(recordSplitter, sampleSize);
+                try {
+                    buildOffsetFile(offsetFile);
+                } catch (IOException ex) {
+                    // Read only directory
+                    offsetFile = File.createTempFile(csvFile.getName(), "." + OFFSET_FILE_EXTENSION);
+                    temporaryOffsetFile = true;
+                    buildOffsetFile(offsetFile);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        offsetInputStream = new FileInputStream(offsetFile);
+        offsetBuffer = new ReadBufferManager(offsetInputStream.getChannel());
+        rowCount = offsetBuffer.getLong(2 * 8);
+        csvInputStream = new FileInputStream(csvFile);
+        csvBuffer = new ReadBufferManager(csvInputStream.getChannel(), memoryMapped);
+        readers.clear();
+    }
+
+    /**
+     * @param csvFile CSV file
+     * @return The offset file of this CSV file
+     */
+    public static File getOffsetFile(File csvFile) {
+        return new File(csvFile.getPath() + "." + OFFSET_FILE_EXTENSION);
+    }
+
+    /**
+     * @return The offset file in use, next to the CSV file or in the temporary directory
+     */
+    public File getOffsetFile() {
+        return offsetFile;
+    }
+
+    /**
+     * Restore the column types stored in the offset file.
+     * @param file Offset file
+     * @return False if the offset file is missing or out of date
+     */
+    private boolean readColumnTypes(File file) throws IOException {
+        int columnCount = schema.getRecordFieldCount();
+        if (!file.exists() || file.length() < OFFSET_HEADER_SIZE) {
+            return false;
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            long length = raf.readLong();
+            long lastModified = raf.readLong();
+            long count = raf.readLong();
+            long fileSampleSize = raf.readLong();
+            if (length != csvFile.length() || lastModified != csvFile.lastModified() || fileSampleSize != sampleSize
+                    || file.length() != OFFSET_HEADER_SIZE + (count + 1) * 8 + columnCount * 4) {
+                return false;
+            }
+            raf.seek(OFFSET_HEADER_SIZE + (count + 1) * 8);
+            int[] types = new int[columnCount];
+            for (int i = 0; i < columnCount; i++) {
+                types[i] = raf.readInt();
+            }
+            return schema.setColumnTypes(types);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Scan the CSV file and write the offset of each record, the header line is skipped. The last offset is the
+     * length of the file, so that a record ends where the next one starts. The column types follow the offsets.
+     * @param file Offset file
+     */
+    private void buildOffsetFile(File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file),
+                CSVParser.BUFFER_SIZE));
+        long count = 0;
+        try {
+            // The header is written once the file is scanned
+            out.writeLong(0);
+            out.writeLong(0);
+            out.writeLong(0);
+            out.writeLong(0);
+            InputStream in = new FileInputStream(csvFile);
+            try {
+                byte[] buffer = new byte[CSVParser.BUFFER_SIZE];
+                long position = 0;
+                int state = CSVParser.FIELD_START;
+                boolean blank = true;
+                boolean header = true;
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    int i = 0;
+                    if (position == 0 && read >= 3 && (buffer[0] & 0xFF) == 0xEF && (buffer[1] & 0xFF) == 0xBB
+                            && (buffer[2] & 0xFF) == 0xBF) {
+                        // UTF-8 byte order mark
+                        i = 3;
+                    }
+                    for (; i < read; i++) {
+                        int b = buffer[i] & 0xFF;
+                        if (state != CSVParser.QUOTED && (b == '\n' || b == '\r')) {
+                            if (!blank) {
+                                header = false;
+                            }
+                            state = CSVParser.FIELD_START;
+                            blank = true;
+                            continue;
+                        }
+                        state = CSVParser.nextState(state, b);
+                        if (blank && (state != CSVParser.FIELD_START || b > ' ')) {
+                            blank = false;
+                            if (!header) {
+                                out.writeLong(position + i);
+                                count++;
+                            }
+                        }
+                    }
+                    position += read;
+                }
+                out.writeLong(position);
+            } finally {
+                in.close();
+            }
+            for (int type : schema.getColumnTypes()) {
+                out.writeInt(type);
+            }
+        } finally {
+            out.close();
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.writeLong(csvFile.length());
+            raf.writeLong(csvFile.lastModified());
+            raf.writeLong(count);
+            raf.writeLong(sampleSize);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * @return Number of fields of a row
+     */
+    public int getFieldCount() {
+        return schema.getFieldCount();
+    }
+
+    /**
+     * @param fieldId Field index
+     * @return Field name
+     */
+    public String getFieldName(int fieldId) {
+        return schema.getFieldName(fieldId);
+    }
+
+    /**
+     * @param fieldId Field index
+     * @return H2 {@link org.h2.value.Value} type of the field
+     */
+    public int getFieldType(int fieldId) {
+        return schema.getValueType(fieldId);
+    }
+
+    @Override
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        readers.clear();
+        if (csvInputStream != null) {
+            csvInputStream.close();
+        }
+        if (offsetInputStream != null) {
+            offsetInputStream.close();
+        }
+        if (temporaryOffsetFile) {
+            offsetFile.delete();
+            temporaryOffsetFile = false;
+        }
+    }
+
+    @Override
+    public Object[] getRow(long rowId) throws IOException {
+        return getRow(rowId, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     * This method can be called concurrently by several threads.
+     */
+    @Override
+    public Object[] getRow(long rowId, boolean[] fields) throws IOException {
+        RecordReader reader = readers.acquire();
+        try {
+            return reader.getRow(rowId, fields);
+        } catch (IllegalArgumentException ex) {
+            throw new IOException(ex.getMessage() + " at the row " + (rowId + 1) + ", link the file with the option "
+                    + CSVEngine.OPTION_SAMPLE_SIZE + "=" + SAMPLE_ALL_RECORDS
+                    + " to infer the column types from all the records", ex);
+        } finally {
+            readers.release(reader);
+        }
+    }
+
+    /**
+     * Buffers used by a single thread to read the records.
+     */
+    private class RecordReader {
+        private final ReadBufferManager csv;
+        private final ReadBufferManager offsets;
+        private final WKTReader wktReader = new WKTReader();
+        private final WKBReader wkbReader = new WKBReader();
+        private byte[] bytes = new byte[256];
+
+        private RecordReader(ReadBufferManager csv, ReadBufferManager offsets) {
+            this.csv = csv;
+            this.offsets = offsets;
+        }
+
+        private Object[] getRow(long rowId, boolean[] fields) throws IOException {
+            long start = offsets.getLong(OFFSET_HEADER_SIZE + rowId * 8);
+            int length = (int) (offsets.getLong(OFFSET_HEADER_SIZE + (rowId + 1) * 8) - start);
+            if (length > bytes.length) {
+                bytes = new byte[Math.max(length, bytes.length * 2)];
+            }
+            csv.get(start, bytes, 0, length);
+            char[] record = new String(bytes, 0, length, charset).toCharArray();
+            // Remove the line break and the blank lines before the next record
+            int end = record.length;
+            while (end > 0 && record[end - 1] <= ' ') {
+                end--;
+            }
+            return schema.getRow(CSVParser.parseRecord(record, 0, end, schema.getRecordFieldCount()), fields,
+                    wktReader, wkbReader, false);
+        }
+    }
+}
@@ -41,6 +41,10 @@ import org.h2gis.utilities.TableLocation;
 
 /**
  * Basic CSV importer and exporter
+ *
+ * By default all the columns are imported as VARCHAR. The typed import (see
+ * {@link #setTypedImport(boolean)}) infers the column types and the geometry
+ * column with {@link CSVReaderDriver}.
  * 
  * @author Erwan Bocher
  */
@@ -48,6 +52,76 @@ public class CSVDriverFunction implements DriverFunction{
 
     public static String DESCRIPTION = "CSV file (Comma Separated Values)";
     private static final int BATCH_MAX_SIZE = 100;
+    private boolean typedImport = false;
+    private int sampleSize = CSVReaderDriver.DEFAULT_SAMPLE_SIZE;
+    private int batchSize = CSVReaderDriver.DEFAULT_BATCH_SIZE;
+    private int importThreadCount = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * @param typedImport True to infer the column types and the geometry column on import, false to import all the
+     *                    columns as VARCHAR
+     */
+    public void setTypedImport(boolean typedImport) {
+        this.typedImport = typedImport;
+    }
+
+    /**
+     * @return True if the column types are inferred on import
+     */
+    public boolean isTypedImport() {
+        return typedImport;
+    }
+
+    /**
+     * @param sampleSize Number of records parsed on typed import in order to infer the column types
+     */
+    public void setSampleSize(int sampleSize) {
+        if(sampleSize < 1) {
+            throw new IllegalArgumentException("The sample size must be greater than 0");
+        }
+        this.sampleSize = sampleSize;
+    }
+
+    /**
+     * @return Number of records parsed on typed import in order to infer the column types
+     */
+    public int getSampleSize() {
+        return sampleSize;
+    }
+
+    /**
+     * @param batchSize Number of rows inserted with a single batch on typed import
+     */
+    public void setBatchSize(int batchSize) {
+        if(batchSize < 1) {
+            throw new IllegalArgumentException("The batch size must be greater than 0");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return Number of rows inserted with a single batch on typed import
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @param importThreadCount Number of threads that parse the records on typed import
+     */
+    public void setImportThreadCount(int importThreadCount) {
+        if(importThreadCount < 1) {
+            throw new IllegalArgumentException("The thread count must be greater than 0");
+        }
+        this.importThreadCount = importThreadCount;
+    }
+
+    /**
+     * @return Number of threads that parse the records on typed import
+     */
+    public int getImportThreadCount() {
+        return importThreadCount;
+    }
     
     @Override
     public IMPORT_DRIVER_TYPE getImportDriverType() {
@@ -96,6 +170,14 @@ public class CSVDriverFunction implements DriverFunction{
     public void importFile(Connection connection, String tableReference, File fileName, ProgressVisitor progress) throws SQLException, IOException {
         final boolean isH2 = JDBCUtilities.isH2DataBase(connection.getMetaData());
         TableLocation requestedTable = TableLocation.parse(tableReference, isH2);
+        if (typedImport) {
+            CSVReaderDriver csvReaderDriver = new CSVReaderDriver(connection, requestedTable.toString(isH2), fileName);
+            csvReaderDriver.setSampleSize(sampleSize);
+            csvReaderDriver.setBatchSize(batchSize);
+            csvReaderDriver.setThreadCount(importThreadCount);
+            csvReaderDriver.read(progress);
+            return;
+        }
         String table = requestedTable.getTable();
         ResultSet reader = new Csv().read(fileName.getPath(), null, null);
         ResultSetMetaData metadata = reader.getMetaData();
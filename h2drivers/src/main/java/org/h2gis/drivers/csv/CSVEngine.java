@@ -0,0 +1,66 @@
+/*
+ * h2spatial is a library that brings spatial support to the H2 Java database.
+ *
+ * h2spatial is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2014 IRSTV (FR CNRS 2488)
+ *
+ * h2patial is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * h2spatial is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * h2spatial. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+
+package org.h2gis.drivers.csv;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import org.h2.command.ddl.CreateTableData;
+import org.h2.table.Column;
+import org.h2gis.drivers.file_table.FileEngine;
+
+/**
+ * CSV Table factory, the CSV file is linked without being copied into the database.
+ * The option {@link #OPTION_SAMPLE_SIZE} sets the number of records used to infer the column types, all the
+ * records by default.
+ */
+public class CSVEngine extends FileEngine<CSVDriver> {
+    /** Table engine parameter, number of records used to infer the column types, 0 for all the records */
+    public static final String OPTION_SAMPLE_SIZE = "SAMPLE_SIZE";
+
+    @Override
+    protected CSVDriver createDriver(File filePath, List<String> args) throws IOException {
+        CSVDriver driver = new CSVDriver();
+        driver.setMemoryMapped(getBooleanOption(args, OPTION_MEMORY_MAPPED, false));
+        String sampleSize = getOption(args, OPTION_SAMPLE_SIZE);
+        if (sampleSize != null) {
+            try {
+                driver.setSampleSize(Integer.parseInt(sampleSize));
+            } catch (NumberFormatException ex) {
+                throw new IOException("The option " + OPTION_SAMPLE_SIZE + " must be an integer: " + sampleSize, ex);
+            }
+        }
+        driver.initDriverFromFile(filePath, getFileEncoding(args));
+        return driver;
+    }
+
+    @Override
+    protected void feedCreateTableData(CSVDriver driver, CreateTableData data) throws IOException {
+        for (int i = 0; i < driver.getFieldCount(); i++) {
+            data.columns.add(new Column(driver.getFieldName(i), driver.getFieldType(i)));
+        }
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * h2spatial is a library that brings spatial support to the H2 Java database.
+ *
+ * h2spatial is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2014 IRSTV (FR CNRS 2488)
+ *
+ * h2patial is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * h2spatial is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * h2spatial. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+
+package org.h2gis.drivers.csv;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Split a CSV file into records and a record into values, with the rules of
+ * {@link org.h2.tools.Csv}: comma separated values, double quoted values with
+ * doubled quotes as escape and an empty unquoted value is null.
+ */
+final class CSVParser {
+    static final int BUFFER_SIZE = 64 * 1024;
+    static final char FIELD_SEPARATOR = ',';
+    static final char FIELD_DELIMITER = '"';
+    // Record splitter states
+    static final int FIELD_START = 0;
+    static final int UNQUOTED = 1;
+    static final int QUOTED = 2;
+    static final int QUOTE_SEEN = 3;
+
+    private CSVParser() {
+    }
+
+    /**
+     * Only the quoted values are tracked, a line break ends the record if the
+     * state is not {@link #QUOTED}.
+     *
+     * @param state Current state
+     * @param ch Next character, not a line break that ends the record
+     * @return The state after the character
+     */
+    static int nextState(int state, int ch) {
+        if (state == QUOTED) {
+            return ch == FIELD_DELIMITER ? QUOTE_SEEN : QUOTED;
+        } else if (ch == FIELD_SEPARATOR) {
+            return FIELD_START;
+        } else if (state == QUOTE_SEEN) {
+            return ch == FIELD_DELIMITER ? QUOTED : UNQUOTED;
+        } else if (state == FIELD_START) {
+            if (ch == FIELD_DELIMITER) {
+                return QUOTED;
+            } else if (ch > ' ') {
+                return UNQUOTED;
+            }
+            return FIELD_START;
+        }
+        return state;
+    }
+
+    /**
+     * Split a record into values.
+     *
+     * @param data Characters of the record
+     * @param start First character of the record
+     * @param end End of the record (exclusive)
+     * @param fieldCount Number of values, missing values are null and extra
+     * values are ignored. -1 to return all the values.
+     * @return The values, null for an empty unquoted value
+     */
+    static String[] parseRecord(char[] data, int start, int end, int fieldCount) {
+        List<String> values = new ArrayList<String>(fieldCount > 0 ? fieldCount : 16);
+        int i = start;
+        while (i <= end && (fieldCount < 0 || values.size() < fieldCount)) {
+            // Skip the leading spaces
+            while (i < end && data[i] <= ' ') {
+                i++;
+            }
+            if (i < end && data[i] == FIELD_DELIMITER) {
+                StringBuilder value = new StringBuilder();
+                i++;
+                while (i < end) {
+                    char ch = data[i++];
+                    if (ch == FIELD_DELIMITER) {
+                        if (i < end && data[i] == FIELD_DELIMITER) {
+                            i++;
+                        } else {
+                            break;
+                        }
+                    }
+                    value.append(ch);
+                }
+                // Ignore the characters after the closing delimiter
+                while (i < end && data[i] != FIELD_SEPARATOR) {
+                    i++;
+                }
+                values.add(value.toString());
+            } else {
+                int valueStart = i;
+                while (i < end && data[i] != FIELD_SEPARATOR) {
+                    i++;
+                }
+                String value = new String(data, valueStart, i - valueStart).trim();
+                values.add(value.isEmpty() ? null : value);
+            }
+            // Skip the separator
+            i++;
+        }
+        if (fieldCount < 0) {
+            return values.toArray(new String[values.size()]);
+        }
+        String[] record = new String[fieldCount];
+        for (int v = 0; v < values.size(); v++) {
+            record[v] = values.get(v);
+        }
+        return record;
+    }
+
+    /**
+     * Characters of consecutive records.
+     */
+    static final class RecordChunk {
+        final char[] data;
+        final int[] recordStart;
+        final int[] recordEnd;
+        final int recordCount;
+
+        private RecordChunk(char[] data, int[] recordStart, int[] recordEnd, int recordCount) {
+            this.data = data;
+            this.recordStart = recordStart;
+            this.recordEnd = recordEnd;
+            this.recordCount = recordCount;
+        }
+
+        /**
+         * @param record Record index in the chunk
+         * @param fieldCount Number of values, -1 to return all the values
+         * @return The values of the record
+         */
+        String[] getValues(int record, int fieldCount) {
+            return parseRecord(data, recordStart[record], recordEnd[record], fieldCount);
+        }
+    }
+
+    /**
+     * Split the file at the record boundaries without parsing the values. A
+     * line break inside a quoted value does not end the record. Blank lines
+     * are skipped.
+     */
+    static final class RecordSplitter {
+        private final Reader reader;
+        private final char[] buffer = new char[BUFFER_SIZE];
+        private int position = 0;
+        private int limit = 0;
+        private boolean endOfFile = false;
+        private boolean firstChar = true;
+        private int chunkCapacity = BUFFER_SIZE;
+
+        RecordSplitter(Reader reader) {
+            this.reader = reader;
+        }
+
+        /**
+         * @param maxRecords Maximum number of records in the chunk
+         * @return The next records or null at the end of the file
+         */
+        RecordChunk next(int maxRecords) throws IOException {
+            if (endOfFile) {
+                return null;
+            }
+            char[] data = new char[chunkCapacity];
+            int length = 0;
+            int[] recordStart = new int[maxRecords];
+            int[] recordEnd = new int[maxRecords];
+            int recordCount = 0;
+            int state = FIELD_START;
+            boolean blank = true;
+            while (recordCount < maxRecords) {
+                if (position == limit) {
+                    limit = reader.read(buffer);
+                    position = 0;
+                    if (limit <= 0) {
+                        limit = 0;
+                        endOfFile = true;
+                        if (!blank) {
+                            recordEnd[recordCount++] = length;
+                        }
+                        break;
+                    }
+                    if (firstChar) {
+                        firstChar = false;
+                        if (buffer[0] == '\uFEFF') {
+                            // Byte order mark
+                            position++;
+                            continue;
+                        }
+                    }
+                }
+                char ch = buffer[position++];
+                if (state != QUOTED && (ch == '\n' || ch == '\r')) {
+                    if (!blank) {
+                        recordEnd[recordCount++] = length;
+                    }
+                    state = FIELD_START;
+                    blank = true;
+                    continue;
+                }
+                state = nextState(state, ch);
+                if (blank) {
+                    if (state == FIELD_START && ch <= ' ') {
+                        continue;
+                    }
+                    blank = false;
+                    recordStart[recordCount] = length;
+                }
+                if (length == data.length) {
+                    data = Arrays.copyOf(data, data.length * 2);
+                }
+                data[length++] = ch;
+            }
+            if (recordCount == 0) {
+                return null;
+            }
+            chunkCapacity = Math.max(chunkCapacity, length);
+            return new RecordChunk(data, recordStart, recordEnd, recordCount);
+        }
+    }
+}
@@ -0,0 +1,367 @@
+/*
+ * h2spatial is a library that brings spatial support to the H2 Java database.
+ *
+ * h2spatial is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2014 IRSTV (FR CNRS 2488)
+ *
+ * h2patial is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * h2spatial is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * h2spatial. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+
+package org.h2gis.drivers.csv;
+
+import com.vividsolutions.jts.io.WKBReader;
+import com.vividsolutions.jts.io.WKTReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import org.h2.engine.SysProperties;
+import org.h2gis.h2spatialapi.ProgressVisitor;
+import org.h2gis.utilities.JDBCUtilities;
+import org.h2gis.utilities.TableLocation;
+
+/**
+ * Driver to import a CSV file into a table with typed columns.
+ *
+ * The file is read like {@link org.h2.tools.Csv}: comma separated values,
+ * double quoted values with doubled quotes as escape, a header line and an
+ * empty unquoted value is null.
+ *
+ * The type of the columns is inferred from the first records of the file, see
+ * {@link #setSampleSize(int)}. A column is imported as INT, BIGINT, DOUBLE,
+ * DATE (yyyy-mm-dd) or VARCHAR. A column whose values are WKT or hexadecimal
+ * WKB geometries is imported as a GEOMETRY column. Without such a column, a
+ * pair of numeric longitude/latitude (or x/y) columns adds a point column
+ * named THE_GEOM. The numbers with leading zeros are imported as text. When a
+ * following record does not match the inferred type, the column is changed to
+ * VARCHAR and keeps the original text of the values.
+ *
+ * If the import fails or is canceled, the table is dropped.
+ *
+ * The records can be parsed by several threads, in that case the file is
+ * split at the record boundaries into chunks of {@link #setBatchSize(int)}
+ * records. The rows are inserted in the file order.
+ */
+public class CSVReaderDriver {
+    /** Default number of records parsed to infer the column types */
+    public static final int DEFAULT_SAMPLE_SIZE = 1000;
+    /** Default number of rows inserted with a single batch */
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+    private final Connection connection;
+    private final String tableName;
+    private final File fileName;
+    private int sampleSize = DEFAULT_SAMPLE_SIZE;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private int threadCount = 1;
+    private CSVSchema schema;
+
+    /**
+     * Driver to import a CSV file into a table.
+     *
+     * @param connection
+     * @param tableName
+     * @param fileName
+     */
+    public CSVReaderDriver(Connection connection, String tableName, File fileName) {
+        this.connection = connection;
+        this.tableName = tableName;
+        this.fileName = fileName;
+    }
+
+    /**
+     * @param sampleSize Number of records parsed in order to infer the
+     * column types.
+     */
+    public void setSampleSize(int sampleSize) {
+        if (sampleSize < 1) {
+            throw new IllegalArgumentException("The sample size must be greater than 0");
+        }
+        this.sampleSize = sampleSize;
+    }
+
+    /**
+     * @return Number of records parsed in order to infer the column types
+     */
+    public int getSampleSize() {
+        return sampleSize;
+    }
+
+    /**
+     * @param batchSize Number of rows inserted with a single batch, this is
+     * also the number of records parsed by a single task.
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("The batch size must be greater than 0");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return Number of rows inserted with a single batch
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @param threadCount Number of threads that parse the records, 1 to parse
+     * and insert the records in the calling thread.
+     */
+    public void setThreadCount(int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("The thread count must be greater than 0");
+        }
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * @return Number of threads that parse the records
+     */
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * Read the CSV file and write the records into a new table.
+     *
+     * @param progress
+     */
+    public void read(ProgressVisitor progress) throws SQLException, IOException {
+        Reader reader = new InputStreamReader(new FileInputStream(fileName), SysProperties.FILE_ENCODING);
+        try {
+            schema = CSVSchema.read(new CSVParser.RecordSplitter(reader), sampleSize);
+        } finally {
+            reader.close();
+        }
+        if (schema == null) {
+            throw new SQLException("The CSV file " + fileName.getPath() + " is empty.");
+        }
+        String insert = createTable();
+        boolean success = false;
+        try {
+            parseData(insert, progress);
+            success = true;
+        } finally {
+            if (!success) {
+                // Do not leave a partial table
+                Statement stmt = connection.createStatement();
+                try {
+                    stmt.execute("DROP TABLE IF EXISTS " + tableName);
+                } finally {
+                    stmt.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Change the type of a column to VARCHAR, the values already inserted are
+     * converted to text.
+     *
+     * @param field Field index
+     */
+    private void widenColumn(int field) throws SQLException {
+        String column = TableLocation.quoteIdentifier(schema.getFieldName(field));
+        Statement stmt = connection.createStatement();
+        try {
+            if (JDBCUtilities.isH2DataBase(connection.getMetaData())) {
+                stmt.execute("ALTER TABLE " + tableName + " ALTER COLUMN " + column + " VARCHAR");
+            } else {
+                stmt.execute("ALTER TABLE " + tableName + " ALTER COLUMN " + column + " TYPE VARCHAR");
+            }
+        } finally {
+            stmt.close();
+        }
+    }
+
+    /**
+     * Create the table.
+     *
+     * @return The insert query
+     */
+    private String createTable() throws SQLException {
+        StringBuilder createTable = new StringBuilder("CREATE TABLE ");
+        createTable.append(tableName).append(" (");
+        StringBuilder insert = new StringBuilder("INSERT INTO ").append(tableName).append(" VALUES (");
+        for (int i = 0; i < schema.getFieldCount(); i++) {
+            if (i > 0) {
+                createTable.append(",");
+                insert.append(",");
+            }
+            createTable.append(TableLocation.quoteIdentifier(schema.getFieldName(i))).append(" ")
+                    .append(schema.getSQLType(i));
+            insert.append("?");
+        }
+        createTable.append(")");
+        insert.append(")");
+        Statement stmt = connection.createStatement();
+        try {
+            stmt.execute(createTable.toString());
+        } finally {
+            stmt.close();
+        }
+        return insert.toString();
+    }
+
+    /**
+     * Parses the records with {@link #threadCount} threads. The calling
+     * thread splits the file into chunks of {@link #batchSize} records and
+     * inserts the parsed chunks in the file order. The number of pending
+     * chunks is bounded in order to limit the memory usage when the database
+     * is slower than the parsing.
+     *
+     * @param insert Insert query
+     * @param progress
+     */
+    private void parseData(String insert, ProgressVisitor progress) throws IOException, SQLException {
+        final int maxPendingBatch = threadCount * 2;
+        boolean[] widened = new boolean[schema.getFieldCount()];
+        PreparedStatement preparedStatement = connection.prepareStatement(insert);
+        ExecutorService executorService = threadCount > 1 ? Executors.newFixedThreadPool(threadCount) : null;
+        FileInputStream fis = new FileInputStream(fileName);
+        try {
+            long fileSize = fis.getChannel().size();
+            ProgressVisitor copyProgress = progress.subProcess(100);
+            int lastProgress = 0;
+            Reader reader = new InputStreamReader(fis, SysProperties.FILE_ENCODING);
+            CSVParser.RecordSplitter recordSplitter = new CSVParser.RecordSplitter(reader);
+            // Skip the header
+            recordSplitter.next(1);
+            Queue<Future<Object[][]>> pendingBatch = new ArrayDeque<Future<Object[][]>>(maxPendingBatch);
+            boolean endOfFile = false;
+            while (!endOfFile || !pendingBatch.isEmpty()) {
+                while (!endOfFile && pendingBatch.size() < maxPendingBatch) {
+                    final CSVParser.RecordChunk chunk = recordSplitter.next(batchSize);
+                    if (chunk == null) {
+                        endOfFile = true;
+                    } else {
+                        Callable<Object[][]> task = new Callable<Object[][]>() {
+                            @Override
+                            public Object[][] call() {
+                                return parseRecords(chunk);
+                            }
+                        };
+                        if (executorService != null) {
+                            pendingBatch.add(executorService.submit(task));
+                        } else {
+                            FutureTask<Object[][]> futureTask = new FutureTask<Object[][]>(task);
+                            futureTask.run();
+                            pendingBatch.add(futureTask);
+                        }
+                    }
+                }
+                if (!pendingBatch.isEmpty()) {
+                    Object[][] rows = getRows(pendingBatch.remove());
+                    // The columns widened by the workers are altered before the insertion of their values
+                    boolean altered = false;
+                    for (int i = 0; i < widened.length; i++) {
+                        if (!widened[i] && schema.isWidened(i)) {
+                            widenColumn(i);
+                            widened[i] = true;
+                            altered = true;
+                        }
+                    }
+                    if (altered) {
+                        preparedStatement.close();
+                        preparedStatement = connection.prepareStatement(insert);
+                    }
+                    for (Object[] values : rows) {
+                        for (int i = 0; i < values.length; i++) {
+                            preparedStatement.setObject(i + 1, values[i]);
+                        }
+                        preparedStatement.addBatch();
+                    }
+                    preparedStatement.executeBatch();
+                    preparedStatement.clearBatch();
+                    if (progress.isCanceled()) {
+                        throw new SQLException("Canceled by user");
+                    }
+                    if (fileSize > 0) {
+                        int newProgress = (int) (Math.min(fis.getChannel().position(), fileSize) * 100 / fileSize);
+                        for (; lastProgress < newProgress; lastProgress++) {
+                            copyProgress.endStep();
+                        }
+                    }
+                }
+            }
+            for (; lastProgress < 100; lastProgress++) {
+                copyProgress.endStep();
+            }
+        } finally {
+            if (executorService != null) {
+                executorService.shutdownNow();
+            }
+            preparedStatement.close();
+            fis.close();
+        }
+    }
+
+    /**
+     * Parses and converts the records of a chunk, this method is called by
+     * the worker threads.
+     *
+     * @param chunk
+     * @return The rows
+     */
+    private Object[][] parseRecords(CSVParser.RecordChunk chunk) {
+        WKTReader wktReader = new WKTReader();
+        WKBReader wkbReader = new WKBReader();
+        Object[][] rows = new Object[chunk.recordCount][];
+        for (int i = 0; i < chunk.recordCount; i++) {
+            rows[i] = schema.getRow(chunk.getValues(i, schema.getRecordFieldCount()), null, wktReader, wkbReader, true);
+        }
+        return rows;
+    }
+
+    /**
+     * Wait for the parsing of a chunk.
+     *
+     * @param rows
+     * @return The rows
+     */
+    private static Object[][] getRows(Future<Object[][]> rows) throws IOException, SQLException {
+        try {
+            return rows.get();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof SQLException) {
+                throw (SQLException) ex.getCause();
+            } else if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            } else {
+                throw new IOException(ex.getCause());
+            }
+        } catch (InterruptedException ex) {
+            throw new IOException(ex);
+        }
+    }
+}
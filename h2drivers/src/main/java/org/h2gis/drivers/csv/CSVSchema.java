@@ -0,0 +1,449 @@
+/*
+ * h2spatial is a library that brings spatial support to the H2 Java database.
+ *
+ * h2spatial is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2014 IRSTV (FR CNRS 2488)
+ *
+ * h2patial is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * h2spatial is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * h2spatial. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+
+package org.h2gis.drivers.csv;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.io.ParseException;
+import com.vividsolutions.jts.io.WKBReader;
+import com.vividsolutions.jts.io.WKTReader;
+import java.io.IOException;
+import java.sql.Date;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+import org.h2.value.Value;
+
+/**
+ * Columns of a CSV file, the types are inferred from a sample of records.
+ *
+ * A column is typed as INT, BIGINT, DOUBLE, DATE (yyyy-mm-dd) or VARCHAR. A
+ * column whose values are WKT or hexadecimal WKB geometries is a GEOMETRY
+ * column. Without such a column, a pair of numeric longitude/latitude (or x/y)
+ * columns adds a point field named THE_GEOM after the fields of the file.
+ * The numbers with leading zeros (ex: zip codes) are kept as text.
+ */
+final class CSVSchema {
+    static final String GEOMETRY_COLUMN = "THE_GEOM";
+    private static final Pattern DOUBLE_PATTERN = Pattern.compile("[+-]?(\\d+\\.?\\d*|\\.\\d+)([eE][+-]?\\d+)?");
+    private static final Pattern DATE_PATTERN = Pattern.compile("\\d{4}-\\d{2}-\\d{2}");
+    private static final Pattern WKT_PATTERN = Pattern.compile("(?i)(POINT|LINESTRING|POLYGON|MULTIPOINT|"
+            + "MULTILINESTRING|MULTIPOLYGON|GEOMETRYCOLLECTION)\\s*(Z|M|ZM)?\\s*(\\(|EMPTY).*");
+    private static final Pattern WKB_PATTERN = Pattern.compile("0[01]([0-9a-fA-F]{2}){8,}");
+    private static final List<String> LONGITUDE_NAMES = Arrays.asList("LON", "LNG", "LONG", "LONGITUDE", "X");
+    private static final List<String> LATITUDE_NAMES = Arrays.asList("LAT", "LATITUDE", "Y");
+    private static final GeometryFactory GF = new GeometryFactory();
+    // Number of records parsed at once when all the records are sampled
+    private static final int SAMPLE_CHUNK_SIZE = 1000;
+    // Column types
+    private static final int VARCHAR = 0;
+    private static final int INT = 1;
+    private static final int BIGINT = 2;
+    private static final int DOUBLE = 3;
+    private static final int DATE = 4;
+    private static final int WKT = 5;
+    private static final int WKB = 6;
+    private static final String[] SQL_TYPES = {"VARCHAR", "INT", "BIGINT", "DOUBLE", "DATE", "GEOMETRY", "GEOMETRY"};
+    private static final int[] VALUE_TYPES = {Value.STRING, Value.INT, Value.LONG, Value.DOUBLE, Value.DATE,
+            Value.GEOMETRY, Value.GEOMETRY};
+    private final String[] columnNames;
+    private final int[] columnTypes;
+    private int longitudeIndex = -1;
+    private int latitudeIndex = -1;
+    private int pointSRID = 0;
+    private final boolean[] widened;
+
+    private CSVSchema(String[] columnNames) {
+        this.columnNames = columnNames;
+        this.columnTypes = new int[columnNames.length];
+        this.widened = new boolean[columnNames.length];
+    }
+
+    /**
+     * Read the header and infer the column types from the next records.
+     *
+     * @param recordSplitter Splitter at the beginning of the file
+     * @param sampleSize Number of records used to infer the column types, 0 for all the records
+     * @return The schema, null if the file is empty
+     */
+    static CSVSchema read(CSVParser.RecordSplitter recordSplitter, int sampleSize) throws IOException {
+        CSVSchema schema = readHeader(recordSplitter);
+        if (schema != null) {
+            schema.inferTypes(recordSplitter, sampleSize);
+        }
+        return schema;
+    }
+
+    /**
+     * Read the header, the column types are set by
+     * {@link #inferTypes(CSVParser.RecordSplitter, int)} or {@link #setColumnTypes(int[])}.
+     *
+     * @param recordSplitter Splitter at the beginning of the file
+     * @return The schema, null if the file is empty
+     */
+    static CSVSchema readHeader(CSVParser.RecordSplitter recordSplitter) throws IOException {
+        CSVParser.RecordChunk header = recordSplitter.next(1);
+        if (header == null) {
+            return null;
+        }
+        String[] names = header.getValues(0, -1);
+        for (int i = 0; i < names.length; i++) {
+            String name = names[i];
+            if (name == null || name.isEmpty()) {
+                names[i] = "COLUMN" + i;
+            } else if (isSimpleColumnName(name)) {
+                names[i] = name.toUpperCase();
+            }
+        }
+        return new CSVSchema(names);
+    }
+
+    /**
+     * Infer the column types from the next records.
+     *
+     * @param recordSplitter Splitter after the header
+     * @param sampleSize Number of records used to infer the column types, 0 for all the records
+     */
+    void inferTypes(CSVParser.RecordSplitter recordSplitter, int sampleSize) throws IOException {
+        boolean[] candidates = new boolean[SQL_TYPES.length * columnNames.length];
+        Arrays.fill(candidates, true);
+        boolean[] hasValue = new boolean[columnNames.length];
+        int remaining = sampleSize;
+        while (sampleSize == 0 || remaining > 0) {
+            CSVParser.RecordChunk sample = recordSplitter.next(sampleSize == 0 ? SAMPLE_CHUNK_SIZE : remaining);
+            if (sample == null) {
+                break;
+            }
+            remaining -= sample.recordCount;
+            for (int i = 0; i < sample.recordCount; i++) {
+                String[] values = sample.getValues(i, columnNames.length);
+                for (int column = 0; column < values.length; column++) {
+                    if (values[column] != null) {
+                        hasValue[column] = true;
+                        for (int type = INT; type < SQL_TYPES.length; type++) {
+                            int candidate = column * SQL_TYPES.length + type;
+                            if (candidates[candidate] && !isType(values[column], type)) {
+                                candidates[candidate] = false;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        for (int column = 0; column < columnNames.length; column++) {
+            columnTypes[column] = VARCHAR;
+            if (hasValue[column]) {
+                // The geometry types first, a hexadecimal WKB may be a valid number
+                for (int type : new int[]{WKT, WKB, INT, BIGINT, DOUBLE, DATE}) {
+                    if (candidates[column * SQL_TYPES.length + type]) {
+                        columnTypes[column] = type;
+                        break;
+                    }
+                }
+            }
+        }
+        initGeometry();
+    }
+
+    /**
+     * @return The column types, to be restored by {@link #setColumnTypes(int[])}
+     */
+    int[] getColumnTypes() {
+        return columnTypes.clone();
+    }
+
+    /**
+     * Restore the column types returned by {@link #getColumnTypes()}.
+     *
+     * @param types Column types
+     * @return False if the types do not match the columns
+     */
+    boolean setColumnTypes(int[] types) {
+        if (types.length != columnNames.length) {
+            return false;
+        }
+        for (int type : types) {
+            if (type < 0 || type >= SQL_TYPES.length) {
+                return false;
+            }
+        }
+        System.arraycopy(types, 0, columnTypes, 0, types.length);
+        initGeometry();
+        return true;
+    }
+
+    private void initGeometry() {
+        longitudeIndex = -1;
+        latitudeIndex = -1;
+        pointSRID = 0;
+        for (int type : columnTypes) {
+            if (type == WKT || type == WKB) {
+                return;
+            }
+        }
+        findCoordinateColumns();
+    }
+
+    /**
+     * Look for a pair of numeric longitude and latitude columns.
+     */
+    private void findCoordinateColumns() {
+        for (int column = 0; column < columnNames.length; column++) {
+            if (GEOMETRY_COLUMN.equalsIgnoreCase(columnNames[column])) {
+                return;
+            }
+        }
+        int longitude = -1;
+        int latitude = -1;
+        for (int column = 0; column < columnNames.length; column++) {
+            int type = columnTypes[column];
+            if (type == INT || type == BIGINT || type == DOUBLE) {
+                String name = columnNames[column].toUpperCase();
+                if (longitude < 0 && LONGITUDE_NAMES.contains(name)) {
+                    longitude = column;
+                } else if (latitude < 0 && LATITUDE_NAMES.contains(name)) {
+                    latitude = column;
+                }
+            }
+        }
+        if (longitude >= 0 && latitude >= 0) {
+            longitudeIndex = longitude;
+            latitudeIndex = latitude;
+            if (!columnNames[longitude].equalsIgnoreCase("X")) {
+                // Geographic coordinates
+                pointSRID = 4326;
+            }
+        }
+    }
+
+    /**
+     * @param value Not null value
+     * @param type Column type
+     * @return True if the value can be converted to the type
+     */
+    private static boolean isType(String value, int type) {
+        switch (type) {
+            case DOUBLE:
+                return DOUBLE_PATTERN.matcher(value).matches() && !hasLeadingZero(value);
+            case DATE:
+                if (!DATE_PATTERN.matcher(value).matches()) {
+                    return false;
+                }
+                break;
+            case WKT:
+                if (!WKT_PATTERN.matcher(value).matches()) {
+                    return false;
+                }
+                break;
+            case WKB:
+                if (!WKB_PATTERN.matcher(value).matches()) {
+                    return false;
+                }
+                break;
+            default:
+                break;
+        }
+        try {
+            convert(value, type, new WKTReader(), new WKBReader());
+            return true;
+        } catch (IllegalArgumentException ex) {
+            return false;
+        } catch (ParseException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Same rule as {@link org.h2.tools.Csv}, a simple column name is upper
+     * cased.
+     */
+    private static boolean isSimpleColumnName(String columnName) {
+        for (int i = 0; i < columnName.length(); i++) {
+            char ch = columnName.charAt(i);
+            if (i == 0) {
+                if (ch != '_' && !Character.isLetter(ch)) {
+                    return false;
+                }
+            } else if (ch != '_' && !Character.isLetterOrDigit(ch)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return Number of values of a record
+     */
+    int getRecordFieldCount() {
+        return columnNames.length;
+    }
+
+    /**
+     * @return Number of fields of a row, the values of a record and the
+     * point built from the coordinate columns if any
+     */
+    int getFieldCount() {
+        return columnNames.length + (longitudeIndex >= 0 ? 1 : 0);
+    }
+
+    /**
+     * @param field Field index
+     * @return Field name
+     */
+    String getFieldName(int field) {
+        return field < columnNames.length ? columnNames[field] : GEOMETRY_COLUMN;
+    }
+
+    /**
+     * @param field Field index
+     * @return SQL type of the field
+     */
+    String getSQLType(int field) {
+        return field < columnNames.length ? SQL_TYPES[columnTypes[field]] : "GEOMETRY";
+    }
+
+    /**
+     * @param field Field index
+     * @return H2 {@link Value} type of the field
+     */
+    int getValueType(int field) {
+        return field < columnNames.length ? VALUE_TYPES[columnTypes[field]] : Value.GEOMETRY;
+    }
+
+    /**
+     * Convert the values of a record.
+     *
+     * @param values Record values, see {@link #getRecordFieldCount()}
+     * @param fields Fields to convert, the other fields are null. Null to
+     * convert all the fields.
+     * @param wktReader Reader used by the calling thread
+     * @param wkbReader Reader used by the calling thread
+     * @param widen True to change the type of a column to VARCHAR when a value
+     * does not match the type inferred from the sample, see {@link #isWidened(int)}
+     * @return The row, see {@link #getFieldCount()}
+     * @throws IllegalArgumentException If a value does not match the type
+     * inferred from the sample and widen is false
+     */
+    Object[] getRow(String[] values, boolean[] fields, WKTReader wktReader, WKBReader wkbReader, boolean widen) {
+        Object[] row = new Object[getFieldCount()];
+        for (int column = 0; column < columnNames.length; column++) {
+            if (values[column] != null && (fields == null || fields[column])) {
+                try {
+                    row[column] = convert(values[column], columnTypes[column], wktReader, wkbReader);
+                } catch (IllegalArgumentException ex) {
+                    row[column] = convertError(values[column], column, widen, ex);
+                } catch (ParseException ex) {
+                    row[column] = convertError(values[column], column, widen, ex);
+                }
+            }
+        }
+        if (longitudeIndex >= 0 && (fields == null || fields[columnNames.length])) {
+            // The coordinates are read from the text, the coordinate columns may have been widened
+            Double x = parseCoordinate(values[longitudeIndex]);
+            Double y = parseCoordinate(values[latitudeIndex]);
+            if (x != null && y != null) {
+                Geometry geometry = GF.createPoint(new Coordinate(x, y));
+                geometry.setSRID(pointSRID);
+                row[columnNames.length] = geometry;
+            }
+        }
+        return row;
+    }
+
+    private static Double parseCoordinate(String value) {
+        return value != null && DOUBLE_PATTERN.matcher(value).matches() ? Double.valueOf(value) : null;
+    }
+
+    /**
+     * @return The value to store if the column is widened
+     * @throws IllegalArgumentException If the column cannot be widened
+     */
+    private String convertError(String value, int column, boolean widen, Exception ex) {
+        if (!widen) {
+            throw new IllegalArgumentException("Cannot convert the value '" + value + "' of the column "
+                    + columnNames[column] + " to " + SQL_TYPES[columnTypes[column]], ex);
+        }
+        synchronized (this) {
+            columnTypes[column] = VARCHAR;
+            widened[column] = true;
+        }
+        return value;
+    }
+
+    /**
+     * @param field Field index
+     * @return True if the type of this field has been changed to VARCHAR by
+     * {@link #getRow(String[], boolean[], WKTReader, WKBReader, boolean)}
+     */
+    synchronized boolean isWidened(int field) {
+        return field < columnNames.length && widened[field];
+    }
+
+    /**
+     * The leading zeros of the identifiers and of the zip codes would be lost by a number
+     */
+    private static boolean hasLeadingZero(String value) {
+        int start = value.startsWith("-") || value.startsWith("+") ? 1 : 0;
+        return value.length() > start + 1 && value.charAt(start) == '0' && Character.isDigit(value.charAt(start + 1));
+    }
+
+    private static void checkLeadingZero(String value) {
+        if (hasLeadingZero(value)) {
+            throw new NumberFormatException("Leading zero in " + value);
+        }
+    }
+
+    private static Object convert(String value, int type, WKTReader wktReader, WKBReader wkbReader) throws ParseException {
+        switch (type) {
+            case INT:
+                checkLeadingZero(value);
+                return Integer.valueOf(value);
+            case BIGINT:
+                checkLeadingZero(value);
+                return Long.valueOf(value);
+            case DOUBLE:
+                checkLeadingZero(value);
+                if (!DOUBLE_PATTERN.matcher(value).matches()) {
+                    throw new NumberFormatException();
+                }
+                return Double.valueOf(value);
+            case DATE:
+                return Date.valueOf(value);
+            case WKT:
+                return wktReader.read(value);
+            case WKB:
+                try {
+                    return wkbReader.read(WKBReader.hexToBytes(value));
+                } catch (RuntimeException ex) {
+                    // Truncated or malformed WKB
+                    throw new ParseException(ex.getMessage());
+                }
+            default:
+                return value;
+        }
+    }
+}
@@ -46,7 +46,8 @@ public class DBFEngine extends FileEngine<DBFDriver> {
     @Override
     protected DBFDriver createDriver(File filePath, List<String> args) throws IOException {
         DBFDriver driver = new DBFDriver();
-        driver.initDriverFromFile(filePath,  args.size() > 1 ? args.get(1) : null);
+        driver.setMemoryMapped(getBooleanOption(args, OPTION_MEMORY_MAPPED, false));
+        driver.initDriverFromFile(filePath, getFileEncoding(args));
         return driver;
     }
 
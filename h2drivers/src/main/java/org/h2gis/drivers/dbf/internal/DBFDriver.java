@@ -25,7 +25,10 @@
 
 package org.h2gis.drivers.dbf.internal;
 
-import org.h2gis.drivers.FileDriver;
+import org.h2gis.drivers.PartialRowFileDriver;
+import org.h2gis.drivers.TypedFileDriver;
+import org.h2gis.drivers.TypedRow;
+import org.h2gis.drivers.utility.ReaderPool;
 
 import java.io.File;
 import java.io.FileInputStream;
@@ -36,10 +39,34 @@ import java.io.IOException;
  * Manage DBFReader and DBFWriter
  * @author Nicolas Fortin
  */
-public class DBFDriver implements FileDriver {
+public class DBFDriver implements TypedFileDriver, PartialRowFileDriver {
     private File dbfFile;
     private DbaseFileReader dbaseFileReader;
     private DbaseFileWriter dbaseFileWriter;
+    private boolean memoryMapped = false;
+    // Readers used by getRow, shared by concurrent threads
+    private final ReaderPool<DbaseFileReader> readers = new ReaderPool<DbaseFileReader>() {
+        @Override
+        protected DbaseFileReader create() throws IOException {
+            checkReader();
+            return dbaseFileReader.duplicate();
+        }
+    };
+
+    /**
+     * @param memoryMapped If true, the file opened by {@link #initDriverFromFile(java.io.File, String)} is read
+     *                     through memory mapped segments.
+     */
+    public void setMemoryMapped(boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+    }
+
+    /**
+     * @return True if the file is read through memory mapped segments.
+     */
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
 
     /**
      * Init file header for DBF File
@@ -60,7 +87,9 @@ public class DBFDriver implements FileDriver {
         // Read columns from files metadata
         this.dbfFile = dbfFile;
         FileInputStream fis = new FileInputStream(dbfFile);
-        dbaseFileReader = new DbaseFileReader(fis.getChannel(), forceEncoding);
+        dbaseFileReader = new DbaseFileReader(fis.getChannel(), forceEncoding, memoryMapped);
+        readers.clear();
+        readers.release(dbaseFileReader);
     }
 
     public void initDriver(File dbfFile, DbaseFileHeader dbaseHeader) throws IOException {
@@ -86,6 +115,27 @@ public class DBFDriver implements FileDriver {
         }
     }
 
+    /**
+     * @return A new record encoder, to encode rows in another thread before writing them with
+     * {@link #insertEncodedRows(byte[], int, int)}
+     */
+    public DbaseFileWriter.RecordEncoder newRecordEncoder() {
+        checkWriter();
+        return dbaseFileWriter.newRecordEncoder();
+    }
+
+    /**
+     * Write rows encoded by {@link #newRecordEncoder()}
+     * @param records Encoded records, one after another
+     * @param offset Offset of the first record in the array
+     * @param length Number of bytes to write
+     * @throws IOException
+     */
+    public void insertEncodedRows(byte[] records, int offset, int length) throws IOException {
+        checkWriter();
+        dbaseFileWriter.writeEncodedRecords(records, offset, length);
+    }
+
     private void checkReader() {
         if(dbaseFileReader == null) {
             throw new IllegalStateException("The driver is not in read mode");
@@ -121,6 +171,7 @@ public class DBFDriver implements FileDriver {
     @Override
     public void close() throws IOException {
         if(dbaseFileReader != null) {
+            readers.clear();
             dbaseFileReader.close();
         } else if(dbaseFileWriter != null) {
             dbaseFileWriter.close();
@@ -141,11 +192,93 @@ public class DBFDriver implements FileDriver {
 
     @Override
     public Object[] getRow(long rowId) throws IOException {
+        return getRow(rowId, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     * This method can be called concurrently by several threads.
+     */
+    @Override
+    public Object[] getRow(long rowId, boolean[] fields) throws IOException {
         final int fieldCount = dbaseFileReader.getFieldCount();
         Object[] values = new Object[fieldCount];
-        for(int fieldId=0;fieldId<fieldCount;fieldId++) {
-            values[fieldId] = dbaseFileReader.getFieldValue((int)rowId, fieldId);
+        DbaseFileReader reader = readers.acquire();
+        try {
+            reader.getRecord((int)rowId, fields, values);
+        } finally {
+            readers.release(reader);
         }
         return values;
     }
+
+    /**
+     * {@inheritDoc}
+     * This method can be called concurrently by several threads.
+     */
+    @Override
+    public void getTypedRow(long rowId, TypedRow row) throws IOException {
+        DbaseFileReader reader = readers.acquire();
+        try {
+            reader.getRecord((int)rowId, row);
+        } finally {
+            readers.release(reader);
+        }
+    }
+
+    /**
+     * This method can be called concurrently by several threads.
+     * @param rowId Row index
+     * @param fieldId Field index
+     * @return The field value
+     * @throws IOException
+     */
+    public Object getFieldValue(long rowId, int fieldId) throws IOException {
+        DbaseFileReader reader = readers.acquire();
+        try {
+            return reader.getFieldValue((int)rowId, fieldId);
+        } finally {
+            readers.release(reader);
+        }
+    }
+
+    @Override
+    public boolean isNull(long rowId, int fieldId) throws IOException {
+        DbaseFileReader reader = readers.acquire();
+        try {
+            return reader.isNull((int)rowId, fieldId);
+        } finally {
+            readers.release(reader);
+        }
+    }
+
+    @Override
+    public int getInt(long rowId, int fieldId) throws IOException {
+        DbaseFileReader reader = readers.acquire();
+        try {
+            return reader.getInt((int)rowId, fieldId);
+        } finally {
+            readers.release(reader);
+        }
+    }
+
+    @Override
+    public long getLong(long rowId, int fieldId) throws IOException {
+        DbaseFileReader reader = readers.acquire();
+        try {
+            return reader.getLong((int)rowId, fieldId);
+        } finally {
+            readers.release(reader);
+        }
+    }
+
+    @Override
+    public double getDouble(long rowId, int fieldId) throws IOException {
+        DbaseFileReader reader = readers.acquire();
+        try {
+            return reader.getDouble((int)rowId, fieldId);
+        } finally {
+            readers.release(reader);
+        }
+    }
 }
@@ -43,6 +43,7 @@
  */
 package org.h2gis.drivers.dbf.internal;
 
+import org.h2gis.drivers.TypedRow;
 import org.h2gis.drivers.utility.ReadBufferManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -54,6 +55,7 @@ import java.nio.CharBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
+import java.util.Arrays;
 import java.util.Calendar;
 
 /**
@@ -93,6 +95,40 @@ public class DbaseFileReader {
         private CharsetDecoder decoder;
         private char[] fieldTypes;
         private int[] fieldLengths;
+        private boolean memoryMapped = false;
+        // Offset of each field in a record, the first byte of a record is the deletion flag
+        private int[] fieldOffsets;
+        // Raw bytes of the last record read, reused for each record
+        private byte[] recordBytes;
+        private ByteBuffer recordByteBuffer;
+        private int recordRow = -1;
+        // Record decoded in charBuffer, each field is decoded once per record
+        private int decodedRow = -1;
+        // Offset and length in charBuffer of the decoded fields of decodedRow, -1 if the field is not decoded
+        private int[] fieldCharStarts;
+        private int[] fieldCharLengths;
+        // Offset in recordBytes of the field being parsed
+        private int fieldStart;
+        // Number of records read in sequence, used to switch to the read-ahead mode
+        private int sequentialReads = 0;
+        /** Number of consecutive records read one after another before enabling the read-ahead mode */
+        private static final int READ_AHEAD_THRESHOLD = 16;
+        /** Size of the buffer in read-ahead mode */
+        private static final int READ_AHEAD_SIZE = 1024 * 512;
+        private static final int DEFAULT_BUFFER_SIZE = 1024 * 32;
+        private Calendar calendar;
+        // Result of parseLong and parseDouble
+        private long longValue;
+        private double doubleValue;
+        /** Maximum number of digits parsed without going through Double.parseDouble */
+        private static final int FAST_DOUBLE_MAX_DIGITS = 15;
+        private static final double[] POWERS_OF_TEN = new double[FAST_DOUBLE_MAX_DIGITS + 1];
+        static {
+                POWERS_OF_TEN[0] = 1;
+                for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+                        POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+                }
+        }
     private static final Logger LOG = LoggerFactory.getLogger(DbaseFileReader.class);
 
         /**
@@ -104,8 +140,26 @@ public class DbaseFileReader {
          *             If an error occurs while initializing.
          */
         public DbaseFileReader(FileChannel channel,String forceEncoding)
+                throws IOException {
+                this(channel, forceEncoding, false);
+        }
+
+        /**
+         * Creates a new instance of DBaseFileReader
+         *
+         * @param channel
+         *            The readable channel to use.
+         * @param forceEncoding
+         *            If not null, use this encoding instead of the one defined in the header.
+         * @param memoryMapped
+         *            Read records through memory mapped segments of the file instead of a heap buffer.
+         * @throws java.io.IOException
+         *             If an error occurs while initializing.
+         */
+        public DbaseFileReader(FileChannel channel,String forceEncoding, boolean memoryMapped)
                 throws IOException {
                 this.channel = channel;
+                this.memoryMapped = memoryMapped;
 
                 header = new DbaseFileHeader();
                 header.readHeader(channel, forceEncoding);
@@ -113,8 +167,37 @@ public class DbaseFileReader {
                 init();
         }
 
+        /**
+         * Copy constructor used by {@link #duplicate()}
+         *
+         * @param source
+         *            Reader to share the channel and the header with.
+         */
+        private DbaseFileReader(DbaseFileReader source) throws IOException {
+                this.header = source.header;
+                this.memoryMapped = source.memoryMapped;
+                this.fieldTypes = source.fieldTypes;
+                this.fieldLengths = source.fieldLengths;
+                this.fieldOffsets = source.fieldOffsets;
+                this.buffer = source.buffer.duplicate();
+                initFieldBuffers();
+        }
+
+        /**
+         * Creates a reader on the same file that can be used concurrently with
+         * this one. The header is shared, the decoding buffers are not. The
+         * duplicate does not own the channel, closing it does not close the file.
+         *
+         * @return A new reader sharing the channel and the header of this reader
+         * @throws java.io.IOException
+         *             If an error occurs while initializing.
+         */
+        public DbaseFileReader duplicate() throws IOException {
+                return new DbaseFileReader(this);
+        }
+
         private void init() throws IOException {
-                buffer = new ReadBufferManager(channel);
+                buffer = new ReadBufferManager(channel, memoryMapped);
 
                 // The entire file is in little endian
                 buffer.order(ByteOrder.LITTLE_ENDIAN);
@@ -122,14 +205,28 @@ public class DbaseFileReader {
                 // Set up some buffers and lookups for efficiency
                 fieldTypes = new char[header.getNumFields()];
                 fieldLengths = new int[header.getNumFields()];
+                fieldOffsets = new int[header.getNumFields()];
+                int fieldOffset = 1;
                 for (int i = 0, ii = header.getNumFields(); i < ii; i++) {
                         fieldTypes[i] = header.getFieldType(i);
                         fieldLengths[i] = header.getFieldLength(i);
+                        fieldOffsets[i] = fieldOffset;
+                        fieldOffset += fieldLengths[i];
                 }
 
-                charBuffer = CharBuffer.allocate(header.getRecordLength() - 1);
+                initFieldBuffers();
+        }
+
+        private void initFieldBuffers() {
                 Charset chars = Charset.forName(header.getFileEncoding());
                 decoder = chars.newDecoder();
+                charBuffer = CharBuffer.allocate((int) Math.ceil(decoder.maxCharsPerByte() * header.getRecordLength()));
+                recordBytes = new byte[header.getRecordLength()];
+                recordByteBuffer = ByteBuffer.wrap(recordBytes);
+                recordRow = -1;
+                decodedRow = -1;
+                fieldCharStarts = new int[header.getNumFields()];
+                fieldCharLengths = new int[header.getNumFields()];
         }
 
         /**
@@ -158,53 +255,467 @@ public class DbaseFileReader {
                 channel = null;
                 charBuffer = null;
                 decoder = null;
+                recordBytes = null;
+                recordByteBuffer = null;
                 header = null;
         }
 
         /**
-         * @param pos Pos index in the buffer
-         * @param length Array length to extract
-         * @return byte array extracted from the buffer
+         * Copy the raw bytes of a record into {@link #recordBytes}, if it is not the last record read. When the
+         * records are read one after another, the buffer switch to a read-ahead mode that fetch larger blocks of the
+         * file.
+         * @param row Row index
+         * @throws IOException
+         */
+        private void readRecord(int row) throws IOException {
+                if (row == recordRow) {
+                        return;
+                }
+                if (row == recordRow + 1) {
+                        if (sequentialReads < READ_AHEAD_THRESHOLD && ++sequentialReads == READ_AHEAD_THRESHOLD) {
+                                buffer.setBufferSize(READ_AHEAD_SIZE);
+                        }
+                } else {
+                        if (sequentialReads == READ_AHEAD_THRESHOLD) {
+                                buffer.setBufferSize(DEFAULT_BUFFER_SIZE);
+                        }
+                        sequentialReads = 0;
+                }
+                long recordPosition = header.getHeaderLength() + (long) row * header.getRecordLength();
+                buffer.get(recordPosition, recordBytes, 0, recordBytes.length);
+                recordRow = row;
+        }
+
+        /**
+         * Read the record that contains the field, and set {@link #fieldStart}
+         * @param row Row index
+         * @param column Column index
+         * @return Length of the field
          * @throws IOException
          */
-        private byte[] getBytes(int pos, int length) throws IOException {
-                byte[] bytes = new byte[length];
-                buffer.get(pos, bytes);
-                return bytes;
+        private int readField(int row, int column) throws IOException {
+                readRecord(row);
+                fieldStart = fieldOffsets[column];
+                return fieldLengths[column];
         }
 
+        /**
+         * Decode the bytes of a field of the current record into {@link #charBuffer}. The decoded fields are appended
+         * to the buffer, so each field is decoded once per record.
+         * @param column Column index
+         * @return Offset of the field in charBuffer
+         */
+        private int decodeField(int column) {
+                if (decodedRow != recordRow) {
+                        Arrays.fill(fieldCharStarts, -1);
+                        charBuffer.clear();
+                        charBuffer.flip();
+                        decodedRow = recordRow;
+                }
+                if (fieldCharStarts[column] < 0) {
+                        int start = charBuffer.limit();
+                        recordByteBuffer.clear();
+                        recordByteBuffer.position(fieldOffsets[column]);
+                        recordByteBuffer.limit(fieldOffsets[column] + fieldLengths[column]);
+                        charBuffer.limit(charBuffer.capacity());
+                        charBuffer.position(start);
+                        decoder.reset();
+                        decoder.decode(recordByteBuffer, charBuffer, true);
+                        decoder.flush(charBuffer);
+                        fieldCharStarts[column] = start;
+                        fieldCharLengths[column] = charBuffer.position() - start;
+                        charBuffer.flip();
+                }
+                return fieldCharStarts[column];
+        }
+
+        /**
+         * Read a record once and decode the requested fields.
+         * @param row Row index
+         * @param fields Fields to decode, null for all fields
+         * @param values Array of {@link #getFieldCount()} values. The fields not requested are not modified.
+         * @throws IOException
+         */
+        public void getRecord(int row, boolean[] fields, Object[] values) throws IOException {
+                readRecord(row);
+                for (int column = 0; column < fieldTypes.length; column++) {
+                        if (fields == null || fields[column]) {
+                                fieldStart = fieldOffsets[column];
+                                values[column] = getCurrentFieldValue(fieldLengths[column], column);
+                        }
+                }
+        }
+
+        /**
+         * Read a record once, the numeric fields read as {@link TypedRow#LONG} or {@link TypedRow#DOUBLE} are parsed
+         * without creating java objects.
+         * @param row Row index
+         * @param typedRow Read mode of each field and read values, of {@link #getFieldCount()} fields
+         * @throws IOException If a field read as a number is not numeric
+         */
+        public void getRecord(int row, TypedRow typedRow) throws IOException {
+                readRecord(row);
+                for (int column = 0; column < fieldTypes.length; column++) {
+                        byte readMode = typedRow.getReadMode(column);
+                        if (readMode == TypedRow.SKIP) {
+                                continue;
+                        }
+                        fieldStart = fieldOffsets[column];
+                        final int fieldLength = fieldLengths[column];
+                        if (readMode == TypedRow.OBJECT) {
+                                typedRow.setObject(column, getCurrentFieldValue(fieldLength, column));
+                                continue;
+                        }
+                        checkNumeric(column);
+                        if (isBlank(fieldLength)) {
+                                typedRow.setNull(column);
+                        } else if (readMode == TypedRow.LONG && parseLong(fieldLength)) {
+                                typedRow.setLong(column, longValue);
+                        } else if (parseDouble(fieldLength)) {
+                                if (readMode == TypedRow.LONG) {
+                                        typedRow.setLong(column, Math.round(doubleValue));
+                                } else {
+                                        typedRow.setDouble(column, doubleValue);
+                                }
+                        } else {
+                                // Unusual format
+                                Object value = readObject(decodeField(column), column);
+                                if (value == null) {
+                                        typedRow.setNull(column);
+                                } else if (readMode == TypedRow.DOUBLE) {
+                                        typedRow.setDouble(column, ((Number) value).doubleValue());
+                                } else if (value instanceof Double || value instanceof Float) {
+                                        typedRow.setLong(column, Math.round(((Number) value).doubleValue()));
+                                } else {
+                                        typedRow.setLong(column, ((Number) value).longValue());
+                                }
+                        }
+                }
+        }
+
+        /**
+         * Read the value of a field. Numeric, logical and date values are parsed from the raw bytes of the file,
+         * only the character fields and the values in an unusual format are decoded.
+         * @param row Row index
+         * @param column Column index
+         * @return The field value, null if the field is empty
+         * @throws IOException
+         */
         public Object getFieldValue(int row, int column) throws IOException {
-                int fieldPosition = getPositionFor(row, column);
-                int fieldLength = getLengthFor(column);
-                byte[] fieldBytes = getBytes(fieldPosition, fieldLength);
-                ByteBuffer field = ByteBuffer.wrap(fieldBytes);
+                return getCurrentFieldValue(readField(row, column), column);
+        }
+
+        /**
+         * Read the value of the field at {@link #fieldStart} in the current record.
+         */
+        private Object getCurrentFieldValue(final int fieldLength, int column) throws IOException {
+                if (fieldLength == 0) {
+                        return null;
+                }
+                switch (fieldTypes[column]) {
+                        case 'l':
+                        case 'L':
+                                return readLogical();
+                        case 'd':
+                        case 'D':
+                                if (fieldLength >= 8 && isDateField()) {
+                                        return readDate();
+                                }
+                                break;
+                        case 'n':
+                        case 'N':
+                                if (header.getFieldDecimalCount(column) == 0 && parseLong(fieldLength)) {
+                                        if (longValue >= Integer.MIN_VALUE && longValue <= Integer.MAX_VALUE) {
+                                                return (int) longValue;
+                                        } else {
+                                                return longValue;
+                                        }
+                                }
+                                // Fall through the floating point number
+                        case 'f':
+                        case 'F':
+                                if (isBlank(fieldLength)) {
+                                        return null;
+                                } else if (parseDouble(fieldLength)) {
+                                        return doubleValue;
+                                }
+                                break;
+                }
+                return readObject(decodeField(column), column);
+        }
+
+        /**
+         * @param row Row index
+         * @param column Numeric column index
+         * @return True if the field value is null
+         * @throws IOException
+         */
+        public boolean isNull(int row, int column) throws IOException {
+                if (isNumeric(column)) {
+                        final int fieldLength = readField(row, column);
+                        if (isBlank(fieldLength)) {
+                                return true;
+                        } else if (parseLong(fieldLength) || parseDouble(fieldLength)) {
+                                return false;
+                        }
+                }
+                return getCurrentFieldValue(readField(row, column), column) == null;
+        }
+
+        /**
+         * Read a numeric field without creating a java object.
+         * @param row Row index
+         * @param column Numeric column index
+         * @return The field value, the field must not be null
+         * @throws IOException If the field is null or not numeric
+         */
+        public int getInt(int row, int column) throws IOException {
+                return (int) getLong(row, column);
+        }
+
+        /**
+         * Read a numeric field without creating a java object.
+         * @param row Row index
+         * @param column Numeric column index
+         * @return The field value, the field must not be null. Decimal values are rounded.
+         * @throws IOException If the field is null or not numeric
+         */
+        public long getLong(int row, int column) throws IOException {
+                checkNumeric(column);
+                final int fieldLength = readField(row, column);
+                if (parseLong(fieldLength)) {
+                        return longValue;
+                } else if (parseDouble(fieldLength)) {
+                        return Math.round(doubleValue);
+                }
+                Number value = getNumber(column);
+                if (value instanceof Double || value instanceof Float) {
+                        return Math.round(value.doubleValue());
+                } else {
+                        return value.longValue();
+                }
+        }
+
+        /**
+         * Read a numeric field without creating a java object.
+         * @param row Row index
+         * @param column Numeric column index
+         * @return The field value, the field must not be null
+         * @throws IOException If the field is null or not numeric
+         */
+        public double getDouble(int row, int column) throws IOException {
+                checkNumeric(column);
+                final int fieldLength = readField(row, column);
+                if (parseDouble(fieldLength)) {
+                        return doubleValue;
+                }
+                return getNumber(column).doubleValue();
+        }
+
+        /**
+         * Parse a number in an unusual format.
+         */
+        private Number getNumber(int column) throws IOException {
+                Object value = readObject(decodeField(column), column);
+                if (value == null) {
+                        throw new IOException("The field " + header.getFieldName(column) + " is null");
+                }
+                return (Number) value;
+        }
+
+        private boolean isNumeric(int column) {
+                switch (fieldTypes[column]) {
+                        case 'n':
+                        case 'N':
+                        case 'f':
+                        case 'F':
+                                return true;
+                        default:
+                                return false;
+                }
+        }
+
+        private void checkNumeric(int column) throws IOException {
+                if (!isNumeric(column)) {
+                        throw new IOException("The field " + header.getFieldName(column) + " is not numeric");
+                }
+        }
+
+        /**
+         * @param b Byte of a field
+         * @return True if the byte is trimmed by {@link String#trim()}
+         */
+        private static boolean isBlank(byte b) {
+                return (b & 0xFF) <= ' ';
+        }
+
+        private boolean isBlank(int fieldLength) {
+                for (int i = 0; i < fieldLength; i++) {
+                        if (!isBlank(recordBytes[fieldStart + i])) {
+                                return false;
+                        }
+                }
+                return true;
+        }
+
+        private Boolean readLogical() throws IOException {
+                switch (recordBytes[fieldStart + 0]) {
+                        case 't':
+                        case 'T':
+                        case 'Y':
+                        case 'y':
+                                return Boolean.TRUE;
+                        case 'f':
+                        case 'F':
+                        case 'N':
+                        case 'n':
+                                return Boolean.FALSE;
+                        default:
+                                throw new IOException("Unknown logical value : '"
+                                        + (char) recordBytes[fieldStart + 0] + "'");
+                }
+        }
 
-                charBuffer.clear();
-                decoder.decode(field, charBuffer, true);
-                charBuffer.flip();
+        /**
+         * @return True if the 8 first bytes of the field are digits, or if the year is empty
+         */
+        private boolean isDateField() {
+                boolean emptyYear = true;
+                for (int i = 0; i < 4; i++) {
+                        emptyYear &= isBlank(recordBytes[fieldStart + i]);
+                }
+                if (emptyYear) {
+                        return true;
+                }
+                for (int i = 0; i < 8; i++) {
+                        if (recordBytes[fieldStart + i] < '0' || recordBytes[fieldStart + i] > '9') {
+                                return false;
+                        }
+                }
+                return true;
+        }
 
-                return readObject(0, column);
+        /**
+         * Read a date in the format YYYYMMDD, the format has been checked by {@link #isDateField()}
+         */
+        private java.util.Date readDate() {
+                if (isBlank(recordBytes[fieldStart + 0]) || isNullDate()) {
+                        return null;
+                }
+                int year = readDigits(0, 4);
+                int month = readDigits(4, 2) - 1;
+                int day = readDigits(6, 2);
+                if (calendar == null) {
+                        calendar = Calendar.getInstance();
+                }
+                calendar.clear();
+                calendar.set(Calendar.YEAR, year);
+                calendar.set(Calendar.MONTH, month);
+                calendar.set(Calendar.DAY_OF_MONTH, day);
+                return calendar.getTime();
+        }
 
+        private boolean isNullDate() {
+                for (int i = 0; i < 8; i++) {
+                        if (recordBytes[fieldStart + i] != '0') {
+                                return false;
+                        }
+                }
+                return true;
         }
 
-        private int getLengthFor(int column) {
-                return header.getFieldLength(column);
+        private int readDigits(int start, int length) {
+                int value = 0;
+                for (int i = start; i < start + length; i++) {
+                        value = value * 10 + (recordBytes[fieldStart + i] - '0');
+                }
+                return value;
         }
 
-        private int getPositionFor(int row, int column) {
-                int recordOffset = header.getHeaderLength() + row
-                        * header.getRecordLength() + 1;
-                int fieldOffset = 0;
-                for (int i = 0; i < column; i++) {
-                        fieldOffset += header.getFieldLength(i);
+        /**
+         * Parse an integer value from the field bytes into {@link #longValue}
+         * @param fieldLength Length of the field
+         * @return False if the field is not a plain integer, then it has to be parsed through a String
+         */
+        private boolean parseLong(int fieldLength) {
+                int start = 0;
+                int end = fieldLength;
+                while (start < end && isBlank(recordBytes[fieldStart + start])) {
+                        start++;
+                }
+                while (end > start && isBlank(recordBytes[fieldStart + end - 1])) {
+                        end--;
+                }
+                boolean negative = false;
+                if (start < end && (recordBytes[fieldStart + start] == '-' || recordBytes[fieldStart + start] == '+')) {
+                        negative = recordBytes[fieldStart + start] == '-';
+                        start++;
+                }
+                // 18 digits never overflow a long
+                if (start == end || end - start > 18) {
+                        return false;
+                }
+                long value = 0;
+                for (int i = start; i < end; i++) {
+                        byte b = recordBytes[fieldStart + i];
+                        if (b < '0' || b > '9') {
+                                return false;
+                        }
+                        value = value * 10 + (b - '0');
                 }
+                longValue = negative ? -value : value;
+                return true;
+        }
 
-                return fieldOffset + recordOffset;
+        /**
+         * Parse a decimal value from the field bytes into {@link #doubleValue}. With at most 15 significant digits,
+         * the mantissa and the power of ten are exact doubles then the division gives the same correctly rounded
+         * result as {@link Double#parseDouble(String)}.
+         * @param fieldLength Length of the field
+         * @return False if the field is not a plain decimal value, then it has to be parsed through a String
+         */
+        private boolean parseDouble(int fieldLength) {
+                int start = 0;
+                int end = fieldLength;
+                while (start < end && isBlank(recordBytes[fieldStart + start])) {
+                        start++;
+                }
+                while (end > start && isBlank(recordBytes[fieldStart + end - 1])) {
+                        end--;
+                }
+                boolean negative = false;
+                if (start < end && (recordBytes[fieldStart + start] == '-' || recordBytes[fieldStart + start] == '+')) {
+                        negative = recordBytes[fieldStart + start] == '-';
+                        start++;
+                }
+                long mantissa = 0;
+                int digits = 0;
+                int scale = -1;
+                for (int i = start; i < end; i++) {
+                        byte b = recordBytes[fieldStart + i];
+                        if (b >= '0' && b <= '9') {
+                                mantissa = mantissa * 10 + (b - '0');
+                                digits++;
+                                if (scale >= 0) {
+                                        scale++;
+                                }
+                        } else if (b == '.' && scale < 0) {
+                                scale = 0;
+                        } else {
+                                return false;
+                        }
+                }
+                if (digits == 0 || digits > FAST_DOUBLE_MAX_DIGITS) {
+                        return false;
+                }
+                double value = scale > 0 ? mantissa / POWERS_OF_TEN[scale] : mantissa;
+                doubleValue = negative ? -value : value;
+                return true;
         }
 
         private Object readObject(final int fieldOffset, final int fieldNum) throws IOException {
                 final char type = fieldTypes[fieldNum];
-                final int fieldLen = fieldLengths[fieldNum];
+                final int fieldLen = fieldCharLengths[fieldNum];
                 Object object = null;
 
                 if (fieldLen > 0) {
@@ -272,7 +783,8 @@ public class DbaseFileReader {
                                 // (D)date (Date)
                                 case 'd':
                                 case 'D':
-                                        if (charBuffer.toString().equals("00000000")) {
+                                        if (charBuffer.subSequence(fieldOffset, fieldOffset + fieldLen).toString()
+                                                .equals("00000000")) {
                                                 object = null;
                                         } else {
                                                 try {
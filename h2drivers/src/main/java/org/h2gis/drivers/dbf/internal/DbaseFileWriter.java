@@ -43,11 +43,17 @@
  */
 package org.h2gis.drivers.dbf.internal;
 
+import org.h2gis.drivers.utility.WriteBufferManager;
+
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 import java.text.FieldPosition;
 import java.text.NumberFormat;
 import java.util.Calendar;
@@ -74,9 +80,9 @@ import java.util.Locale;
 public class DbaseFileWriter {
 
 	private DbaseFileHeader header;
-	private DbaseFileWriter.FieldFormatter formatter;
 	WritableByteChannel channel;
-	private ByteBuffer buffer;
+	private WriteBufferManager writeBuffer;
+	private RecordEncoder recordEncoder;
 	private static final Number NULL_NUMBER = Integer.valueOf(0);
 	private static final String NULL_STRING = "";
 	private Charset charset;
@@ -124,93 +130,52 @@ public class DbaseFileWriter {
 		this.channel = out;
         // DBase does not support UTF-8
 		this.charset = charset == null ? Charset.forName(DbaseFileHeader.DEFAULT_ENCODING) : charset;
-		this.formatter = new DbaseFileWriter.FieldFormatter(this.charset);
 		init();
 	}
 
 	private void init() throws IOException {
-		buffer = ByteBuffer.allocateDirect(header.getRecordLength());
+		writeBuffer = new WriteBufferManager(channel);
+		recordEncoder = newRecordEncoder();
 	}
 
-	private void write() throws IOException {
-		buffer.position(0);
-		int r = buffer.remaining();
-                do {
-                        r -= channel.write(buffer);
-                } while (r > 0);
+	/**
+	 * @return A new record encoder for this file, to encode records in another thread.
+	 */
+	public RecordEncoder newRecordEncoder() {
+		return new RecordEncoder(header, charset);
 	}
 
 	/**
 	 * Write a single dbase record.
 	 *
-	 * @param record
+	 * @param values
 	 *            The entries to write.
 	 * @throws java.io.IOException
 	 *             If IO error occurs.
 	 * @throws DbaseFileException
 	 *             If the entry doesn't comply to the header.
 	 */
-	public void write(Object[] record) throws IOException, DbaseFileException {
-
-		if (record.length != header.getNumFields()) {
-			throw new DbaseFileException("Wrong number of fields "
-					+ record.length + " expected " + header.getNumFields());
-		}
-
-		buffer.position(0);
-
-		// put the 'not-deleted' marker
-		buffer.put((byte) ' ');
-
-		for (int i = 0; i < header.getNumFields(); i++) {
-			String fieldString = fieldString(record[i], i);
-			if (header.getFieldLength(i) != fieldString
-					.getBytes(charset.name()).length) {
-				buffer.put(new byte[header.getFieldLength(i)]);
-			} else {
-				buffer.put(fieldString.getBytes(charset.name()));
-			}
-
-		}
-
-		write();
+	public void write(Object[] values) throws IOException, DbaseFileException {
+		writeBuffer.put(recordEncoder.encode(values), 0, header.getRecordLength());
 	}
 
-	private String fieldString(Object obj, final int col) {
-		String o;
-		final int fieldLen = header.getFieldLength(col);
-		switch (header.getFieldType(col)) {
-		case 'C':
-                case 'M':
-                case 'G':
-		case 'c':
-			o = formatter.getFieldString(fieldLen, obj != null ? obj.toString() : NULL_STRING);
-			break;
-		case 'L':
-		case 'l':
-			o = (obj == null ? "F" : (Boolean)obj ? "T" : "F");
-			break;
-		case 'N':
-		case 'n':
-			// int?
-			if (header.getFieldDecimalCount(col) == 0) {
-				o = formatter.getFieldString(fieldLen, 0, (obj instanceof Number ? (Number)obj : NULL_NUMBER));
-				break;
-			}
-		case 'F':
-		case 'f':
-			o = formatter.getFieldString(fieldLen, header
-					.getFieldDecimalCount(col), (obj instanceof Number ? (Number)obj : NULL_NUMBER));
-			break;
-		case 'D':
-		case 'd':
-			o = formatter.getFieldString((obj instanceof Date ? (Date)obj : null));
-			break;
-		default:
-			throw new IllegalStateException("Unknown type "
-					+ header.getFieldType(col));
+	/**
+	 * Write records encoded by a {@link RecordEncoder} of this writer.
+	 *
+	 * @param records
+	 *            Encoded records, one after another.
+	 * @param offset
+	 *            Offset of the first record in the array.
+	 * @param length
+	 *            Number of bytes to write.
+	 * @throws java.io.IOException
+	 *             If IO error occurs.
+	 */
+	public void writeEncodedRecords(byte[] records, int offset, int length) throws IOException {
+		if (length % header.getRecordLength() != 0) {
+			throw new IllegalArgumentException("The length is not a multiple of the record length");
 		}
-		return o;
+		writeBuffer.put(records, offset, length);
 	}
 
 	/**
@@ -229,12 +194,157 @@ public class DbaseFileWriter {
 		// buffer.put((byte) 0).position(0).limit(1);
 		// write();
 		if (channel.isOpen()) {
+			writeBuffer.flush();
 			channel.close();
 		}
 
-		buffer = null;
+		writeBuffer = null;
+		recordEncoder = null;
 		channel = null;
-		formatter = null;
+	}
+
+	/**
+	 * Encode records into bytes, the records are then written by
+	 * {@link DbaseFileWriter#write(Object[])} or
+	 * {@link DbaseFileWriter#writeEncodedRecords(byte[], int, int)}. An
+	 * instance must be used by one thread at a time.
+	 */
+	public static class RecordEncoder {
+		private final DbaseFileHeader header;
+		private final DbaseFileWriter.FieldFormatter formatter;
+		// Record being encoded
+		private final byte[] record;
+		private final ByteBuffer recordBuffer;
+		// Characters of the field being encoded
+		private final char[] fieldChars;
+		private final CharBuffer fieldCharBuffer;
+		private final CharsetEncoder encoder;
+
+		private RecordEncoder(DbaseFileHeader header, Charset charset) {
+			this.header = header;
+			formatter = new DbaseFileWriter.FieldFormatter(charset);
+			record = new byte[header.getRecordLength()];
+			recordBuffer = ByteBuffer.wrap(record);
+			fieldChars = new char[header.getRecordLength()];
+			fieldCharBuffer = CharBuffer.wrap(fieldChars);
+			// Same replacement as String.getBytes
+			encoder = charset.newEncoder()
+					.onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		}
+
+		/**
+		 * Encode a single dbase record.
+		 *
+		 * @param values
+		 *            The entries to encode.
+		 * @return The encoded record, the array is reused by the next call.
+		 * @throws DbaseFileException
+		 *             If the entry doesn't comply to the header.
+		 */
+		public byte[] encode(Object[] values) throws DbaseFileException {
+			if (values.length != header.getNumFields()) {
+				throw new DbaseFileException("Wrong number of fields "
+						+ values.length + " expected " + header.getNumFields());
+			}
+
+			recordBuffer.clear();
+
+			// put the 'not-deleted' marker
+			recordBuffer.put((byte) ' ');
+
+			for (int i = 0; i < header.getNumFields(); i++) {
+				int fieldStart = recordBuffer.position();
+				putField(values[i], i);
+				recordBuffer.limit(recordBuffer.capacity());
+				recordBuffer.position(fieldStart + header.getFieldLength(i));
+			}
+
+			return record;
+		}
+
+		/**
+		 * Encode a field at the current position of the record buffer.
+		 */
+		private void putField(Object obj, final int col) {
+			final int fieldLen = header.getFieldLength(col);
+			switch (header.getFieldType(col)) {
+			case 'C':
+			case 'M':
+			case 'G':
+			case 'c':
+				putText(obj != null ? obj.toString() : NULL_STRING, fieldLen);
+				break;
+			case 'L':
+			case 'l':
+				putExact(obj != null && (Boolean) obj ? "T" : "F", fieldLen);
+				break;
+			case 'N':
+			case 'n':
+				// int?
+				if (header.getFieldDecimalCount(col) == 0) {
+					putExact(formatter.formatNumber(fieldLen, 0, (obj instanceof Number ? (Number)obj : NULL_NUMBER)), fieldLen);
+					break;
+				}
+			case 'F':
+			case 'f':
+				putExact(formatter.formatNumber(fieldLen, header
+						.getFieldDecimalCount(col), (obj instanceof Number ? (Number)obj : NULL_NUMBER)), fieldLen);
+				break;
+			case 'D':
+			case 'd':
+				putExact(formatter.formatDate((obj instanceof Date ? (Date)obj : null)), fieldLen);
+				break;
+			default:
+				throw new IllegalStateException("Unknown type "
+						+ header.getFieldType(col));
+			}
+		}
+
+		/**
+		 * Encode the characters into the field.
+		 * @return False if all characters could not be encoded in the field length
+		 */
+		private boolean encodeField(CharSequence value, int fieldLen) {
+			// A character is encoded with at least one byte
+			int length = Math.min(value.length(), fieldLen);
+			for (int i = 0; i < length; i++) {
+				fieldChars[i] = value.charAt(i);
+			}
+			fieldCharBuffer.clear();
+			fieldCharBuffer.limit(length);
+			recordBuffer.limit(recordBuffer.position() + fieldLen);
+			encoder.reset();
+			CoderResult result = encoder.encode(fieldCharBuffer, recordBuffer, true);
+			if (!result.isOverflow()) {
+				result = encoder.flush(recordBuffer);
+			}
+			return !result.isOverflow() && length == value.length();
+		}
+
+		/**
+		 * Encode a text field, truncated to the field length and padded with spaces.
+		 */
+		private void putText(CharSequence value, int fieldLen) {
+			encodeField(value, fieldLen);
+			while (recordBuffer.hasRemaining()) {
+				recordBuffer.put((byte) ' ');
+			}
+		}
+
+		/**
+		 * Encode a formatted value, the field is filled with zeros if the encoded value does not fit exactly in the
+		 * field.
+		 */
+		private void putExact(CharSequence value, int fieldLen) {
+			int fieldStart = recordBuffer.position();
+			if (!encodeField(value, fieldLen) || recordBuffer.hasRemaining()) {
+				recordBuffer.position(fieldStart);
+				while (recordBuffer.hasRemaining()) {
+					recordBuffer.put((byte) 0);
+				}
+			}
+		}
 	}
 
 	/** Utility for formatting Dbase fields. */
@@ -243,6 +353,8 @@ public class DbaseFileWriter {
 		private NumberFormat numFormat = NumberFormat
 				.getNumberInstance(Locale.US);
 		private Calendar calendar = Calendar.getInstance(Locale.US);
+		private FieldPosition fieldPosition = new FieldPosition(NumberFormat.INTEGER_FIELD);
+		private char[] digits = new char[20];
 		private String emptyString;
 		private static final int MAXCHARS = 255;
 		private Charset charset;
@@ -305,6 +417,15 @@ public class DbaseFileWriter {
 		}
 
 		public String getFieldString(Date d) {
+			return formatDate(d).toString();
+		}
+
+		/**
+		 * Format a date without creating a String.
+		 * @param d Date or null
+		 * @return The formatted date, valid until the next call of this formatter
+		 */
+		public CharSequence formatDate(Date d) {
 
 			if (d != null) {
 				buffer.delete(0, buffer.length());
@@ -341,17 +462,32 @@ public class DbaseFileWriter {
 			}
 
 			buffer.setLength(8);
-			return buffer.toString();
+			return buffer;
 		}
 
 		public String getFieldString(int size, int decimalPlaces, Number n) {
+			return formatNumber(size, decimalPlaces, n).toString();
+		}
+
+		/**
+		 * Format a number without creating a String.
+		 * @param size Field length
+		 * @param decimalPlaces Number of decimals
+		 * @param n Number or null
+		 * @return The formatted number, valid until the next call of this formatter
+		 */
+		public CharSequence formatNumber(int size, int decimalPlaces, Number n) {
 			buffer.delete(0, buffer.length());
 
 			if (n != null) {
-				numFormat.setMaximumFractionDigits(decimalPlaces);
-				numFormat.setMinimumFractionDigits(decimalPlaces);
-				numFormat.format(n, buffer, new FieldPosition(
-						NumberFormat.INTEGER_FIELD));
+				if (decimalPlaces == 0 && (n instanceof Integer || n instanceof Long
+						|| n instanceof Short || n instanceof Byte) && n.longValue() != Long.MIN_VALUE) {
+					appendInteger(n.longValue());
+				} else {
+					numFormat.setMaximumFractionDigits(decimalPlaces);
+					numFormat.setMinimumFractionDigits(decimalPlaces);
+					numFormat.format(n, buffer, fieldPosition);
+				}
 			}
 
 			int diff = size - buffer.length();
@@ -362,7 +498,23 @@ public class DbaseFileWriter {
 			} else {
 				buffer.setLength(size);
 			}
-			return buffer.toString();
+			return buffer;
+		}
+
+		/**
+		 * Append an integer value, same output as the number format without decimals.
+		 */
+		private void appendInteger(long value) {
+			int position = digits.length;
+			long remaining = Math.abs(value);
+			do {
+				digits[--position] = (char) ('0' + remaining % 10);
+				remaining /= 10;
+			} while (remaining > 0);
+			if (value < 0) {
+				digits[--position] = '-';
+			}
+			buffer.append(digits, position, digits.length - position);
 		}
 	}
 
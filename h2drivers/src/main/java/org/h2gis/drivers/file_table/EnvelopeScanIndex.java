@@ -0,0 +1,230 @@
+/*
+ * h2spatial is a library that brings spatial support to the H2 Java database.
+ *
+ * h2spatial is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2014 IRSTV (FR CNRS 2488)
+ *
+ * h2patial is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * h2spatial is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * h2spatial. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+
+package org.h2gis.drivers.file_table;
+
+import com.vividsolutions.jts.geom.Envelope;
+import org.h2.api.ErrorCode;
+import org.h2.engine.Constants;
+import org.h2.engine.Session;
+import org.h2.index.BaseIndex;
+import org.h2.index.Cursor;
+import org.h2.index.IndexCondition;
+import org.h2.index.IndexType;
+import org.h2.index.SpatialIndex;
+import org.h2.message.DbException;
+import org.h2.result.Row;
+import org.h2.result.SearchRow;
+import org.h2.result.SortOrder;
+import org.h2.table.Column;
+import org.h2.table.IndexColumn;
+import org.h2.table.TableFilter;
+import org.h2.value.Value;
+import org.h2.value.ValueGeometry;
+import org.h2.value.ValueNull;
+import org.h2gis.drivers.SpatialFileDriver;
+
+import java.io.IOException;
+
+/**
+ * Hidden index of a table linked with a {@link SpatialFileDriver} that does not have a spatial index. The
+ * bounding box condition of the query (&amp;&amp; operator) is evaluated on the envelopes read by the driver, only
+ * the matching rows are read and their geometry decoded.
+ * A spatial index created on the table is cheaper than this index.
+ */
+public class EnvelopeScanIndex extends BaseIndex implements SpatialIndex {
+    private final H2Table linkedTable;
+    private final SpatialFileDriver driver;
+
+    /**
+     * @param driver Linked file driver
+     * @param table Linked table
+     * @param id Index identifier
+     */
+    public EnvelopeScanIndex(SpatialFileDriver driver, H2Table table, int id) {
+        this.driver = driver;
+        this.linkedTable = table;
+        IndexColumn indexColumn = new IndexColumn();
+        indexColumn.column = table.getColumn(driver.getGeometryFieldIndex() + 1);
+        indexColumn.columnName = indexColumn.column.getName();
+        initBaseIndex(table, id, table.getName() + "_ENVELOPE_", new IndexColumn[]{indexColumn},
+                IndexType.createNonUnique(false, false, true));
+    }
+
+    @Override
+    public String getCreateSQL() {
+        // Not a schema object
+        return null;
+    }
+
+    @Override
+    public Cursor findByGeometry(TableFilter filter, SearchRow intersection) {
+        Envelope envelope = null;
+        if (intersection != null) {
+            Value v = intersection.getValue(columnIds[0]);
+            if (v != null && v != ValueNull.INSTANCE) {
+                envelope = ((ValueGeometry) v.convertTo(Value.GEOMETRY)).getGeometryNoCopy().getEnvelopeInternal();
+            }
+        }
+        return new EnvelopeCursor(filter.getSession(), envelope, linkedTable.getReadFields(filter));
+    }
+
+    @Override
+    public Cursor find(TableFilter filter, SearchRow first, SearchRow last) {
+        return new EnvelopeCursor(filter.getSession(), null, linkedTable.getReadFields(filter));
+    }
+
+    @Override
+    public Cursor find(Session session, SearchRow first, SearchRow last) {
+        return new EnvelopeCursor(session, null, null);
+    }
+
+    @Override
+    public double getCost(Session session, int[] masks, TableFilter filter, SortOrder sortOrder) {
+        if (masks != null && (masks[columnIds[0]] & IndexCondition.SPATIAL_INTERSECTS) != 0) {
+            // Cheaper than the scan index, more expensive than any spatial index
+            return table.getRowCountApproximation() + Constants.COST_ROW_OFFSET;
+        }
+        return Double.MAX_VALUE;
+    }
+
+    @Override
+    public void close(Session session) {
+        // Nothing to close
+    }
+
+    @Override
+    public void add(Session session, Row row) {
+        // The envelopes are read from the file
+    }
+
+    @Override
+    public void remove(Session session, Row row) {
+        throw DbException.getUnsupportedException("remove in linked files");
+    }
+
+    @Override
+    public void remove(Session session) {
+        // Nothing to remove
+    }
+
+    @Override
+    public void truncate(Session session) {
+        // The envelopes are read from the file
+    }
+
+    @Override
+    public void checkRename() {
+        // Nothing to check
+    }
+
+    @Override
+    public boolean needRebuild() {
+        return false;
+    }
+
+    @Override
+    public boolean canGetFirstOrLast() {
+        return false;
+    }
+
+    @Override
+    public Cursor findFirstOrLast(Session session, boolean first) {
+        throw DbException.getUnsupportedException("ENVELOPE");
+    }
+
+    @Override
+    public long getRowCount(Session session) {
+        return table.getRowCount(session);
+    }
+
+    @Override
+    public long getRowCountApproximation() {
+        return table.getRowCountApproximation();
+    }
+
+    @Override
+    public long getDiskSpaceUsed() {
+        return 0;
+    }
+
+    /**
+     * Cursor over the rows whose envelope intersects the searched envelope.
+     */
+    private final class EnvelopeCursor implements Cursor {
+        private final Session session;
+        private final Envelope searchEnvelope;
+        private final boolean[] fields;
+        private final long rowCount;
+        private long key = 0;
+        private Row current;
+
+        private EnvelopeCursor(Session session, Envelope searchEnvelope, boolean[] fields) {
+            this.session = session;
+            this.searchEnvelope = searchEnvelope;
+            this.fields = fields;
+            this.rowCount = driver.getRowCount();
+        }
+
+        @Override
+        public Row get() {
+            if (current == null) {
+                current = linkedTable.getRow(session, key, fields);
+            }
+            return current;
+        }
+
+        @Override
+        public SearchRow getSearchRow() {
+            return get();
+        }
+
+        @Override
+        public boolean next() {
+            current = null;
+            try {
+                while (key < rowCount) {
+                    key++;
+                    if (searchEnvelope == null) {
+                        return true;
+                    }
+                    Envelope envelope = driver.getEnvelope(key - 1);
+                    // A null or empty geometry does not intersect any envelope
+                    if (!envelope.isNull() && envelope.intersects(searchEnvelope)) {
+                        return true;
+                    }
+                }
+                return false;
+            } catch (IOException ex) {
+                throw DbException.get(ErrorCode.IO_EXCEPTION_1, ex, ex.getMessage());
+            }
+        }
+
+        @Override
+        public boolean previous() {
+            return false;
+        }
+    }
+}
@@ -18,9 +18,16 @@ import java.util.List;
 
 /**
  * Implement theses abstract methods in order to define a file engine.
+ * The first table engine parameter is the file path. The following parameters are either the file encoding or
+ * options in the form KEY=VALUE, ex:
+ * CREATE TABLE mytable ENGINE "org.h2gis.drivers.shp.SHPEngine" WITH "/data/file.shp", "MMAP=TRUE"
  * @author Nicolas Fortin
  */
 public abstract class FileEngine<Driver extends FileDriver> implements TableEngine {
+    /** Table engine option, read the file through memory mapped segments if TRUE */
+    public static final String OPTION_MEMORY_MAPPED = "MMAP";
+    /** Table engine option, store spatial indexes in files next to the linked file if TRUE, FALSE by default */
+    public static final String OPTION_SPATIAL_INDEX_FILE = "INDEX_FILE";
     private Logger LOGGER = LoggerFactory.getLogger(FileEngine.class);
 
     @Override
@@ -45,7 +52,8 @@ public abstract class FileEngine<Driver extends FileDriver> implements TableEngi
                 pk.setNullable(false);
                 data.columns.add(0, pk);
             }
-            H2Table shpTable = new H2Table(driver, data);
+            H2Table shpTable = new H2Table(driver, data,
+                    getBooleanOption(data.tableEngineParams, OPTION_SPATIAL_INDEX_FILE, false) ? filePath : null);
             shpTable.init(data.session);
             return shpTable;
         } catch (IOException ex) {
@@ -77,6 +85,52 @@ public abstract class FileEngine<Driver extends FileDriver> implements TableEngi
         }
         return cursor;
     }
+    /**
+     * Read an option in table engine parameters
+     * @param args Table engine parameters, the first one is the file path
+     * @param key Option name, case insensitive
+     * @return The option value or null if the option is not defined
+     */
+    public static String getOption(List<String> args, String key) {
+        for(int idArg = 1; idArg < args.size(); idArg++) {
+            String arg = args.get(idArg);
+            int sepPos = arg.indexOf('=');
+            if(sepPos > 0 && arg.substring(0, sepPos).trim().equalsIgnoreCase(key)) {
+                return arg.substring(sepPos + 1).trim();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Read a boolean option in table engine parameters
+     * @param args Table engine parameters, the first one is the file path
+     * @param key Option name, case insensitive
+     * @param defaultValue Value if the option is not defined
+     * @return The option value
+     */
+    public static boolean getBooleanOption(List<String> args, String key, boolean defaultValue) {
+        String value = getOption(args, key);
+        if(value == null) {
+            return defaultValue;
+        }
+        return value.equalsIgnoreCase("TRUE") || value.equals("1");
+    }
+
+    /**
+     * @param args Table engine parameters, the first one is the file path
+     * @return The first parameter after the file path that is not an option, null if there is none
+     */
+    public static String getFileEncoding(List<String> args) {
+        for(int idArg = 1; idArg < args.size(); idArg++) {
+            String arg = args.get(idArg);
+            if(arg.indexOf('=') == -1) {
+                return arg;
+            }
+        }
+        return null;
+    }
+
     /**
      * Create the driver instance using the file name and additional arguments provided in SQL create table request.
      * @param filePath First argument, file name
@@ -36,17 +36,22 @@ import org.h2.index.Index;
 import org.h2.index.IndexType;
 import org.h2.index.SpatialTreeIndex;
 import org.h2.message.DbException;
+import org.h2.mvstore.DataUtils;
 import org.h2.result.Row;
 import org.h2.table.Column;
 import org.h2.table.IndexColumn;
 import org.h2.table.TableBase;
+import org.h2.table.TableFilter;
 import org.h2.util.MathUtils;
 import org.h2.util.New;
 import org.h2.value.Value;
+import org.h2.value.ValueNull;
 import org.h2gis.drivers.FileDriver;
+import org.h2gis.drivers.SpatialFileDriver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -61,9 +66,23 @@ public class H2Table extends TableBase {
     private static final Logger LOG = LoggerFactory.getLogger(H2Table.class);
     private final ArrayList<Index> indexes = New.arrayList();
     private Column rowIdColumn;
+    private File filePath;
+    private boolean closed = false;
 
     public H2Table(FileDriver driver, CreateTableData data) throws IOException {
+        this(driver, data, null);
+    }
+
+    /**
+     * @param driver Linked file driver
+     * @param data Table definition
+     * @param filePath Linked file path, used to store spatial index files next to it. Null to keep spatial indexes
+     *                 in the database.
+     * @throws IOException
+     */
+    public H2Table(FileDriver driver, CreateTableData data, File filePath) throws IOException {
         super(data);
+        this.filePath = filePath;
         indexes.add(new H2TableIndex(driver,this,this.getId(), data.columns.get(0),
                 data.schema.getUniqueIndexName(data.session, this,data.tableName + "." +
                         data.columns.get(0).getName() + "_INDEX_")));
@@ -75,6 +94,10 @@ public class H2Table extends TableBase {
      */
     public void init(Session session) {
         indexes.add(0, new H2TableIndex(driver,this,this.getId()));
+        if (driver instanceof SpatialFileDriver) {
+            // Bounding box queries without spatial index
+            indexes.add(new EnvelopeScanIndex((SpatialFileDriver) driver, this, this.getId()));
+        }
     }
 
     @Override
@@ -84,6 +107,10 @@ public class H2Table extends TableBase {
 
     @Override
     public void close(Session session) {
+        if (closed) {
+            return;
+        }
+        closed = true;
         for (Index index : indexes) {
             index.close(session);
         }
@@ -94,6 +121,19 @@ public class H2Table extends TableBase {
         }
     }
 
+    @Override
+    public void removeChildrenAndResources(Session session) {
+        super.removeChildrenAndResources(session);
+        // Table.removeChildrenAndResources does not drop the indexes, the spatial index files would stay locked
+        for (Index index : new ArrayList<Index>(indexes)) {
+            if (index.getName() != null && getSchema().findIndex(session, index.getName()) == index) {
+                // Call removeIndex and close the index
+                database.removeSchemaObject(session, index);
+            }
+        }
+        close(session);
+    }
+
     @Override
     public void unlock(Session s) {
         //To change body of implemented methods use File | Settings | File Templates.
@@ -104,26 +144,62 @@ public class H2Table extends TableBase {
         return indexes.get(0).getRow(session, key);
     }
 
+    /**
+     * Read only some fields of a row
+     * @param session Session
+     * @param key Row key
+     * @param fields Driver fields to read, null to read all fields
+     * @return Row instance, the fields not read are null
+     */
+    public Row getRow(Session session, long key, boolean[] fields) {
+        return ((H2TableIndex) indexes.get(0)).getRow(session, key, fields);
+    }
+
+    /**
+     * @param filter Table filter of a query on this table
+     * @return Driver fields used by the query, null if all fields are used
+     */
+    public boolean[] getReadFields(TableFilter filter) {
+        return ((H2TableIndex) indexes.get(0)).getReadFields(filter);
+    }
+
     @Override
     public Index addIndex(Session session, String indexName, int indexId, IndexColumn[] cols, IndexType indexType, boolean create, String indexComment) {
         boolean isSessionTemporary = isTemporary() && !isGlobalTemporary();
         if (!isSessionTemporary) {
             database.lockMeta(session);
         }
-        Index index;
-        if (isPersistIndexes() && indexType.isPersistent()) {
-            if (indexType.isSpatial()) {
-                index = new SpatialTreeIndex(this, indexId, indexName, cols,
-                        indexType, true, create, session);
-            } else {
-                throw DbException.getUnsupportedException("VIEW");
+        Index index = null;
+        if (indexType.isSpatial() && filePath != null) {
+            try {
+                index = new SpatialFileIndex(this, indexId, indexName, cols, indexType, filePath);
+            } catch (IllegalStateException ex) {
+                if (DataUtils.getErrorCode(ex.getMessage()) == DataUtils.ERROR_FILE_LOCKED) {
+                    // Another table or database uses this index file
+                    LOG.warn("The spatial index file of " + filePath.getAbsolutePath() + " is locked, the spatial " +
+                            "index will not be stored next to the file");
+                } else {
+                    // The folder may be read only
+                    LOG.warn("Unable to open the spatial index file of " + filePath.getAbsolutePath() +
+                            ", the spatial index will not be stored next to the file", ex);
+                }
             }
-        } else {
-            if (indexType.isSpatial()) {
-                index = new SpatialTreeIndex(this, indexId, indexName, cols,
-                        indexType, false, true, session);
+        }
+        if (index == null) {
+            if (isPersistIndexes() && indexType.isPersistent()) {
+                if (indexType.isSpatial()) {
+                    index = new SpatialTreeIndex(this, indexId, indexName, cols,
+                            indexType, true, create, session);
+                } else {
+                    throw DbException.getUnsupportedException("VIEW");
+                }
             } else {
-                throw DbException.getUnsupportedException("VIEW");
+                if (indexType.isSpatial()) {
+                    index = new SpatialTreeIndex(this, indexId, indexName, cols,
+                            indexType, false, true, session);
+                } else {
+                    throw DbException.getUnsupportedException("VIEW");
+                }
             }
         }
         if (index.needRebuild() && getRowCount(session) > 0) {
@@ -131,27 +207,43 @@ public class H2Table extends TableBase {
                 Index scan = getScanIndex(session);
                 long remaining = scan.getRowCount(session);
                 long total = remaining;
-                Cursor cursor = scan.find(session, null, null);
+                Cursor cursor;
+                if (indexType.isSpatial() && scan instanceof H2TableIndex &&
+                        ((H2TableIndex) scan).canReadEnvelope(cols[0].column)) {
+                    // Only the envelope is required by the spatial index
+                    cursor = ((H2TableIndex) scan).findEnvelopes(session);
+                } else {
+                    cursor = scan.find(session, null, null);
+                }
                 long i = 0;
                 int bufferSize = (int) Math.min(getRowCount(session), Constants.DEFAULT_MAX_MEMORY_ROWS);
                 ArrayList<Row> buffer = New.arrayList(bufferSize);
                 String n = getName() + ":" + index.getName();
                 int t = MathUtils.convertLongToInt(total);
+                // The H2 spatial index does not accept null geometries, they do not match any envelope
+                boolean skipNull = indexType.isSpatial() && !(index instanceof SpatialFileIndex);
+                int columnId = cols[0].column.getColumnId();
                 while (cursor.next()) {
                     database.setProgress(DatabaseEventListener.STATE_CREATE_INDEX, n,
                             MathUtils.convertLongToInt(i++), t);
                     Row row = cursor.get();
+                    remaining--;
+                    if (skipNull && row.getValue(columnId) == ValueNull.INSTANCE) {
+                        continue;
+                    }
                     buffer.add(row);
                     if (buffer.size() >= bufferSize) {
                         addRowsToIndex(session, buffer, index);
                     }
-                    remaining--;
                 }
                 addRowsToIndex(session, buffer, index);
                 if (SysProperties.CHECK && remaining != 0) {
                     throw DbException.throwInternalError("rowcount remaining=" +
                             remaining + " " + getName());
                 }
+                if (index instanceof SpatialFileIndex) {
+                    ((SpatialFileIndex) index).setUpToDate();
+                }
             } catch (DbException e) {
                 getSchema().freeUniqueName(indexName);
                 try {
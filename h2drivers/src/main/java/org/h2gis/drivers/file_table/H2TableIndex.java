@@ -25,8 +25,13 @@
 
 package org.h2gis.drivers.file_table;
 
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.GeometryFactory;
 import org.h2.api.ErrorCode;
+import org.h2.command.dml.Select;
 import org.h2.engine.Session;
+import org.h2.expression.Expression;
+import org.h2.expression.ExpressionVisitor;
 import org.h2.index.BaseIndex;
 import org.h2.index.Cursor;
 import org.h2.index.IndexCondition;
@@ -42,10 +47,19 @@ import org.h2.table.Table;
 import org.h2.table.TableFilter;
 import org.h2.value.DataType;
 import org.h2.value.Value;
+import org.h2.value.ValueDouble;
+import org.h2.value.ValueGeometry;
+import org.h2.value.ValueInt;
 import org.h2.value.ValueLong;
+import org.h2.value.ValueNull;
 import org.h2gis.drivers.FileDriver;
+import org.h2gis.drivers.PartialRowFileDriver;
+import org.h2gis.drivers.SpatialFileDriver;
+import org.h2gis.drivers.TypedFileDriver;
+import org.h2gis.drivers.TypedRow;
 
 import java.io.IOException;
+import java.util.HashSet;
 
 /**
  * ScanIndex of {@link org.h2gis.drivers.FileDriver}, the key is the row index [1-n].
@@ -53,9 +67,14 @@ import java.io.IOException;
  */
 public class H2TableIndex extends BaseIndex {
     public static final String PK_COLUMN_NAME = "PK";
+    private static final GeometryFactory GEOMETRY_FACTORY = new GeometryFactory();
 
     private FileDriver driver;
     private final boolean isScanIndex;
+    /** Last computed fields of {@link #getReadFields(org.h2.table.TableFilter)} */
+    private volatile ReadFields lastReadFields;
+    /** Last computed read modes of {@link #getReadModes(boolean[])} */
+    private volatile ReadModes lastReadModes;
 
     /**
      * Constructor for scan index. Hidden column _ROWID_.
@@ -100,21 +119,173 @@ public class H2TableIndex extends BaseIndex {
 
     @Override
     public Row getRow(Session session, long key) {
+        return getRow(session, key, null);
+    }
+
+    /**
+     * Read only some fields of a row
+     * @param session Session
+     * @param key Row key
+     * @param fields Driver fields to read (the primary key is not a driver field), null to read all fields
+     * @return Row instance, the fields not read are read on demand
+     */
+    public Row getRow(Session session, long key, boolean[] fields) {
         try {
-            Object[] driverRow = driver.getRow(key - 1);
-            Value[] values = new Value[driverRow.length + 1];
             Column[] columns = table.getColumns();
+            Value[] values = new Value[columns.length];
+            values[0] = ValueLong.get(key);
+            if(driver instanceof TypedFileDriver) {
+                // Read the row once, numbers without boxing
+                TypedRow typedRow = new TypedRow(getReadModes(fields));
+                ((TypedFileDriver) driver).getTypedRow(key - 1, typedRow);
+                for(int idField = 1; idField < columns.length; idField++) {
+                    values[idField] = getValue(session, typedRow, idField - 1, columns[idField].getType());
+                }
+            } else {
+                Object[] driverRow = readRow(key - 1, fields);
+                for(int idField = 1; idField < columns.length; idField++) {
+                    if(fields != null && !fields[idField - 1]) {
+                        // Not read, see PartialRow
+                        continue;
+                    }
+                    // TODO in H2, switch on type parameter instead of if elseif
+                    values[idField] = DataType.convertToValue(session, driverRow[idField - 1], columns[idField].getType());
+                }
+            }
+            Row row = fields == null ? new Row(values, Row.MEMORY_CALCULATE) : new PartialRow(values, this, session);
+            row.setKey(key);
+            return row;
+        } catch (IOException ex) {
+            throw DbException.get(ErrorCode.IO_EXCEPTION_1, ex, ex.getMessage());
+        }
+    }
+
+    /**
+     * @param rowId Driver row index
+     * @param fields Driver fields to read, null for all fields
+     * @return Driver row, the drivers that are not a {@link PartialRowFileDriver} read all the fields
+     * @throws IOException
+     */
+    private Object[] readRow(long rowId, boolean[] fields) throws IOException {
+        if(fields != null && driver instanceof PartialRowFileDriver) {
+            return ((PartialRowFileDriver) driver).getRow(rowId, fields);
+        }
+        return driver.getRow(rowId);
+    }
+
+    /**
+     * @param session Session
+     * @param typedRow Row read by the driver
+     * @param fieldId Driver field index
+     * @param type Column type
+     * @return Column value, null if the field is not read
+     */
+    private static Value getValue(Session session, TypedRow typedRow, int fieldId, int type) {
+        switch (typedRow.getReadMode(fieldId)) {
+            case TypedRow.SKIP:
+                // Not read, see PartialRow
+                return null;
+            case TypedRow.LONG:
+                if(typedRow.isNull(fieldId)) {
+                    return ValueNull.INSTANCE;
+                }
+                return type == Value.INT ? ValueInt.get((int) typedRow.getLong(fieldId)) :
+                        ValueLong.get(typedRow.getLong(fieldId));
+            case TypedRow.DOUBLE:
+                if(typedRow.isNull(fieldId)) {
+                    return ValueNull.INSTANCE;
+                }
+                return ValueDouble.get(typedRow.getDouble(fieldId));
+            default:
+                return DataType.convertToValue(session, typedRow.getObject(fieldId), type);
+        }
+    }
+
+    /**
+     * @param fields Driver fields to read, null for all fields
+     * @return Read mode of each driver field, INT, BIGINT and DOUBLE columns are read as primitive numbers
+     */
+    private byte[] getReadModes(boolean[] fields) {
+        ReadModes cached = lastReadModes;
+        if(cached != null && cached.key == fields) {
+            return cached.readModes;
+        }
+        Column[] columns = table.getColumns();
+        byte[] readModes = new byte[columns.length - 1];
+        for(int idField = 1; idField < columns.length; idField++) {
+            if(fields != null && !fields[idField - 1]) {
+                readModes[idField - 1] = TypedRow.SKIP;
+            } else {
+                switch (columns[idField].getType()) {
+                    case Value.INT:
+                    case Value.LONG:
+                        readModes[idField - 1] = TypedRow.LONG;
+                        break;
+                    case Value.DOUBLE:
+                        readModes[idField - 1] = TypedRow.DOUBLE;
+                        break;
+                    default:
+                        readModes[idField - 1] = TypedRow.OBJECT;
+                }
+            }
+        }
+        lastReadModes = new ReadModes(fields, readModes);
+        return readModes;
+    }
+
+    /**
+     * @param column Table column
+     * @return True if the driver is able to read the envelope of this column without reading the geometry
+     */
+    public boolean canReadEnvelope(Column column) {
+        return driver instanceof SpatialFileDriver &&
+                column.getColumnId() == ((SpatialFileDriver) driver).getGeometryFieldIndex() + 1;
+    }
+
+    /**
+     * Read only the geometry envelope of a row. The geometry field contains the envelope as a geometry (polygon,
+     * line or point), the other fields except the primary key are null.
+     * @param session Session
+     * @param key Row key
+     * @return Row instance
+     */
+    public Row getEnvelopeRow(Session session, long key) {
+        try {
+            SpatialFileDriver spatialDriver = (SpatialFileDriver) driver;
+            Envelope envelope = spatialDriver.getEnvelope(key - 1);
+            Value[] values = new Value[table.getColumns().length];
+            for(int idField = 1; idField < values.length; idField++) {
+                values[idField] = ValueNull.INSTANCE;
+            }
             values[0] = ValueLong.get(key);
-            for(int idField=1;idField<=driverRow.length;idField++) {
-                // TODO in H2, switch on type parameter instead of if elseif
-                values[idField] = DataType.convertToValue(session, driverRow[idField - 1], columns[idField - 1].getType());
+            if(envelope.isNull()) {
+                // Empty or null geometry
+                values[spatialDriver.getGeometryFieldIndex() + 1] = ValueNull.INSTANCE;
+            } else {
+                values[spatialDriver.getGeometryFieldIndex() + 1] =
+                        ValueGeometry.getFromGeometry(GEOMETRY_FACTORY.toGeometry(envelope));
             }
             Row row =  new Row(values, Row.MEMORY_CALCULATE);
             row.setKey(key);
             return row;
         } catch (IOException ex) {
-            throw DbException.get(ErrorCode.IO_EXCEPTION_1,ex);
+            throw DbException.get(ErrorCode.IO_EXCEPTION_1, ex, ex.getMessage());
+        }
+    }
+
+    /**
+     * Cursor on all rows, that read only the geometry envelope.
+     * @see #getEnvelopeRow(org.h2.engine.Session, long)
+     * @param session Session
+     * @return Cursor instance
+     */
+    public Cursor findEnvelopes(Session session) {
+        if(!(driver instanceof SpatialFileDriver)) {
+            throw DbException.get(ErrorCode.FEATURE_NOT_SUPPORTED_1, "envelope cursor without geometry field");
         }
+        SHPCursor cursor = new SHPCursor(this, null, null, session);
+        cursor.envelopeOnly = true;
+        return cursor;
     }
 
     @Override
@@ -132,6 +303,60 @@ public class H2TableIndex extends BaseIndex {
         throw DbException.get(ErrorCode.FEATURE_NOT_SUPPORTED_1,"remove in Shape files");
     }
 
+    /**
+     * Compute the driver fields used by the query of the table filter.
+     * @param filter Table filter, may be null
+     * @return Driver fields to read, null if all fields must be read
+     */
+    public boolean[] getReadFields(TableFilter filter) {
+        if(filter == null || filter.getSelect() == null) {
+            return null;
+        }
+        ReadFields cache = lastReadFields;
+        if(cache != null && cache.key == filter) {
+            return cache.fields;
+        }
+        Select select = filter.getSelect();
+        HashSet<Column> columns = new HashSet<Column>();
+        ExpressionVisitor visitor = ExpressionVisitor.getColumnsVisitor(columns);
+        boolean[] fields = null;
+        if(select.isEverything(visitor)) {
+            for(TableFilter topFilter : select.getTopFilters()) {
+                addConditionColumns(topFilter, visitor);
+            }
+            fields = new boolean[table.getColumns().length - 1];
+            for(Column column : columns) {
+                if(column.getTable() == table && column.getColumnId() > 0) {
+                    fields[column.getColumnId() - 1] = true;
+                }
+            }
+        }
+        lastReadFields = new ReadFields(filter, fields);
+        return fields;
+    }
+
+    /**
+     * Join conditions are not in the select condition.
+     */
+    private static void addConditionColumns(TableFilter filter, ExpressionVisitor visitor) {
+        while(filter != null) {
+            for(Expression condition : new Expression[] {filter.getJoinCondition(), filter.getFilterCondition()}) {
+                if(condition != null) {
+                    condition.isEverything(visitor);
+                }
+            }
+            addConditionColumns(filter.getNestedJoin(), visitor);
+            filter = filter.getJoin();
+        }
+    }
+
+    @Override
+    public Cursor find(TableFilter filter, SearchRow first, SearchRow last) {
+        SHPCursor cursor = (SHPCursor)find(filter.getSession(), first, last);
+        cursor.fields = getReadFields(filter);
+        return cursor;
+    }
+
     @Override
     public Cursor find(Session session, SearchRow first, SearchRow last) {
         if (!isScanIndex) {
@@ -218,6 +443,8 @@ public class H2TableIndex extends BaseIndex {
         private long rowIndex;
         private Session session;
         private SearchRow begin, end;
+        private boolean envelopeOnly = false;
+        private boolean[] fields = null;
 
         private SHPCursor(H2TableIndex tIndex, long rowIndex, Session session) {
             this.tIndex = tIndex;
@@ -235,7 +462,10 @@ public class H2TableIndex extends BaseIndex {
 
         @Override
         public Row get() {
-            return tIndex.getRow(session, rowIndex);
+            if(envelopeOnly) {
+                return tIndex.getEnvelopeRow(session, rowIndex);
+            }
+            return tIndex.getRow(session, rowIndex, fields);
         }
 
         @Override
@@ -265,4 +495,62 @@ public class H2TableIndex extends BaseIndex {
             }
         }
     }
+
+    /**
+     * Row of a query that reads only some columns. A column missed by {@link #getReadFields(TableFilter)} is not
+     * NULL, all the fields not read are read the first time such a column is requested.
+     */
+    private static class PartialRow extends Row {
+        private final H2TableIndex tIndex;
+        private final Session session;
+        private boolean complete = false;
+
+        private PartialRow(Value[] data, H2TableIndex tIndex, Session session) {
+            super(data, Row.MEMORY_CALCULATE);
+            this.tIndex = tIndex;
+            this.session = session;
+        }
+
+        @Override
+        public Value getValue(int i) {
+            Value value = super.getValue(i);
+            if(value == null && !complete) {
+                Row fullRow = tIndex.getRow(session, getKey(), null);
+                for(int idField = 0; idField < getColumnCount(); idField++) {
+                    if(super.getValue(idField) == null) {
+                        setValue(idField, fullRow.getValue(idField));
+                    }
+                }
+                complete = true;
+                value = super.getValue(i);
+            }
+            return value;
+        }
+    }
+
+    /**
+     * Read modes computed from the fields requested by a cursor
+     */
+    private static class ReadModes {
+        private final boolean[] key;
+        private final byte[] readModes;
+
+        private ReadModes(boolean[] key, byte[] readModes) {
+            this.key = key;
+            this.readModes = readModes;
+        }
+    }
+
+    /**
+     * Fields computed from a key, the table filter of a query or the fields requested by a cursor
+     */
+    private static class ReadFields {
+        private final Object key;
+        private final boolean[] fields;
+
+        private ReadFields(Object key, boolean[] fields) {
+            this.key = key;
+            this.fields = fields;
+        }
+    }
 }
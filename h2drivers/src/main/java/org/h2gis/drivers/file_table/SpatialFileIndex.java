@@ -0,0 +1,331 @@
+/*
+ * h2spatial is a library that brings spatial support to the H2 Java database.
+ *
+ * h2spatial is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2014 IRSTV (FR CNRS 2488)
+ *
+ * h2patial is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * h2spatial is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * h2spatial. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+
+package org.h2gis.drivers.file_table;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import org.h2.engine.Constants;
+import org.h2.engine.Session;
+import org.h2.index.BaseIndex;
+import org.h2.index.Cursor;
+import org.h2.index.IndexCondition;
+import org.h2.index.IndexType;
+import org.h2.index.SpatialIndex;
+import org.h2.message.DbException;
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
+import org.h2.mvstore.rtree.MVRTreeMap;
+import org.h2.mvstore.rtree.SpatialKey;
+import org.h2.result.Row;
+import org.h2.result.SearchRow;
+import org.h2.result.SortOrder;
+import org.h2.table.Column;
+import org.h2.table.IndexColumn;
+import org.h2.table.Table;
+import org.h2.table.TableFilter;
+import org.h2.value.Value;
+import org.h2.value.ValueGeometry;
+import org.h2.value.ValueNull;
+
+import java.io.File;
+import java.util.Iterator;
+
+/**
+ * R-Tree spatial index stored in a file next to the linked file. The index file keeps the size and the last
+ * modification date of the linked file, the index is rebuilt only if the linked file has changed.
+ * This index file is a cache, it is not removed when the index is dropped.
+ */
+public class SpatialFileIndex extends BaseIndex implements SpatialIndex {
+    /** Index file extension */
+    public static final String INDEX_FILE_EXTENSION = "idx";
+    private static final String TREE_MAP_NAME = "spatialIndex";
+    private static final String SOURCE_MAP_NAME = "sourceFile";
+    private static final String SOURCE_SIZE = "size";
+    private static final String SOURCE_LAST_MODIFIED = "lastModified";
+    private static final String SOURCE_ROW_COUNT = "rowCount";
+    private final MVStore store;
+    private final MVRTreeMap<Long> treeMap;
+    private final MVMap<String, Long> sourceMap;
+    private final File sourceFile;
+    private final File indexFile;
+    private boolean needRebuild;
+    private boolean closed = false;
+
+    /**
+     * Open or create the index file.
+     * @param table Linked table
+     * @param id Index identifier
+     * @param indexName Index name
+     * @param columns Indexed geometry column
+     * @param indexType Index type, must be spatial
+     * @param sourceFile Linked file, the index file is created in the same folder
+     * @throws IllegalStateException If the index file cannot be opened (locked or read only)
+     */
+    public SpatialFileIndex(Table table, int id, String indexName, IndexColumn[] columns, IndexType indexType,
+                            File sourceFile) {
+        if (indexType.isUnique()) {
+            throw DbException.getUnsupportedException("not unique");
+        }
+        if (columns.length > 1) {
+            throw DbException.getUnsupportedException("can only do one column");
+        }
+        if ((columns[0].sortType & (SortOrder.DESCENDING | SortOrder.NULLS_FIRST | SortOrder.NULLS_LAST)) != 0) {
+            throw DbException.getUnsupportedException("cannot do descending, nulls first or nulls last");
+        }
+        initBaseIndex(table, id, indexName, columns, indexType);
+        if (!database.isStarting() && columns[0].column.getType() != Value.GEOMETRY) {
+            throw DbException.getUnsupportedException("spatial index on non-geometry column, " +
+                    columns[0].column.getCreateSQL());
+        }
+        this.sourceFile = sourceFile;
+        this.indexFile = getIndexFile(sourceFile, columns[0].column.getName());
+        store = new MVStore.Builder().fileName(indexFile.getAbsolutePath()).open();
+        treeMap = store.openMap(TREE_MAP_NAME, new MVRTreeMap.Builder<Long>());
+        sourceMap = store.openMap(SOURCE_MAP_NAME);
+        needRebuild = !isUpToDate(table.getRowCountApproximation());
+        if (needRebuild) {
+            treeMap.clear();
+            sourceMap.clear();
+        }
+    }
+
+    /**
+     * @param sourceFile Linked file
+     * @param columnName Indexed column name
+     * @return The index file path of this column
+     */
+    public static File getIndexFile(File sourceFile, String columnName) {
+        return new File(sourceFile.getPath() + "." + columnName.toLowerCase() + "." + INDEX_FILE_EXTENSION);
+    }
+
+    /**
+     * @return The index file path
+     */
+    public File getIndexFile() {
+        return indexFile;
+    }
+
+    private boolean isUpToDate(long rowCount) {
+        Long size = sourceMap.get(SOURCE_SIZE);
+        Long lastModified = sourceMap.get(SOURCE_LAST_MODIFIED);
+        Long indexedRowCount = sourceMap.get(SOURCE_ROW_COUNT);
+        return size != null && lastModified != null && indexedRowCount != null &&
+                size == sourceFile.length() && lastModified == sourceFile.lastModified() &&
+                indexedRowCount == rowCount;
+    }
+
+    /**
+     * Called when all the rows of the linked file have been added in this index.
+     * Save the linked file signature in order to reuse this index file the next time the table is opened.
+     */
+    public void setUpToDate() {
+        sourceMap.put(SOURCE_SIZE, sourceFile.length());
+        sourceMap.put(SOURCE_LAST_MODIFIED, sourceFile.lastModified());
+        sourceMap.put(SOURCE_ROW_COUNT, table.getRowCountApproximation());
+        store.commit();
+        needRebuild = false;
+    }
+
+    @Override
+    public void close(Session session) {
+        if (!closed) {
+            store.close();
+            closed = true;
+        }
+    }
+
+    @Override
+    public void add(Session session, Row row) {
+        if (closed) {
+            throw DbException.throwInternalError();
+        }
+        SpatialKey key = getEnvelope(row);
+        if (key != null) {
+            treeMap.add(key, row.getKey());
+        }
+    }
+
+    private SpatialKey getEnvelope(SearchRow row) {
+        Value v = row.getValue(columnIds[0]);
+        if (v == null || v == ValueNull.INSTANCE) {
+            return null;
+        }
+        Geometry g = ((ValueGeometry) v.convertTo(Value.GEOMETRY)).getGeometryNoCopy();
+        Envelope env = g.getEnvelopeInternal();
+        return new SpatialKey(row.getKey(),
+                (float) env.getMinX(), (float) env.getMaxX(),
+                (float) env.getMinY(), (float) env.getMaxY());
+    }
+
+    @Override
+    public void remove(Session session, Row row) {
+        throw DbException.getUnsupportedException("remove in linked files");
+    }
+
+    @Override
+    public Cursor find(TableFilter filter, SearchRow first, SearchRow last) {
+        return find(filter);
+    }
+
+    @Override
+    public Cursor find(Session session, SearchRow first, SearchRow last) {
+        return find(session);
+    }
+
+    private Cursor find(Session session) {
+        return new SpatialCursor(treeMap.keySet().iterator(), table, session, null);
+    }
+
+    private Cursor find(TableFilter filter) {
+        return new SpatialCursor(treeMap.keySet().iterator(), table, filter.getSession(), getReadFields(filter));
+    }
+
+    private boolean[] getReadFields(TableFilter filter) {
+        return table instanceof H2Table ? ((H2Table) table).getReadFields(filter) : null;
+    }
+
+    @Override
+    public Cursor findByGeometry(TableFilter filter, SearchRow intersection) {
+        if (intersection == null) {
+            return find(filter);
+        }
+        SpatialKey key = getEnvelope(intersection);
+        if (key == null) {
+            return find(filter);
+        }
+        return new SpatialCursor(treeMap.findIntersectingKeys(key), table, filter.getSession(),
+                getReadFields(filter));
+    }
+
+    @Override
+    public double getCost(Session session, int[] masks, TableFilter filter, SortOrder sortOrder) {
+        long rowCount = table.getRowCountApproximation() + Constants.COST_ROW_OFFSET;
+        if (masks == null) {
+            return rowCount;
+        }
+        for (Column column : columns) {
+            int mask = masks[column.getColumnId()];
+            if ((mask & IndexCondition.SPATIAL_INTERSECTS) != 0) {
+                return 3 + rowCount / 4;
+            }
+        }
+        return rowCount;
+    }
+
+    @Override
+    public void remove(Session session) {
+        close(session);
+    }
+
+    @Override
+    public void truncate(Session session) {
+        treeMap.clear();
+        sourceMap.clear();
+    }
+
+    @Override
+    public void checkRename() {
+        // Nothing to check
+    }
+
+    @Override
+    public boolean needRebuild() {
+        return needRebuild;
+    }
+
+    @Override
+    public boolean canGetFirstOrLast() {
+        return true;
+    }
+
+    @Override
+    public Cursor findFirstOrLast(Session session, boolean first) {
+        if (!first) {
+            throw DbException.throwInternalError("Spatial Index can only be fetch by ascending order");
+        }
+        return find(session);
+    }
+
+    @Override
+    public long getRowCount(Session session) {
+        return treeMap.sizeAsLong();
+    }
+
+    @Override
+    public long getRowCountApproximation() {
+        return treeMap.sizeAsLong();
+    }
+
+    @Override
+    public long getDiskSpaceUsed() {
+        return indexFile.length();
+    }
+
+    /**
+     * A cursor to iterate over spatial keys.
+     */
+    private static final class SpatialCursor implements Cursor {
+        private final Iterator<SpatialKey> it;
+        private SpatialKey current;
+        private final Table table;
+        private final Session session;
+        private final boolean[] fields;
+
+        private SpatialCursor(Iterator<SpatialKey> it, Table table, Session session, boolean[] fields) {
+            this.it = it;
+            this.table = table;
+            this.session = session;
+            this.fields = fields;
+        }
+
+        @Override
+        public Row get() {
+            if (fields != null) {
+                return ((H2Table) table).getRow(session, current.getId(), fields);
+            }
+            return table.getRow(session, current.getId());
+        }
+
+        @Override
+        public SearchRow getSearchRow() {
+            return get();
+        }
+
+        @Override
+        public boolean next() {
+            if (!it.hasNext()) {
+                return false;
+            }
+            current = it.next();
+            return true;
+        }
+
+        @Override
+        public boolean previous() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,404 @@
+/*
+ * h2spatial is a library that brings spatial support to the H2 Java database.
+ *
+ * h2spatial is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2014 IRSTV (FR CNRS 2488)
+ *
+ * h2patial is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * h2spatial is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * h2spatial. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+
+package org.h2gis.drivers.geojson;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.vividsolutions.jts.geom.Envelope;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.sql.SQLException;
+import java.sql.Types;
+import org.h2.value.Value;
+import org.h2gis.drivers.PartialRowFileDriver;
+import org.h2gis.drivers.SpatialFileDriver;
+import org.h2gis.drivers.utility.ReadBufferManager;
+import org.h2gis.drivers.utility.ReaderPool;
+
+/**
+ * Read a GeoJSON file feature by feature without importing it. The byte
+ * offset, the length and the envelope of each feature are stored in an offset
+ * file next to the GeoJSON file, built by a single scan of the file the first
+ * time the file is opened and rebuilt when the GeoJSON file is modified. The
+ * spatial indexes are built from the stored envelopes without parsing the
+ * geometries.
+ *
+ * The table schema is inferred like {@link GeoJsonReaderDriver}.
+ */
+public class GeoJsonDriver implements SpatialFileDriver, PartialRowFileDriver {
+    /** Extension appended to the GeoJSON file path for the offset file */
+    public static final String OFFSET_FILE_EXTENSION = "offsets";
+    // GeoJSON file length, GeoJSON file last modification and feature count
+    private static final int OFFSET_HEADER_SIZE = 3 * 8;
+    // Offset, length, minX, maxX, minY, maxY
+    private static final int OFFSET_RECORD_SIZE = 6 * 8;
+    private static final int CHUNK_SIZE = 1000;
+    private File geoJsonFile;
+    private File offsetFile;
+    private GeoJsonReaderDriver reader;
+    private FileInputStream geoJsonInputStream;
+    private FileInputStream offsetInputStream;
+    private ReadBufferManager geoJsonBuffer;
+    private ReadBufferManager offsetBuffer;
+    private long rowCount;
+    private boolean memoryMapped = false;
+    // Readers used by getRow and getEnvelope, shared by concurrent threads
+    private final ReaderPool<FeatureReader> readers = new ReaderPool<FeatureReader>() {
+        @Override
+        protected FeatureReader create() throws IOException {
+            return new FeatureReader(geoJsonBuffer.duplicate(), offsetBuffer.duplicate());
+        }
+    };
+
+    /**
+     * @param memoryMapped If true, the file opened by {@link #initDriverFromFile(java.io.File)} is read through
+     *                     memory mapped segments.
+     */
+    public void setMemoryMapped(boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+    }
+
+    /**
+     * @return True if the file is read through memory mapped segments.
+     */
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
+    /**
+     * Infer the table schema and open the offset file.
+     * @param geoJsonFile GeoJSON file path, with the geojson, geojsonl or geojsons extension
+     * @throws IOException
+     */
+    public void initDriverFromFile(File geoJsonFile) throws IOException {
+        this.geoJsonFile = geoJsonFile;
+        reader = new GeoJsonReaderDriver(null, null, geoJsonFile);
+        try {
+            reader.readMetadata();
+            offsetFile = getOffsetFile(geoJsonFile);
+            if (!isUpToDate(offsetFile)) {
+                try {
+                    buildOffsetFile(offsetFile);
+                } catch (IOException ex) {
+                    // Read only directory
+                    offsetFile = File.createTempFile(geoJsonFile.getName(), "." + OFFSET_FILE_EXTENSION);
+                    offsetFile.deleteOnExit();
+                    buildOffsetFile(offsetFile);
+                }
+            }
+        } catch (SQLException ex) {
+            throw new IOException(ex.getMessage(), ex);
+        }
+        offsetInputStream = new FileInputStream(offsetFile);
+        offsetBuffer = new ReadBufferManager(offsetInputStream.getChannel());
+        rowCount = offsetBuffer.getLong(2 * 8);
+        geoJsonInputStream = new FileInputStream(geoJsonFile);
+        geoJsonBuffer = new ReadBufferManager(geoJsonInputStream.getChannel(), memoryMapped);
+        readers.clear();
+    }
+
+    /**
+     * @param geoJsonFile GeoJSON file
+     * @return The offset file of this GeoJSON file
+     */
+    public static File getOffsetFile(File geoJsonFile) {
+        return new File(geoJsonFile.getPath() + "." + OFFSET_FILE_EXTENSION);
+    }
+
+    /**
+     * @return The offset file in use, next to the GeoJSON file or in the temporary directory
+     */
+    public File getOffsetFile() {
+        return offsetFile;
+    }
+
+    private boolean isUpToDate(File file) throws IOException {
+        if (!file.exists() || file.length() < OFFSET_HEADER_SIZE) {
+            return false;
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            long length = raf.readLong();
+            long lastModified = raf.readLong();
+            long count = raf.readLong();
+            return length == geoJsonFile.length() && lastModified == geoJsonFile.lastModified() &&
+                    file.length() == OFFSET_HEADER_SIZE + count * OFFSET_RECORD_SIZE;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Scan the GeoJSON file and write the offset, the length and the envelope of each feature. Only the
+     * coordinates of the geometries are read in order to compute the envelopes.
+     * @param file Offset file
+     */
+    private void buildOffsetFile(File file) throws IOException, SQLException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        long count = 0;
+        try {
+            // The header is written once the file is scanned
+            out.writeLong(0);
+            out.writeLong(0);
+            out.writeLong(0);
+            FileInputStream fis = new FileInputStream(geoJsonFile);
+            try {
+                GeoJsonReaderDriver.FeatureSplitter featureSplitter = reader.openFeatureSplitter(fis);
+                Envelope envelope = new Envelope();
+                GeoJsonReaderDriver.FeatureChunk chunk;
+                while ((chunk = featureSplitter.next(CHUNK_SIZE)) != null) {
+                    for (int i = 0; i < chunk.featureCount; i++) {
+                        int length = chunk.featureEnd[i] - chunk.featureStart[i];
+                        envelope.setToNull();
+                        JsonParser jp = reader.createParser(chunk.data, chunk.featureStart[i], length);
+                        try {
+                            jp.nextToken(); // START_OBJECT {
+                            expandFeatureEnvelope(jp, envelope);
+                        } finally {
+                            jp.close();
+                        }
+                        out.writeLong(chunk.featureOffset[i]);
+                        out.writeLong(length);
+                        if (envelope.isNull()) {
+                            for (int j = 0; j < 4; j++) {
+                                out.writeDouble(Double.NaN);
+                            }
+                        } else {
+                            out.writeDouble(envelope.getMinX());
+                            out.writeDouble(envelope.getMaxX());
+                            out.writeDouble(envelope.getMinY());
+                            out.writeDouble(envelope.getMaxY());
+                        }
+                        count++;
+                    }
+                }
+            } finally {
+                fis.close();
+            }
+        } finally {
+            out.close();
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.writeLong(geoJsonFile.length());
+            raf.writeLong(geoJsonFile.lastModified());
+            raf.writeLong(count);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * The current token is the START_OBJECT of the feature.
+     */
+    private static void expandFeatureEnvelope(JsonParser jp, Envelope envelope) throws IOException {
+        while (jp.nextToken() == JsonToken.FIELD_NAME) {
+            String field = jp.getCurrentName();
+            JsonToken token = jp.nextToken();
+            if (field.equalsIgnoreCase("geometry") && token == JsonToken.START_OBJECT) {
+                expandGeometryEnvelope(jp, envelope);
+            } else {
+                jp.skipChildren();
+            }
+        }
+    }
+
+    /**
+     * The current token is the START_OBJECT of the geometry.
+     */
+    private static void expandGeometryEnvelope(JsonParser jp, Envelope envelope) throws IOException {
+        while (jp.nextToken() == JsonToken.FIELD_NAME) {
+            String field = jp.getCurrentName();
+            JsonToken token = jp.nextToken();
+            if (field.equalsIgnoreCase("coordinates") && token == JsonToken.START_ARRAY) {
+                expandCoordinatesEnvelope(jp, envelope);
+            } else if (field.equalsIgnoreCase("geometries") && token == JsonToken.START_ARRAY) {
+                while (jp.nextToken() == JsonToken.START_OBJECT) {
+                    expandGeometryEnvelope(jp, envelope);
+                }
+            } else {
+                jp.skipChildren();
+            }
+        }
+    }
+
+    /**
+     * The current token is the START_ARRAY of a position or of an array of positions.
+     */
+    private static void expandCoordinatesEnvelope(JsonParser jp, Envelope envelope) throws IOException {
+        JsonToken token = jp.nextToken();
+        if (token == JsonToken.VALUE_NUMBER_FLOAT || token == JsonToken.VALUE_NUMBER_INT) {
+            double x = jp.getDoubleValue();
+            jp.nextToken();
+            envelope.expandToInclude(x, jp.getDoubleValue());
+            // Skip the z value
+            while (jp.nextToken() != JsonToken.END_ARRAY) {
+                jp.skipChildren();
+            }
+        } else {
+            while (token == JsonToken.START_ARRAY) {
+                expandCoordinatesEnvelope(jp, envelope);
+                token = jp.nextToken();
+            }
+        }
+    }
+
+    /**
+     * @return Number of fields of a row
+     */
+    public int getFieldCount() {
+        return reader.getColumnCount();
+    }
+
+    /**
+     * @param fieldId Field index
+     * @return Field name
+     */
+    public String getFieldName(int fieldId) {
+        return reader.getColumnName(fieldId);
+    }
+
+    /**
+     * @param fieldId Field index
+     * @return H2 {@link Value} type of the field
+     */
+    public int getFieldType(int fieldId) {
+        switch (reader.getColumnType(fieldId)) {
+            case Types.OTHER:
+                return Value.GEOMETRY;
+            case Types.INTEGER:
+                return Value.INT;
+            case Types.BIGINT:
+                return Value.LONG;
+            case Types.DOUBLE:
+                return Value.DOUBLE;
+            case Types.BOOLEAN:
+                return Value.BOOLEAN;
+            default:
+                return Value.STRING;
+        }
+    }
+
+    @Override
+    public int getGeometryFieldIndex() {
+        return reader.getGeometryIndex();
+    }
+
+    @Override
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        readers.clear();
+        if (geoJsonInputStream != null) {
+            geoJsonInputStream.close();
+        }
+        if (offsetInputStream != null) {
+            offsetInputStream.close();
+        }
+    }
+
+    @Override
+    public Object[] getRow(long rowId) throws IOException {
+        return getRow(rowId, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     * This method can be called concurrently by several threads.
+     */
+    @Override
+    public Object[] getRow(long rowId, boolean[] fields) throws IOException {
+        FeatureReader featureReader = readers.acquire();
+        try {
+            return featureReader.getRow(rowId, fields);
+        } catch (SQLException ex) {
+            throw new IOException(ex.getMessage() + " at the feature " + (rowId + 1), ex);
+        } finally {
+            readers.release(featureReader);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * This method can be called concurrently by several threads.
+     */
+    @Override
+    public Envelope getEnvelope(long rowId) throws IOException {
+        FeatureReader featureReader = readers.acquire();
+        try {
+            return featureReader.getEnvelope(rowId);
+        } finally {
+            readers.release(featureReader);
+        }
+    }
+
+    /**
+     * Buffers used by a single thread to read the features.
+     */
+    private class FeatureReader {
+        private final ReadBufferManager geoJson;
+        private final ReadBufferManager offsets;
+        private byte[] bytes = new byte[1024];
+
+        private FeatureReader(ReadBufferManager geoJson, ReadBufferManager offsets) {
+            this.geoJson = geoJson;
+            this.offsets = offsets;
+        }
+
+        private Object[] getRow(long rowId, boolean[] fields) throws IOException, SQLException {
+            long record = OFFSET_HEADER_SIZE + rowId * OFFSET_RECORD_SIZE;
+            long start = offsets.getLong(record);
+            int length = (int) offsets.getLong(record + 8);
+            if (length > bytes.length) {
+                bytes = new byte[Math.max(length, bytes.length * 2)];
+            }
+            geoJson.get(start, bytes, 0, length);
+            Object[] values = reader.parseFeature(bytes, 0, length, fields);
+            if (reader.getIdIndex() >= 0 && (fields == null || fields[reader.getIdIndex()])) {
+                values[reader.getIdIndex()] = (int) (rowId + 1);
+            }
+            return values;
+        }
+
+        private Envelope getEnvelope(long rowId) throws IOException {
+            long record = OFFSET_HEADER_SIZE + rowId * OFFSET_RECORD_SIZE + 2 * 8;
+            double minX = offsets.getDouble(record);
+            if (Double.isNaN(minX)) {
+                return new Envelope();
+            }
+            return new Envelope(minX, offsets.getDouble(record + 8), offsets.getDouble(record + 16),
+                    offsets.getDouble(record + 24));
+        }
+    }
+}
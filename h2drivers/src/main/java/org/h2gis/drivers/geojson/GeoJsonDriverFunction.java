@@ -35,11 +35,118 @@ import java.sql.SQLException;
 
 /**
  * GeoJSON driver to import a GeoJSON file and export a spatial table in a
- * GeoJSON 1.0 file.
+ * GeoJSON 1.0 file. Newline delimited GeoJSON (geojsonl) and GeoJSON text
+ * sequences (geojsons) are read and written one feature per line.
  * 
  * @author Erwan Bocher
  */
 public class GeoJsonDriverFunction implements DriverFunction {
+    private int sampleSize = GeoJsonReaderDriver.DEFAULT_SAMPLE_SIZE;
+    private int batchSize = GeoJsonReaderDriver.DEFAULT_BATCH_SIZE;
+    private int importThreadCount = Runtime.getRuntime().availableProcessors();
+    private int exportThreadCount = Runtime.getRuntime().availableProcessors();
+    private boolean packedCoordinates = false;
+    private boolean append = false;
+
+    /**
+     * @param sampleSize Number of features parsed on import in order to infer the table schema
+     */
+    public void setSampleSize(int sampleSize) {
+        if(sampleSize < 1) {
+            throw new IllegalArgumentException("The sample size must be greater than 0");
+        }
+        this.sampleSize = sampleSize;
+    }
+
+    /**
+     * @return Number of features parsed on import in order to infer the table schema
+     */
+    public int getSampleSize() {
+        return sampleSize;
+    }
+
+    /**
+     * @param batchSize Number of rows inserted with a single batch on import, this is also the number of rows
+     *                  encoded by a single task on export
+     */
+    public void setBatchSize(int batchSize) {
+        if(batchSize < 1) {
+            throw new IllegalArgumentException("The batch size must be greater than 0");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return Number of rows inserted with a single batch on import and encoded by a single task on export
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @param importThreadCount Number of threads that parse the features on import, 1 to parse and insert the
+     *                          features in the calling thread. Defaults to the processor count.
+     */
+    public void setImportThreadCount(int importThreadCount) {
+        if(importThreadCount < 1) {
+            throw new IllegalArgumentException("The thread count must be greater than 0");
+        }
+        this.importThreadCount = importThreadCount;
+    }
+
+    /**
+     * @return Number of threads that parse the features on import
+     */
+    public int getImportThreadCount() {
+        return importThreadCount;
+    }
+
+    /**
+     * @param exportThreadCount Number of threads that encode the features on export, 1 to encode and write the
+     *                          features in the calling thread. Defaults to the processor count.
+     */
+    public void setExportThreadCount(int exportThreadCount) {
+        if(exportThreadCount < 1) {
+            throw new IllegalArgumentException("The thread count must be greater than 0");
+        }
+        this.exportThreadCount = exportThreadCount;
+    }
+
+    /**
+     * @return Number of threads that encode the features on export
+     */
+    public int getExportThreadCount() {
+        return exportThreadCount;
+    }
+
+    /**
+     * @param packedCoordinates True to store the coordinates of the imported geometries in primitive arrays instead
+     *                          of Coordinate objects, this reduces the memory usage of dense geometries.
+     */
+    public void setPackedCoordinates(boolean packedCoordinates) {
+        this.packedCoordinates = packedCoordinates;
+    }
+
+    /**
+     * @return True if the coordinates of the imported geometries are stored in primitive arrays
+     */
+    public boolean isPackedCoordinates() {
+        return packedCoordinates;
+    }
+
+    /**
+     * @param append True to append the exported features to an existing geojsonl or geojsons file
+     */
+    public void setAppend(boolean append) {
+        this.append = append;
+    }
+
+    /**
+     * @return True if the exported features are appended to an existing geojsonl or geojsons file
+     */
+    public boolean isAppend() {
+        return append;
+    }
 
     @Override
     public IMPORT_DRIVER_TYPE getImportDriverType() {
@@ -48,18 +155,22 @@ public class GeoJsonDriverFunction implements DriverFunction {
 
     @Override
     public String[] getImportFormats() {
-        return new String[]{"geojson"};
+        return new String[]{"geojson", "geojsonl", "geojsons"};
     }
 
     @Override
     public String[] getExportFormats() {
-        return new String[]{"geojson"};
+        return new String[]{"geojson", "geojsonl", "geojsons"};
     }
 
     @Override
     public String getFormatDescription(String format) {
         if (format.equalsIgnoreCase("geojson")) {
             return "GeoJSON 1.0";
+        } else if (format.equalsIgnoreCase("geojsonl")) {
+            return "Newline delimited GeoJSON";
+        } else if (format.equalsIgnoreCase("geojsons")) {
+            return "GeoJSON text sequence (RFC 8142)";
         } else {
             return "";
         }
@@ -70,12 +181,19 @@ public class GeoJsonDriverFunction implements DriverFunction {
         int recordCount = JDBCUtilities.getRowCount(connection, tableReference);
         ProgressVisitor copyProgress = progress.subProcess(recordCount);
         GeoJsonWriteDriver geoJsonDriver = new GeoJsonWriteDriver(connection, tableReference, fileName);
+        geoJsonDriver.setAppend(append);
+        geoJsonDriver.setBatchSize(batchSize);
+        geoJsonDriver.setThreadCount(exportThreadCount);
         geoJsonDriver.write(copyProgress);
     }
 
     @Override
     public void importFile(Connection connection, String tableReference, File fileName, ProgressVisitor progress) throws SQLException, IOException {
         GeoJsonReaderDriver geoJsonReaderDriver = new GeoJsonReaderDriver(connection, tableReference, fileName);
+        geoJsonReaderDriver.setSampleSize(sampleSize);
+        geoJsonReaderDriver.setBatchSize(batchSize);
+        geoJsonReaderDriver.setThreadCount(importThreadCount);
+        geoJsonReaderDriver.setPackedCoordinates(packedCoordinates);
         geoJsonReaderDriver.read(progress);
     }
 }
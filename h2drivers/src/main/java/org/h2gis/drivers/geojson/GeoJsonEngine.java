@@ -0,0 +1,54 @@
+/*
+ * h2spatial is a library that brings spatial support to the H2 Java database.
+ *
+ * h2spatial is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2014 IRSTV (FR CNRS 2488)
+ *
+ * h2patial is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * h2spatial is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * h2spatial. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+
+package org.h2gis.drivers.geojson;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import org.h2.command.ddl.CreateTableData;
+import org.h2.table.Column;
+import org.h2gis.drivers.file_table.FileEngine;
+
+/**
+ * GeoJSON Table factory, the GeoJSON file is linked without being copied into the database.
+ */
+public class GeoJsonEngine extends FileEngine<GeoJsonDriver> {
+
+    @Override
+    protected GeoJsonDriver createDriver(File filePath, List<String> args) throws IOException {
+        GeoJsonDriver driver = new GeoJsonDriver();
+        driver.setMemoryMapped(getBooleanOption(args, OPTION_MEMORY_MAPPED, false));
+        driver.initDriverFromFile(filePath);
+        return driver;
+    }
+
+    @Override
+    protected void feedCreateTableData(GeoJsonDriver driver, CreateTableData data) throws IOException {
+        for (int i = 0; i < driver.getFieldCount(); i++) {
+            data.columns.add(new Column(driver.getFieldName(i), driver.getFieldType(i)));
+        }
+    }
+}
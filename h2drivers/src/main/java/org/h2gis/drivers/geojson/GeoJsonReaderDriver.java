@@ -28,6 +28,8 @@ import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonToken;
 import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.CoordinateSequenceFactory;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryCollection;
 import com.vividsolutions.jts.geom.GeometryFactory;
@@ -38,39 +40,93 @@ import com.vividsolutions.jts.geom.MultiPoint;
 import com.vividsolutions.jts.geom.MultiPolygon;
 import com.vividsolutions.jts.geom.Point;
 import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.geom.impl.PackedCoordinateSequenceFactory;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import org.h2gis.h2spatialapi.ProgressVisitor;
+import org.h2gis.utilities.JDBCUtilities;
 
 /**
  * Driver to import a GeoJSON file into a spatial table.
  *
  * Supported geometries are POINT, LINESTRING, POLYGON and GEOMETRYCOLLECTION.
  *
- * The driver requires all Feature objects in a collection to have the same
- * schema of properties. To build the table schema the first feature of the
- * FeatureCollection is parsed. If the GeoJSON format does not contain any
- * properties, a default primary key is added.
+ * The table schema is inferred from the first features of the
+ * FeatureCollection, see {@link #setSampleSize(int)}. A property missing from
+ * a feature is imported as null. On import, a property that is not found in
+ * the sample is added as a new column and a column is widened (INT to BIGINT
+ * or DOUBLE, other types to VARCHAR) when a value does not fit its type. If
+ * the GeoJSON format does not contain any properties, a default primary key
+ * is added.
+ *
+ * A newline delimited GeoJSON file (geojsonl extension) or a GeoJSON text
+ * sequence (geojsons extension, RFC 8142) contains one feature per line.
+ *
+ * The features can be parsed by several threads, in that case the features
+ * array is split at the feature boundaries into chunks of
+ * {@link #setBatchSize(int)} features. The rows are inserted in the file order.
  *
  * @author Erwan Bocher
  */
 public class GeoJsonReaderDriver {
-
+    /** Default number of features parsed to infer the table schema */
+    public static final int DEFAULT_SAMPLE_SIZE = 100;
+    /** Default number of rows inserted with a single batch */
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+    private static final int BUFFER_SIZE = 64 * 1024;
     private final String tableName;
     private final File fileName;
     private final Connection connection;
     private static final GeometryFactory GF = new GeometryFactory();
-    private PreparedStatement preparedStatement = null;
+    private static final GeometryFactory PACKED_GF = new GeometryFactory(
+            new PackedCoordinateSequenceFactory(PackedCoordinateSequenceFactory.DOUBLE, 3));
+    private static final ThreadLocal<CoordinateBuffer> COORDINATE_BUFFER = new ThreadLocal<CoordinateBuffer>() {
+        @Override
+        protected CoordinateBuffer initialValue() {
+            return new CoordinateBuffer();
+        }
+    };
+    private GeometryFactory geometryFactory = GF;
     private JsonFactory jsFactory;
     private boolean hasProperties = false;
     private int featureCounter = 1;
+    private int sampleSize = DEFAULT_SAMPLE_SIZE;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private int threadCount = 1;
+    // Table schema
+    private final List<String> columnNames = new ArrayList<String>();
+    private final List<Integer> columnTypes = new ArrayList<Integer>();
+    private final Map<String, Integer> propertyIndex = new HashMap<String, Integer>();
+    private int geometryIndex = -1;
+    private int idIndex = -1;
+    // Number of columns inferred from the sample, the columns added during the import follow
+    private int sampleColumnCount = 0;
+    // Columns added during the import, used by the inserting thread only
+    private final Map<String, Integer> addedColumns = new HashMap<String, Integer>();
+    private PreparedStatement preparedStatement;
+    private boolean sequence = false;
 
     /**
      * Driver to import a GeoJSON file into a spatial table.
@@ -86,24 +142,212 @@ public class GeoJsonReaderDriver {
     }
 
     /**
-     * Read the GeoJSON file.
+     * @param sampleSize Number of features parsed in order to infer the
+     * columns and their types.
+     */
+    public void setSampleSize(int sampleSize) {
+        if (sampleSize < 1) {
+            throw new IllegalArgumentException("The sample size must be greater than 0");
+        }
+        this.sampleSize = sampleSize;
+    }
+
+    /**
+     * @return Number of features parsed in order to infer the table schema
+     */
+    public int getSampleSize() {
+        return sampleSize;
+    }
+
+    /**
+     * @param batchSize Number of rows inserted with a single batch, this is
+     * also the number of features parsed by a single task.
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("The batch size must be greater than 0");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return Number of rows inserted with a single batch
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @param threadCount Number of threads that parse the features, 1 to parse
+     * and insert the features in the calling thread. The parallel mode expects
+     * an UTF-8 (or ASCII) encoded file.
+     */
+    public void setThreadCount(int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("The thread count must be greater than 0");
+        }
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * @return Number of threads that parse the features
+     */
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * @param packedCoordinates True to store the coordinates of the imported
+     * geometries in primitive arrays (see {@link PackedCoordinateSequenceFactory})
+     * instead of Coordinate objects.
+     */
+    public void setPackedCoordinates(boolean packedCoordinates) {
+        geometryFactory = packedCoordinates ? PACKED_GF : GF;
+    }
+
+    /**
+     * @return True if the coordinates are stored in primitive arrays
+     */
+    public boolean isPackedCoordinates() {
+        return geometryFactory == PACKED_GF;
+    }
+
+    /**
+     * Read the GeoJSON file. A file with the geojsonl or geojsons extension is
+     * read as a sequence of features, one feature per line optionally prefixed
+     * by a record separator (RFC 8142).
      *
      * @param progress
      */
     public void read(ProgressVisitor progress) throws SQLException, IOException {
+        checkExtension();
+        parseGeoJson(progress);
+    }
+
+    /**
+     * Read the table schema without creating the table, used by the linked
+     * GeoJSON files.
+     */
+    void readMetadata() throws SQLException, IOException {
+        checkExtension();
+        init();
+        parseMetadata();
+    }
+
+    private void checkExtension() throws SQLException {
         String path = fileName.getAbsolutePath();
         String extension = "";
         int i = path.lastIndexOf('.');
         if (i >= 0) {
             extension = path.substring(i + 1);
         }
-        if (extension.equalsIgnoreCase("geojson")) {
-            parseGeoJson(progress);
-        } else {
-            throw new SQLException("Please geojson extension.");
+        if (extension.equalsIgnoreCase("geojsonl") || extension.equalsIgnoreCase("geojsons")) {
+            sequence = true;
+        } else if (!extension.equalsIgnoreCase("geojson")) {
+            throw new SQLException("Please geojson, geojsonl or geojsons extension.");
         }
     }
 
+    /**
+     * @return True if the file is a sequence of features
+     */
+    boolean isSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return Number of columns of the table schema
+     */
+    int getColumnCount() {
+        return columnNames.size();
+    }
+
+    /**
+     * @param column Column index
+     * @return Column name
+     */
+    String getColumnName(int column) {
+        return columnNames.get(column);
+    }
+
+    /**
+     * @param column Column index
+     * @return Column type, see {@link Types}
+     */
+    int getColumnType(int column) {
+        return columnTypes.get(column);
+    }
+
+    /**
+     * @return Index of the geometry column
+     */
+    int getGeometryIndex() {
+        return geometryIndex;
+    }
+
+    /**
+     * @return Index of the default primary key, -1 if the features have properties
+     */
+    int getIdIndex() {
+        return idIndex;
+    }
+
+    /**
+     * @param data Bytes of the file
+     * @param offset Offset of the JSON value
+     * @param length Length of the JSON value
+     * @return A parser on the JSON value
+     */
+    JsonParser createParser(byte[] data, int offset, int length) throws IOException {
+        return jsFactory.createParser(data, offset, length);
+    }
+
+    /**
+     * Parses a single feature, this method is thread safe.
+     *
+     * @param data Bytes of the file
+     * @param offset Offset of the feature
+     * @param length Length of the feature
+     * @param fields Columns to read, null to read all columns
+     * @return The row values, the default primary key is not set. The columns not read are null.
+     */
+    Object[] parseFeature(byte[] data, int offset, int length, boolean[] fields) throws IOException, SQLException {
+        JsonParser jp = jsFactory.createParser(data, offset, length);
+        try {
+            jp.nextToken(); // START_OBJECT {
+            return parseFeature(jp, false, fields);
+        } finally {
+            jp.close();
+        }
+    }
+
+    /**
+     * Open a feature splitter on the file, after the opening bracket of the
+     * features array of a FeatureCollection.
+     *
+     * @param fis File stream at the beginning of the file
+     * @return The feature splitter
+     */
+    FeatureSplitter openFeatureSplitter(FileInputStream fis) throws IOException, SQLException {
+        long featuresOffset = 0;
+        if (!sequence) {
+            FileInputStream headerStream = new FileInputStream(fileName);
+            try {
+                JsonParser jp = jsFactory.createParser(headerStream);
+                featuresOffset = parseFeatureCollectionHeader(jp);
+                jp.close();
+            } finally {
+                headerStream.close();
+            }
+        }
+        FeatureSplitter featureSplitter = new FeatureSplitter(fis, sequence, featuresOffset);
+        if (!sequence) {
+            fis.getChannel().position(featuresOffset);
+            featureSplitter.skipArrayStart();
+        }
+        return featureSplitter;
+    }
+
     /**
      * Parses a GeoJSON 1.0 file and writes it to a table.
      *
@@ -132,96 +376,60 @@ public class GeoJsonReaderDriver {
     private void parseGeoJson(ProgressVisitor progress) throws SQLException, IOException {
         init();
         if (parseMetadata()) {
-            parseData();
+            createTable();
+            preparedStatement = connection.prepareStatement(getInsertQuery());
+            try {
+                if (threadCount > 1 || sequence) {
+                    parseDataPipeline();
+                } else {
+                    parseData();
+                }
+            } finally {
+                preparedStatement.close();
+            }
         } else {
             throw new SQLException("Cannot create the table " + tableName + " to import the GeoJSON data");
         }
     }
 
     /**
-     * Parses the first GeoJSON feature to create the PreparedStatement.
+     * Parses the first {@link #sampleSize} GeoJSON features to build the table
+     * schema.
      *
+     * @return True if a geometry field has been found
      * @throws SQLException
      * @throws IOException
      */
     private boolean parseMetadata() throws SQLException, IOException {
         FileInputStream fis = null;
-        boolean hasGeometryField = false;
-        int fieldIndex = 0;
-        StringBuilder metadataBuilder = new StringBuilder();
         try {
             fis = new FileInputStream(fileName);
-            JsonParser jp = jsFactory.createParser(fis);
-            metadataBuilder.append("CREATE TABLE ");
-            metadataBuilder.append(tableName);
-            metadataBuilder.append(" (");
-
-            jp.nextToken();//START_OBJECT
-            jp.nextToken(); // field_name (type)
-            jp.nextToken(); // value_string (FeatureCollection)
-            String geomType = jp.getText();
-            // TODO take into account CRS as
-            /**
-             * "type": "FeatureCollection", "crs": { "type": "name",
-             * "properties": { "name": "EPSG:4326" } }, features:
-             */
-            if (geomType.equalsIgnoreCase("featurecollection")) {
-                jp.nextToken(); // FIELD_NAME features
-                String firstParam = jp.getText();
-                if (firstParam.equalsIgnoreCase("features")) {
-                    jp.nextToken(); // START_ARRAY [
-                    JsonToken token = jp.nextToken(); // START_OBJECT {
-                    if (token != JsonToken.END_ARRAY) {
-                        jp.nextToken(); // FIELD_NAME type
-                        jp.nextToken(); // VALUE_STRING Feature
-                        geomType = jp.getText();
-                        if (geomType.equalsIgnoreCase("feature")) {
-                            jp.nextToken(); // FIELD_NAME geometry
-                            String firstField = jp.getText();
-                            if (firstField.equalsIgnoreCase("geometry")) {
-                                parseGeometryMetadata(jp, metadataBuilder);
-                                hasGeometryField = true;
-                                fieldIndex++;
-                                jp.nextToken();//END_OBJECT } geometry
-                            } else if (firstField.equalsIgnoreCase("properties")) {
-                                fieldIndex = parseMetadataProperties(jp, metadataBuilder, fieldIndex);
-                                hasProperties = true;
-                            }
-                            // If there is only one geometry field in the feature them the next
-                            // token corresponds to the end object of the feature.
-                            jp.nextToken();
-                            if (jp.getCurrentToken() != JsonToken.END_OBJECT) {
-                                String secondParam = jp.getText();
-                                if (secondParam.equalsIgnoreCase("geometry")) {
-                                    parseGeometryMetadata(jp, metadataBuilder);
-                                    hasGeometryField = true;
-                                    fieldIndex++;
-                                    jp.nextToken();//END_OBJECT } geometry;
-                                } else if (secondParam.equalsIgnoreCase("properties")) {
-                                    fieldIndex = parseMetadataProperties(jp, metadataBuilder, fieldIndex);
-                                    hasProperties = true;
-                                }
-                                jp.nextToken(); //END_OBJECT } feature
-                            }
-                            if (!hasProperties) {
-                                metadataBuilder.append("ID INT, PRIMARY KEY (ID)");
-                                fieldIndex++;
-                            }
-                            metadataBuilder.append(")");
-                        } else {
-                            throw new SQLException("Malformed GeoJSON file. Expected 'Feature', found '" + geomType + "'");
-                        }
-                    }
-                } else {
-                    throw new SQLException("Malformed GeoJSON file. Expected 'features', found '" + firstParam + "'");
+            if (sequence) {
+                FeatureChunk chunk = new FeatureSplitter(fis, true, 0).next(sampleSize);
+                for (int i = 0; chunk != null && i < chunk.featureCount; i++) {
+                    JsonParser jp = jsFactory.createParser(chunk.data, chunk.featureStart[i],
+                            chunk.featureEnd[i] - chunk.featureStart[i]);
+                    jp.nextToken(); // START_OBJECT {
+                    parseMetadataFeature(jp);
+                    jp.close();
                 }
             } else {
-                throw new SQLException("Malformed GeoJSON file. Expected 'FeatureCollection', found '" + geomType + "'");
+                JsonParser jp = jsFactory.createParser(fis);
+                parseFeatureCollectionHeader(jp);
+                int featureCount = 0;
+                JsonToken token = jp.nextToken(); // START_OBJECT {
+                while (token != JsonToken.END_ARRAY && featureCount < sampleSize) {
+                    if (token != JsonToken.START_OBJECT) {
+                        throw new SQLException("Malformed GeoJSON file. Expected a feature, found '" + jp.getText() + "'");
+                    }
+                    parseMetadataFeature(jp);
+                    featureCount++;
+                    token = jp.nextToken(); // START_OBJECT new feature
+                }
+                jp.close();
             }
-            jp.close();
         } catch (FileNotFoundException ex) {
             throw new SQLException(ex);
-
         } finally {
             try {
                 if (fis != null) {
@@ -231,99 +439,230 @@ public class GeoJsonReaderDriver {
                 throw new IOException(ex);
             }
         }
+        if (geometryIndex < 0) {
+            throw new SQLException("The first features must contain a geometry field.");
+        }
+        if (!hasProperties) {
+            idIndex = columnNames.size();
+            columnNames.add("ID");
+            columnTypes.add(Types.INTEGER);
+        }
+        sampleColumnCount = columnNames.size();
+        return true;
+    }
 
-        // Now we create the table if there is at leat one geometry field.
-        if (hasGeometryField) {
-            Statement stmt = connection.createStatement();
-            stmt.execute(metadataBuilder.toString());
-            stmt.close();
-            // We return the preparedstatement of the waypoints table.
-            if (fieldIndex > 0) {
-                StringBuilder insert = new StringBuilder("INSERT INTO ").append(tableName).append(" VALUES ( ?");
-                for (int i = 1; i < fieldIndex; i++) {
-                    insert.append(",?");
+    /**
+     * Parses a feature of the sample used to build the table schema. The
+     * current token is the START_OBJECT of the feature.
+     *
+     * @param jp
+     */
+    private void parseMetadataFeature(JsonParser jp) throws IOException, SQLException {
+        while (jp.nextToken() != JsonToken.END_OBJECT) {
+            String field = jp.getCurrentName(); // FIELD_NAME
+            JsonToken token = jp.nextToken();
+            if (field.equalsIgnoreCase("geometry")) {
+                if (geometryIndex < 0 && token == JsonToken.START_OBJECT) {
+                    geometryIndex = columnNames.size();
+                    columnNames.add("THE_GEOM");
+                    columnTypes.add(Types.OTHER);
                 }
-                insert.append(");");
-                preparedStatement = connection.prepareStatement(insert.toString());
-                return true;
+                jp.skipChildren();
+            } else if (field.equalsIgnoreCase("properties")) {
+                hasProperties = true;
+                parseMetadataProperties(jp);
+            } else {
+                checkFeatureType(jp, field);
+                jp.skipChildren();
             }
-        } else {
-            throw new SQLException("The first feature must contains a geomtry field.");
         }
-        return false;
     }
 
     /**
-     * Parses geometry metadata.
+     * Parses the members of the FeatureCollection until the features array.
+     * The current token is then the START_ARRAY of the features.
      *
      * @param jp
-     * @param metadataBuilder
-     */
-    private void parseGeometryMetadata(JsonParser jp, StringBuilder metadataBuilder) throws IOException, SQLException {
-        jp.nextToken(); //START_OBJECT {
-        jp.nextToken(); // FIELD_NAME type     
-        jp.nextToken(); //VALUE_STRING Point
-        String geomType = jp.getText();
-        if (geomType.equalsIgnoreCase("point") || geomType.equalsIgnoreCase("linestring")
-                || geomType.equalsIgnoreCase("polygon") || geomType.equalsIgnoreCase("multipoint")
-                || geomType.equalsIgnoreCase("multilinestring")
-                || geomType.equalsIgnoreCase("multipolygon")) {
-            jp.nextToken(); // FIELD_NAME coordinates
-            if (jp.getText().equalsIgnoreCase("coordinates")) {
-                jp.nextToken();//START coordinates array
-                jp.skipChildren();
-                metadataBuilder.append("THE_GEOM GEOMETRY,");
+     * @return The byte offset of the features field name
+     */
+    private long parseFeatureCollectionHeader(JsonParser jp) throws IOException, SQLException {
+        jp.nextToken();//START_OBJECT
+        while (jp.nextToken() == JsonToken.FIELD_NAME) {
+            String field = jp.getCurrentName();
+            long fieldOffset = jp.getTokenLocation().getByteOffset();
+            JsonToken token = jp.nextToken();
+            if (field.equalsIgnoreCase("type")) {
+                // TODO take into account CRS as
+                /**
+                 * "type": "FeatureCollection", "crs": { "type": "name",
+                 * "properties": { "name": "EPSG:4326" } }, features:
+                 */
+                String geomType = jp.getText();
+                if (!geomType.equalsIgnoreCase("featurecollection")) {
+                    throw new SQLException("Malformed GeoJSON file. Expected 'FeatureCollection', found '" + geomType + "'");
+                }
+            } else if (field.equalsIgnoreCase("features")) {
+                if (token != JsonToken.START_ARRAY) {
+                    throw new SQLException("Malformed GeoJSON file. Expected an array of features, found '" + jp.getText() + "'");
+                }
+                return fieldOffset;
             } else {
-                throw new SQLException("Malformed GeoJSON file. Expected 'coordinates', found '" + jp.getText() + "'");
-            }
-        } else if (geomType.equalsIgnoreCase("geometrycollection")) {
-            jp.nextToken();//START geometries array
-            if (jp.getText().equalsIgnoreCase("geometries")) {
                 jp.skipChildren();
-                metadataBuilder.append("THE_GEOM GEOMETRY,");
-            } else {
-                throw new SQLException("Malformed GeoJSON file. Expected 'geometries', found '" + jp.getText() + "'");
             }
-        } else {
-            throw new SQLException("Unsupported geometry : " + geomType);
         }
+        throw new SQLException("Malformed GeoJSON file. Expected 'features'");
     }
 
     /**
-     * Parses the metadata properties.
+     * Check the value of the type member of a feature.
      *
      * @param jp
-     * @return index
+     * @param field Current field name
      */
-    private int parseMetadataProperties(JsonParser jp, StringBuilder metadataBuilder, int fieldIndex) throws IOException {
-        jp.nextToken();//START_OBJECT {
+    private static void checkFeatureType(JsonParser jp, String field) throws IOException, SQLException {
+        if (field.equalsIgnoreCase("type") && !jp.getText().equalsIgnoreCase("feature")) {
+            throw new SQLException("Malformed GeoJSON file. Expected 'Feature', found '" + jp.getText() + "'");
+        }
+    }
+
+    /**
+     * Parses the metadata properties, a new column is added for each unknown
+     * property. The type of a known column is widened if the property value
+     * does not fit.
+     *
+     * @param jp
+     */
+    private void parseMetadataProperties(JsonParser jp) throws IOException {
+        if (jp.getCurrentToken() != JsonToken.START_OBJECT) {
+            jp.skipChildren();
+            return;
+        }
         while (jp.nextToken() != JsonToken.END_OBJECT) {
-            String fieldName = jp.getText().toUpperCase(); //FIELD_NAME columnName            
+            String fieldName = jp.getText().toUpperCase(); //FIELD_NAME columnName
             JsonToken value = jp.nextToken();
-            if (value == JsonToken.VALUE_STRING) {
-                metadataBuilder.append(fieldName).append(" VARCHAR");
-                fieldIndex++;
-            } else if (value == JsonToken.VALUE_TRUE) {
-                metadataBuilder.append(fieldName).append(" BOOLEAN");
-                fieldIndex++;
-            } else if (value == JsonToken.VALUE_FALSE) {
-                metadataBuilder.append(fieldName).append(" BOOLEAN");
-                fieldIndex++;
-            } else if (value == JsonToken.VALUE_NUMBER_FLOAT) {
-                metadataBuilder.append(fieldName).append(" DOUBLE");
-                fieldIndex++;
-            } else if (value == JsonToken.VALUE_NUMBER_INT) {
-                metadataBuilder.append(fieldName).append(" INT");
-                fieldIndex++;
-            } else if (value == JsonToken.VALUE_NULL) {
-                metadataBuilder.append(fieldName).append(" VARCHAR");
-                fieldIndex++;
-            } else {
+            if (value == JsonToken.START_OBJECT || value == JsonToken.START_ARRAY) {
                 // TODO: ignore value.
+                jp.skipChildren();
+                continue;
+            }
+            int type = getPropertyType(jp, value);
+            Integer index = propertyIndex.get(fieldName);
+            if (index == null) {
+                propertyIndex.put(fieldName, columnNames.size());
+                columnNames.add(fieldName);
+                columnTypes.add(type);
+            } else {
+                columnTypes.set(index, mergeType(columnTypes.get(index), type));
             }
-            metadataBuilder.append(",");
         }
-        return fieldIndex;
+    }
+
+    /**
+     * @param jp
+     * @param value Current token
+     * @return The SQL type of the property value, {@link Types#NULL} for a null value
+     */
+    private static int getPropertyType(JsonParser jp, JsonToken value) throws IOException {
+        if (value == JsonToken.VALUE_STRING) {
+            return Types.VARCHAR;
+        } else if (value == JsonToken.VALUE_TRUE || value == JsonToken.VALUE_FALSE) {
+            return Types.BOOLEAN;
+        } else if (value == JsonToken.VALUE_NUMBER_FLOAT) {
+            return Types.DOUBLE;
+        } else if (value == JsonToken.VALUE_NUMBER_INT) {
+            switch (jp.getNumberType()) {
+                case INT:
+                    return Types.INTEGER;
+                case LONG:
+                    return Types.BIGINT;
+                default:
+                    return Types.DOUBLE;
+            }
+        } else {
+            return Types.NULL;
+        }
+    }
+
+    /**
+     * @param type Type of the column
+     * @param valueType Type of a value of the column
+     * @return Type that can store both types
+     */
+    private static int mergeType(int type, int valueType) {
+        if (type == valueType || valueType == Types.NULL) {
+            return type;
+        } else if (type == Types.NULL) {
+            return valueType;
+        } else if (isNumeric(type) && isNumeric(valueType)) {
+            if (type == Types.DOUBLE || valueType == Types.DOUBLE) {
+                return Types.DOUBLE;
+            } else {
+                return Types.BIGINT;
+            }
+        } else {
+            return Types.VARCHAR;
+        }
+    }
+
+    private static boolean isNumeric(int type) {
+        return type == Types.INTEGER || type == Types.BIGINT || type == Types.DOUBLE;
+    }
+
+    /**
+     * Creates the table from the inferred schema.
+     */
+    private void createTable() throws SQLException {
+        StringBuilder metadataBuilder = new StringBuilder("CREATE TABLE ");
+        metadataBuilder.append(tableName).append(" (");
+        for (int i = 0; i < columnNames.size(); i++) {
+            if (i > 0) {
+                metadataBuilder.append(",");
+            }
+            if (columnTypes.get(i) == Types.NULL) {
+                // Only null values in the sample
+                columnTypes.set(i, Types.VARCHAR);
+            }
+            metadataBuilder.append(columnNames.get(i)).append(" ").append(getSQLType(columnTypes.get(i)));
+        }
+        if (idIndex >= 0) {
+            metadataBuilder.append(", PRIMARY KEY (ID)");
+        }
+        metadataBuilder.append(")");
+        Statement stmt = connection.createStatement();
+        stmt.execute(metadataBuilder.toString());
+        stmt.close();
+    }
+
+    /**
+     * @return The insert statement of the current columns
+     */
+    private String getInsertQuery() {
+        StringBuilder insert = new StringBuilder("INSERT INTO ").append(tableName).append(" VALUES (");
+        for (int i = 0; i < columnNames.size(); i++) {
+            if (i > 0) {
+                insert.append(",");
+            }
+            insert.append("?");
+        }
+        insert.append(")");
+        return insert.toString();
+    }
+
+    private static String getSQLType(int type) {
+        switch (type) {
+            case Types.OTHER:
+                return "GEOMETRY";
+            case Types.INTEGER:
+                return "INT";
+            case Types.BIGINT:
+                return "BIGINT";
+            case Types.DOUBLE:
+                return "DOUBLE";
+            case Types.BOOLEAN:
+                return "BOOLEAN";
+            default:
+                return "VARCHAR";
+        }
     }
 
     /**
@@ -337,53 +676,107 @@ public class GeoJsonReaderDriver {
     }
 
     /**
-     * Get the PreparedStatement to set the values to the table.
+     * Features in GeoJSON contain a geometry object and additional properties
+     *
+     * Syntax:
+     *
+     * { "type": "Feature", "geometry":{"type": "Point", "coordinates": [102.0,
+     * 0.5]}, "properties": {"prop0": "value0"} }
+     *
+     * This method is thread safe, the current token is the START_OBJECT of the
+     * feature.
      *
-     * @return
+     * @param jp
+     * @param otherProperties True to keep the properties that are not in the
+     * sample
+     * @param fields Columns to read, null to read all columns
+     * @return The row values, the default primary key is not set. If
+     * otherProperties is true the last value is the map of the properties that
+     * are not in the sample, null if there is none.
      */
-    private PreparedStatement getPreparedStatement() {
-        return preparedStatement;
+    private Object[] parseFeature(JsonParser jp, boolean otherProperties, boolean[] fields) throws IOException, SQLException {
+        Object[] values = new Object[otherProperties ? sampleColumnCount + 1 : sampleColumnCount];
+        while (jp.nextToken() != JsonToken.END_OBJECT) {
+            String field = jp.getCurrentName(); // FIELD_NAME
+            JsonToken token = jp.nextToken();
+            if (field.equalsIgnoreCase("geometry")) {
+                if (token == JsonToken.START_OBJECT && (fields == null || fields[geometryIndex])) {
+                    values[geometryIndex] = parseGeometry(jp);
+                } else {
+                    jp.skipChildren();
+                }
+            } else if (field.equalsIgnoreCase("properties")) {
+                parseProperties(jp, values, otherProperties, fields);
+            } else {
+                checkFeatureType(jp, field);
+                jp.skipChildren();
+            }
+        }
+        return values;
     }
 
     /**
-     * Features in GeoJSON contain a geometry object and additional properties
+     * Parses the properties of a feature
      *
      * Syntax:
      *
-     * { "type": "Feature", "geometry":{"type": "Point", "coordinates": [102.0,
-     * 0.5]}, "properties": {"prop0": "value0"} }
+     * "properties": {"prop0": "value0"}
      *
-     * @param jsParser
+     * @param jp
+     * @param values Row values
+     * @param otherProperties True to keep the properties that are not in the
+     * sample in the map at the end of the row values
+     * @param fields Columns to read, null to read all columns
      */
-    private void parseFeature(JsonParser jp) throws IOException, SQLException {
-        jp.nextToken(); // FIELD_NAME geometry
-        String firstField = jp.getText();
-        int fieldIndex = 1;
-        if (firstField.equalsIgnoreCase("geometry")) {
-            jp.nextToken(); //START_OBJECT {
-            getPreparedStatement().setObject(fieldIndex, parseGeometry(jp));
-            fieldIndex++;
-        } else if (firstField.equalsIgnoreCase("properties")) {
-            parseProperties(jp, fieldIndex);
-        }
-        //If there is only one geometry field in the feature them the next
-        //token corresponds to the end object of the feature
-        jp.nextToken();
-        if (jp.getCurrentToken() != JsonToken.END_OBJECT) {
-            String secondParam = jp.getText();// field name
-            if (secondParam.equalsIgnoreCase("geometry")) {
-                jp.nextToken(); //START_OBJECT {
-                getPreparedStatement().setObject(fieldIndex, parseGeometry(jp));
-                fieldIndex++;
-            } else if (secondParam.equalsIgnoreCase("properties")) {
-                parseProperties(jp, fieldIndex);
-            }
-            jp.nextToken(); //END_OBJECT } feature
+    private void parseProperties(JsonParser jp, Object[] values, boolean otherProperties, boolean[] fields) throws IOException {
+        if (jp.getCurrentToken() != JsonToken.START_OBJECT) {
+            jp.skipChildren();
+            return;
         }
-        if (!hasProperties) {
-            getPreparedStatement().setObject(fieldIndex, featureCounter);
+        while (jp.nextToken() != JsonToken.END_OBJECT) {
+            String fieldName = jp.getText().toUpperCase();
+            Integer index = propertyIndex.get(fieldName);
+            JsonToken value = jp.nextToken();
+            Object propertyValue;
+            if (index != null && fields != null && !fields[index]) {
+                // Column not read, do not decode the value
+                jp.skipChildren();
+                continue;
+            }
+            if (value == JsonToken.VALUE_STRING) {
+                propertyValue = jp.getText();
+            } else if (value == JsonToken.VALUE_TRUE || value == JsonToken.VALUE_FALSE) {
+                propertyValue = jp.getBooleanValue();
+            } else if (value == JsonToken.VALUE_NUMBER_FLOAT) {
+                propertyValue = jp.getDoubleValue();
+            } else if (value == JsonToken.VALUE_NUMBER_INT) {
+                switch (jp.getNumberType()) {
+                    case INT:
+                        propertyValue = jp.getIntValue();
+                        break;
+                    case LONG:
+                        propertyValue = jp.getLongValue();
+                        break;
+                    default:
+                        propertyValue = jp.getDoubleValue();
+                }
+            } else {
+                //ignore other value
+                jp.skipChildren();
+                propertyValue = null;
+            }
+            if (index != null) {
+                values[index] = propertyValue;
+            } else if (otherProperties && propertyValue != null) {
+                @SuppressWarnings("unchecked")
+                Map<String, Object> properties = (Map<String, Object>) values[sampleColumnCount];
+                if (properties == null) {
+                    properties = new LinkedHashMap<String, Object>();
+                    values[sampleColumnCount] = properties;
+                }
+                properties.put(fieldName, propertyValue);
+            }
         }
-        getPreparedStatement().execute();
     }
 
     /**
@@ -420,75 +813,6 @@ public class GeoJsonReaderDriver {
         }
     }
 
-    /**
-     * Parses the properties of a feature
-     *
-     * Syntax:
-     *
-     * "properties": {"prop0": "value0"}
-     *
-     * @param jsParser
-     */
-    private void parseProperties(JsonParser jp, int fieldIndex) throws IOException, SQLException {
-        jp.nextToken();//START_OBJECT {
-        while (jp.nextToken() != JsonToken.END_OBJECT) {
-            JsonToken value = jp.nextToken();
-            if (value == JsonToken.VALUE_STRING) {
-                getPreparedStatement().setObject(fieldIndex, jp.getText());
-                fieldIndex++;
-            } else if (value == JsonToken.VALUE_TRUE) {
-                getPreparedStatement().setObject(fieldIndex, jp.getValueAsBoolean());
-                fieldIndex++;
-            } else if (value == JsonToken.VALUE_FALSE) {
-                getPreparedStatement().setObject(fieldIndex, jp.getValueAsBoolean());
-                fieldIndex++;
-            } else if (value == JsonToken.VALUE_NUMBER_FLOAT) {
-                getPreparedStatement().setObject(fieldIndex, jp.getValueAsDouble());
-                fieldIndex++;
-            } else if (value == JsonToken.VALUE_NUMBER_INT) {
-                getPreparedStatement().setObject(fieldIndex, jp.getValueAsInt());
-                fieldIndex++;
-            } else if (value == JsonToken.VALUE_NULL) {
-                getPreparedStatement().setObject(fieldIndex, null);
-                fieldIndex++;
-            } else {
-                //ignore other value
-            }
-        }
-
-    }
-
-    /**
-     * Parses the featureCollection
-     *
-     * @param jp
-     * @throws IOException
-     * @throws SQLException
-     */
-    private void parseFeatures(JsonParser jp) throws IOException, SQLException {
-        jp.nextToken(); // FIELD_NAME features
-        String firstParam = jp.getText();
-        if (firstParam.equalsIgnoreCase("features")) {
-            jp.nextToken(); // START_ARRAY [
-            JsonToken token = jp.nextToken(); // START_OBJECT {
-            while (token != JsonToken.END_ARRAY) {
-                jp.nextToken(); // FIELD_NAME type
-                jp.nextToken(); // VALUE_STRING Feature
-                String geomType = jp.getText();
-                if (geomType.equalsIgnoreCase("feature")) {
-                    parseFeature(jp);
-                    token = jp.nextToken(); //START_OBJECT new feature                    
-                    featureCounter++;
-                } else {
-                    throw new SQLException("Malformed GeoJSON file. Expected 'Feature', found '" + geomType + "'");
-                }
-            }
-            //LOOP END_ARRAY ]
-        } else {
-            throw new SQLException("Malformed GeoJSON file. Expected 'features', found '" + firstParam + "'");
-        }
-    }
-
     /**
      * Parses one position
      *
@@ -505,8 +829,10 @@ public class GeoJsonReaderDriver {
         String coordinatesField = jp.getText();
         if (coordinatesField.equalsIgnoreCase("coordinates")) {
             jp.nextToken(); // START_ARRAY [ to parse the coordinate
-            Point point = GF.createPoint(parseCoordinate(jp));
-            return point;
+            CoordinateBuffer coordinates = COORDINATE_BUFFER.get();
+            coordinates.clear();
+            parseCoordinate(jp, coordinates);
+            return geometryFactory.createPoint(coordinates.toCoordinateSequence(geometryFactory));
         } else {
             throw new SQLException("Malformed GeoJSON file. Expected 'coordinates', found '" + coordinatesField + "'");
         }
@@ -528,7 +854,7 @@ public class GeoJsonReaderDriver {
         String coordinatesField = jp.getText();
         if (coordinatesField.equalsIgnoreCase("coordinates")) {
             jp.nextToken(); // START_ARRAY [ coordinates
-            MultiPoint mPoint = GF.createMultiPoint(parseCoordinates(jp));
+            MultiPoint mPoint = geometryFactory.createMultiPoint(parseCoordinates(jp));
             jp.nextToken();//END_OBJECT } geometry
             return mPoint;
         } else {
@@ -551,7 +877,7 @@ public class GeoJsonReaderDriver {
         String coordinatesField = jp.getText();
         if (coordinatesField.equalsIgnoreCase("coordinates")) {
             jp.nextToken(); // START_ARRAY [ coordinates
-            LineString line = GF.createLineString(parseCoordinates(jp));
+            LineString line = geometryFactory.createLineString(parseCoordinates(jp));
             jp.nextToken();//END_OBJECT } geometry
             return line;
         } else {
@@ -576,10 +902,10 @@ public class GeoJsonReaderDriver {
             jp.nextToken();//START_ARRAY [ coordinates
             jp.nextToken(); // START_ARRAY [ coordinates line
             while (jp.getCurrentToken() != JsonToken.END_ARRAY) {
-                lineStrings.add(GF.createLineString(parseCoordinates(jp)));
+                lineStrings.add(geometryFactory.createLineString(parseCoordinates(jp)));
                 jp.nextToken();
             }
-            MultiLineString line = GF.createMultiLineString(lineStrings.toArray(new LineString[lineStrings.size()]));
+            MultiLineString line = geometryFactory.createMultiLineString(lineStrings.toArray(new LineString[lineStrings.size()]));
             jp.nextToken();//END_OBJECT } geometry
             return line;
         } else {
@@ -616,31 +942,50 @@ public class GeoJsonReaderDriver {
         String coordinatesField = jp.getText();
         if (coordinatesField.equalsIgnoreCase("coordinates")) {
             jp.nextToken(); // START_ARRAY [ coordinates
-            jp.nextToken(); //Start the RING
-            int linesIndex = 0;
-            LinearRing linearRing = null;
-            ArrayList<LinearRing> holes = new ArrayList<LinearRing>();
-            while (jp.getCurrentToken() != JsonToken.END_ARRAY) {
-                if (linesIndex == 0) {
-                    linearRing = GF.createLinearRing(parseCoordinates(jp));
-                } else {
-                    holes.add(GF.createLinearRing(parseCoordinates(jp)));
-                }
-                jp.nextToken();//END RING
-                linesIndex++;
-            }
-            if (linesIndex > 1) {
-                jp.nextToken();//END_OBJECT } geometry
-                return GF.createPolygon(linearRing, holes.toArray(new LinearRing[holes.size()]));
-            } else {
-                jp.nextToken();//END_OBJECT } geometry
-                return GF.createPolygon(linearRing, null);
-            }
+            Polygon polygon = parsePolygonRings(jp);
+            jp.nextToken();//END_OBJECT } geometry
+            return polygon;
         } else {
             throw new SQLException("Malformed GeoJSON file. Expected 'coordinates', found '" + coordinatesField + "'");
         }
     }
 
+    /**
+     * Parses the rings of a polygon. The current token is the START_ARRAY of
+     * the rings and the last token is the END_ARRAY of the rings.
+     *
+     * Parsed syntax:
+     *
+     * [ [ [100.0, 0.0], [101.0, 0.0], [101.0, 1.0], [100.0, 1.0], [100.0, 0.0] ] ]
+     *
+     * @param jp
+     * @return Polygon
+     */
+    private Polygon parsePolygonRings(JsonParser jp) throws IOException {
+        jp.nextToken(); //Start the RING
+        LinearRing shell = null;
+        LinearRing[] holes = null;
+        int holeCount = 0;
+        while (jp.getCurrentToken() != JsonToken.END_ARRAY) {
+            LinearRing ring = geometryFactory.createLinearRing(parseCoordinates(jp));
+            if (shell == null) {
+                shell = ring;
+            } else {
+                if (holes == null) {
+                    holes = new LinearRing[1];
+                } else if (holeCount == holes.length) {
+                    holes = Arrays.copyOf(holes, holeCount * 2);
+                }
+                holes[holeCount++] = ring;
+            }
+            jp.nextToken();//END RING
+        }
+        if (holes != null && holeCount < holes.length) {
+            holes = Arrays.copyOf(holes, holeCount);
+        }
+        return geometryFactory.createPolygon(shell, holes);
+    }
+
     /**
      * Coordinates of a MultiPolygon are an array of Polygon coordinate arrays:
      *
@@ -662,30 +1007,11 @@ public class GeoJsonReaderDriver {
             jp.nextToken(); // START_ARRAY [ coordinates             
             jp.nextToken(); //Start the polygon
             while (jp.getCurrentToken() != JsonToken.END_ARRAY) {
-                //Parse the polygon
-                jp.nextToken(); //Start the RING
-                int linesIndex = 0;
-                LinearRing linearRing = null;
-                ArrayList<LinearRing> holes = new ArrayList<LinearRing>();
-                while (jp.getCurrentToken() != JsonToken.END_ARRAY) {
-                    if (linesIndex == 0) {
-                        linearRing = GF.createLinearRing(parseCoordinates(jp));
-                    } else {
-                        holes.add(GF.createLinearRing(parseCoordinates(jp)));
-                    }
-                    jp.nextToken();//END RING
-                    linesIndex++;
-                }
-                if (linesIndex > 1) {
-                    jp.nextToken();//END_OBJECT
-                    polygons.add(GF.createPolygon(linearRing, holes.toArray(new LinearRing[holes.size()])));
-                } else {
-                    jp.nextToken();//END_OBJECT
-                    polygons.add(GF.createPolygon(linearRing, null));
-                }
+                polygons.add(parsePolygonRings(jp));
+                jp.nextToken();//END polygon
             }
             jp.nextToken();//END_OBJECT } geometry
-            return GF.createMultiPolygon(polygons.toArray(new Polygon[polygons.size()]));
+            return geometryFactory.createMultiPolygon(polygons.toArray(new Polygon[polygons.size()]));
 
         } else {
             throw new SQLException("Malformed GeoJSON file. Expected 'coordinates', found '" + coordinatesField + "'");
@@ -718,7 +1044,7 @@ public class GeoJsonReaderDriver {
                 jp.nextToken();
             }
             jp.nextToken();//END_OBJECT } geometry
-            return GF.createGeometryCollection(geometries.toArray(new Geometry[geometries.size()]));
+            return geometryFactory.createGeometryCollection(geometries.toArray(new Geometry[geometries.size()]));
         } else {
             throw new SQLException("Malformed GeoJSON file. Expected 'geometries', found '" + coordinatesField + "'");
         }
@@ -730,50 +1056,204 @@ public class GeoJsonReaderDriver {
      *
      * [ [100.0, 0.0], [101.0, 1.0] ]
      *
+     * The ordinates are stored in a primitive array reused by the calling
+     * thread, then copied into a coordinate sequence of the geometry factory.
+     *
      * @param jp
      * @throws IOException
-     * @throws SQLException
-     * @return Coordinate[]
+     * @return CoordinateSequence
      */
-    private Coordinate[] parseCoordinates(JsonParser jp) throws IOException {
+    private CoordinateSequence parseCoordinates(JsonParser jp) throws IOException {
         jp.nextToken(); // START_ARRAY [ to parse the each positions
-        ArrayList<Coordinate> coords = new ArrayList<Coordinate>();
+        CoordinateBuffer coordinates = COORDINATE_BUFFER.get();
+        coordinates.clear();
         while (jp.getCurrentToken() != JsonToken.END_ARRAY) {
-            coords.add(parseCoordinate(jp));
+            parseCoordinate(jp, coordinates);
         }
-        return coords.toArray(new Coordinate[coords.size()]);
+        return coordinates.toCoordinateSequence(geometryFactory);
     }
 
     /**
-     * Parses a GeoJSON coordinate array and returns a JTS coordinate. The first
-     * token corresponds to the first X value. The last token correponds to the
-     * end of the coordinate array "]".
+     * Parses a GeoJSON coordinate array and appends it to the coordinate
+     * buffer. The first token corresponds to the first X value. The last token
+     * correponds to the end of the coordinate array "]".
      *
      * Parsed syntax:
      *
      * 100.0, 0.0]
      *
      * @param jp
+     * @param coordinates Coordinate buffer
      * @throws IOException
-     * @return Coordinate
      */
-    private Coordinate parseCoordinate(JsonParser jp) throws IOException {
+    private static void parseCoordinate(JsonParser jp, CoordinateBuffer coordinates) throws IOException {
         jp.nextToken();
         double x = jp.getDoubleValue();// VALUE_NUMBER_FLOAT
         jp.nextToken(); // second value
         double y = jp.getDoubleValue();
-        Coordinate coord;
+        double z = Coordinate.NULL_ORDINATE;
         //We look for a z value
+        if (jp.nextToken() != JsonToken.END_ARRAY) {
+            z = jp.getDoubleValue();
+            // Skip the measure if any
+            while (jp.nextToken() != JsonToken.END_ARRAY) {
+            }
+        }
+        coordinates.add(x, y, z);
         jp.nextToken();
-        if (jp.getCurrentToken() == JsonToken.END_ARRAY) {
-            coord = new Coordinate(x, y);
+    }
+
+    /**
+     * Growable array of x, y, z ordinates.
+     */
+    private static class CoordinateBuffer {
+        private double[] ordinates = new double[3 * 64];
+        private int size = 0;
+
+        private void clear() {
+            size = 0;
+        }
+
+        private void add(double x, double y, double z) {
+            int offset = size * 3;
+            if (offset == ordinates.length) {
+                ordinates = Arrays.copyOf(ordinates, ordinates.length * 2);
+            }
+            ordinates[offset] = x;
+            ordinates[offset + 1] = y;
+            ordinates[offset + 2] = z;
+            size++;
+        }
+
+        /**
+         * @param factory Geometry factory
+         * @return A new coordinate sequence of the factory that contains the buffered coordinates
+         */
+        private CoordinateSequence toCoordinateSequence(GeometryFactory factory) {
+            CoordinateSequenceFactory sequenceFactory = factory.getCoordinateSequenceFactory();
+            if (sequenceFactory instanceof PackedCoordinateSequenceFactory) {
+                // Always 3 dimensions as the WKB encoder of H2 reads the z ordinate of each coordinate
+                return ((PackedCoordinateSequenceFactory) sequenceFactory).create(Arrays.copyOf(ordinates, size * 3), 3);
+            } else {
+                Coordinate[] coordinates = new Coordinate[size];
+                for (int i = 0; i < size; i++) {
+                    coordinates[i] = new Coordinate(ordinates[i * 3], ordinates[i * 3 + 1], ordinates[i * 3 + 2]);
+                }
+                return sequenceFactory.create(coordinates);
+            }
+        }
+    }
+
+    /**
+     * Set the values of a row to the insert statement. A property that is not
+     * in the table is added as a new column and a column is widened if a value
+     * does not fit its type.
+     *
+     * @param values Values of the sample columns followed by the map of the
+     * other properties
+     */
+    private void addRow(Object[] values) throws SQLException {
+        if (idIndex >= 0) {
+            values[idIndex] = featureCounter;
+        }
+        for (int i = 0; i < sampleColumnCount; i++) {
+            if (values[i] != null && i != geometryIndex) {
+                checkColumnType(i, values[i]);
+            }
+        }
+        @SuppressWarnings("unchecked")
+        Map<String, Object> otherProperties = (Map<String, Object>) values[sampleColumnCount];
+        if (otherProperties != null) {
+            for (Map.Entry<String, Object> property : otherProperties.entrySet()) {
+                Integer index = addedColumns.get(property.getKey());
+                if (index != null) {
+                    checkColumnType(index, property.getValue());
+                } else if (!columnNames.contains(property.getKey())) {
+                    addColumn(property.getKey(), getValueType(property.getValue()));
+                }
+            }
+        }
+        for (int i = 0; i < sampleColumnCount; i++) {
+            preparedStatement.setObject(i + 1, values[i]);
+        }
+        for (int i = sampleColumnCount; i < columnNames.size(); i++) {
+            preparedStatement.setObject(i + 1, otherProperties == null ? null : otherProperties.get(columnNames.get(i)));
+        }
+        preparedStatement.addBatch();
+        featureCounter++;
+    }
+
+    /**
+     * @param value Property value
+     * @return The SQL type of the value
+     */
+    private static int getValueType(Object value) {
+        if (value instanceof Integer) {
+            return Types.INTEGER;
+        } else if (value instanceof Long) {
+            return Types.BIGINT;
+        } else if (value instanceof Double) {
+            return Types.DOUBLE;
+        } else if (value instanceof Boolean) {
+            return Types.BOOLEAN;
         } else {
-            double z = jp.getDoubleValue();
-            jp.nextToken(); // exit array
-            coord = new Coordinate(x, y, z);
+            return Types.VARCHAR;
         }
-        jp.nextToken();
-        return coord;
+    }
+
+    /**
+     * Widen the column if the value does not fit its type.
+     *
+     * @param column Column index
+     * @param value Not null value
+     */
+    private void checkColumnType(int column, Object value) throws SQLException {
+        int type = columnTypes.get(column);
+        int valueType = getValueType(value);
+        if (type != valueType) {
+            int mergedType = mergeType(type, valueType);
+            if (mergedType != type) {
+                columnTypes.set(column, mergedType);
+                String sqlType = getSQLType(mergedType);
+                if (JDBCUtilities.isH2DataBase(connection.getMetaData())) {
+                    alterTable("ALTER COLUMN " + columnNames.get(column) + " " + sqlType);
+                } else {
+                    alterTable("ALTER COLUMN " + columnNames.get(column) + " TYPE " + sqlType);
+                }
+            }
+        }
+    }
+
+    /**
+     * Add a column for a property that is not in the sample.
+     *
+     * @param columnName Column name
+     * @param type Column type
+     */
+    private void addColumn(String columnName, int type) throws SQLException {
+        addedColumns.put(columnName, columnNames.size());
+        columnNames.add(columnName);
+        columnTypes.add(type);
+        alterTable("ADD COLUMN " + columnName + " " + getSQLType(type));
+    }
+
+    /**
+     * Insert the rows of the current batch, alter the table then prepare the
+     * insert statement of the new columns.
+     *
+     * @param alter Alter table action
+     */
+    private void alterTable(String alter) throws SQLException {
+        preparedStatement.executeBatch();
+        preparedStatement.clearBatch();
+        Statement stmt = connection.createStatement();
+        try {
+            stmt.execute("ALTER TABLE " + tableName + " " + alter);
+        } finally {
+            stmt.close();
+        }
+        preparedStatement.close();
+        preparedStatement = connection.prepareStatement(getInsertQuery());
     }
 
     /**
@@ -787,16 +1267,25 @@ public class GeoJsonReaderDriver {
         try {
             fis = new FileInputStream(fileName);
             JsonParser jp = jsFactory.createParser(fis);
-
-            jp.nextToken();//START_OBJECT
-            jp.nextToken(); // field_name (type)
-            jp.nextToken(); // value_string (FeatureCollection)
-            String geomType = jp.getText();
-
-            if (geomType.equalsIgnoreCase("featurecollection")) {
-                parseFeatures(jp);
-            } else {
-                throw new SQLException("Malformed GeoJSON file. Expected 'FeatureCollection', found '" + geomType + "'");
+            parseFeatureCollectionHeader(jp);
+            int batchRowCount = 0;
+            JsonToken token = jp.nextToken(); // START_OBJECT {
+            while (token != JsonToken.END_ARRAY) {
+                if (token != JsonToken.START_OBJECT) {
+                    throw new SQLException("Malformed GeoJSON file. Expected a feature, found '" + jp.getText() + "'");
+                }
+                addRow(parseFeature(jp, true, null));
+                batchRowCount++;
+                if (batchRowCount >= batchSize) {
+                    preparedStatement.executeBatch();
+                    preparedStatement.clearBatch();
+                    batchRowCount = 0;
+                }
+                token = jp.nextToken(); //START_OBJECT new feature
+            }
+            //LOOP END_ARRAY ]
+            if (batchRowCount > 0) {
+                preparedStatement.executeBatch();
             }
             jp.close();
         } catch (FileNotFoundException ex) {
@@ -812,4 +1301,297 @@ public class GeoJsonReaderDriver {
             }
         }
     }
+
+    /**
+     * Parses the GeoJSON data with {@link #threadCount} threads. The calling
+     * thread splits the features array (or the feature sequence) into chunks
+     * of {@link #batchSize} features and inserts the parsed chunks in the file
+     * order. The number of pending chunks is bounded in order to limit the
+     * memory usage when the database is slower than the parsing. With a
+     * single thread the chunks are parsed by the calling thread.
+     *
+     * @throws IOException
+     * @throws SQLException
+     */
+    private void parseDataPipeline() throws IOException, SQLException {
+        final int maxPendingBatch = threadCount * 2;
+        ExecutorService executorService = threadCount > 1 ? Executors.newFixedThreadPool(threadCount) : null;
+        FileInputStream fis = new FileInputStream(fileName);
+        try {
+            FeatureSplitter featureSplitter = openFeatureSplitter(fis);
+            Queue<Future<Object[][]>> pendingBatch = new ArrayDeque<Future<Object[][]>>(maxPendingBatch);
+            boolean endOfFeatures = false;
+            while (!endOfFeatures || !pendingBatch.isEmpty()) {
+                while (!endOfFeatures && pendingBatch.size() < maxPendingBatch) {
+                    final FeatureChunk chunk = featureSplitter.next(batchSize);
+                    if (chunk == null) {
+                        endOfFeatures = true;
+                    } else {
+                        Callable<Object[][]> task = new Callable<Object[][]>() {
+                            @Override
+                            public Object[][] call() throws IOException, SQLException {
+                                return parseFeatures(chunk);
+                            }
+                        };
+                        if (executorService != null) {
+                            pendingBatch.add(executorService.submit(task));
+                        } else {
+                            FutureTask<Object[][]> futureTask = new FutureTask<Object[][]>(task);
+                            futureTask.run();
+                            pendingBatch.add(futureTask);
+                        }
+                    }
+                }
+                if (!pendingBatch.isEmpty()) {
+                    for (Object[] values : getRows(pendingBatch.remove())) {
+                        addRow(values);
+                    }
+                    preparedStatement.executeBatch();
+                    preparedStatement.clearBatch();
+                }
+            }
+        } finally {
+            if (executorService != null) {
+                executorService.shutdownNow();
+            }
+            fis.close();
+        }
+    }
+
+    /**
+     * Parses the features of a chunk, this method is called by the worker
+     * threads.
+     *
+     * @param chunk
+     * @return The rows
+     */
+    private Object[][] parseFeatures(FeatureChunk chunk) throws IOException, SQLException {
+        Object[][] rows = new Object[chunk.featureCount][];
+        for (int i = 0; i < chunk.featureCount; i++) {
+            JsonParser jp = jsFactory.createParser(chunk.data, chunk.featureStart[i],
+                    chunk.featureEnd[i] - chunk.featureStart[i]);
+            try {
+                jp.nextToken(); // START_OBJECT {
+                rows[i] = parseFeature(jp, true, null);
+            } finally {
+                jp.close();
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Wait for the parsing of a chunk.
+     *
+     * @param rows
+     * @return The rows
+     */
+    private static Object[][] getRows(Future<Object[][]> rows) throws IOException, SQLException {
+        try {
+            return rows.get();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            } else if (ex.getCause() instanceof SQLException) {
+                throw (SQLException) ex.getCause();
+            } else if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            } else {
+                throw new IOException(ex.getCause());
+            }
+        } catch (InterruptedException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    /**
+     * Bytes of consecutive features.
+     */
+    static class FeatureChunk {
+        final byte[] data;
+        final int[] featureStart;
+        final int[] featureEnd;
+        /** Position of each feature in the file */
+        final long[] featureOffset;
+        final int featureCount;
+
+        private FeatureChunk(byte[] data, int[] featureStart, int[] featureEnd, long[] featureOffset, int featureCount) {
+            this.data = data;
+            this.featureStart = featureStart;
+            this.featureEnd = featureEnd;
+            this.featureOffset = featureOffset;
+            this.featureCount = featureCount;
+        }
+    }
+
+    /**
+     * Split the features array or the feature sequence at the feature
+     * boundaries without parsing the features. Only the nesting level, the
+     * strings (double or single quoted) and the comments are tracked, as
+     * allowed by the parser, so the stream must use an ASCII compatible
+     * encoding.
+     */
+    static class FeatureSplitter {
+        /** RFC 8142 record separator */
+        private static final byte RECORD_SEPARATOR = 0x1E;
+        private final InputStream inputStream;
+        private final boolean sequence;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private int position = 0;
+        private int limit = 0;
+        // Position in the file of the first byte of the buffer
+        private long bufferOffset;
+        private boolean endOfFeatures = false;
+        private int chunkCapacity = BUFFER_SIZE;
+        // '/' for a line comment, '*' for a block comment, 0 out of a comment
+        private int comment = 0;
+        // Previous byte of the comment
+        private int commentLast = 0;
+        // The previous byte is a slash that starts a comment
+        private boolean slash = false;
+
+        /**
+         * @param inputStream Stream positioned before the opening bracket of
+         * the features array, or at the beginning of the feature sequence
+         * @param sequence True if the stream is a sequence of features
+         * @param streamOffset Position of the stream in the file
+         */
+        private FeatureSplitter(InputStream inputStream, boolean sequence, long streamOffset) {
+            this.inputStream = inputStream;
+            this.sequence = sequence;
+            this.bufferOffset = streamOffset;
+        }
+
+        /**
+         * @return The next byte of the stream or -1 at the end of the stream
+         */
+        private int nextByte() throws IOException {
+            if (position == limit) {
+                bufferOffset += limit;
+                limit = inputStream.read(buffer);
+                position = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    return -1;
+                }
+            }
+            return buffer[position++] & 0xFF;
+        }
+
+        /**
+         * Skip the bytes until the opening bracket of the features array.
+         */
+        private void skipArrayStart() throws IOException, SQLException {
+            int b;
+            while ((b = nextByte()) != '[') {
+                // features field name
+                if (b == -1) {
+                    throw new SQLException("Malformed GeoJSON file. Expected 'features'");
+                }
+            }
+        }
+
+        /**
+         * @param maxFeatures Maximum number of features in the chunk
+         * @return The next features or null at the end of the features array
+         */
+        FeatureChunk next(int maxFeatures) throws IOException, SQLException {
+            if (endOfFeatures) {
+                return null;
+            }
+            byte[] data = new byte[chunkCapacity];
+            int length = 0;
+            int[] featureStart = new int[maxFeatures];
+            int[] featureEnd = new int[maxFeatures];
+            long[] featureOffset = new long[maxFeatures];
+            int featureCount = 0;
+            int depth = 0;
+            // Quote of the current string, 0 out of a string
+            int quote = 0;
+            boolean escape = false;
+            while (featureCount < maxFeatures) {
+                int b = nextByte();
+                if (b == -1) {
+                    if (sequence && depth == 0) {
+                        endOfFeatures = true;
+                        break;
+                    }
+                    throw new SQLException("Malformed GeoJSON file. Unexpected end of the features");
+                }
+                if (depth == 0) {
+                    if (isComment(b)) {
+                        continue;
+                    } else if (b == '{') {
+                        featureStart[featureCount] = length;
+                        featureOffset[featureCount] = bufferOffset + position - 1;
+                        depth = 1;
+                    } else if (b == ']' && !sequence) {
+                        endOfFeatures = true;
+                        break;
+                    } else if (b == ',' || b == ' ' || b == '\n' || b == '\r' || b == '\t'
+                            || (sequence && b == RECORD_SEPARATOR)) {
+                        continue;
+                    } else {
+                        throw new SQLException("Malformed GeoJSON file. Expected a feature, found '" + (char) b + "'");
+                    }
+                } else if (quote != 0) {
+                    if (escape) {
+                        escape = false;
+                    } else if (b == '\\') {
+                        escape = true;
+                    } else if (b == quote) {
+                        quote = 0;
+                    }
+                } else if (isComment(b)) {
+                    // Kept in the feature, the parser allows comments
+                } else if (b == '"' || b == '\'') {
+                    quote = b;
+                } else if (b == '{' || b == '[') {
+                    depth++;
+                } else if (b == '}' || b == ']') {
+                    depth--;
+                }
+                if (length == data.length) {
+                    data = Arrays.copyOf(data, data.length * 2);
+                }
+                data[length++] = (byte) b;
+                if (depth == 0) {
+                    featureEnd[featureCount++] = length;
+                }
+            }
+            if (featureCount == 0) {
+                return null;
+            }
+            chunkCapacity = Math.max(chunkCapacity, length);
+            return new FeatureChunk(data, featureStart, featureEnd, featureOffset, featureCount);
+        }
+
+        /**
+         * Track the C and C++ style comments out of the strings.
+         *
+         * @param b Current byte
+         * @return True if the byte is part of a comment
+         */
+        private boolean isComment(int b) throws SQLException {
+            if (comment != 0) {
+                if ((comment == '/' && (b == '\n' || b == '\r')) || (comment == '*' && commentLast == '*' && b == '/')) {
+                    comment = 0;
+                }
+                commentLast = b;
+                return true;
+            } else if (slash) {
+                slash = false;
+                if (b != '/' && b != '*') {
+                    throw new SQLException("Malformed GeoJSON file. Unexpected '/'");
+                }
+                comment = b;
+                commentLast = 0;
+                return true;
+            } else if (b == '/') {
+                slash = true;
+                return true;
+            }
+            return false;
+        }
+    }
 }
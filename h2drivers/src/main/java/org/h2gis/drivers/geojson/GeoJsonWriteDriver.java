@@ -28,16 +28,26 @@ import com.fasterxml.jackson.core.JsonEncoding;
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.vividsolutions.jts.geom.*;
+import com.vividsolutions.jts.io.ParseException;
+import com.vividsolutions.jts.io.WKBReader;
 import org.h2gis.h2spatialapi.ProgressVisitor;
 import org.h2gis.utilities.JDBCUtilities;
 import org.h2gis.utilities.SFSUtilities;
 import org.h2gis.utilities.TableLocation;
 
 import java.io.*;
+import java.nio.charset.Charset;
 import java.sql.*;
-import java.util.HashMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 /**
  * A simple GeoJSON driver to write a spatial table to a GeoJSON file.
@@ -53,15 +63,34 @@ import java.util.Map;
  * "geometry":{"type": "Point", "coordinates": [102.0, 0.5]}, "properties":
  * {"prop0": "value0"} } ]}
  *
+ * A table can also be written as a sequence of features, one feature per line:
+ * newline delimited GeoJSON (geojsonl extension) or GeoJSON text sequence
+ * (geojsons extension, RFC 8142) where each line starts with a record
+ * separator. A sequence can be appended to an existing file.
+ *
  * @author Erwan Bocher
  */
 public class GeoJsonWriteDriver {
+    /** RFC 8142 record separator */
+    private static final char RECORD_SEPARATOR = '\u001e';
+    private static final byte[] COLLECTION_HEADER = "{\"type\":\"FeatureCollection\",\"features\":[".getBytes(Charset.forName("UTF-8"));
+    private static final byte[] COLLECTION_FOOTER = "]}".getBytes(Charset.forName("UTF-8"));
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    static {
+        // The features are separated by commas or line breaks
+        JSON_FACTORY.setRootValueSeparator(null);
+    }
+    /** Default number of rows encoded by a single task */
+    public static final int DEFAULT_BATCH_SIZE = 1000;
 
     private final String tableName;
     private final File fileName;
     private final Connection connection;
-    private Map<String, Integer> cachedColumnNames;
-    private int columnCountProperties = -1;
+    private String[] propertyNames;
+    private int[] propertyColumns;
+    private boolean append = false;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private int threadCount = 1;
 
     /**
      * A simple GeoJSON driver to write a spatial table to a GeoJSON file.
@@ -76,10 +105,61 @@ public class GeoJsonWriteDriver {
         this.fileName = fileName;
     }
 
+    /**
+     * @param append True to append the features at the end of an existing
+     * feature sequence file, ignored for a GeoJSON FeatureCollection.
+     */
+    public void setAppend(boolean append) {
+        this.append = append;
+    }
+
+    /**
+     * @return True if the features are appended to an existing feature sequence file
+     */
+    public boolean isAppend() {
+        return append;
+    }
+
+    /**
+     * @param batchSize Number of rows encoded by a single task
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("The batch size must be greater than 0");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return Number of rows encoded by a single task
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @param threadCount Number of threads that encode the features, 1 to
+     * encode and write the features in the calling thread.
+     */
+    public void setThreadCount(int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("The thread count must be greater than 0");
+        }
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * @return Number of threads that encode the features
+     */
+    public int getThreadCount() {
+        return threadCount;
+    }
+
     /**
      * Write the spatial table to GeoJSON format.
      *
-     * @param progress
+     * @param progress Progress with one step per row, the export stops if
+     * the progress is canceled.
      * @throws SQLException
      */
     public void write(ProgressVisitor progress) throws SQLException, IOException {
@@ -90,24 +170,36 @@ public class GeoJsonWriteDriver {
             extension = path.substring(i + 1);
         }
         if (extension.equalsIgnoreCase("geojson")) {
-            writeGeoJson(progress);
+            writeGeoJson(progress, false, false);
+        } else if (extension.equalsIgnoreCase("geojsonl")) {
+            writeGeoJson(progress, true, false);
+        } else if (extension.equalsIgnoreCase("geojsons")) {
+            writeGeoJson(progress, true, true);
         } else {
-            throw new SQLException("Please geojson extension.");
+            throw new SQLException("Please geojson, geojsonl or geojsons extension.");
         }
     }
 
     /**
      * Write the spatial table to GeoJSON format.
      *
-     * @param progress
+     * The rows are read by the calling thread and grouped into chunks of
+     * {@link #batchSize} rows. The chunks are encoded into JSON fragments by
+     * {@link #threadCount} threads, then the calling thread appends the
+     * fragments to the file in the order of the table.
+     *
+     * @param progress Progress with one step per row, updated after each chunk
+     * @param sequence True to write one feature per line instead of a FeatureCollection
+     * @param recordSeparator True to start each line with the RFC 8142 record separator
      * @throws SQLException
      */
-    private void writeGeoJson(ProgressVisitor progress) throws SQLException, IOException {
+    private void writeGeoJson(ProgressVisitor progress, final boolean sequence, final boolean recordSeparator) throws SQLException, IOException {
         FileOutputStream fos = null;
         try {
-            fos = new FileOutputStream(fileName);
+            fos = new FileOutputStream(fileName, sequence && append);
             // Read Geometry Index and type
-            List<String> spatialFieldNames = SFSUtilities.getGeometryFields(connection, TableLocation.parse(tableName, JDBCUtilities.isH2DataBase(connection.getMetaData())));
+            final boolean isH2 = JDBCUtilities.isH2DataBase(connection.getMetaData());
+            List<String> spatialFieldNames = SFSUtilities.getGeometryFields(connection, TableLocation.parse(tableName, isH2));
             if (spatialFieldNames.isEmpty()) {
                 throw new SQLException(String.format("The table %s does not contain a geometry field", tableName));
             }
@@ -115,32 +207,74 @@ public class GeoJsonWriteDriver {
             // Read table content
             Statement st = connection.createStatement();
             try {
-                ResultSet rs = st.executeQuery(String.format("select * from `%s`", tableName));
-
-                JsonFactory jsonFactory = new JsonFactory();
-                JsonGenerator jsonGenerator = jsonFactory.createGenerator(new BufferedOutputStream(fos), JsonEncoding.UTF8);
-
-                // header of the GeoJSON file
-                jsonGenerator.writeStartObject();
-                jsonGenerator.writeStringField("type", "FeatureCollection");
-                jsonGenerator.writeArrayFieldStart("features");
-
+                ResultSet rs = st.executeQuery(String.format("select * from %s",
+                        TableLocation.parse(tableName, isH2).toString(isH2)));
+                OutputStream out = new BufferedOutputStream(fos);
+                if (!sequence) {
+                    // header of the GeoJSON file
+                    out.write(COLLECTION_HEADER);
+                }
+                final int maxPendingBatch = threadCount * 2;
+                ExecutorService executorService = threadCount > 1 ? Executors.newFixedThreadPool(threadCount) : null;
                 try {
                     ResultSetMetaData resultSetMetaData = rs.getMetaData();
                     int geoFieldIndex = JDBCUtilities.getFieldIndex(resultSetMetaData, spatialFieldNames.get(0));
 
                     cacheMetadata(resultSetMetaData);
-                    while (rs.next()) {
-                        writeFeature(jsonGenerator, rs, geoFieldIndex);
+                    Queue<Future<EncodedFeatures>> pendingBatch = new ArrayDeque<Future<EncodedFeatures>>(maxPendingBatch);
+                    int featureCount = 0;
+                    boolean hasRows = true;
+                    while (hasRows || !pendingBatch.isEmpty()) {
+                        while (hasRows && pendingBatch.size() < maxPendingBatch) {
+                            if (progress.isCanceled()) {
+                                throw new SQLException("Canceled by user");
+                            }
+                            final List<Object[]> rows = new ArrayList<Object[]>(batchSize);
+                            while (rows.size() < batchSize && (hasRows = rs.next())) {
+                                Object[] row = new Object[propertyColumns.length + 1];
+                                // The geometries are decoded from WKB by the worker threads
+                                row[0] = isH2 ? rs.getBytes(geoFieldIndex) : rs.getObject(geoFieldIndex);
+                                for (int i = 0; i < propertyColumns.length; i++) {
+                                    row[i + 1] = rs.getObject(propertyColumns[i]);
+                                }
+                                rows.add(row);
+                            }
+                            if (!rows.isEmpty()) {
+                                Callable<EncodedFeatures> task = new Callable<EncodedFeatures>() {
+                                    @Override
+                                    public EncodedFeatures call() throws IOException {
+                                        return encodeFeatures(rows, sequence, recordSeparator);
+                                    }
+                                };
+                                if (executorService != null) {
+                                    pendingBatch.add(executorService.submit(task));
+                                } else {
+                                    FutureTask<EncodedFeatures> futureTask = new FutureTask<EncodedFeatures>(task);
+                                    futureTask.run();
+                                    pendingBatch.add(futureTask);
+                                }
+                            }
+                        }
+                        if (!pendingBatch.isEmpty()) {
+                            EncodedFeatures encodedFeatures = getEncodedFeatures(pendingBatch.remove());
+                            if (!sequence && featureCount > 0) {
+                                out.write(',');
+                            }
+                            encodedFeatures.bytes.writeTo(out);
+                            featureCount += encodedFeatures.featureCount;
+                            progress.setStep(Math.min(featureCount, progress.getStepCount()));
+                        }
                     }
-                    progress.endStep();
-                    // footer
-                    jsonGenerator.writeEndArray();
-                    jsonGenerator.writeEndObject();
-                    jsonGenerator.flush();
-                    jsonGenerator.close();
-
+                    if (!sequence) {
+                        // footer
+                        out.write(COLLECTION_FOOTER);
+                    }
+                    out.flush();
+                    progress.endOfProgress();
                 } finally {
+                    if (executorService != null) {
+                        executorService.shutdownNow();
+                    }
                     rs.close();
                 }
             } finally {
@@ -160,6 +294,74 @@ public class GeoJsonWriteDriver {
         }
     }
 
+    /**
+     * Encode rows into GeoJSON features, this method is called by the worker
+     * threads.
+     *
+     * @param rows Geometry (or WKB) then the properties values
+     * @param sequence True to write one feature per line instead of a FeatureCollection
+     * @param recordSeparator True to start each line with the RFC 8142 record separator
+     * @return The features separated by commas or line breaks
+     */
+    private EncodedFeatures encodeFeatures(List<Object[]> rows, boolean sequence, boolean recordSeparator) throws IOException {
+        EncodedFeatures encodedFeatures = new EncodedFeatures();
+        JsonGenerator jsonGenerator = JSON_FACTORY.createGenerator(encodedFeatures.bytes, JsonEncoding.UTF8);
+        WKBReader wkbReader = new WKBReader();
+        for (Object[] row : rows) {
+            if (sequence) {
+                if (recordSeparator) {
+                    jsonGenerator.writeRaw(RECORD_SEPARATOR);
+                }
+            } else if (encodedFeatures.featureCount > 0) {
+                jsonGenerator.writeRaw(',');
+            }
+            if (row[0] instanceof byte[]) {
+                try {
+                    row[0] = wkbReader.read((byte[]) row[0]);
+                } catch (ParseException ex) {
+                    throw new IOException(ex);
+                }
+            }
+            writeFeature(jsonGenerator, row);
+            if (sequence) {
+                jsonGenerator.writeRaw('\n');
+            }
+            encodedFeatures.featureCount++;
+        }
+        jsonGenerator.close();
+        return encodedFeatures;
+    }
+
+    /**
+     * Wait for the encoding of a chunk.
+     *
+     * @param encodedFeatures
+     * @return The encoded features
+     */
+    private static EncodedFeatures getEncodedFeatures(Future<EncodedFeatures> encodedFeatures) throws IOException {
+        try {
+            return encodedFeatures.get();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            } else if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            } else {
+                throw new IOException(ex.getCause());
+            }
+        } catch (InterruptedException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    /**
+     * JSON fragment of consecutive features.
+     */
+    private static class EncodedFeatures {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private int featureCount = 0;
+    }
+
     /**
      * Write a GeoJSON feature.
      *
@@ -178,18 +380,17 @@ public class GeoJsonWriteDriver {
      * { "type": "Feature", "geometry":{"type": "Point", "coordinates": [102.0,
      * 0.5]}, "properties": {"prop0": "value0"} }
      *
-     * @param writer
-     * @param resultSetMetaData
-     * @param geoFieldIndex
+     * @param jsonGenerator
+     * @param row Geometry then the properties values
      */
-    private void writeFeature(JsonGenerator jsonGenerator, ResultSet rs, int geoFieldIndex) throws IOException, SQLException {
+    private void writeFeature(JsonGenerator jsonGenerator, Object[] row) throws IOException {
         // feature header
         jsonGenerator.writeStartObject();
         jsonGenerator.writeStringField("type", "Feature");
         //Write the first geometry
-        writeGeometry((Geometry) rs.getObject(geoFieldIndex), jsonGenerator);
+        writeGeometry((Geometry) row[0], jsonGenerator);
         //Write the properties
-        writeProperties(jsonGenerator, rs);
+        writeProperties(jsonGenerator, row);
         // feature footer
         jsonGenerator.writeEndObject();
     }
@@ -201,15 +402,21 @@ public class GeoJsonWriteDriver {
      * @throws SQLException
      */
     private void cacheMetadata(ResultSetMetaData resultSetMetaData) throws SQLException {
-        cachedColumnNames = new HashMap<String, Integer>();
+        List<String> names = new ArrayList<String>();
+        List<Integer> columns = new ArrayList<Integer>();
         for (int i = 1; i <= resultSetMetaData.getColumnCount(); i++) {
             final String fieldTypeName = resultSetMetaData.getColumnTypeName(i);
             if (!fieldTypeName.equalsIgnoreCase("geometry")
                     && isSupportedPropertyType(resultSetMetaData.getColumnType(i), fieldTypeName)) {
-                cachedColumnNames.put(resultSetMetaData.getColumnName(i).toUpperCase(), i);
-                columnCountProperties++;
+                names.add(resultSetMetaData.getColumnName(i).toUpperCase());
+                columns.add(i);
             }
         }
+        propertyNames = names.toArray(new String[names.size()]);
+        propertyColumns = new int[columns.size()];
+        for (int i = 0; i < propertyColumns.length; i++) {
+            propertyColumns[i] = columns.get(i);
+        }
     }
 
     /**
@@ -223,6 +430,10 @@ public class GeoJsonWriteDriver {
      * @param geometry
      */
     private void writeGeometry(Geometry geom, JsonGenerator gen) throws IOException {
+        if (geom == null) {
+            gen.writeNullField("geometry");
+            return;
+        }
         gen.writeObjectFieldStart("geometry");
         if (geom instanceof Point) {
             write((Point) geom, gen);
@@ -450,16 +661,14 @@ public class GeoJsonWriteDriver {
      * Write the GeoJSON properties.
      *
      * @param jsonGenerator
-     * @param rs
+     * @param row Geometry then the properties values
      * @throws IOException
      */
-    private void writeProperties(JsonGenerator jsonGenerator, ResultSet rs) throws IOException, SQLException {
-        if (columnCountProperties != -1) {
+    private void writeProperties(JsonGenerator jsonGenerator, Object[] row) throws IOException {
+        if (propertyNames.length > 0) {
             jsonGenerator.writeObjectFieldStart("properties");
-            for (Map.Entry<String, Integer> entry : cachedColumnNames.entrySet()) {
-                String string = entry.getKey();
-                Integer fieldId = entry.getValue();
-                jsonGenerator.writeObjectField(string, rs.getObject(fieldId));
+            for (int i = 0; i < propertyNames.length; i++) {
+                jsonGenerator.writeObjectField(propertyNames[i], row[i + 1]);
             }
             jsonGenerator.writeEndObject();
         }
@@ -28,7 +28,8 @@ import java.io.File;
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
-import org.h2gis.drivers.gpx.model.GpxParser;
+import org.h2gis.drivers.gpx.model.GpxBatchReader;
+import org.h2gis.drivers.gpx.model.GpxStreamParser;
 import org.h2gis.h2spatialapi.DriverFunction;
 import org.h2gis.h2spatialapi.ProgressVisitor;
 
@@ -40,6 +41,25 @@ import org.h2gis.h2spatialapi.ProgressVisitor;
 public class GPXDriverFunction implements DriverFunction {
 
     public static String DESCRIPTION = "GPX file (1.1 and 1.0)";
+    private int importThreadCount = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * @param importThreadCount Number of threads that parse the files of {@link #importFiles}, 1 to parse the
+     *                          files in the calling thread. Defaults to the processor count.
+     */
+    public void setImportThreadCount(int importThreadCount) {
+        if(importThreadCount < 1) {
+            throw new IllegalArgumentException("The thread count must be greater than 0");
+        }
+        this.importThreadCount = importThreadCount;
+    }
+
+    /**
+     * @return Number of threads that parse the files of {@link #importFiles}
+     */
+    public int getImportThreadCount() {
+        return importThreadCount;
+    }
 
     @Override
     public IMPORT_DRIVER_TYPE getImportDriverType() {
@@ -72,7 +92,24 @@ public class GPXDriverFunction implements DriverFunction {
 
     @Override
     public void importFile(Connection connection, String tableReference, File fileName, ProgressVisitor progress) throws SQLException, IOException {
-        GpxParser gpd = new GpxParser();
-        gpd.read(fileName, tableReference, connection);
+        GpxStreamParser gpd = new GpxStreamParser();
+        gpd.read(fileName, tableReference, connection, progress);
+    }
+
+    /**
+     * Copy the content of several GPX files into a single set of tables. The
+     * tables have a source_file column, existing tables are appended.
+     *
+     * @param connection Active connection
+     * @param tableReference [[catalog.]schema.]table reference
+     * @param files GPX files
+     * @param progress Progress visitor, one step by file
+     * @throws SQLException
+     * @throws IOException
+     */
+    public void importFiles(Connection connection, String tableReference, File[] files, ProgressVisitor progress) throws SQLException, IOException {
+        GpxBatchReader gpxBatchReader = new GpxBatchReader();
+        gpxBatchReader.setThreadCount(importThreadCount);
+        gpxBatchReader.read(files, tableReference, connection, progress);
     }
 }
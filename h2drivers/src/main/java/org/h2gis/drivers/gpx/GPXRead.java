@@ -24,6 +24,7 @@
  */
 package org.h2gis.drivers.gpx;
 
+import org.h2gis.drivers.gpx.model.GpxBatchReader;
 import org.h2gis.h2spatialapi.AbstractFunction;
 import org.h2gis.h2spatialapi.EmptyProgressVisitor;
 import org.h2gis.h2spatialapi.ScalarFunction;
@@ -43,7 +44,9 @@ import java.sql.SQLException;
 public class GPXRead extends AbstractFunction implements ScalarFunction {
 
     public GPXRead() {
-        addProperty(PROP_REMARKS, "Read a GPX file and copy the content in the specified tables.");
+        addProperty(PROP_REMARKS, "Read a GPX file and copy the content in the specified tables.\n" +
+                "A directory or a file name pattern (ex: /data/*.gpx) appends all the GPX files into the same tables, " +
+                "the source_file column stores the name of the file of each row.");
     }
 
     @Override
@@ -52,25 +55,38 @@ public class GPXRead extends AbstractFunction implements ScalarFunction {
     }
 
     /**
-     * Copy data from GPX File into a new table in specified connection.
+     * Copy data from GPX File into a new table in specified connection. If
+     * the file is a directory or a file name pattern (ex: /data/*.gpx), all
+     * the matching GPX files are appended into a single set of tables that
+     * have a source_file column.
      *
      * @param connection Active connection
      * @param tableReference [[catalog.]schema.]table reference
-     * @param fileName File path of the SHP file
+     * @param fileName File path of the GPX file, of a directory or a file name pattern
      * @throws java.io.IOException
      * @throws java.sql.SQLException
      */
     public static void readGPX(Connection connection, String fileName, String tableReference) throws IOException, SQLException {
+        GPXDriverFunction gpxdf = new GPXDriverFunction();
+        if (GpxBatchReader.isPattern(fileName) || URIUtility.fileFromString(fileName).isDirectory()) {
+            File[] files = GpxBatchReader.listFiles(getPath(fileName));
+            if (files.length == 0) {
+                throw new FileNotFoundException("No GPX file matches:\n" + fileName);
+            }
+            gpxdf.importFiles(connection, tableReference, files, new EmptyProgressVisitor());
+            return;
+        }
         File file = new File(fileName);
         if (!file.exists()) {
             throw new FileNotFoundException("The following file does not exists:\n" + fileName);
         }
-        GPXDriverFunction gpxdf = new GPXDriverFunction();
         gpxdf.importFile(connection, tableReference, URIUtility.fileFromString(fileName), new EmptyProgressVisitor());
     }
 
     /**
-     * Copy data from GPX File into a new table in specified connection.
+     * Copy data from GPX File into a new table in specified connection. The
+     * table name is the file name, or the directory name when several files
+     * are imported.
      *
      *
      * @param connection
@@ -79,7 +95,25 @@ public class GPXRead extends AbstractFunction implements ScalarFunction {
      * @throws SQLException
      */
     public static void readGPX(Connection connection, String fileName) throws IOException, SQLException {
-        final String name = URIUtility.fileFromString(fileName).getName();
-        readGPX(connection, fileName, name.substring(0, name.lastIndexOf(".")).toUpperCase());
+        File path = getPath(fileName);
+        String name;
+        if (path.isDirectory()) {
+            name = path.getName();
+        } else if (GpxBatchReader.isPattern(fileName)) {
+            name = path.getAbsoluteFile().getParentFile().getName();
+        } else {
+            name = path.getName();
+            name = name.substring(0, name.lastIndexOf("."));
+        }
+        readGPX(connection, fileName, name.toUpperCase());
+    }
+
+    /**
+     * @param fileName File path, URI or file name pattern
+     * @return The file
+     */
+    private static File getPath(String fileName) {
+        // The ? wildcard would be read as an URI query
+        return GpxBatchReader.isPattern(fileName) ? new File(fileName) : URIUtility.fileFromString(fileName);
     }
 }
@@ -36,6 +36,9 @@ import java.sql.Statement;
  */
 public class GPXTablesFactory {
 
+    // Name of the column storing the imported file name
+    public static final String SOURCE_FILE = "source_file";
+
     private GPXTablesFactory() {
     }
 
@@ -48,6 +51,19 @@ public class GPXTablesFactory {
      * @throws SQLException
      */
     public static PreparedStatement createWayPointsTable(Connection connection, String wayPointsTableName) throws SQLException {
+        return createWayPointsTable(connection, wayPointsTableName, false);
+    }
+
+    /**
+     * Create the waypoints table that will be used to import GPX data
+     *
+     * @param connection
+     * @param wayPointsTableName
+     * @param sourceFile True to add a source_file column storing the name of the imported file
+     * @return
+     * @throws SQLException
+     */
+    public static PreparedStatement createWayPointsTable(Connection connection, String wayPointsTableName, boolean sourceFile) throws SQLException {
         Statement stmt = connection.createStatement();
         StringBuilder sb = new StringBuilder("CREATE TABLE ");
         sb.append(wayPointsTableName);
@@ -73,16 +89,14 @@ public class GPXTablesFactory {
         sb.append(GPXTags.PDOP.toLowerCase()).append(" DOUBLE,");
         sb.append(GPXTags.AGEOFDGPSDATA.toLowerCase()).append(" DOUBLE,");
         sb.append(GPXTags.DGPSID.toLowerCase()).append(" INT,");
-        sb.append(GPXTags.EXTENSIONS.toLowerCase()).append(" BOOLEAN);");
+        sb.append(GPXTags.EXTENSIONS.toLowerCase()).append(" BOOLEAN");
+        if (sourceFile) {
+            sb.append(",").append(SOURCE_FILE).append(" TEXT");
+        }
+        sb.append(");");
         stmt.execute(sb.toString());
         stmt.close();
-        //We return the preparedstatement of the waypoints table
-        StringBuilder insert = new StringBuilder("INSERT INTO ").append(wayPointsTableName).append(" VALUES ( ?");
-        for (int i = 1; i < GpxMetadata.WPTFIELDCOUNT; i++) {
-            insert.append(",?");
-        }
-        insert.append(");");
-        return connection.prepareStatement(insert.toString());
+        return prepareInsert(connection, wayPointsTableName, GpxMetadata.WPTFIELDCOUNT, sourceFile);
     }
 
     /**
@@ -94,6 +108,19 @@ public class GPXTablesFactory {
      * @throws SQLException
      */
     public static PreparedStatement createRouteTable(Connection connection, String routeTableName) throws SQLException {
+        return createRouteTable(connection, routeTableName, false);
+    }
+
+    /**
+     * Create the route table that will be used to import GPX data
+     *
+     * @param connection
+     * @param routeTableName
+     * @param sourceFile True to add a source_file column storing the name of the imported file
+     * @return
+     * @throws SQLException
+     */
+    public static PreparedStatement createRouteTable(Connection connection, String routeTableName, boolean sourceFile) throws SQLException {
         Statement stmt = connection.createStatement();
         StringBuilder sb = new StringBuilder("CREATE TABLE ");
         sb.append(routeTableName);
@@ -106,17 +133,14 @@ public class GPXTablesFactory {
         sb.append(GPXTags.HREFTITLE.toLowerCase()).append(" TEXT,");
         sb.append(GPXTags.NUMBER.toLowerCase()).append(" INT,");
         sb.append(GPXTags.TYPE.toLowerCase()).append(" TEXT,");
-        sb.append(GPXTags.EXTENSIONS.toLowerCase()).append(" TEXT);");
+        sb.append(GPXTags.EXTENSIONS.toLowerCase()).append(" TEXT");
+        if (sourceFile) {
+            sb.append(",").append(SOURCE_FILE).append(" TEXT");
+        }
+        sb.append(");");
         stmt.execute(sb.toString());
         stmt.close();
-
-        //We return the preparedstatement of the route table
-        StringBuilder insert = new StringBuilder("INSERT INTO ").append(routeTableName).append(" VALUES ( ?");
-        for (int i = 1; i < GpxMetadata.RTEFIELDCOUNT; i++) {
-            insert.append(",?");
-        }
-        insert.append(");");
-        return connection.prepareStatement(insert.toString());
+        return prepareInsert(connection, routeTableName, GpxMetadata.RTEFIELDCOUNT, sourceFile);
     }
 
     /**
@@ -128,6 +152,19 @@ public class GPXTablesFactory {
      * @throws SQLException
      */
     public static PreparedStatement createRoutePointsTable(Connection connection, String routePointsTable) throws SQLException {
+        return createRoutePointsTable(connection, routePointsTable, false);
+    }
+
+    /**
+     * Createthe route points table to store the route waypoints
+     *
+     * @param connection
+     * @param routePointsTable
+     * @param sourceFile True to add a source_file column storing the name of the imported file
+     * @return
+     * @throws SQLException
+     */
+    public static PreparedStatement createRoutePointsTable(Connection connection, String routePointsTable, boolean sourceFile) throws SQLException {
         Statement stmt = connection.createStatement();
         StringBuilder sb = new StringBuilder("CREATE TABLE ");
         sb.append(routePointsTable);
@@ -154,17 +191,14 @@ public class GPXTablesFactory {
         sb.append(GPXTags.AGEOFDGPSDATA.toLowerCase()).append(" DOUBLE,");
         sb.append(GPXTags.DGPSID.toLowerCase()).append(" INT,");
         sb.append(GPXTags.EXTENSIONS.toLowerCase()).append(" BOOLEAN,");
-        sb.append("route_id").append(" INT);");
+        sb.append("route_id").append(" INT");
+        if (sourceFile) {
+            sb.append(",").append(SOURCE_FILE).append(" TEXT");
+        }
+        sb.append(");");
         stmt.execute(sb.toString());
         stmt.close();
-        //We return the preparedstatement of the waypoints table
-        StringBuilder insert = new StringBuilder("INSERT INTO ").append(routePointsTable).append(" VALUES ( ?");
-        for (int i = 1; i < GpxMetadata.RTEPTFIELDCOUNT; i++) {
-            insert.append(",?");
-        }
-        insert.append(");");
-        return connection.prepareStatement(insert.toString());
-
+        return prepareInsert(connection, routePointsTable, GpxMetadata.RTEPTFIELDCOUNT, sourceFile);
     }
 
     /**
@@ -176,6 +210,19 @@ public class GPXTablesFactory {
      * @throws SQLException
      */
     public static PreparedStatement createTrackTable(Connection connection, String trackTableName) throws SQLException {
+        return createTrackTable(connection, trackTableName, false);
+    }
+
+    /**
+     * Creat the track table
+     *
+     * @param connection
+     * @param trackTableName
+     * @param sourceFile True to add a source_file column storing the name of the imported file
+     * @return
+     * @throws SQLException
+     */
+    public static PreparedStatement createTrackTable(Connection connection, String trackTableName, boolean sourceFile) throws SQLException {
         Statement stmt = connection.createStatement();
         StringBuilder sb = new StringBuilder("CREATE TABLE ");
         sb.append(trackTableName);
@@ -188,17 +235,14 @@ public class GPXTablesFactory {
         sb.append(GPXTags.HREFTITLE.toLowerCase()).append(" TEXT,");
         sb.append(GPXTags.NUMBER.toLowerCase()).append(" INT,");
         sb.append(GPXTags.TYPE.toLowerCase()).append(" TEXT,");
-        sb.append(GPXTags.EXTENSIONS.toLowerCase()).append(" TEXT);");
+        sb.append(GPXTags.EXTENSIONS.toLowerCase()).append(" TEXT");
+        if (sourceFile) {
+            sb.append(",").append(SOURCE_FILE).append(" TEXT");
+        }
+        sb.append(");");
         stmt.execute(sb.toString());
         stmt.close();
-
-        //We return the preparedstatement of the route table
-        StringBuilder insert = new StringBuilder("INSERT INTO ").append(trackTableName).append(" VALUES ( ?");
-        for (int i = 1; i < GpxMetadata.RTEFIELDCOUNT; i++) {
-            insert.append(",?");
-        }
-        insert.append(");");
-        return connection.prepareStatement(insert.toString());
+        return prepareInsert(connection, trackTableName, GpxMetadata.RTEFIELDCOUNT, sourceFile);
     }
 
     /**
@@ -210,22 +254,32 @@ public class GPXTablesFactory {
      * @throws SQLException
      */
     public static PreparedStatement createTrackSegmentsTable(Connection connection, String trackSegementsTableName) throws SQLException {
+        return createTrackSegmentsTable(connection, trackSegementsTableName, false);
+    }
+
+    /**
+     * Create the track segments table to store the segments of a track
+     *
+     * @param connection
+     * @param trackSegementsTableName
+     * @param sourceFile True to add a source_file column storing the name of the imported file
+     * @return
+     * @throws SQLException
+     */
+    public static PreparedStatement createTrackSegmentsTable(Connection connection, String trackSegementsTableName, boolean sourceFile) throws SQLException {
         Statement stmt = connection.createStatement();
         StringBuilder sb = new StringBuilder("CREATE TABLE ");
         sb.append(trackSegementsTableName);
         sb.append(" (the_geom LINESTRING,id INT,");
         sb.append(GPXTags.EXTENSIONS).append(" TEXT,");
-        sb.append("id_track INT);");
+        sb.append("id_track INT");
+        if (sourceFile) {
+            sb.append(",").append(SOURCE_FILE).append(" TEXT");
+        }
+        sb.append(");");
         stmt.execute(sb.toString());
         stmt.close();
-        //We return the preparedstatement of the waypoints table
-        StringBuilder insert = new StringBuilder("INSERT INTO ").append(trackSegementsTableName).append(" VALUES ( ?");
-        for (int i = 1; i < GpxMetadata.TRKSEGFIELDCOUNT; i++) {
-            insert.append(",?");
-        }
-        insert.append(");");
-        return connection.prepareStatement(insert.toString());
-
+        return prepareInsert(connection, trackSegementsTableName, GpxMetadata.TRKSEGFIELDCOUNT, sourceFile);
     }
 
     /**
@@ -237,6 +291,19 @@ public class GPXTablesFactory {
      * @throws SQLException
      */
     public static PreparedStatement createTrackPointsTable(Connection connection, String trackPointsTableName) throws SQLException {
+        return createTrackPointsTable(connection, trackPointsTableName, false);
+    }
+
+    /**
+     * Create the track points table to store the track waypoints
+     *
+     * @param connection
+     * @param trackPointsTableName
+     * @param sourceFile True to add a source_file column storing the name of the imported file
+     * @return
+     * @throws SQLException
+     */
+    public static PreparedStatement createTrackPointsTable(Connection connection, String trackPointsTableName, boolean sourceFile) throws SQLException {
         Statement stmt = connection.createStatement();
         StringBuilder sb = new StringBuilder("CREATE TABLE ");
         sb.append(trackPointsTableName);
@@ -263,12 +330,30 @@ public class GPXTablesFactory {
         sb.append(GPXTags.AGEOFDGPSDATA.toLowerCase()).append(" DOUBLE,");
         sb.append(GPXTags.DGPSID.toLowerCase()).append(" INT,");
         sb.append(GPXTags.EXTENSIONS.toLowerCase()).append(" BOOLEAN,");
-        sb.append("track_segment_id").append(" INT);");
+        sb.append("track_segment_id").append(" INT");
+        if (sourceFile) {
+            sb.append(",").append(SOURCE_FILE).append(" TEXT");
+        }
+        sb.append(");");
         stmt.execute(sb.toString());
         stmt.close();
-        //We return the preparedstatement of the waypoints table
-        StringBuilder insert = new StringBuilder("INSERT INTO ").append(trackPointsTableName).append(" VALUES ( ?");
-        for (int i = 1; i < GpxMetadata.RTEPTFIELDCOUNT; i++) {
+        return prepareInsert(connection, trackPointsTableName, GpxMetadata.RTEPTFIELDCOUNT, sourceFile);
+    }
+
+    /**
+     * Prepare the insert statement of a GPX table
+     *
+     * @param connection
+     * @param tableName
+     * @param fieldCount Number of GPX fields of the table
+     * @param sourceFile True if the table has a source_file column
+     * @return
+     * @throws SQLException
+     */
+    public static PreparedStatement prepareInsert(Connection connection, String tableName, int fieldCount, boolean sourceFile) throws SQLException {
+        StringBuilder insert = new StringBuilder("INSERT INTO ").append(tableName).append(" VALUES ( ?");
+        int columnCount = sourceFile ? fieldCount + 1 : fieldCount;
+        for (int i = 1; i < columnCount; i++) {
             insert.append(",?");
         }
         insert.append(");");
@@ -0,0 +1,206 @@
+/*
+ * h2spatial is a library that brings spatial support to the H2 Java database.
+ *
+ * h2spatial is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2014 IRSTV (FR CNRS 2488)
+ *
+ * h2patial is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * h2spatial is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * h2spatial. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+
+package org.h2gis.drivers.gpx.model;
+
+import org.h2gis.drivers.BulkImport;
+import org.h2gis.h2spatialapi.EmptyProgressVisitor;
+import org.h2gis.h2spatialapi.ProgressVisitor;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Import a set of GPX files into a single set of tables. The files are parsed
+ * by {@link GpxStreamParser} on a pool of threads, the calling thread inserts
+ * the rows in the file order with shared batched statements.
+ *
+ * The tables have a source_file column storing the name of the file of each
+ * row. Existing tables are appended, the identifiers of the new rows follow
+ * the identifiers already stored in the tables.
+ */
+public final class GpxBatchReader {
+
+    private int threadCount = 1;
+
+    /**
+     * @param threadCount Number of threads that parse the files, 1 to parse
+     * the files in the calling thread.
+     */
+    public void setThreadCount(int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("The thread count must be greater than 0");
+        }
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * @return Number of threads that parse the files
+     */
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * Copy the content of the files into the tables.
+     *
+     * @param files GPX files
+     * @param tableName the table used to create all tables
+     * @param connection the connection to the database
+     * @param progress Progress visitor, one step by file
+     * @throws SQLException
+     * @throws IOException
+     */
+    public void read(File[] files, String tableName, Connection connection, ProgressVisitor progress) throws SQLException, IOException {
+        ProgressVisitor filesProgress = progress.subProcess(files.length);
+        GpxTableWriter tableWriter = new GpxTableWriter(connection, tableName, true);
+        ExecutorService executorService = threadCount > 1 ? Executors.newFixedThreadPool(threadCount) : null;
+        try {
+            final int maxPendingFiles = threadCount * 2;
+            Queue<Future<RowBuffer>> pendingFiles = new ArrayDeque<Future<RowBuffer>>(maxPendingFiles);
+            int nextFile = 0;
+            while (nextFile < files.length || !pendingFiles.isEmpty()) {
+                while (nextFile < files.length && pendingFiles.size() < maxPendingFiles) {
+                    final File file = files[nextFile++];
+                    Callable<RowBuffer> task = new Callable<RowBuffer>() {
+                        @Override
+                        public RowBuffer call() throws SQLException {
+                            RowBuffer rowBuffer = new RowBuffer(file);
+                            new GpxStreamParser().parse(file, rowBuffer, new EmptyProgressVisitor());
+                            return rowBuffer;
+                        }
+                    };
+                    if (executorService == null) {
+                        FutureTask<RowBuffer> futureTask = new FutureTask<RowBuffer>(task);
+                        futureTask.run();
+                        pendingFiles.add(futureTask);
+                    } else {
+                        pendingFiles.add(executorService.submit(task));
+                    }
+                }
+                if (progress.isCanceled()) {
+                    throw new SQLException("Canceled by user");
+                }
+                getRows(pendingFiles.remove()).writeTo(tableWriter);
+                filesProgress.endStep();
+            }
+            tableWriter.flush();
+        } finally {
+            if (executorService != null) {
+                executorService.shutdownNow();
+            }
+            tableWriter.close();
+        }
+    }
+
+    /**
+     * Wait for the parsing of a file.
+     *
+     * @param rows
+     * @return The rows
+     */
+    private static RowBuffer getRows(Future<RowBuffer> rows) throws IOException, SQLException {
+        try {
+            return rows.get();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof SQLException) {
+                throw (SQLException) ex.getCause();
+            } else if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            } else {
+                throw new IOException(ex.getCause());
+            }
+        } catch (InterruptedException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    /**
+     * List the GPX files of a directory, or the files matching a pattern. The
+     * pattern is the file name and may contain the * and ? wildcards.
+     *
+     * @param path Directory or pattern, ex: /data/traces/*.gpx
+     * @return The files sorted by name
+     */
+    public static File[] listFiles(File path) {
+        return BulkImport.listFiles(path, new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isFile() && file.getName().toLowerCase().endsWith(".gpx");
+            }
+        });
+    }
+
+    /**
+     * @param fileName File name
+     * @return True if the file name contains a wildcard
+     */
+    public static boolean isPattern(String fileName) {
+        return BulkImport.isPattern(fileName);
+    }
+
+    /**
+     * Rows of a parsed file.
+     */
+    private static class RowBuffer implements GpxRowWriter {
+        private final File file;
+        private final List<List<Object[]>> rows = new ArrayList<List<Object[]>>(TABLE_COUNT);
+
+        private RowBuffer(File file) {
+            this.file = file;
+            for (int i = 0; i < TABLE_COUNT; i++) {
+                rows.add(new ArrayList<Object[]>());
+            }
+        }
+
+        @Override
+        public void addRow(int table, Object[] values, int fieldCount) {
+            rows.get(table).add(Arrays.copyOf(values, fieldCount));
+        }
+
+        private void writeTo(GpxTableWriter tableWriter) throws SQLException {
+            tableWriter.setSourceFile(file.getName());
+            for (int table = 0; table < TABLE_COUNT; table++) {
+                for (Object[] values : rows.get(table)) {
+                    tableWriter.addRow(table, values, values.length);
+                }
+            }
+        }
+    }
+}
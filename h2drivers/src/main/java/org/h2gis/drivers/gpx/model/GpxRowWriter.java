@@ -0,0 +1,54 @@
+/*
+ * h2spatial is a library that brings spatial support to the H2 Java database.
+ *
+ * h2spatial is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2014 IRSTV (FR CNRS 2488)
+ *
+ * h2patial is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * h2spatial is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * h2spatial. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+
+package org.h2gis.drivers.gpx.model;
+
+import java.sql.SQLException;
+
+/**
+ * Receives the rows produced by {@link GpxStreamParser}.
+ */
+interface GpxRowWriter {
+
+    // Tables of a GPX file
+    int WAYPOINT = 0;
+    int ROUTE = 1;
+    int ROUTEPOINT = 2;
+    int TRACK = 3;
+    int TRACKSEGMENT = 4;
+    int TRACKPOINT = 5;
+    int TABLE_COUNT = 6;
+
+    /**
+     * Add a row to a table. The values array may be reused by the caller
+     * once this method returns.
+     *
+     * @param table One of the table constants
+     * @param values Row, see {@link GpxMetadata} for the field indexes
+     * @param fieldCount Number of fields of the table
+     * @throws SQLException
+     */
+    void addRow(int table, Object[] values, int fieldCount) throws SQLException;
+}
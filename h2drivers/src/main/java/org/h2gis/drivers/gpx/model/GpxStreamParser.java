@@ -0,0 +1,505 @@
+/*
+ * h2spatial is a library that brings spatial support to the H2 Java database.
+ *
+ * h2spatial is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2014 IRSTV (FR CNRS 2488)
+ *
+ * h2patial is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * h2spatial is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * h2spatial. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+
+package org.h2gis.drivers.gpx.model;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.impl.PackedCoordinateSequence;
+import org.h2gis.h2spatialapi.ProgressVisitor;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Single pass GPX parser based on StAX. Unlike {@link GpxParser}, the document
+ * is not pre-parsed: the tables are created when the first waypoint, route or
+ * track is found and the progression is computed from the position in the
+ * file. The coordinates of a route or a track segment are kept in a primitive
+ * buffer until the element is closed.
+ *
+ * The tables have the same structure than the ones created by
+ * {@link GpxParser}.
+ */
+public final class GpxStreamParser {
+
+    // Update the progression every PROGRESS_POINT_COUNT points
+    private static final int PROGRESS_POINT_COUNT = 1000;
+    private final GeometryFactory geometryFactory = new GeometryFactory();
+    private GpxRowWriter writer;
+    private ProgressVisitor progress;
+    private FileChannel fc;
+    private long fileSize;
+    private long pointCount;
+    //Waypoint, route and track ids
+    private int wptID = 1;
+    private int rteID = 1;
+    private int rteptID = 1;
+    private int trkID = 1;
+    private int trksegID = 1;
+    private int trkptID = 1;
+    // Rows reused for each element
+    private final Object[] pointValues = new Object[GpxMetadata.TRKPTFIELDCOUNT];
+    private final Object[] lineValues = new Object[GpxMetadata.TRKFIELDCOUNT];
+    private final Object[] segmentValues = new Object[GpxMetadata.TRKSEGFIELDCOUNT];
+    // Coordinate of the last parsed point
+    private double pointX, pointY, pointZ;
+    // Coordinates (x, y, z) of the current route or track segment
+    private double[] coordinates = new double[3 * 256];
+    private int coordinateCount;
+    // Segments of the current track
+    private final List<LineString> trackSegments = new ArrayList<LineString>();
+
+    /**
+     * Reads the document and copies its content into the tables.
+     *
+     * @param inputFile a File representing the gpx file to read
+     * @param tableName the table used to create all tables
+     * @param connection the connection to the database
+     * @param progress Progress visitor following the position in the file
+     * @return a boolean value if the parser ends successfully or not
+     * @throws SQLException if the creation of the tables failed
+     */
+    public boolean read(File inputFile, String tableName, Connection connection, ProgressVisitor progress) throws SQLException {
+        GpxTableWriter tableWriter = new GpxTableWriter(connection, tableName, false);
+        try {
+            parse(inputFile, tableWriter, progress);
+            tableWriter.flush();
+        } finally {
+            tableWriter.close();
+        }
+        return true;
+    }
+
+    /**
+     * Parses the document and sends its rows to the writer.
+     *
+     * @param inputFile a File representing the gpx file to read
+     * @param writer Receives the rows
+     * @param progress Progress visitor following the position in the file
+     * @throws SQLException
+     */
+    void parse(File inputFile, GpxRowWriter writer, ProgressVisitor progress) throws SQLException {
+        this.writer = writer;
+        this.progress = progress.subProcess(100);
+        FileInputStream fs = null;
+        try {
+            fs = new FileInputStream(inputFile);
+            fc = fs.getChannel();
+            fileSize = fc.size();
+            XMLInputFactory factory = XMLInputFactory.newInstance();
+            factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+            factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+            XMLStreamReader reader = factory.createXMLStreamReader(fs);
+            try {
+                while (reader.hasNext()) {
+                    if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+                        String localName = reader.getLocalName();
+                        if (localName.equalsIgnoreCase(GPXTags.WPT)) {
+                            readPoint(reader, wptID++);
+                            writer.addRow(GpxRowWriter.WAYPOINT, pointValues, GpxMetadata.WPTFIELDCOUNT);
+                        } else if (localName.equalsIgnoreCase(GPXTags.RTE)) {
+                            readRoute(reader);
+                        } else if (localName.equalsIgnoreCase(GPXTags.TRK)) {
+                            readTrack(reader);
+                        }
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+            this.progress.endOfProgress();
+        } catch (XMLStreamException ex) {
+            throw new SQLException(ex);
+        } catch (IOException ex) {
+            throw new SQLException("Cannot parse the file " + inputFile.getAbsolutePath(), ex);
+        } finally {
+            try {
+                if (fs != null) {
+                    fs.close();
+                }
+            } catch (IOException ex) {
+                throw new SQLException(ex);
+            }
+        }
+    }
+
+    /**
+     * Parses a route and its points, the reader is on the start markup.
+     *
+     * @param reader
+     * @throws XMLStreamException
+     * @throws SQLException
+     */
+    private void readRoute(XMLStreamReader reader) throws XMLStreamException, SQLException {
+        int routeID = rteID++;
+        Arrays.fill(lineValues, null);
+        lineValues[GpxMetadata.LINEID] = routeID;
+        coordinateCount = 0;
+        while (reader.next() != XMLStreamConstants.END_ELEMENT) {
+            if (reader.isStartElement()) {
+                String localName = reader.getLocalName();
+                if (localName.equalsIgnoreCase(GPXTags.RTEPT)) {
+                    readPoint(reader, rteptID++);
+                    addCoordinate();
+                    pointValues[GpxMetadata.RTEPT_RTEID] = routeID;
+                    writer.addRow(GpxRowWriter.ROUTEPOINT, pointValues, GpxMetadata.RTEPTFIELDCOUNT);
+                } else {
+                    readLineElement(reader, localName);
+                }
+            }
+        }
+        // If there are more than one routepoint, we can set a geometry to the route
+        if (coordinateCount > 1) {
+            lineValues[GpxMetadata.THE_GEOM] = createLineString();
+        }
+        writer.addRow(GpxRowWriter.ROUTE, lineValues, GpxMetadata.RTEFIELDCOUNT);
+    }
+
+    /**
+     * Parses a track, its segments and its points, the reader is on the start
+     * markup.
+     *
+     * @param reader
+     * @throws XMLStreamException
+     * @throws SQLException
+     */
+    private void readTrack(XMLStreamReader reader) throws XMLStreamException, SQLException {
+        int trackID = trkID++;
+        trackSegments.clear();
+        Arrays.fill(lineValues, null);
+        lineValues[GpxMetadata.LINEID] = trackID;
+        while (reader.next() != XMLStreamConstants.END_ELEMENT) {
+            if (reader.isStartElement()) {
+                String localName = reader.getLocalName();
+                if (localName.equalsIgnoreCase(GPXTags.TRKSEG)) {
+                    readTrackSegment(reader, trackID);
+                } else {
+                    readLineElement(reader, localName);
+                }
+            }
+        }
+        lineValues[GpxMetadata.THE_GEOM] = geometryFactory.createMultiLineString(
+                trackSegments.toArray(new LineString[trackSegments.size()]));
+        writer.addRow(GpxRowWriter.TRACK, lineValues, GpxMetadata.TRKFIELDCOUNT);
+    }
+
+    /**
+     * Parses a track segment and its points, the reader is on the start
+     * markup.
+     *
+     * @param reader
+     * @param trackID Identifier of the parent track
+     * @throws XMLStreamException
+     * @throws SQLException
+     */
+    private void readTrackSegment(XMLStreamReader reader, int trackID) throws XMLStreamException, SQLException {
+        int segmentID = trksegID++;
+        Arrays.fill(segmentValues, null);
+        segmentValues[GpxMetadata.TRKSEGID] = segmentID;
+        segmentValues[GpxMetadata.TRKSEG_TRKID] = trackID;
+        coordinateCount = 0;
+        while (reader.next() != XMLStreamConstants.END_ELEMENT) {
+            if (reader.isStartElement()) {
+                String localName = reader.getLocalName();
+                if (localName.equalsIgnoreCase(GPXTags.TRKPT)) {
+                    readPoint(reader, trkptID++);
+                    addCoordinate();
+                    pointValues[GpxMetadata.TRKPT_TRKSEGID] = segmentID;
+                    writer.addRow(GpxRowWriter.TRACKPOINT, pointValues, GpxMetadata.TRKPTFIELDCOUNT);
+                } else {
+                    if (localName.equalsIgnoreCase(GPXTags.EXTENSIONS)) {
+                        segmentValues[GpxMetadata.TRKSEGEXTENSIONS] = true;
+                    }
+                    skipElement(reader);
+                }
+            }
+        }
+        // If there are more than one trackpoint, we can set a geometry to the track segment
+        if (coordinateCount > 1) {
+            LineString geometry = createLineString();
+            segmentValues[GpxMetadata.THE_GEOM] = geometry;
+            trackSegments.add(geometry);
+        }
+        writer.addRow(GpxRowWriter.TRACKSEGMENT, segmentValues, GpxMetadata.TRKSEGFIELDCOUNT);
+    }
+
+    /**
+     * Parses a waypoint, a route point or a track point into
+     * {@link #pointValues}, the reader is on the start markup.
+     *
+     * @param reader
+     * @param pointID Identifier of the point
+     * @throws XMLStreamException
+     * @throws SQLException
+     */
+    private void readPoint(XMLStreamReader reader, int pointID) throws XMLStreamException, SQLException {
+        Arrays.fill(pointValues, null);
+        pointY = parseCoordinate(reader.getAttributeValue(null, GPXTags.LAT), "latitude");
+        pointX = parseCoordinate(reader.getAttributeValue(null, GPXTags.LON), "longitude");
+        String eleValue = reader.getAttributeValue(null, GPXTags.ELE);
+        pointZ = eleValue == null ? Double.NaN : parseCoordinate(eleValue, "elevation");
+        pointValues[GpxMetadata.THE_GEOM] = geometryFactory.createPoint(new Coordinate(pointX, pointY, pointZ));
+        pointValues[GpxMetadata.PTID] = pointID;
+        pointValues[GpxMetadata.PTLAT] = pointY;
+        pointValues[GpxMetadata.PTLON] = pointX;
+        pointValues[GpxMetadata.PTELE] = pointZ;
+        while (reader.next() != XMLStreamConstants.END_ELEMENT) {
+            if (reader.isStartElement()) {
+                String localName = reader.getLocalName();
+                if (localName.equalsIgnoreCase(GPXTags.LINK)) {
+                    readLink(reader, pointValues, GpxMetadata.PTLINK, GpxMetadata.PTLINKTEXT);
+                } else if (localName.equalsIgnoreCase(GPXTags.EXTENSIONS)) {
+                    pointValues[GpxMetadata.PTEXTENSIONS] = true;
+                    skipElement(reader);
+                } else {
+                    setPointAttribute(localName, readText(reader));
+                }
+            }
+        }
+        if (pointCount++ % PROGRESS_POINT_COUNT == 0) {
+            updateProgress();
+        }
+    }
+
+    /**
+     * Parses an element of a route or a track into {@link #lineValues}, the
+     * reader is on the start markup.
+     *
+     * @param reader
+     * @param localName Name of the element
+     * @throws XMLStreamException
+     * @throws SQLException
+     */
+    private void readLineElement(XMLStreamReader reader, String localName) throws XMLStreamException, SQLException {
+        if (localName.equalsIgnoreCase(GPXTags.LINK)) {
+            readLink(reader, lineValues, GpxMetadata.LINELINK_HREF, GpxMetadata.LINELINK_HREFTITLE);
+        } else if (localName.equalsIgnoreCase(GPXTags.EXTENSIONS)) {
+            lineValues[GpxMetadata.LINEEXTENSIONS] = true;
+            skipElement(reader);
+        } else {
+            String text = readText(reader);
+            if (localName.equalsIgnoreCase(GPXTags.NAME)) {
+                lineValues[GpxMetadata.LINENAME] = text;
+            } else if (localName.equalsIgnoreCase(GPXTags.CMT)) {
+                lineValues[GpxMetadata.LINECMT] = text;
+            } else if (localName.equalsIgnoreCase(GPXTags.DESC)) {
+                lineValues[GpxMetadata.LINEDESC] = text;
+            } else if (localName.equalsIgnoreCase(GPXTags.SRC)) {
+                lineValues[GpxMetadata.LINESRC] = text;
+            } else if (localName.equalsIgnoreCase(GPXTags.NUMBER)) {
+                lineValues[GpxMetadata.LINENUMBER] = parseInt(text, localName);
+            } else if (localName.equalsIgnoreCase(GPXTags.TYPE)) {
+                lineValues[GpxMetadata.LINETYPE] = text;
+            }
+        }
+    }
+
+    /**
+     * Set an attribute of the current point.
+     *
+     * @param localName Name of the element
+     * @param text Content of the element
+     */
+    private void setPointAttribute(String localName, String text) throws SQLException {
+        if (localName.equalsIgnoreCase(GPXTags.ELE)) {
+            pointValues[GpxMetadata.PTELE] = parseDouble(text, localName);
+        } else if (localName.equalsIgnoreCase(GPXTags.TIME)) {
+            pointValues[GpxMetadata.PTTIME] = text;
+        } else if (localName.equalsIgnoreCase(GPXTags.MAGVAR)) {
+            pointValues[GpxMetadata.PTMAGVAR] = parseDouble(text, localName);
+        } else if (localName.equalsIgnoreCase(GPXTags.GEOIDHEIGHT)) {
+            pointValues[GpxMetadata.PTGEOIDWEIGHT] = parseDouble(text, localName);
+        } else if (localName.equalsIgnoreCase(GPXTags.NAME)) {
+            pointValues[GpxMetadata.PTNAME] = text;
+        } else if (localName.equalsIgnoreCase(GPXTags.CMT)) {
+            pointValues[GpxMetadata.PTCMT] = text;
+        } else if (localName.equalsIgnoreCase(GPXTags.DESC)) {
+            pointValues[GpxMetadata.PTDESC] = text;
+        } else if (localName.equalsIgnoreCase(GPXTags.SRC)) {
+            pointValues[GpxMetadata.PTSRC] = text;
+        } else if (localName.equalsIgnoreCase(GPXTags.SYM)) {
+            pointValues[GpxMetadata.PTSYM] = text;
+        } else if (localName.equalsIgnoreCase(GPXTags.TYPE)) {
+            pointValues[GpxMetadata.PTTYPE] = text;
+        } else if (localName.equalsIgnoreCase(GPXTags.FIX)) {
+            pointValues[GpxMetadata.PTFIX] = text;
+        } else if (localName.equalsIgnoreCase(GPXTags.SAT)) {
+            pointValues[GpxMetadata.PTSAT] = parseInt(text, localName);
+        } else if (localName.equalsIgnoreCase(GPXTags.HDOP)) {
+            pointValues[GpxMetadata.PTHDOP] = parseDouble(text, localName);
+        } else if (localName.equalsIgnoreCase(GPXTags.VDOP)) {
+            pointValues[GpxMetadata.PTVDOP] = parseDouble(text, localName);
+        } else if (localName.equalsIgnoreCase(GPXTags.PDOP)) {
+            pointValues[GpxMetadata.PTPDOP] = parseDouble(text, localName);
+        } else if (localName.equalsIgnoreCase(GPXTags.AGEOFDGPSDATA)) {
+            pointValues[GpxMetadata.PTAGEOFDGPSDATA] = parseDouble(text, localName);
+        } else if (localName.equalsIgnoreCase(GPXTags.DGPSID)) {
+            pointValues[GpxMetadata.PTDGPSID] = parseInt(text, localName);
+        }
+    }
+
+    /**
+     * Parses a link element, the reader is on the start markup.
+     *
+     * @param reader
+     * @param values Row of the point or of the line
+     * @param hrefIndex Index of the link
+     * @param textIndex Index of the link text
+     * @throws XMLStreamException
+     */
+    private static void readLink(XMLStreamReader reader, Object[] values, int hrefIndex, int textIndex) throws XMLStreamException {
+        values[hrefIndex] = reader.getAttributeValue(null, GPXTags.HREF);
+        while (reader.next() != XMLStreamConstants.END_ELEMENT) {
+            if (reader.isStartElement()) {
+                if (reader.getLocalName().equalsIgnoreCase(GPXTags.TEXT)) {
+                    values[textIndex] = readText(reader);
+                } else {
+                    skipElement(reader);
+                }
+            }
+        }
+    }
+
+    /**
+     * Read the text of an element, the reader is on the start markup and ends
+     * on the end markup. The content of the child elements is ignored.
+     *
+     * @param reader
+     * @return The text or an empty string
+     * @throws XMLStreamException
+     */
+    private static String readText(XMLStreamReader reader) throws XMLStreamException {
+        String text = "";
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            } else if (depth == 1 && (event == XMLStreamConstants.CHARACTERS
+                    || event == XMLStreamConstants.CDATA || event == XMLStreamConstants.SPACE)) {
+                text = text.isEmpty() ? reader.getText() : text + reader.getText();
+            }
+        }
+        return text;
+    }
+
+    /**
+     * Skip an element, the reader is on the start markup and ends on the end
+     * markup.
+     *
+     * @param reader
+     * @throws XMLStreamException
+     */
+    private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    /**
+     * Append the coordinate of the current point to the coordinate buffer.
+     */
+    private void addCoordinate() {
+        if ((coordinateCount + 1) * 3 > coordinates.length) {
+            coordinates = Arrays.copyOf(coordinates, coordinates.length * 2);
+        }
+        int offset = coordinateCount * 3;
+        coordinates[offset] = pointX;
+        coordinates[offset + 1] = pointY;
+        coordinates[offset + 2] = pointZ;
+        coordinateCount++;
+    }
+
+    /**
+     * @return A LineString from the coordinate buffer
+     */
+    private LineString createLineString() {
+        return geometryFactory.createLineString(new PackedCoordinateSequence.Double(
+                Arrays.copyOf(coordinates, coordinateCount * 3), 3));
+    }
+
+    /**
+     * Update the progression from the position in the file.
+     *
+     * @throws SQLException If the import has been canceled
+     */
+    private void updateProgress() throws SQLException {
+        if (progress.isCanceled()) {
+            throw new SQLException("Canceled by user");
+        }
+        try {
+            progress.setStep((int) (((double) fc.position() / fileSize) * 100));
+        } catch (IOException ex) {
+            // Ignore
+        }
+    }
+
+    private static double parseCoordinate(String value, String name) throws SQLException {
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException ex) {
+            throw new SQLException("Cannot parse the " + name + " value", ex);
+        } catch (NullPointerException ex) {
+            throw new SQLException("Cannot parse the " + name + " value", ex);
+        }
+    }
+
+    private static double parseDouble(String text, String localName) throws SQLException {
+        try {
+            return Double.parseDouble(text);
+        } catch (NumberFormatException ex) {
+            throw new SQLException("Cannot parse the " + localName + " value", ex);
+        }
+    }
+
+    private static int parseInt(String text, String localName) throws SQLException {
+        try {
+            return Integer.parseInt(text.trim());
+        } catch (NumberFormatException ex) {
+            throw new SQLException("Cannot parse the " + localName + " value", ex);
+        }
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * h2spatial is a library that brings spatial support to the H2 Java database.
+ *
+ * h2spatial is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2014 IRSTV (FR CNRS 2488)
+ *
+ * h2patial is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * h2spatial is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * h2spatial. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+
+package org.h2gis.drivers.gpx.model;
+
+import org.h2gis.utilities.JDBCUtilities;
+import org.h2gis.utilities.TableLocation;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Insert the GPX rows into the tables created by {@link GPXTablesFactory}.
+ * The tables are created when their first row is added.
+ *
+ * In append mode the existing tables are reused and a source_file column
+ * stores the name of the file of each row, this column is added to the tables
+ * of a previous single file import. The identifiers of each file are shifted
+ * after the identifiers already stored in the tables.
+ *
+ * In append mode all the target tables are checked when the writer is
+ * created, before any row is inserted. Otherwise a table is rejected when its
+ * first row is added if it already exists.
+ */
+final class GpxTableWriter implements GpxRowWriter {
+
+    private static final int BATCH_SIZE = 1000;
+    //Suffix table names
+    private static final String[] SUFFIXES = {"_waypoint", "_route", "_routepoint", "_track",
+            "_tracksegment", "_trackpoint"};
+    private static final int[] FIELD_COUNTS = {GpxMetadata.WPTFIELDCOUNT, GpxMetadata.RTEFIELDCOUNT,
+            GpxMetadata.RTEPTFIELDCOUNT, GpxMetadata.TRKFIELDCOUNT, GpxMetadata.TRKSEGFIELDCOUNT,
+            GpxMetadata.TRKPTFIELDCOUNT};
+    private final Connection connection;
+    private final TableLocation requestedTable;
+    private final boolean isH2;
+    private final boolean append;
+    private final String[] tableNames = new String[TABLE_COUNT];
+    private final boolean[] tableExists = new boolean[TABLE_COUNT];
+    private final PreparedStatement[] statements = new PreparedStatement[TABLE_COUNT];
+    private final int[] batchSizes = new int[TABLE_COUNT];
+    // Identifier offset of the current file and last written identifier of each table
+    private final int[] idOffsets = new int[TABLE_COUNT];
+    private final int[] lastIds = new int[TABLE_COUNT];
+    private String sourceFile;
+
+    /**
+     * @param connection Active connection
+     * @param tableName Prefix of the GPX tables
+     * @param append True to reuse the existing tables and add the source_file column
+     * @throws SQLException If an existing table does not have the GPX columns in append mode
+     */
+    GpxTableWriter(Connection connection, String tableName, boolean append) throws SQLException {
+        this.connection = connection;
+        this.append = append;
+        isH2 = JDBCUtilities.isH2DataBase(connection.getMetaData());
+        requestedTable = TableLocation.parse(tableName, isH2);
+        boolean[] addSourceFile = new boolean[TABLE_COUNT];
+        for (int table = 0; table < TABLE_COUNT; table++) {
+            tableNames[table] = new TableLocation(requestedTable.getCatalog(), requestedTable.getSchema(),
+                    TableLocation.parse(requestedTable.getTable() + SUFFIXES[table], isH2).getTable()).toString();
+            if (append) {
+                tableExists[table] = JDBCUtilities.tableExists(connection, tableNames[table]);
+                addSourceFile[table] = tableExists[table] && !hasSourceFileColumn(table);
+            }
+        }
+        // Alter the tables once all of them are checked
+        for (int table = 0; table < TABLE_COUNT; table++) {
+            if (addSourceFile[table]) {
+                Statement st = connection.createStatement();
+                try {
+                    st.execute("ALTER TABLE " + tableNames[table] + " ADD COLUMN " + GPXTablesFactory.SOURCE_FILE +
+                            " TEXT");
+                } finally {
+                    st.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * @param table Table constant of an existing table
+     * @return True if the table has the source_file column, false if it comes from a single file import
+     * @throws SQLException If the table does not have the GPX columns
+     */
+    private boolean hasSourceFileColumn(int table) throws SQLException {
+        Statement st = connection.createStatement();
+        try {
+            ResultSet rs = st.executeQuery("SELECT * FROM " + tableNames[table] + " LIMIT 0");
+            try {
+                ResultSetMetaData metaData = rs.getMetaData();
+                int columnCount = metaData.getColumnCount();
+                if (columnCount == FIELD_COUNTS[table]) {
+                    return false;
+                } else if (columnCount == FIELD_COUNTS[table] + 1 &&
+                        GPXTablesFactory.SOURCE_FILE.equalsIgnoreCase(metaData.getColumnName(columnCount))) {
+                    return true;
+                }
+                throw new SQLException("The table " + tableNames[table] + " does not have the columns of a GPX " +
+                        "table, the files cannot be appended to it.");
+            } finally {
+                rs.close();
+            }
+        } finally {
+            st.close();
+        }
+    }
+
+    /**
+     * Set the file of the next rows. The identifiers of the next rows are
+     * shifted after the rows of the previous files.
+     *
+     * @param sourceFile File name stored in the source_file column
+     */
+    void setSourceFile(String sourceFile) {
+        this.sourceFile = sourceFile;
+        System.arraycopy(lastIds, 0, idOffsets, 0, TABLE_COUNT);
+    }
+
+    @Override
+    public void addRow(int table, Object[] values, int fieldCount) throws SQLException {
+        PreparedStatement st = statements[table];
+        if (st == null) {
+            createTables(table);
+            st = statements[table];
+        }
+        for (int i = 0; i < fieldCount; i++) {
+            st.setObject(i + 1, values[i]);
+        }
+        // Shift the identifier and the reference to the parent element
+        int id = (Integer) values[GpxMetadata.PTID] + idOffsets[table];
+        st.setInt(GpxMetadata.PTID + 1, id);
+        lastIds[table] = Math.max(lastIds[table], id);
+        if (table == ROUTEPOINT) {
+            shiftReference(st, values, GpxMetadata.RTEPT_RTEID, ROUTE);
+        } else if (table == TRACKSEGMENT) {
+            shiftReference(st, values, GpxMetadata.TRKSEG_TRKID, TRACK);
+        } else if (table == TRACKPOINT) {
+            shiftReference(st, values, GpxMetadata.TRKPT_TRKSEGID, TRACKSEGMENT);
+        }
+        if (append) {
+            st.setString(fieldCount + 1, sourceFile);
+        }
+        st.addBatch();
+        batchSizes[table]++;
+        if (batchSizes[table] >= BATCH_SIZE) {
+            st.executeBatch();
+            batchSizes[table] = 0;
+        }
+    }
+
+    private void shiftReference(PreparedStatement st, Object[] values, int index, int parentTable) throws SQLException {
+        if (values[index] != null) {
+            st.setInt(index + 1, (Integer) values[index] + idOffsets[parentTable]);
+        }
+    }
+
+    /**
+     * Create the tables of the group of the given table. Routes and tracks
+     * tables are created with the tables of their points.
+     *
+     * @param table Table constant
+     * @throws SQLException If a table already exists and the append mode is
+     * not set
+     */
+    private void createTables(int table) throws SQLException {
+        int[] group;
+        if (table == WAYPOINT) {
+            group = new int[]{WAYPOINT};
+        } else if (table == ROUTE || table == ROUTEPOINT) {
+            group = new int[]{ROUTE, ROUTEPOINT};
+        } else {
+            group = new int[]{TRACK, TRACKSEGMENT, TRACKPOINT};
+        }
+        if (!append) {
+            for (int groupTable : group) {
+                if (JDBCUtilities.tableExists(connection, tableNames[groupTable])) {
+                    throw new SQLException("The table " + tableNames[groupTable] + " already exists.");
+                }
+            }
+        }
+        for (int groupTable : group) {
+            if (tableExists[groupTable]) {
+                statements[groupTable] = GPXTablesFactory.prepareInsert(connection, tableNames[groupTable],
+                        FIELD_COUNTS[groupTable], true);
+                lastIds[groupTable] = getMaxId(tableNames[groupTable]);
+                idOffsets[groupTable] = lastIds[groupTable];
+            } else {
+                statements[groupTable] = createTable(groupTable, tableNames[groupTable]);
+            }
+        }
+    }
+
+    private PreparedStatement createTable(int table, String tableName) throws SQLException {
+        switch (table) {
+            case WAYPOINT:
+                return GPXTablesFactory.createWayPointsTable(connection, tableName, append);
+            case ROUTE:
+                return GPXTablesFactory.createRouteTable(connection, tableName, append);
+            case ROUTEPOINT:
+                return GPXTablesFactory.createRoutePointsTable(connection, tableName, append);
+            case TRACK:
+                return GPXTablesFactory.createTrackTable(connection, tableName, append);
+            case TRACKSEGMENT:
+                return GPXTablesFactory.createTrackSegmentsTable(connection, tableName, append);
+            default:
+                return GPXTablesFactory.createTrackPointsTable(connection, tableName, append);
+        }
+    }
+
+    private int getMaxId(String tableName) throws SQLException {
+        Statement st = connection.createStatement();
+        try {
+            ResultSet rs = st.executeQuery("SELECT MAX(id) FROM " + tableName);
+            try {
+                return rs.next() ? rs.getInt(1) : 0;
+            } finally {
+                rs.close();
+            }
+        } finally {
+            st.close();
+        }
+    }
+
+    /**
+     * Execute the remaining batches.
+     *
+     * @throws SQLException
+     */
+    void flush() throws SQLException {
+        for (int i = 0; i < TABLE_COUNT; i++) {
+            if (batchSizes[i] > 0) {
+                statements[i].executeBatch();
+                batchSizes[i] = 0;
+            }
+        }
+    }
+
+    /**
+     * Close the statements.
+     *
+     * @throws SQLException
+     */
+    void close() throws SQLException {
+        for (PreparedStatement st : statements) {
+            if (st != null) {
+                st.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,398 @@
+/*
+ * h2spatial is a library that brings spatial support to the H2 Java database.
+ *
+ * h2spatial is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2014 IRSTV (FR CNRS 2488)
+ *
+ * h2patial is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * h2spatial is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * h2spatial. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+
+package org.h2gis.drivers.job;
+
+import org.h2gis.drivers.BulkImport;
+import org.h2gis.h2spatialapi.DriverFunction;
+import org.h2gis.h2spatialapi.ProgressVisitor;
+import org.h2gis.utilities.JDBCUtilities;
+import org.h2gis.utilities.TableLocation;
+
+import javax.sql.DataSource;
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.Future;
+
+/**
+ * Import or export of a file executed by the {@link JobManager} with its own connection. The table reference is
+ * resolved with this connection, see {@link JobManager#qualifyTableReference(Connection, String)}.
+ *
+ * A canceled or failed import drops the table if it did not exist before the job. The drivers that import a file
+ * into several tables named from the table reference (ex: GPX, OSM) leave their tables.
+ *
+ * An import of files runs a {@link BulkImport} with the connection of the job, the files are imported by the
+ * threads of the BulkImport with other connections of the DataSource. A failed import of files removes its tables.
+ */
+public class Job implements Runnable {
+
+    /**
+     * Kind of transfer
+     */
+    public enum TYPE { IMPORT, EXPORT, IMPORT_FILES }
+
+    /**
+     * Life cycle of a job
+     */
+    public enum STATE { PENDING, RUNNING, DONE, FAILED, CANCELED }
+
+    private final long id;
+    private final TYPE type;
+    private final String user;
+    private final DataSource dataSource;
+    private final DriverFunction driverFunction;
+    private final BulkImport bulkImport;
+    private final File file;
+    private final String tableReference;
+    private final JobProgressVisitor progress = new JobProgressVisitor();
+    private final long submitTime = System.currentTimeMillis();
+    private volatile STATE state = STATE.PENDING;
+    private volatile long startTime = 0;
+    private volatile long endTime = 0;
+    private volatile long fileSize = 0;
+    private volatile long sourceRowCount = -1;
+    private volatile long rowCount = -1;
+    private volatile String errorMessage;
+    private Future<?> future;
+
+    Job(long id, TYPE type, String user, DataSource dataSource, DriverFunction driverFunction, File file,
+        String tableReference) {
+        this(id, type, user, dataSource, driverFunction, null, file, tableReference);
+    }
+
+    Job(long id, String user, DataSource dataSource, BulkImport bulkImport, File path, String tableReference) {
+        this(id, TYPE.IMPORT_FILES, user, dataSource, null, bulkImport, path, tableReference);
+    }
+
+    private Job(long id, TYPE type, String user, DataSource dataSource, DriverFunction driverFunction,
+                BulkImport bulkImport, File file, String tableReference) {
+        this.id = id;
+        this.type = type;
+        this.user = user;
+        this.dataSource = dataSource;
+        this.driverFunction = driverFunction;
+        this.bulkImport = bulkImport;
+        this.file = file;
+        this.tableReference = tableReference;
+    }
+
+    void setFuture(Future<?> future) {
+        this.future = future;
+    }
+
+    @Override
+    public void run() {
+        synchronized (this) {
+            if (state != STATE.PENDING) {
+                return;
+            }
+            state = STATE.RUNNING;
+            startTime = System.currentTimeMillis();
+        }
+        try {
+            Connection connection = dataSource.getConnection();
+            try {
+                if (type == TYPE.IMPORT) {
+                    fileSize = file.length();
+                    boolean tableExists = tableExists(connection);
+                    boolean imported = false;
+                    try {
+                        driverFunction.importFile(connection, tableReference, file, progress);
+                        imported = !progress.isCanceled();
+                    } finally {
+                        if (!imported && !tableExists) {
+                            // Do not leave a partial table
+                            dropTable(connection);
+                        }
+                    }
+                    rowCount = getRowCount(connection);
+                } else if (type == TYPE.IMPORT_FILES) {
+                    long size = 0;
+                    for (File importFile : bulkImport.listFiles(file)) {
+                        size += importFile.length();
+                    }
+                    fileSize = size;
+                    long rows = 0;
+                    for (String table : bulkImport.importFiles(connection, file, tableReference, progress)) {
+                        rows += JDBCUtilities.getRowCount(connection, table);
+                    }
+                    rowCount = rows;
+                } else {
+                    sourceRowCount = getRowCount(connection);
+                    driverFunction.exportTable(connection, tableReference, file, progress);
+                    fileSize = file.length();
+                    rowCount = sourceRowCount;
+                }
+            } finally {
+                connection.close();
+            }
+            progress.endOfProgress();
+            end(progress.isCanceled() ? STATE.CANCELED : STATE.DONE, null);
+        } catch (SQLException ex) {
+            end(progress.isCanceled() ? STATE.CANCELED : STATE.FAILED, ex.getLocalizedMessage());
+        } catch (IOException ex) {
+            end(progress.isCanceled() ? STATE.CANCELED : STATE.FAILED, ex.getLocalizedMessage());
+        } catch (Throwable ex) {
+            end(STATE.FAILED, ex.toString());
+            if (ex instanceof Error) {
+                throw (Error) ex;
+            }
+        }
+    }
+
+    private synchronized void end(STATE endState, String message) {
+        errorMessage = message;
+        endTime = System.currentTimeMillis();
+        state = endState;
+    }
+
+    /**
+     * @param connection Active connection
+     * @return The job table for the SQL statements
+     */
+    private String getTable(Connection connection) throws SQLException {
+        boolean isH2 = JDBCUtilities.isH2DataBase(connection.getMetaData());
+        return TableLocation.parse(tableReference, isH2).toString(isH2);
+    }
+
+    /**
+     * @param connection Active connection
+     * @return True if the job table exists
+     */
+    private boolean tableExists(Connection connection) throws SQLException {
+        return JDBCUtilities.tableExists(connection, getTable(connection));
+    }
+
+    /**
+     * Drop the job table, errors are ignored in order to report the import error.
+     * @param connection Active connection
+     */
+    private void dropTable(Connection connection) {
+        try {
+            Statement st = connection.createStatement();
+            try {
+                st.execute("DROP TABLE IF EXISTS " + getTable(connection));
+            } finally {
+                st.close();
+            }
+        } catch (SQLException ex) {
+            // The table has not been created
+        }
+    }
+
+    /**
+     * @param connection Active connection
+     * @return Number of rows of the job table or -1 if the table cannot be counted (ex: several tables are imported)
+     */
+    private long getRowCount(Connection connection) {
+        try {
+            Statement st = connection.createStatement();
+            try {
+                ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM " + getTable(connection));
+                try {
+                    return rs.next() ? rs.getLong(1) : -1;
+                } finally {
+                    rs.close();
+                }
+            } finally {
+                st.close();
+            }
+        } catch (SQLException ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * Cancel the job. A pending job is not executed, a running job is stopped by the drivers that check
+     * {@link ProgressVisitor#isCanceled()}.
+     * @return True if the job was pending or running
+     */
+    public boolean cancel() {
+        synchronized (this) {
+            if (state == STATE.PENDING) {
+                if (future != null) {
+                    future.cancel(false);
+                }
+                progress.cancel();
+                endTime = System.currentTimeMillis();
+                state = STATE.CANCELED;
+                return true;
+            } else if (state != STATE.RUNNING) {
+                return false;
+            }
+        }
+        progress.cancel();
+        return true;
+    }
+
+    /**
+     * @return True if the job is done, failed or canceled
+     */
+    public boolean isFinished() {
+        STATE current = state;
+        return current != STATE.PENDING && current != STATE.RUNNING;
+    }
+
+    /**
+     * @return Job identifier
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * @return Name of the database user that submitted the job, null if submitted without user
+     */
+    public String getUser() {
+        return user;
+    }
+
+    /**
+     * @return Import or export
+     */
+    public TYPE getType() {
+        return type;
+    }
+
+    /**
+     * @return Imported or exported file, directory or file name pattern of an import of files
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return [[catalog.]schema.]table reference
+     */
+    public String getTableReference() {
+        return tableReference;
+    }
+
+    /**
+     * @return Current state
+     */
+    public STATE getState() {
+        return state;
+    }
+
+    /**
+     * @return Error message of a failed job, null otherwise
+     */
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    /**
+     * @return Progression of the driver [0-1]
+     */
+    public double getProgression() {
+        return progress.getProgression();
+    }
+
+    /**
+     * @return Progression shared with the driver
+     */
+    public ProgressVisitor getProgress() {
+        return progress;
+    }
+
+    /**
+     * @return Submission time in milliseconds since epoch
+     */
+    public long getSubmitTime() {
+        return submitTime;
+    }
+
+    /**
+     * @return Start time in milliseconds since epoch, 0 if the job is not started
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * @return End time in milliseconds since epoch, 0 if the job is not finished
+     */
+    public long getEndTime() {
+        return endTime;
+    }
+
+    /**
+     * @return Number of transferred rows, estimated with the progression while an export is running. -1 if unknown.
+     */
+    public long getRowCount() {
+        if (state == STATE.RUNNING) {
+            long sourceRows = sourceRowCount;
+            return sourceRows < 0 ? -1 : (long) (sourceRows * getProgression());
+        }
+        return rowCount;
+    }
+
+    /**
+     * @return Number of transferred bytes of the file, estimated with the progression while an import is running.
+     */
+    public long getByteCount() {
+        if (state == STATE.RUNNING) {
+            return type == TYPE.EXPORT ? file.length() : (long) (fileSize * getProgression());
+        }
+        return fileSize;
+    }
+
+    /**
+     * @return Elapsed running time in milliseconds
+     */
+    public long getElapsedTime() {
+        long start = startTime;
+        if (start == 0) {
+            return 0;
+        }
+        long end = endTime;
+        return (end == 0 ? System.currentTimeMillis() : end) - start;
+    }
+
+    /**
+     * @return Transferred rows per second, -1 if unknown
+     */
+    public double getRowsPerSecond() {
+        long rows = getRowCount();
+        return rows < 0 ? -1 : getThroughput(rows);
+    }
+
+    /**
+     * @return Transferred bytes per second
+     */
+    public double getBytesPerSecond() {
+        return getThroughput(getByteCount());
+    }
+
+    private double getThroughput(long count) {
+        long elapsed = getElapsedTime();
+        return elapsed <= 0 ? 0 : count * 1000. / elapsed;
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * h2spatial is a library that brings spatial support to the H2 Java database.
+ *
+ * h2spatial is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2014 IRSTV (FR CNRS 2488)
+ *
+ * h2patial is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * h2spatial is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * h2spatial. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+
+package org.h2gis.drivers.job;
+
+import org.h2gis.h2spatialapi.AbstractFunction;
+import org.h2gis.h2spatialapi.ScalarFunction;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * SQL function to cancel a job of the {@link JobManager} registered for the database.
+ */
+public class JobCancel extends AbstractFunction implements ScalarFunction {
+
+    public JobCancel() {
+        addProperty(PROP_NAME, "JOB_CANCEL");
+        addProperty(PROP_REMARKS, "Cancel a pending or running job of the user. Return false if the job is already " +
+                "finished.");
+    }
+
+    @Override
+    public String getJavaStaticMethod() {
+        return "cancel";
+    }
+
+    /**
+     * @param connection Active connection
+     * @param jobId Job identifier
+     * @return True if the job of the calling user was pending or running
+     * @throws SQLException
+     */
+    public static boolean cancel(Connection connection, long jobId) throws SQLException {
+        return JobManager.getJobManager(connection).cancel(jobId, JobManager.getUser(connection));
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * h2spatial is a library that brings spatial support to the H2 Java database.
+ *
+ * h2spatial is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2014 IRSTV (FR CNRS 2488)
+ *
+ * h2patial is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * h2spatial is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * h2spatial. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+
+package org.h2gis.drivers.job;
+
+import org.h2gis.h2spatialapi.AbstractFunction;
+import org.h2gis.h2spatialapi.ScalarFunction;
+import org.h2gis.utilities.URIUtility;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * SQL function to export a table in background with the {@link JobManager} registered for the database.
+ */
+public class JobExport extends AbstractFunction implements ScalarFunction {
+
+    public JobExport() {
+        addProperty(PROP_NAME, "JOB_EXPORT");
+        addProperty(PROP_REMARKS, "Submit the export of a table in background and return the job identifier.\n" +
+                "JOB_STATUS() lists the progression of the jobs. The jobs run with the rights of the job manager, " +
+                "admin rights are required.");
+    }
+
+    @Override
+    public String getJavaStaticMethod() {
+        return "exportTable";
+    }
+
+    /**
+     * @param connection Active connection
+     * @param fileName File path to write, if exists it may be replaced
+     * @param tableReference [[catalog.]schema.]table reference
+     * @return Job identifier
+     * @throws SQLException
+     */
+    public static long exportTable(Connection connection, String fileName, String tableReference) throws SQLException {
+        JobManager.checkAdmin(connection);
+        return JobManager.getJobManager(connection).submitExport(
+                JobManager.qualifyTableReference(connection, tableReference), URIUtility.fileFromString(fileName),
+                JobManager.getUser(connection));
+    }
+}
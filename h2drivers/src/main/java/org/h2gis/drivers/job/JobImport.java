@@ -0,0 +1,89 @@
+/*
+ * h2spatial is a library that brings spatial support to the H2 Java database.
+ *
+ * h2spatial is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2014 IRSTV (FR CNRS 2488)
+ *
+ * h2patial is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * h2spatial is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * h2spatial. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+
+package org.h2gis.drivers.job;
+
+import org.h2gis.drivers.BulkImport;
+import org.h2gis.h2spatialapi.AbstractFunction;
+import org.h2gis.h2spatialapi.ScalarFunction;
+import org.h2gis.utilities.URIUtility;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * SQL function to import a file, or the files of a directory, in background with the {@link JobManager} registered
+ * for the database.
+ */
+public class JobImport extends AbstractFunction implements ScalarFunction {
+
+    public JobImport() {
+        addProperty(PROP_NAME, "JOB_IMPORT");
+        addProperty(PROP_REMARKS, "Submit the import of a file in background and return the job identifier.\n" +
+                "The files of a directory or the files matching a pattern (ex: /data/tiles/*.shp) are imported " +
+                "concurrently into the tables [table]_[file name], see IMPORT_FILES. The optional union argument " +
+                "appends the files that share the same columns into [table], [table]_2...\n" +
+                "JOB_STATUS() lists the progression of the jobs. The jobs run with the rights of the job manager, " +
+                "admin rights are required.");
+    }
+
+    @Override
+    public String getJavaStaticMethod() {
+        return "importFile";
+    }
+
+    /**
+     * @param connection Active connection
+     * @param fileName File path to read, directory or file name pattern
+     * @param tableReference [[catalog.]schema.]table reference
+     * @return Job identifier
+     * @throws SQLException
+     */
+    public static long importFile(Connection connection, String fileName, String tableReference) throws SQLException {
+        if (BulkImport.isPattern(fileName) || URIUtility.fileFromString(fileName).isDirectory()) {
+            return importFile(connection, fileName, tableReference, false);
+        }
+        JobManager.checkAdmin(connection);
+        return JobManager.getJobManager(connection).submitImport(URIUtility.fileFromString(fileName),
+                JobManager.qualifyTableReference(connection, tableReference), JobManager.getUser(connection));
+    }
+
+    /**
+     * @param connection Active connection
+     * @param fileName Directory or file name pattern
+     * @param tableReference [[catalog.]schema.]table reference, prefix of the created tables
+     * @param union True to append the files that share the same columns into a single table
+     * @return Job identifier
+     * @throws SQLException
+     */
+    public static long importFile(Connection connection, String fileName, String tableReference, boolean union) throws SQLException {
+        // The ? wildcard would be read as an URI query
+        File path = BulkImport.isPattern(fileName) ? new File(fileName) : URIUtility.fileFromString(fileName);
+        JobManager.checkAdmin(connection);
+        return JobManager.getJobManager(connection).submitImportFiles(path,
+                JobManager.qualifyTableReference(connection, tableReference), union, JobManager.getUser(connection));
+    }
+}
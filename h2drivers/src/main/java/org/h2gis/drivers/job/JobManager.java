@@ -0,0 +1,484 @@
+/*
+ * h2spatial is a library that brings spatial support to the H2 Java database.
+ *
+ * h2spatial is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2014 IRSTV (FR CNRS 2488)
+ *
+ * h2patial is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * h2spatial is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * h2spatial. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+
+package org.h2gis.drivers.job;
+
+import org.h2gis.drivers.BulkImport;
+import org.h2gis.drivers.DriverManager;
+import org.h2gis.h2spatialapi.DriverFunction;
+import org.h2gis.utilities.JDBCUtilities;
+import org.h2gis.utilities.TableLocation;
+
+import javax.sql.DataSource;
+import java.io.File;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Execute the file imports and exports in background threads. Each job runs with its own connection acquired from
+ * the DataSource, so the calling session and its connection are released as soon as the job is submitted.
+ * The number of running jobs and the number of pending jobs are bounded.
+ *
+ * The SQL functions of this package use the manager registered for the database of the calling connection
+ * (see {@link #register(JobManager)}). The jobs run with the rights of the DataSource user, the SQL functions
+ * submit jobs only for the admin users and each user only lists and cancels its own jobs.
+ */
+public class JobManager {
+    public static final int DEFAULT_QUEUE_SIZE = 100;
+    public static final int DEFAULT_FINISHED_JOB_COUNT = 100;
+    private static final Map<String, JobManager> MANAGERS = new ConcurrentHashMap<String, JobManager>();
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+
+    private final DataSource dataSource;
+    private final ThreadPoolExecutor executor;
+    private final List<DriverFunction> driverFunctions = new ArrayList<DriverFunction>();
+    private final Map<Long, Job> jobs = new LinkedHashMap<Long, Job>();
+    private long lastJobId = 0;
+    private int finishedJobCount = DEFAULT_FINISHED_JOB_COUNT;
+    private String databaseKey;
+
+    /**
+     * @param dataSource Connection provider of the jobs
+     * @param threadCount Maximum number of running jobs
+     */
+    public JobManager(DataSource dataSource, int threadCount) {
+        this(dataSource, threadCount, DEFAULT_QUEUE_SIZE);
+    }
+
+    /**
+     * @param dataSource Connection provider of the jobs
+     * @param threadCount Maximum number of running jobs
+     * @param queueSize Maximum number of pending jobs
+     */
+    public JobManager(DataSource dataSource, int threadCount, int queueSize) {
+        if(threadCount < 1) {
+            throw new IllegalArgumentException("The thread count must be greater than 0");
+        }
+        if(queueSize < 1) {
+            throw new IllegalArgumentException("The queue size must be greater than 0");
+        }
+        this.dataSource = dataSource;
+        executor = new ThreadPoolExecutor(threadCount, threadCount, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "H2GIS job " + THREAD_COUNTER.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        driverFunctions.addAll(DriverManager.getDriverFunctions());
+    }
+
+    /**
+     * Register a manager for the database of its DataSource. A previous manager of the same database is replaced
+     * but not shut down.
+     * @param jobManager Job manager
+     * @throws SQLException The DataSource cannot provide a connection
+     */
+    public static void register(JobManager jobManager) throws SQLException {
+        Connection connection = jobManager.dataSource.getConnection();
+        try {
+            jobManager.databaseKey = getDatabaseKey(connection);
+        } finally {
+            connection.close();
+        }
+        MANAGERS.put(jobManager.databaseKey, jobManager);
+    }
+
+    /**
+     * Remove a registered manager, the jobs are not canceled.
+     * @param jobManager Job manager
+     */
+    public static void unregister(JobManager jobManager) {
+        if(jobManager.databaseKey != null) {
+            MANAGERS.remove(jobManager.databaseKey);
+        }
+    }
+
+    /**
+     * @param connection Active connection
+     * @return The manager registered for the database of this connection
+     * @throws SQLException No manager has been registered for this database
+     */
+    public static JobManager getJobManager(Connection connection) throws SQLException {
+        JobManager jobManager = findJobManager(connection);
+        if(jobManager == null) {
+            throw new SQLException("No job manager is registered for the database " + connection.getMetaData().getURL());
+        }
+        return jobManager;
+    }
+
+    /**
+     * @param connection Active connection
+     * @return The manager registered for the database of this connection or null
+     * @throws SQLException
+     */
+    public static JobManager findJobManager(Connection connection) throws SQLException {
+        return MANAGERS.get(getDatabaseKey(connection));
+    }
+
+    /**
+     * The URL of the connection given to the H2 functions is jdbc:default:connection, the H2 databases are then
+     * identified by their path.
+     * @param connection Active connection
+     * @return Database identifier
+     */
+    private static String getDatabaseKey(Connection connection) throws SQLException {
+        if(JDBCUtilities.isH2DataBase(connection.getMetaData())) {
+            Statement st = connection.createStatement();
+            try {
+                ResultSet rs = st.executeQuery("SELECT COALESCE(DATABASE_PATH(), DATABASE())");
+                try {
+                    rs.next();
+                    return rs.getString(1);
+                } finally {
+                    rs.close();
+                }
+            } finally {
+                st.close();
+            }
+        }
+        return connection.getMetaData().getURL();
+    }
+
+    /**
+     * @return Connection provider of the jobs
+     */
+    public DataSource getDataSource() {
+        return dataSource;
+    }
+
+    /**
+     * @return Maximum number of running jobs
+     */
+    public int getThreadCount() {
+        return executor.getMaximumPoolSize();
+    }
+
+    /**
+     * Add a driver, it takes precedence over the previous drivers of the same file extensions.
+     * @param driverFunction Import/export driver
+     */
+    public synchronized void addDriverFunction(DriverFunction driverFunction) {
+        driverFunctions.add(0, driverFunction);
+    }
+
+    /**
+     * @param finishedJobCount Number of finished jobs kept in the job list
+     */
+    public synchronized void setFinishedJobCount(int finishedJobCount) {
+        if(finishedJobCount < 0) {
+            throw new IllegalArgumentException("The finished job count must be positive");
+        }
+        this.finishedJobCount = finishedJobCount;
+    }
+
+    /**
+     * Qualify a table reference with the current schema of a connection. The jobs use their own connections, an
+     * unqualified table reference is resolved with the default schema of the DataSource connections.
+     * @param connection Connection of the caller
+     * @param tableReference [[catalog.]schema.]table reference
+     * @return The table reference with the current schema of the connection if the schema is not given
+     * @throws SQLException
+     */
+    public static String qualifyTableReference(Connection connection, String tableReference) throws SQLException {
+        boolean isH2 = JDBCUtilities.isH2DataBase(connection.getMetaData());
+        TableLocation location = TableLocation.parse(tableReference, isH2);
+        if(!location.getSchema().isEmpty()) {
+            return tableReference;
+        }
+        Statement st = connection.createStatement();
+        try {
+            ResultSet rs = st.executeQuery(isH2 ? "SELECT SCHEMA()" : "SELECT CURRENT_SCHEMA()");
+            try {
+                if(!rs.next() || rs.getString(1) == null) {
+                    return tableReference;
+                }
+                return new TableLocation(rs.getString(1), location.getTable()).toString(isH2);
+            } finally {
+                rs.close();
+            }
+        } finally {
+            st.close();
+        }
+    }
+
+    /**
+     * @param connection Connection of the caller
+     * @return Name of the database user of the connection
+     * @throws SQLException
+     */
+    public static String getUser(Connection connection) throws SQLException {
+        return connection.getMetaData().getUserName();
+    }
+
+    /**
+     * The jobs read and write the files and the tables with the rights of the DataSource user. As the H2 file
+     * functions, the jobs are then reserved to the admin users.
+     * @param connection Connection of the caller
+     * @throws SQLException The user of the connection is not an admin
+     */
+    public static void checkAdmin(Connection connection) throws SQLException {
+        if(!JDBCUtilities.isH2DataBase(connection.getMetaData())) {
+            return;
+        }
+        Statement st = connection.createStatement();
+        try {
+            ResultSet rs = st.executeQuery("SELECT ADMIN FROM INFORMATION_SCHEMA.USERS WHERE NAME = USER()");
+            try {
+                if(!rs.next() || !Boolean.parseBoolean(rs.getString(1))) {
+                    throw new SQLException("Admin rights are required to submit a job, the jobs run with the " +
+                            "rights of the job manager");
+                }
+            } finally {
+                rs.close();
+            }
+        } finally {
+            st.close();
+        }
+    }
+
+    /**
+     * Submit the import of a file.
+     * @param file File to import
+     * @param tableReference [[catalog.]schema.]table reference, resolved with the job connection
+     * @return Job identifier
+     * @throws SQLException No driver is available or too many jobs are pending
+     */
+    public long submitImport(File file, String tableReference) throws SQLException {
+        return submitImport(file, tableReference, null);
+    }
+
+    /**
+     * Submit the import of a file.
+     * @param file File to import
+     * @param tableReference [[catalog.]schema.]table reference, resolved with the job connection
+     * @param user Name of the database user that submits the job, null if none
+     * @return Job identifier
+     * @throws SQLException No driver is available or too many jobs are pending
+     */
+    public long submitImport(File file, String tableReference, String user) throws SQLException {
+        DriverFunction driverFunction = getDriverFunction(file, true);
+        if(driverFunction == null) {
+            throw new SQLException("No driver is available to import the " + getExtension(file) + " file format");
+        }
+        return submit(Job.TYPE.IMPORT, user, driverFunction, null, file, tableReference);
+    }
+
+    /**
+     * Submit the export of a table.
+     * @param tableReference [[catalog.]schema.]table reference, resolved with the job connection
+     * @param file File to write, if exists it may be replaced
+     * @return Job identifier
+     * @throws SQLException No driver is available or too many jobs are pending
+     */
+    public long submitExport(String tableReference, File file) throws SQLException {
+        return submitExport(tableReference, file, null);
+    }
+
+    /**
+     * Submit the export of a table.
+     * @param tableReference [[catalog.]schema.]table reference, resolved with the job connection
+     * @param file File to write, if exists it may be replaced
+     * @param user Name of the database user that submits the job, null if none
+     * @return Job identifier
+     * @throws SQLException No driver is available or too many jobs are pending
+     */
+    public long submitExport(String tableReference, File file, String user) throws SQLException {
+        DriverFunction driverFunction = getDriverFunction(file, false);
+        if(driverFunction == null) {
+            throw new SQLException("No driver is available to export the " + getExtension(file) + " file format");
+        }
+        return submit(Job.TYPE.EXPORT, user, driverFunction, null, file, tableReference);
+    }
+
+    /**
+     * Submit the import of the files of a directory, or the files matching a pattern, with a {@link BulkImport}.
+     * The files are imported by {@link #getThreadCount()} threads with connections of the DataSource.
+     * @param path Directory or pattern, ex: /data/tiles/*.shp
+     * @param tableReference [[catalog.]schema.]table reference, prefix of the created tables, resolved with the job
+     *                       connection
+     * @param union True to append the files that share the same columns into a single table
+     * @param user Name of the database user that submits the job, null if none
+     * @return Job identifier
+     * @throws SQLException No file can be imported or too many jobs are pending
+     */
+    public long submitImportFiles(File path, String tableReference, boolean union, String user) throws SQLException {
+        BulkImport bulkImport = new BulkImport(dataSource);
+        synchronized (this) {
+            // Keep the precedence of the drivers
+            for(int i = driverFunctions.size() - 1; i >= 0; i--) {
+                bulkImport.addDriverFunction(driverFunctions.get(i));
+            }
+        }
+        if(bulkImport.listFiles(path).length == 0) {
+            throw new SQLException("No file to import matches " + path);
+        }
+        bulkImport.setThreadCount(getThreadCount());
+        bulkImport.setUnion(union);
+        return submit(Job.TYPE.IMPORT_FILES, user, null, bulkImport, path, tableReference);
+    }
+
+    private synchronized long submit(Job.TYPE type, String user, DriverFunction driverFunction, BulkImport bulkImport,
+                                     File file, String tableReference) throws SQLException {
+        if(executor.isShutdown()) {
+            throw new SQLException("The job manager is shut down");
+        }
+        Job job = bulkImport == null ?
+                new Job(lastJobId + 1, type, user, dataSource, driverFunction, file, tableReference) :
+                new Job(lastJobId + 1, user, dataSource, bulkImport, file, tableReference);
+        try {
+            job.setFuture(executor.submit(job));
+        } catch (RejectedExecutionException ex) {
+            throw new SQLException("Too many pending jobs, retry when a job is finished", ex);
+        }
+        lastJobId = job.getId();
+        jobs.put(job.getId(), job);
+        removeFinishedJobs();
+        return job.getId();
+    }
+
+    /**
+     * Keep only the last finished jobs
+     */
+    private void removeFinishedJobs() {
+        int finished = 0;
+        for(Job job : jobs.values()) {
+            if(job.isFinished()) {
+                finished++;
+            }
+        }
+        Iterator<Job> it = jobs.values().iterator();
+        while(finished > finishedJobCount && it.hasNext()) {
+            if(it.next().isFinished()) {
+                it.remove();
+                finished--;
+            }
+        }
+    }
+
+    private synchronized DriverFunction getDriverFunction(File file, boolean read) {
+        String ext = getExtension(file);
+        for(DriverFunction driverFunction : driverFunctions) {
+            for(String format : read ? driverFunction.getImportFormats() : driverFunction.getExportFormats()) {
+                if(format.equalsIgnoreCase(ext)) {
+                    return driverFunction;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String getExtension(File file) {
+        String name = file.getName();
+        return name.substring(name.lastIndexOf('.') + 1);
+    }
+
+    /**
+     * @param id Job identifier
+     * @return The job or null if this job does not exist or has been removed
+     */
+    public synchronized Job getJob(long id) {
+        return jobs.get(id);
+    }
+
+    /**
+     * @return The current jobs and the last finished jobs, in submission order
+     */
+    public synchronized List<Job> getJobs() {
+        return new ArrayList<Job>(jobs.values());
+    }
+
+    /**
+     * @param user Name of a database user
+     * @return The current jobs and the last finished jobs submitted by this user, in submission order
+     */
+    public synchronized List<Job> getJobs(String user) {
+        List<Job> userJobs = new ArrayList<Job>();
+        for(Job job : jobs.values()) {
+            if(user.equals(job.getUser())) {
+                userJobs.add(job);
+            }
+        }
+        return userJobs;
+    }
+
+    /**
+     * Cancel a job
+     * @param id Job identifier
+     * @return True if the job was pending or running
+     */
+    public boolean cancel(long id) {
+        Job job = getJob(id);
+        return job != null && job.cancel();
+    }
+
+    /**
+     * Cancel a job submitted by a user
+     * @param id Job identifier
+     * @param user Name of the database user that submitted the job
+     * @return True if the job of this user was pending or running
+     */
+    public boolean cancel(long id, String user) {
+        Job job = getJob(id);
+        return job != null && user.equals(job.getUser()) && job.cancel();
+    }
+
+    /**
+     * Cancel the jobs and stop the threads. The manager is unregistered.
+     */
+    public void shutdown() {
+        unregister(this);
+        for(Job job : getJobs()) {
+            job.cancel();
+        }
+        executor.shutdown();
+    }
+
+    /**
+     * Wait for the end of the running jobs after {@link #shutdown()}
+     * @param timeout Maximum time to wait in milliseconds
+     * @return True if all the jobs are finished
+     * @throws InterruptedException
+     */
+    public boolean awaitTermination(long timeout) throws InterruptedException {
+        return executor.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * h2spatial is a library that brings spatial support to the H2 Java database.
+ *
+ * h2spatial is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2014 IRSTV (FR CNRS 2488)
+ *
+ * h2patial is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * h2spatial is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * h2spatial. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+
+package org.h2gis.drivers.job;
+
+import org.h2gis.h2spatialapi.ProgressVisitor;
+
+import java.beans.PropertyChangeListener;
+import java.beans.PropertyChangeSupport;
+
+/**
+ * Thread safe progression of a job. The progression is written by the job thread and read by the threads that
+ * monitor the job. The cancellation is shared by the root visitor and all of its sub processes.
+ */
+public class JobProgressVisitor implements ProgressVisitor {
+    private final JobProgressVisitor parent;
+    private final PropertyChangeSupport propertyChangeSupport;
+    private final int stepCount;
+    private volatile int step = 0;
+    private volatile JobProgressVisitor subProcess;
+    private volatile boolean canceled = false;
+
+    /**
+     * Root progression, a single step that ends with the job
+     */
+    public JobProgressVisitor() {
+        this(null, 1);
+    }
+
+    private JobProgressVisitor(JobProgressVisitor parent, int stepCount) {
+        this.parent = parent;
+        this.stepCount = stepCount;
+        this.propertyChangeSupport = parent == null ? new PropertyChangeSupport(this) : parent.propertyChangeSupport;
+    }
+
+    @Override
+    public ProgressVisitor subProcess(int stepCount) {
+        JobProgressVisitor child = new JobProgressVisitor(this, stepCount);
+        subProcess = child;
+        return child;
+    }
+
+    @Override
+    public void endStep() {
+        setStep(step + 1);
+    }
+
+    @Override
+    public void setStep(int idStep) {
+        step = Math.max(0, Math.min(idStep, stepCount));
+        subProcess = null;
+        if (step == stepCount && parent != null && parent.subProcess == this) {
+            parent.endStep();
+        }
+    }
+
+    @Override
+    public int getStepCount() {
+        return stepCount;
+    }
+
+    @Override
+    public void endOfProgress() {
+        setStep(stepCount);
+    }
+
+    @Override
+    public double getProgression() {
+        if (stepCount <= 0) {
+            return 0;
+        }
+        JobProgressVisitor child = subProcess;
+        double childProgression = child == null ? 0 : child.getProgression();
+        return Math.min(1., (step + childProgression) / stepCount);
+    }
+
+    @Override
+    public boolean isCanceled() {
+        return parent == null ? canceled : parent.isCanceled();
+    }
+
+    @Override
+    public void cancel() {
+        if (parent != null) {
+            parent.cancel();
+        } else {
+            boolean oldValue = canceled;
+            canceled = true;
+            propertyChangeSupport.firePropertyChange(PROPERTY_CANCELED, oldValue, true);
+        }
+    }
+
+    @Override
+    public void addPropertyChangeListener(String property, PropertyChangeListener listener) {
+        propertyChangeSupport.addPropertyChangeListener(property, listener);
+    }
+
+    @Override
+    public void removePropertyChangeListener(PropertyChangeListener listener) {
+        propertyChangeSupport.removePropertyChangeListener(listener);
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * h2spatial is a library that brings spatial support to the H2 Java database.
+ *
+ * h2spatial is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2014 IRSTV (FR CNRS 2488)
+ *
+ * h2patial is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * h2spatial is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * h2spatial. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+
+package org.h2gis.drivers.job;
+
+import org.h2.tools.SimpleResultSet;
+import org.h2gis.h2spatialapi.AbstractFunction;
+import org.h2gis.h2spatialapi.ScalarFunction;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+
+/**
+ * SQL table function that lists the jobs of the {@link JobManager} registered for the database with their
+ * progression and throughput. Only the jobs submitted by the calling user are listed.
+ */
+public class JobStatus extends AbstractFunction implements ScalarFunction {
+
+    public JobStatus() {
+        addProperty(PROP_NAME, "JOB_STATUS");
+        addProperty(PROP_REMARKS, "List the current and the last finished import and export jobs of the user.\n" +
+                "Example: SELECT * FROM JOB_STATUS();");
+    }
+
+    @Override
+    public String getJavaStaticMethod() {
+        return "getJobStatus";
+    }
+
+    /**
+     * @param connection Active connection
+     * @return One row per job
+     * @throws SQLException
+     */
+    public static ResultSet getJobStatus(Connection connection) throws SQLException {
+        SimpleResultSet output = prepareResultSet();
+        if ("jdbc:columnlist:connection".equals(connection.getMetaData().getURL())) {
+            return output;
+        }
+        for (Job job : JobManager.getJobManager(connection).getJobs(JobManager.getUser(connection))) {
+            output.addRow(job.getId(), job.getType().name(), job.getFile().getPath(), job.getTableReference(),
+                    job.getState().name(), job.getProgression(), job.getRowCount(), job.getRowsPerSecond(),
+                    job.getByteCount(), job.getBytesPerSecond(), getTimestamp(job.getStartTime()),
+                    getTimestamp(job.getEndTime()), job.getErrorMessage());
+        }
+        return output;
+    }
+
+    private static Timestamp getTimestamp(long time) {
+        return time == 0 ? null : new Timestamp(time);
+    }
+
+    private static SimpleResultSet prepareResultSet() {
+        SimpleResultSet output = new SimpleResultSet();
+        output.addColumn("JOB_ID", Types.BIGINT, 19, 0);
+        output.addColumn("JOB_TYPE", Types.VARCHAR, Integer.MAX_VALUE, 0);
+        output.addColumn("FILE_NAME", Types.VARCHAR, Integer.MAX_VALUE, 0);
+        output.addColumn("TABLE_NAME", Types.VARCHAR, Integer.MAX_VALUE, 0);
+        output.addColumn("STATE", Types.VARCHAR, Integer.MAX_VALUE, 0);
+        output.addColumn("PROGRESSION", Types.DOUBLE, 17, 0);
+        output.addColumn("ROW_COUNT", Types.BIGINT, 19, 0);
+        output.addColumn("ROWS_PER_SECOND", Types.DOUBLE, 17, 0);
+        output.addColumn("BYTE_COUNT", Types.BIGINT, 19, 0);
+        output.addColumn("BYTES_PER_SECOND", Types.DOUBLE, 17, 0);
+        output.addColumn("START_TIME", Types.TIMESTAMP, 23, 10);
+        output.addColumn("END_TIME", Types.TIMESTAMP, 23, 10);
+        output.addColumn("ERROR", Types.VARCHAR, Integer.MAX_VALUE, 0);
+        return output;
+    }
+}
@@ -28,6 +28,7 @@ import java.io.File;
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.zip.Deflater;
 import org.h2gis.h2spatialapi.DriverFunction;
 import org.h2gis.h2spatialapi.ProgressVisitor;
 
@@ -38,6 +39,45 @@ import org.h2gis.h2spatialapi.ProgressVisitor;
  */
 public class KMLDriverFunction implements DriverFunction {
 
+    private int exportThreadCount = Runtime.getRuntime().availableProcessors();
+    private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+
+    /**
+     * @param exportThreadCount Number of threads that encode the placemarks, 1 to encode and write the placemarks
+     *                          in the calling thread. Defaults to the processor count.
+     */
+    public void setExportThreadCount(int exportThreadCount) {
+        if(exportThreadCount < 1) {
+            throw new IllegalArgumentException("The thread count must be greater than 0");
+        }
+        this.exportThreadCount = exportThreadCount;
+    }
+
+    /**
+     * @return Number of threads that encode the placemarks
+     */
+    public int getExportThreadCount() {
+        return exportThreadCount;
+    }
+
+    /**
+     * @param compressionLevel Deflate level of the KMZ files, from 0 (no compression) to 9, or -1 for the default
+     *                         level.
+     */
+    public void setCompressionLevel(int compressionLevel) {
+        if(compressionLevel < Deflater.DEFAULT_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("The compression level must be between -1 and 9");
+        }
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * @return Deflate level of the KMZ files
+     */
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
     @Override
     public String[] getImportFormats() {
         return new String[0];
@@ -62,6 +102,8 @@ public class KMLDriverFunction implements DriverFunction {
     @Override
     public void exportTable(Connection connection, String tableReference, File fileName, ProgressVisitor progress) throws SQLException, IOException {        
         KMLWriterDriver kMLWriter = new KMLWriterDriver(connection, tableReference, fileName);
+        kMLWriter.setThreadCount(exportThreadCount);
+        kMLWriter.setCompressionLevel(compressionLevel);
         kMLWriter.write(progress);
     }
 
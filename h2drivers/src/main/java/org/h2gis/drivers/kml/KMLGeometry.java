@@ -25,6 +25,7 @@
 package org.h2gis.drivers.kml;
 
 import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.CoordinateSequence;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryCollection;
 import com.vividsolutions.jts.geom.LineString;
@@ -148,7 +149,7 @@ public class KMLGeometry {
         sb.append("<LineString>");
         appendExtrude(extrude, sb);
         appendAltitudeMode(altitudeModeEnum, sb);
-        appendKMLCoordinates(lineString.getCoordinates(), sb);
+        appendKMLCoordinates(lineString.getCoordinateSequence(), sb);
         sb.append("</LineString>");
     }
 
@@ -184,7 +185,7 @@ public class KMLGeometry {
         sb.append("<LinearRing>");
         appendExtrude(extrude, sb);
         appendAltitudeMode(altitudeModeEnum, sb);
-        appendKMLCoordinates(lineString.getCoordinates(), sb);
+        appendKMLCoordinates(lineString.getCoordinateSequence(), sb);
         sb.append("</LinearRing>");
     }
 
@@ -277,6 +278,29 @@ public class KMLGeometry {
         sb.append("</MultiGeometry>");
     }
 
+    /**
+     * Build a string represention to kml coordinates from a coordinate
+     * sequence, the coordinates are read without copying the sequence.
+     *
+     * @param coords
+     * @param sb
+     */
+    public static void appendKMLCoordinates(CoordinateSequence coords, StringBuilder sb) {
+        sb.append("<coordinates>");
+        int size = coords.size();
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            sb.append(coords.getX(i)).append(',').append(coords.getY(i));
+            double z = coords.getOrdinate(i, CoordinateSequence.Z);
+            if (!Double.isNaN(z)) {
+                sb.append(',').append(z);
+            }
+        }
+        sb.append("</coordinates>");
+    }
+
     /**
      * Build a string represention to kml coordinates
      *
@@ -25,7 +25,10 @@
 package org.h2gis.drivers.kml;
 
 import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.ParseException;
+import com.vividsolutions.jts.io.WKBReader;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
@@ -37,9 +40,18 @@ import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Types;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 import javax.xml.stream.XMLOutputFactory;
@@ -56,11 +68,15 @@ import org.h2gis.utilities.TableLocation;
  */
 public class KMLWriterDriver {
 
+    public static final int DEFAULT_BATCH_SIZE = 1000;
     private final String tableName;
     private final File fileName;
     private final Connection connection;
     private HashMap<Integer, String> kmlFields;
     private int columnCount = -1;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private int threadCount = 1;
+    private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
 
     public KMLWriterDriver(Connection connection, String tableName, File fileName) {
         this.connection = connection;
@@ -68,6 +84,59 @@ public class KMLWriterDriver {
         this.fileName = fileName;
     }
 
+    /**
+     * @param batchSize Number of rows encoded by a single task
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("The batch size must be greater than 0");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return Number of rows encoded by a single task
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @param threadCount Number of threads that encode the placemarks, 1 to
+     * encode and write the placemarks in the calling thread.
+     */
+    public void setThreadCount(int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("The thread count must be greater than 0");
+        }
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * @return Number of threads that encode the placemarks
+     */
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * @param compressionLevel Deflate level of the KMZ file, from 0 (no
+     * compression) to 9, or -1 for the default level.
+     */
+    public void setCompressionLevel(int compressionLevel) {
+        if (compressionLevel < Deflater.DEFAULT_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("The compression level must be between -1 and 9");
+        }
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * @return Deflate level of the KMZ file
+     */
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
     /**
      * Write spatial table to kml or kmz file format.
      *
@@ -128,6 +197,7 @@ public class KMLWriterDriver {
         ZipOutputStream zos = null;
         try {
             zos = new ZipOutputStream(new FileOutputStream(fileName));
+            zos.setLevel(compressionLevel);
             // Create a zip entry for the main KML file
             zos.putNextEntry(new ZipEntry(fileNameWithExtension));
             writeKMLDocument(progress, zos);
@@ -153,21 +223,28 @@ public class KMLWriterDriver {
      * Write the KML document Note the document stores only the first geometry
      * column in the placeMark element. The other geomtry columns are ignored.
      *
+     * The rows are read by the calling thread and grouped into chunks of
+     * {@link #batchSize} rows. The chunks are encoded into Placemark fragments
+     * by {@link #threadCount} threads, then the calling thread appends the
+     * fragments to the document in the order of the table.
+     *
      * @param progress
      * @param outputStream
      * @throws SQLException
      */
     private void writeKMLDocument(ProgressVisitor progress, OutputStream outputStream) throws SQLException {
         // Read Geometry Index and type
-        List<String> spatialFieldNames = SFSUtilities.getGeometryFields(connection, TableLocation.parse(tableName, JDBCUtilities.isH2DataBase(connection.getMetaData())));
+        final boolean isH2 = JDBCUtilities.isH2DataBase(connection.getMetaData());
+        List<String> spatialFieldNames = SFSUtilities.getGeometryFields(connection, TableLocation.parse(tableName, isH2));
         if (spatialFieldNames.isEmpty()) {
             throw new SQLException(String.format("The table %s does not contain a geometry field", tableName));
         }
+        final String spatialFieldName = spatialFieldNames.get(0);
         try {
             final XMLOutputFactory streamWriterFactory = XMLOutputFactory.newFactory();
             streamWriterFactory.setProperty("escapeCharacters", false);
-            XMLStreamWriter xmlOut = streamWriterFactory.createXMLStreamWriter(
-                    new BufferedOutputStream(outputStream));
+            OutputStream out = new BufferedOutputStream(outputStream);
+            XMLStreamWriter xmlOut = streamWriterFactory.createXMLStreamWriter(out, "UTF-8");
             xmlOut.writeStartDocument("UTF-8", "1.0");
             xmlOut.writeStartElement("kml");
             xmlOut.writeDefaultNamespace("http://www.opengis.net/kml/2.2");
@@ -181,24 +258,69 @@ public class KMLWriterDriver {
             // Read table content
             Statement st = connection.createStatement();
             try {
-                ResultSet rs = st.executeQuery(String.format("select * from `%s`", tableName));
+                ResultSet rs = st.executeQuery(String.format("select * from %s",
+                        TableLocation.parse(tableName, isH2).toString(isH2)));
+                final int maxPendingBatch = threadCount * 2;
+                ExecutorService executorService = threadCount > 1 ? Executors.newFixedThreadPool(threadCount) : null;
                 try {
                     int recordCount = JDBCUtilities.getRowCount(connection, tableName);
                     ProgressVisitor copyProgress = progress.subProcess(recordCount);
                     ResultSetMetaData resultSetMetaData = rs.getMetaData();
-                    int geoFieldIndex = JDBCUtilities.getFieldIndex(resultSetMetaData, spatialFieldNames.get(0));
+                    int geoFieldIndex = JDBCUtilities.getFieldIndex(resultSetMetaData, spatialFieldName);
 
                     writeSchema(xmlOut, resultSetMetaData);
                     xmlOut.writeStartElement("Folder");
                     xmlOut.writeStartElement("name");
                     xmlOut.writeCharacters(tableName);
                     xmlOut.writeEndElement();//Name
-                    while (rs.next()) {
-                        writePlacemark(xmlOut, rs, geoFieldIndex, spatialFieldNames.get(0));
-                        copyProgress.endStep();
+                    // The placemarks are appended to the underlying stream
+                    xmlOut.flush();
+                    final int[] fieldIndexes = getFieldIndexes();
+                    Queue<Future<EncodedPlacemarks>> pendingBatch = new ArrayDeque<Future<EncodedPlacemarks>>(maxPendingBatch);
+                    int placemarkCount = 0;
+                    boolean hasRows = true;
+                    while (hasRows || !pendingBatch.isEmpty()) {
+                        while (hasRows && pendingBatch.size() < maxPendingBatch) {
+                            if (progress.isCanceled()) {
+                                throw new SQLException("Canceled by user");
+                            }
+                            final List<Object[]> rows = new ArrayList<Object[]>(batchSize);
+                            while (rows.size() < batchSize && (hasRows = rs.next())) {
+                                Object[] row = new Object[fieldIndexes.length + 1];
+                                // The geometries are decoded from WKB by the worker threads
+                                row[0] = isH2 ? rs.getBytes(geoFieldIndex) : rs.getObject(geoFieldIndex);
+                                for (int i = 0; i < fieldIndexes.length; i++) {
+                                    row[i + 1] = rs.getString(fieldIndexes[i]);
+                                }
+                                rows.add(row);
+                            }
+                            if (!rows.isEmpty()) {
+                                Callable<EncodedPlacemarks> task = new Callable<EncodedPlacemarks>() {
+                                    @Override
+                                    public EncodedPlacemarks call() throws XMLStreamException, SQLException {
+                                        return encodePlacemarks(streamWriterFactory, rows, spatialFieldName);
+                                    }
+                                };
+                                if (executorService != null) {
+                                    pendingBatch.add(executorService.submit(task));
+                                } else {
+                                    FutureTask<EncodedPlacemarks> futureTask = new FutureTask<EncodedPlacemarks>(task);
+                                    futureTask.run();
+                                    pendingBatch.add(futureTask);
+                                }
+                            }
+                        }
+                        if (!pendingBatch.isEmpty()) {
+                            EncodedPlacemarks encodedPlacemarks = getEncodedPlacemarks(pendingBatch.remove());
+                            encodedPlacemarks.bytes.writeTo(out);
+                            placemarkCount += encodedPlacemarks.placemarkCount;
+                            copyProgress.setStep(Math.min(placemarkCount, copyProgress.getStepCount()));
+                        }
                     }
-
                 } finally {
+                    if (executorService != null) {
+                        executorService.shutdownNow();
+                    }
                     rs.close();
                 }
             } finally {
@@ -208,8 +330,11 @@ public class KMLWriterDriver {
             xmlOut.writeEndElement();//KML
             xmlOut.writeEndDocument();//DOC
             xmlOut.close();
+            out.flush();
         } catch (XMLStreamException ex) {
             throw new SQLException(ex);
+        } catch (IOException ex) {
+            throw new SQLException(ex);
         }
     }
 
@@ -306,12 +431,29 @@ public class KMLWriterDriver {
      * @param xmlOut
      */
     public void writePlacemark(XMLStreamWriter xmlOut, ResultSet rs, int geoFieldIndex, String spatialFieldName) throws XMLStreamException, SQLException {
+        int[] fieldIndexes = getFieldIndexes();
+        Object[] row = new Object[fieldIndexes.length + 1];
+        row[0] = rs.getObject(geoFieldIndex);
+        for (int i = 0; i < fieldIndexes.length; i++) {
+            row[i + 1] = rs.getString(fieldIndexes[i]);
+        }
+        writePlacemark(xmlOut, row, spatialFieldName, new StringBuilder());
+    }
+
+    /**
+     * Write a Placemark from a row.
+     *
+     * @param xmlOut
+     * @param row The geometry then the values of the {@link #kmlFields}
+     * @param spatialFieldName
+     * @param sb Buffer used to encode the geometry
+     */
+    private void writePlacemark(XMLStreamWriter xmlOut, Object[] row, String spatialFieldName, StringBuilder sb) throws XMLStreamException, SQLException {
         xmlOut.writeStartElement("Placemark");
         if (columnCount > 1) {
-            writeExtendedData(xmlOut, rs);
+            writeExtendedData(xmlOut, row);
         }
-        StringBuilder sb = new StringBuilder();
-        Geometry geom = (Geometry) rs.getObject(geoFieldIndex);
+        Geometry geom = (Geometry) row[0];
         int inputSRID = geom.getSRID();
         if (inputSRID == 0) {
             throw new SQLException("A coordinate reference system must be set to save the KML file");
@@ -319,12 +461,85 @@ public class KMLWriterDriver {
             throw new SQLException("The kml format supports only the WGS84 projection. \n"
                     + "Please use ST_Transform(" + spatialFieldName + "," + inputSRID + ")");
         }
+        sb.setLength(0);
         KMLGeometry.toKMLGeometry(geom, ExtrudeMode.NONE, AltitudeMode.NONE, sb);
         //Write geometry
         xmlOut.writeCharacters(sb.toString());
         xmlOut.writeEndElement();//Write Placemark
     }
 
+    /**
+     * Encode rows into Placemark fragments, this method is called by the
+     * worker threads.
+     *
+     * @param streamWriterFactory
+     * @param rows Geometry (or WKB) then the values of the {@link #kmlFields}
+     * @param spatialFieldName
+     * @return The placemarks
+     */
+    private EncodedPlacemarks encodePlacemarks(XMLOutputFactory streamWriterFactory, List<Object[]> rows, String spatialFieldName) throws XMLStreamException, SQLException {
+        EncodedPlacemarks encodedPlacemarks = new EncodedPlacemarks();
+        XMLStreamWriter xmlOut;
+        synchronized (streamWriterFactory) {
+            xmlOut = streamWriterFactory.createXMLStreamWriter(encodedPlacemarks.bytes, "UTF-8");
+        }
+        WKBReader wkbReader = new WKBReader();
+        StringBuilder sb = new StringBuilder();
+        for (Object[] row : rows) {
+            if (row[0] instanceof byte[]) {
+                try {
+                    row[0] = wkbReader.read((byte[]) row[0]);
+                } catch (ParseException ex) {
+                    throw new SQLException(ex);
+                }
+            }
+            writePlacemark(xmlOut, row, spatialFieldName, sb);
+            encodedPlacemarks.placemarkCount++;
+        }
+        xmlOut.close();
+        return encodedPlacemarks;
+    }
+
+    /**
+     * Wait for the encoding of a chunk.
+     *
+     * @param encodedPlacemarks
+     * @return The encoded placemarks
+     */
+    private static EncodedPlacemarks getEncodedPlacemarks(Future<EncodedPlacemarks> encodedPlacemarks) throws SQLException, XMLStreamException, IOException {
+        try {
+            return encodedPlacemarks.get();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof SQLException) {
+                throw (SQLException) ex.getCause();
+            } else if (ex.getCause() instanceof XMLStreamException) {
+                throw (XMLStreamException) ex.getCause();
+            } else if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            } else {
+                throw new IOException(ex.getCause());
+            }
+        } catch (InterruptedException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    /**
+     * @return The indexes of the {@link #kmlFields}, in the order of the
+     * ExtendedData element
+     */
+    private int[] getFieldIndexes() {
+        if (columnCount <= 1) {
+            return new int[0];
+        }
+        int[] fieldIndexes = new int[kmlFields.size()];
+        int i = 0;
+        for (Integer fieldIndex : kmlFields.keySet()) {
+            fieldIndexes[i++] = fieldIndex;
+        }
+        return fieldIndexes;
+    }
+
     /**
      * The ExtendedData element offers three techniques for adding custom data
      * to a KML Feature (NetworkLink, Placemark, GroundOverlay, PhotoOverlay,
@@ -355,13 +570,27 @@ public class KMLWriterDriver {
      * @param xmlOut
      */
     public void writeExtendedData(XMLStreamWriter xmlOut, ResultSet rs) throws XMLStreamException, SQLException {
+        int[] fieldIndexes = getFieldIndexes();
+        Object[] row = new Object[fieldIndexes.length + 1];
+        for (int i = 0; i < fieldIndexes.length; i++) {
+            row[i + 1] = rs.getString(fieldIndexes[i]);
+        }
+        writeExtendedData(xmlOut, row);
+    }
+
+    /**
+     * Write the ExtendedData element from a row.
+     *
+     * @param xmlOut
+     * @param row The geometry then the values of the {@link #kmlFields}
+     */
+    private void writeExtendedData(XMLStreamWriter xmlOut, Object[] row) throws XMLStreamException {
         xmlOut.writeStartElement("ExtendedData");
         xmlOut.writeStartElement("SchemaData");
         xmlOut.writeAttribute("schemaUrl", "#" + tableName);
-        for (Map.Entry<Integer, String> entry : kmlFields.entrySet()) {
-            Integer fieldIndex = entry.getKey();
-            String fieldName = entry.getValue();
-            writeSimpleData(xmlOut, fieldName, rs.getString(fieldIndex));
+        int i = 1;
+        for (String fieldName : kmlFields.values()) {
+            writeSimpleData(xmlOut, fieldName, (String) row[i++]);
         }
         xmlOut.writeEndElement();//Write SchemaData
         xmlOut.writeEndElement();//Write ExtendedData
@@ -409,4 +638,12 @@ public class KMLWriterDriver {
                 throw new SQLException("Field type not supported by KML : " + sqlTypeName);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * KML fragment of consecutive placemarks.
+     */
+    private static class EncodedPlacemarks {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private int placemarkCount = 0;
+    }
+}
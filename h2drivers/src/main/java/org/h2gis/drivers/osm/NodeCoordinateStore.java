@@ -0,0 +1,293 @@
+/*
+ * h2spatial is a library that brings spatial support to the H2 Java database.
+ *
+ * h2spatial is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2014 IRSTV (FR CNRS 2488)
+ *
+ * h2patial is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * h2spatial is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * h2spatial. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.h2gis.drivers.osm;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Store the coordinates of the nodes out of the Java heap in order to build the
+ * way geometries while the ways are read. The node identifiers and the
+ * coordinates are kept in a temporary file mapped in memory, so the store is
+ * bounded by the disk space and not by the heap or the direct memory limit
+ * (-XX:MaxDirectMemorySize). The coordinates are stored with 7 decimals, the
+ * precision of the OSM coordinates, so a node takes 16 bytes.
+ *
+ * The nodes are looked up with a binary search. The nodes of an OSM file are
+ * usually sorted by identifier and read before the ways. Otherwise the nodes
+ * added since the previous lookup are sorted as a new run, the runs are merged
+ * by a sort of the whole store when they are too many.
+ */
+class NodeCoordinateStore {
+    // Number of nodes in a mapped chunk
+    private static final int CHUNK_BITS = 20;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    // Identifier and coordinates
+    private static final int NODE_BYTES = 16;
+    private static final double PRECISION = 1e7;
+    // Maximum number of sorted runs before a sort of the whole store
+    private static final int MAX_RUNS = 16;
+    private final List<LongBuffer> ids = new ArrayList<LongBuffer>();
+    private final List<IntBuffer> coordinates = new ArrayList<IntBuffer>();
+    private final List<MappedByteBuffer> chunks = new ArrayList<MappedByteBuffer>();
+    private File file;
+    private RandomAccessFile randomAccessFile;
+    private long size = 0;
+    private long lastId = Long.MIN_VALUE;
+    private boolean tailSorted = true;
+    // Start of the sorted runs, the nodes from sortedSize to size are not sorted yet
+    private final List<Long> runStarts = new ArrayList<Long>();
+    private long sortedSize = 0;
+
+    /**
+     * Add a node.
+     *
+     * @param id Node identifier
+     * @param latitude Node latitude
+     * @param longitude Node longitude
+     * @throws IOException If the temporary file cannot be extended or mapped
+     */
+    public void add(long id, double latitude, double longitude) throws IOException {
+        int offset = (int) (size & CHUNK_MASK);
+        if (offset == 0) {
+            addChunk();
+        }
+        int chunk = (int) (size >>> CHUNK_BITS);
+        ids.get(chunk).put(offset, id);
+        IntBuffer chunkCoordinates = coordinates.get(chunk);
+        chunkCoordinates.put(offset * 2, (int) Math.round(latitude * PRECISION));
+        chunkCoordinates.put(offset * 2 + 1, (int) Math.round(longitude * PRECISION));
+        if (size > sortedSize && id < lastId) {
+            tailSorted = false;
+        }
+        lastId = id;
+        size++;
+    }
+
+    private void addChunk() throws IOException {
+        if (randomAccessFile == null) {
+            file = File.createTempFile("osm_nodes", ".bin");
+            randomAccessFile = new RandomAccessFile(file, "rw");
+        }
+        long position = (long) ids.size() * CHUNK_SIZE * NODE_BYTES;
+        MappedByteBuffer buffer;
+        try {
+            buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, position,
+                    (long) CHUNK_SIZE * NODE_BYTES);
+        } catch (IOException ex) {
+            throw new IOException("Cannot map the node coordinates file " + file.getPath() + " of "
+                    + (position >> 20) + " MB, check the free space of the temporary directory", ex);
+        }
+        chunks.add(buffer);
+        buffer.limit(CHUNK_SIZE * 8);
+        ids.add(buffer.slice().asLongBuffer());
+        buffer.limit(CHUNK_SIZE * NODE_BYTES).position(CHUNK_SIZE * 8);
+        coordinates.add(buffer.slice().asIntBuffer());
+    }
+
+    /**
+     * @return Number of nodes
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Find a node.
+     *
+     * @param id Node identifier
+     * @return The node index or -1 if the node is not in the store
+     */
+    public long find(long id) {
+        if (sortedSize < size) {
+            sortTail();
+        }
+        // The last run first, the runs are usually in identifier order
+        for (int run = runStarts.size() - 1; run >= 0; run--) {
+            long low = runStarts.get(run);
+            long high = (run + 1 < runStarts.size() ? runStarts.get(run + 1) : sortedSize) - 1;
+            if (low > high || id < getId(low) || id > getId(high)) {
+                continue;
+            }
+            while (low <= high) {
+                long middle = (low + high) >>> 1;
+                long middleId = getId(middle);
+                if (middleId < id) {
+                    low = middle + 1;
+                } else if (middleId > id) {
+                    high = middle - 1;
+                } else {
+                    return middle;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param index Node index returned by {@link #find(long)}
+     * @return The node latitude
+     */
+    public double getLatitude(long index) {
+        return coordinates.get((int) (index >>> CHUNK_BITS)).get((int) (index & CHUNK_MASK) * 2) / PRECISION;
+    }
+
+    /**
+     * @param index Node index returned by {@link #find(long)}
+     * @return The node longitude
+     */
+    public double getLongitude(long index) {
+        return coordinates.get((int) (index >>> CHUNK_BITS)).get((int) (index & CHUNK_MASK) * 2 + 1) / PRECISION;
+    }
+
+    /**
+     * Unmap the chunks, close and delete the temporary file. The store must be
+     * cleared once the import is done, the file is not deleted on exit.
+     */
+    public void clear() {
+        ids.clear();
+        coordinates.clear();
+        for (MappedByteBuffer chunk : chunks) {
+            unmap(chunk);
+        }
+        chunks.clear();
+        if (randomAccessFile != null) {
+            try {
+                randomAccessFile.close();
+            } catch (IOException ex) {
+                // The file is deleted below
+            }
+            randomAccessFile = null;
+            file.delete();
+            file = null;
+        }
+        size = 0;
+        lastId = Long.MIN_VALUE;
+        tailSorted = true;
+        runStarts.clear();
+        sortedSize = 0;
+    }
+
+    /**
+     * Release the mapped memory now instead of waiting for the buffer to be
+     * garbage collected, otherwise the file cannot be deleted on some systems.
+     * This is the same workaround as the H2 nio mapped file store.
+     */
+    private static void unmap(ByteBuffer buffer) {
+        try {
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null) {
+                Method clearMethod = cleaner.getClass().getMethod("clean");
+                clearMethod.setAccessible(true);
+                clearMethod.invoke(cleaner);
+            }
+        } catch (Exception ex) {
+            // Not supported by this JVM, the buffer is released by the garbage collector
+        }
+    }
+
+    private long getId(long index) {
+        return ids.get((int) (index >>> CHUNK_BITS)).get((int) (index & CHUNK_MASK));
+    }
+
+    /**
+     * Sort the nodes added since the previous lookup. They extend the last run
+     * if they follow its identifiers.
+     */
+    private void sortTail() {
+        if (!tailSorted) {
+            sort(sortedSize, size);
+        }
+        if (runStarts.isEmpty() || getId(sortedSize) < getId(sortedSize - 1)) {
+            runStarts.add(sortedSize);
+        }
+        sortedSize = size;
+        tailSorted = true;
+        lastId = getId(size - 1);
+        if (runStarts.size() > MAX_RUNS) {
+            sort(0, size);
+            runStarts.clear();
+            runStarts.add(0L);
+        }
+    }
+
+    /**
+     * Sort a range of nodes by identifier with a heap sort, that does not
+     * require additional memory.
+     */
+    private void sort(long from, long to) {
+        long count = to - from;
+        for (long start = count / 2 - 1; start >= 0; start--) {
+            siftDown(from, start, count);
+        }
+        for (long end = count - 1; end > 0; end--) {
+            swap(from, from + end);
+            siftDown(from, 0, end);
+        }
+    }
+
+    private void siftDown(long base, long root, long end) {
+        while (root * 2 + 1 < end) {
+            long child = root * 2 + 1;
+            if (child + 1 < end && getId(base + child) < getId(base + child + 1)) {
+                child++;
+            }
+            if (getId(base + root) >= getId(base + child)) {
+                return;
+            }
+            swap(base + root, base + child);
+            root = child;
+        }
+    }
+
+    private void swap(long i, long j) {
+        LongBuffer chunkI = ids.get((int) (i >>> CHUNK_BITS));
+        LongBuffer chunkJ = ids.get((int) (j >>> CHUNK_BITS));
+        int offsetI = (int) (i & CHUNK_MASK);
+        int offsetJ = (int) (j & CHUNK_MASK);
+        long id = chunkI.get(offsetI);
+        chunkI.put(offsetI, chunkJ.get(offsetJ));
+        chunkJ.put(offsetJ, id);
+        IntBuffer coordinatesI = coordinates.get((int) (i >>> CHUNK_BITS));
+        IntBuffer coordinatesJ = coordinates.get((int) (j >>> CHUNK_BITS));
+        for (int k = 0; k < 2; k++) {
+            int value = coordinatesI.get(offsetI * 2 + k);
+            coordinatesI.put(offsetI * 2 + k, coordinatesJ.get(offsetJ * 2 + k));
+            coordinatesJ.put(offsetJ * 2 + k, value);
+        }
+    }
+}
@@ -49,6 +49,15 @@ public class NodeOSMElement extends OSMElement {
         this.longitude = longitude;
     }
 
+    /**
+     * @param latitude Latitude value
+     * @param longitude Longitude value
+     */
+    public void setPosition(double latitude, double longitude) {
+        this.latitude = latitude;
+        this.longitude = longitude;
+    }
+
     /**
      * @param elevation Elevation (also known as altitude or height) above mean sea level in metre,
      *                  based on geoid model EGM 96 which is used by WGS 84 (GPS).
@@ -57,6 +66,20 @@ public class NodeOSMElement extends OSMElement {
         this.elevation = elevation;
     }
 
+    /**
+     * @return Latitude value
+     */
+    public double getLatitude() {
+        return latitude;
+    }
+
+    /**
+     * @return Longitude value
+     */
+    public double getLongitude() {
+        return longitude;
+    }
+
     /**
      * The geometry of the node
      *
@@ -75,6 +98,12 @@ public class NodeOSMElement extends OSMElement {
         return elevation;
     }
 
+    @Override
+    public void clear() {
+        super.clear();
+        elevation = null;
+    }
+
     @Override
     public boolean addTag(String key, String value) {
         if(key.equalsIgnoreCase("ele")) {
@@ -40,6 +40,41 @@ public class OSMDriverFunction implements DriverFunction {
     public static String DESCRIPTION = "OSM file (0.6)";
     public static String DESCRIPTION_GZ = "OSM Gzipped file (0.6)";
     public static String DESCRIPTION_BZ2 = "OSM Bzipped file (0.6)";
+    public static String DESCRIPTION_PBF = "OSM Protocolbuffer Binary Format file (0.6)";
+    private int importThreadCount = Runtime.getRuntime().availableProcessors();
+    private boolean wayGeometry = false;
+
+    /**
+     * @param importThreadCount Number of threads that decode the blocks of a PBF file, 1 to decode the blocks in
+     *                          the calling thread. Defaults to the processor count.
+     */
+    public void setImportThreadCount(int importThreadCount) {
+        if(importThreadCount < 1) {
+            throw new IllegalArgumentException("The thread count must be greater than 0");
+        }
+        this.importThreadCount = importThreadCount;
+    }
+
+    /**
+     * @return Number of threads that decode the blocks of a PBF file
+     */
+    public int getImportThreadCount() {
+        return importThreadCount;
+    }
+
+    /**
+     * @param wayGeometry True to store the way linestrings in the THE_GEOM column of the way table
+     */
+    public void setWayGeometry(boolean wayGeometry) {
+        this.wayGeometry = wayGeometry;
+    }
+
+    /**
+     * @return True if the way linestrings are stored in the way table
+     */
+    public boolean isWayGeometry() {
+        return wayGeometry;
+    }
 
 
     @Override
@@ -60,6 +95,8 @@ public class OSMDriverFunction implements DriverFunction {
             return DESCRIPTION_GZ;
         } else  if (format.equalsIgnoreCase("bz2")) {
             return DESCRIPTION_BZ2;
+        } else  if (format.equalsIgnoreCase("pbf")) {
+            return DESCRIPTION_PBF;
         } else {
             return "";
         }
@@ -72,16 +109,19 @@ public class OSMDriverFunction implements DriverFunction {
 
     @Override
     public void importFile(Connection connection, String tableReference, File fileName, ProgressVisitor progress) throws SQLException, IOException {
-        if(fileName == null || !(fileName.getName().endsWith(".osm") || fileName.getName().endsWith("osm.gz") || fileName.getName().endsWith("osm.bz2"))) {
-            throw new IOException(new IllegalArgumentException("This driver handle only osm and osm.gz files"));
+        if(fileName == null || !(fileName.getName().endsWith(".osm") || fileName.getName().endsWith("osm.gz") || fileName.getName().endsWith("osm.bz2")
+                || fileName.getName().endsWith("osm.pbf"))) {
+            throw new IOException(new IllegalArgumentException("This driver handle only osm, osm.gz, osm.bz2 and osm.pbf files"));
         }
         OSMParser osmp = new OSMParser();
+        osmp.setThreadCount(importThreadCount);
+        osmp.setWayGeometry(wayGeometry);
         osmp.read(connection, tableReference, fileName, progress);
     }
 
     @Override
     public String[] getImportFormats() {
-        return new String[]{"osm","gz","bz2"};
+        return new String[]{"osm","gz","bz2","pbf"};
     }
 
 }
@@ -37,8 +37,8 @@ import org.xml.sax.SAXException;
  */
 public class OSMElement {
 
-    private final SimpleDateFormat dataFormat1 = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
-    private final SimpleDateFormat dataFormat2 = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+    private SimpleDateFormat dataFormat1;
+    private SimpleDateFormat dataFormat2;
     private final HashMap<String, String> tags;
     private long id, uid;
     private String user;
@@ -66,7 +66,16 @@ public class OSMElement {
      * @param id
      */
     public void setId(String id) {
-        this.id = Long.valueOf(id);
+        this.id = Long.parseLong(id);
+    }
+
+    /**
+     * Set an id to the element
+     *
+     * @param id
+     */
+    public void setId(long id) {
+        this.id = id;
     }
 
     /**
@@ -88,10 +97,14 @@ public class OSMElement {
 
     public void setUid(String uid) {
         if (uid != null) {
-            this.uid = Long.valueOf(uid);
+            this.uid = Long.parseLong(uid);
         }
     }
 
+    public void setUid(long uid) {
+        this.uid = uid;
+    }
+
     /**
      * @return The way name (extracted from tag)
      */
@@ -120,6 +133,10 @@ public class OSMElement {
         }
     }
 
+    public void setVisible(boolean visible) {
+        this.visible = visible;
+    }
+
     /**
      *
      * @return
@@ -129,7 +146,11 @@ public class OSMElement {
     }
 
     public void setVersion(String version) {
-        this.version = version != null ? Integer.valueOf(version) : 0;
+        this.version = version != null ? Integer.parseInt(version) : 0;
+    }
+
+    public void setVersion(int version) {
+        this.version = version;
     }
 
     /**
@@ -142,10 +163,14 @@ public class OSMElement {
 
     public void setChangeset(String changeset) {
         if(changeset!=null){
-            this.changeset = Integer.valueOf(changeset);
+            this.changeset = Integer.parseInt(changeset);
         }
     }
 
+    public void setChangeset(int changeset) {
+        this.changeset = changeset;
+    }
+
     /**
      *
      * @return
@@ -157,6 +182,10 @@ public class OSMElement {
 
     public void setTimestamp(String OSMtime) throws SAXException {
         if(OSMtime!=null){
+        if (dataFormat1 == null) {
+            dataFormat1 = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+            dataFormat2 = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+        }
         try {
             timestamp = new Timestamp(dataFormat1.parse(OSMtime).getTime());
         } catch (ParseException ex) {
@@ -168,6 +197,10 @@ public class OSMElement {
         }}
     }
 
+    public void setTimestamp(Timestamp timestamp) {
+        this.timestamp = timestamp;
+    }
+
     /**
      *
      * @param key
@@ -187,4 +220,20 @@ public class OSMElement {
         return tags;
     }
 
+    /**
+     * Reset the properties and the tags in order to reuse this element for
+     * the next element of the file.
+     */
+    public void clear() {
+        id = 0;
+        uid = 0;
+        user = null;
+        version = 0;
+        changeset = 0;
+        visible = false;
+        timestamp = null;
+        name = "";
+        tags.clear();
+    }
+
 }
@@ -0,0 +1,906 @@
+/*
+ * h2spatial is a library that brings spatial support to the H2 Java database.
+ *
+ * h2spatial is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2014 IRSTV (FR CNRS 2488)
+ *
+ * h2patial is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * h2spatial is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * h2spatial. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.h2gis.drivers.osm;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decode the blocks of an OSM PBF file (http://wiki.openstreetmap.org/wiki/PBF_Format).
+ * The file is a sequence of BlobHeader/Blob frames, the frames are read sequentially by
+ * {@link #readFrame(java.io.DataInputStream)} while the OSMData blocks are independently compressed
+ * and can be decoded concurrently by {@link #decodeBlock(byte[])}.
+ *
+ * Only the protocol buffer wire format is required, so the messages are read directly from the
+ * byte arrays without generated classes.
+ */
+final class OSMPBFDecoder {
+    public static final String OSM_HEADER = "OSMHeader";
+    public static final String OSM_DATA = "OSMData";
+    // Limits given by the format specification
+    private static final int MAX_HEADER_SIZE = 64 * 1024;
+    private static final int MAX_BLOB_SIZE = 32 * 1024 * 1024;
+    private static final Set<String> SUPPORTED_FEATURES = new HashSet<String>(Arrays.asList("OsmSchema-V0.6", "DenseNodes"));
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    // Protocol buffer wire types
+    private static final int VARINT = 0;
+    private static final int FIXED64 = 1;
+    private static final int LENGTH_DELIMITED = 2;
+    private static final int FIXED32 = 5;
+    // PBF member types
+    private static final TAG_LOCATION[] MEMBER_TYPES = new TAG_LOCATION[]{TAG_LOCATION.NODE, TAG_LOCATION.WAY,
+            TAG_LOCATION.RELATION};
+
+    private OSMPBFDecoder() {
+    }
+
+    /**
+     * Read the next BlobHeader and its Blob.
+     *
+     * @param inputStream File stream located at the beginning of a frame
+     * @return The frame or null at the end of the file
+     * @throws IOException
+     */
+    public static Frame readFrame(DataInputStream inputStream) throws IOException {
+        int headerSize;
+        try {
+            headerSize = inputStream.readInt();
+        } catch (EOFException ex) {
+            return null;
+        }
+        if (headerSize < 0 || headerSize > MAX_HEADER_SIZE) {
+            throw new IOException("Malformed PBF file, invalid blob header size " + headerSize);
+        }
+        byte[] header = new byte[headerSize];
+        inputStream.readFully(header);
+        ProtoReader reader = new ProtoReader(header);
+        String type = null;
+        int dataSize = -1;
+        while (reader.hasNext()) {
+            int key = reader.readKey();
+            switch (key >>> 3) {
+                case 1:
+                    type = reader.readString();
+                    break;
+                case 3:
+                    dataSize = (int) reader.readVarint();
+                    break;
+                default:
+                    reader.skip(key);
+            }
+        }
+        if (type == null || dataSize < 0 || dataSize > MAX_BLOB_SIZE) {
+            throw new IOException("Malformed PBF file, invalid blob header");
+        }
+        byte[] blob = new byte[dataSize];
+        inputStream.readFully(blob);
+        return new Frame(type, blob);
+    }
+
+    /**
+     * Uncompress the content of a Blob.
+     *
+     * @param blob Blob message
+     * @return The uncompressed block
+     * @throws IOException If the compression is not supported
+     */
+    public static byte[] readBlobData(byte[] blob) throws IOException {
+        ProtoReader reader = new ProtoReader(blob);
+        int rawSize = -1;
+        byte[] zlibData = null;
+        while (reader.hasNext()) {
+            int key = reader.readKey();
+            switch (key >>> 3) {
+                case 1:
+                    return reader.readBytes();
+                case 2:
+                    rawSize = (int) reader.readVarint();
+                    break;
+                case 3:
+                    zlibData = reader.readBytes();
+                    break;
+                case 4:
+                case 5:
+                case 6:
+                case 7:
+                    throw new IOException("Unsupported PBF blob compression");
+                default:
+                    reader.skip(key);
+            }
+        }
+        if (zlibData == null || rawSize < 0 || rawSize > MAX_BLOB_SIZE) {
+            throw new IOException("Malformed PBF file, empty blob");
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(zlibData);
+            byte[] data = new byte[rawSize];
+            int length = 0;
+            while (length < rawSize && !inflater.finished()) {
+                int read = inflater.inflate(data, length, rawSize - length);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += read;
+            }
+            if (length != rawSize) {
+                throw new IOException("Malformed PBF file, truncated blob");
+            }
+            return data;
+        } catch (DataFormatException ex) {
+            throw new IOException("Malformed PBF file, cannot uncompress the blob", ex);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Check that the features required to read the file are supported.
+     *
+     * @param headerBlock HeaderBlock message
+     * @throws IOException If a feature is not supported
+     */
+    public static void checkHeader(byte[] headerBlock) throws IOException {
+        ProtoReader reader = new ProtoReader(headerBlock);
+        while (reader.hasNext()) {
+            int key = reader.readKey();
+            if (key >>> 3 == 4) {
+                String feature = reader.readString();
+                if (!SUPPORTED_FEATURES.contains(feature)) {
+                    throw new IOException("The PBF file requires the unsupported feature " + feature);
+                }
+            } else {
+                reader.skip(key);
+            }
+        }
+    }
+
+    /**
+     * Decode the OSM elements of a PrimitiveBlock. This method is thread safe.
+     *
+     * @param data PrimitiveBlock message
+     * @return The elements in the block order
+     * @throws IOException
+     */
+    public static PrimitiveBlock decodeBlock(byte[] data) throws IOException {
+        ProtoReader reader = new ProtoReader(data);
+        List<ProtoReader> groups = new ArrayList<ProtoReader>();
+        BlockContext context = new BlockContext();
+        List<String> stringTable = new ArrayList<String>();
+        // The groups are decoded at the end because granularity fields follow them
+        while (reader.hasNext()) {
+            int key = reader.readKey();
+            switch (key >>> 3) {
+                case 1:
+                    ProtoReader strings = reader.readMessage();
+                    while (strings.hasNext()) {
+                        int stringKey = strings.readKey();
+                        if (stringKey >>> 3 == 1) {
+                            stringTable.add(strings.readString());
+                        } else {
+                            strings.skip(stringKey);
+                        }
+                    }
+                    break;
+                case 2:
+                    groups.add(reader.readMessage());
+                    break;
+                case 17:
+                    context.granularity = (int) reader.readVarint();
+                    break;
+                case 18:
+                    context.dateGranularity = (int) reader.readVarint();
+                    break;
+                case 19:
+                    context.latOffset = reader.readVarint();
+                    break;
+                case 20:
+                    context.lonOffset = reader.readVarint();
+                    break;
+                default:
+                    reader.skip(key);
+            }
+        }
+        context.strings = stringTable.toArray(new String[stringTable.size()]);
+        PrimitiveBlock block = new PrimitiveBlock();
+        for (ProtoReader group : groups) {
+            while (group.hasNext()) {
+                int key = group.readKey();
+                switch (key >>> 3) {
+                    case 1:
+                        decodeNode(group.readMessage(), context, block.nodes);
+                        break;
+                    case 2:
+                        decodeDenseNodes(group.readMessage(), context, block.nodes);
+                        break;
+                    case 3:
+                        block.ways.add(decodeWay(group.readMessage(), context));
+                        break;
+                    case 4:
+                        decodeRelation(group.readMessage(), context, block);
+                        break;
+                    default:
+                        group.skip(key);
+                }
+            }
+        }
+        return block;
+    }
+
+    private static void decodeNode(ProtoReader reader, BlockContext context, NodeColumns nodes) throws IOException {
+        long id = 0;
+        long lat = 0;
+        long lon = 0;
+        LongArray keys = new LongArray();
+        LongArray values = new LongArray();
+        ProtoReader info = null;
+        while (reader.hasNext()) {
+            int key = reader.readKey();
+            switch (key >>> 3) {
+                case 1:
+                    id = reader.readSignedVarint();
+                    break;
+                case 2:
+                    reader.readVarints(key, keys, false);
+                    break;
+                case 3:
+                    reader.readVarints(key, values, false);
+                    break;
+                case 4:
+                    info = reader.readMessage();
+                    break;
+                case 8:
+                    lat = reader.readSignedVarint();
+                    break;
+                case 9:
+                    lon = reader.readSignedVarint();
+                    break;
+                default:
+                    reader.skip(key);
+            }
+        }
+        if (keys.size != values.size) {
+            throw new IOException("Malformed PBF file, inconsistent tags of the node " + id);
+        }
+        int index = nodes.add(id, context.getLatitude(lat), context.getLongitude(lon));
+        while (info != null && info.hasNext()) {
+            int key = info.readKey();
+            switch (key >>> 3) {
+                case 1:
+                    nodes.versions[index] = (int) info.readVarint();
+                    break;
+                case 2:
+                    nodes.timestamps[index] = info.readVarint() * context.dateGranularity;
+                    nodes.hasTimestamp[index] = true;
+                    break;
+                case 3:
+                    nodes.changesets[index] = (int) info.readVarint();
+                    break;
+                case 4:
+                    nodes.uids[index] = (int) info.readVarint();
+                    break;
+                case 5:
+                    nodes.users[index] = context.getString(info.readVarint());
+                    break;
+                case 6:
+                    nodes.visibles[index] = info.readVarint() != 0;
+                    break;
+                default:
+                    info.skip(key);
+            }
+        }
+        for (int i = 0; i < keys.size; i++) {
+            nodes.addTag(context.getString(keys.values[i]), context.getString(values.values[i]));
+        }
+    }
+
+    private static void decodeDenseNodes(ProtoReader reader, BlockContext context, NodeColumns nodes) throws IOException {
+        LongArray ids = new LongArray();
+        LongArray lats = new LongArray();
+        LongArray lons = new LongArray();
+        LongArray keysValues = new LongArray();
+        LongArray versions = new LongArray();
+        LongArray timestamps = new LongArray();
+        LongArray changesets = new LongArray();
+        LongArray uids = new LongArray();
+        LongArray users = new LongArray();
+        LongArray visibles = new LongArray();
+        while (reader.hasNext()) {
+            int key = reader.readKey();
+            switch (key >>> 3) {
+                case 1:
+                    reader.readVarints(key, ids, true);
+                    break;
+                case 5:
+                    ProtoReader denseInfo = reader.readMessage();
+                    while (denseInfo.hasNext()) {
+                        int infoKey = denseInfo.readKey();
+                        switch (infoKey >>> 3) {
+                            case 1:
+                                denseInfo.readVarints(infoKey, versions, false);
+                                break;
+                            case 2:
+                                denseInfo.readVarints(infoKey, timestamps, true);
+                                break;
+                            case 3:
+                                denseInfo.readVarints(infoKey, changesets, true);
+                                break;
+                            case 4:
+                                denseInfo.readVarints(infoKey, uids, true);
+                                break;
+                            case 5:
+                                denseInfo.readVarints(infoKey, users, true);
+                                break;
+                            case 6:
+                                denseInfo.readVarints(infoKey, visibles, false);
+                                break;
+                            default:
+                                denseInfo.skip(infoKey);
+                        }
+                    }
+                    break;
+                case 8:
+                    reader.readVarints(key, lats, true);
+                    break;
+                case 9:
+                    reader.readVarints(key, lons, true);
+                    break;
+                case 10:
+                    reader.readVarints(key, keysValues, false);
+                    break;
+                default:
+                    reader.skip(key);
+            }
+        }
+        if (lats.size != ids.size || lons.size != ids.size) {
+            throw new IOException("Malformed PBF file, inconsistent dense nodes");
+        }
+        long id = 0, lat = 0, lon = 0, timestamp = 0, changeset = 0, uid = 0, user = 0;
+        int keyValueIndex = 0;
+        for (int i = 0; i < ids.size; i++) {
+            // Identifiers, coordinates and most of the info fields are delta coded
+            id += ids.values[i];
+            lat += lats.values[i];
+            lon += lons.values[i];
+            int index = nodes.add(id, context.getLatitude(lat), context.getLongitude(lon));
+            if (i < versions.size) {
+                timestamp += timestamps.get(i);
+                changeset += changesets.get(i);
+                uid += uids.get(i);
+                user += users.get(i);
+                nodes.versions[index] = (int) versions.values[i];
+                nodes.timestamps[index] = timestamp * context.dateGranularity;
+                nodes.hasTimestamp[index] = true;
+                nodes.changesets[index] = (int) changeset;
+                nodes.uids[index] = uid;
+                nodes.users[index] = context.getString(user);
+                nodes.visibles[index] = i >= visibles.size || visibles.values[i] != 0;
+            }
+            // Tags of each node are a sequence of key,value string ids ended by 0
+            while (keyValueIndex < keysValues.size) {
+                long tagKey = keysValues.values[keyValueIndex++];
+                if (tagKey == 0) {
+                    break;
+                }
+                if (keyValueIndex == keysValues.size) {
+                    throw new IOException("Malformed PBF file, inconsistent dense nodes tags");
+                }
+                nodes.addTag(context.getString(tagKey), context.getString(keysValues.values[keyValueIndex++]));
+            }
+        }
+    }
+
+    private static WayOSMElement decodeWay(ProtoReader reader, BlockContext context) throws IOException {
+        WayOSMElement way = new WayOSMElement();
+        LongArray keys = new LongArray();
+        LongArray values = new LongArray();
+        LongArray refs = new LongArray();
+        ProtoReader info = null;
+        while (reader.hasNext()) {
+            int key = reader.readKey();
+            switch (key >>> 3) {
+                case 1:
+                    way.setId(reader.readVarint());
+                    break;
+                case 2:
+                    reader.readVarints(key, keys, false);
+                    break;
+                case 3:
+                    reader.readVarints(key, values, false);
+                    break;
+                case 4:
+                    info = reader.readMessage();
+                    break;
+                case 8:
+                    reader.readVarints(key, refs, true);
+                    break;
+                default:
+                    reader.skip(key);
+            }
+        }
+        setInfo(way, info, context);
+        addTags(way, keys, values, context);
+        long ref = 0;
+        for (int i = 0; i < refs.size; i++) {
+            ref += refs.values[i];
+            way.addRef(ref);
+        }
+        return way;
+    }
+
+    private static void decodeRelation(ProtoReader reader, BlockContext context, PrimitiveBlock block) throws IOException {
+        OSMElement relation = new OSMElement();
+        LongArray keys = new LongArray();
+        LongArray values = new LongArray();
+        LongArray roles = new LongArray();
+        LongArray memberIds = new LongArray();
+        LongArray types = new LongArray();
+        ProtoReader info = null;
+        while (reader.hasNext()) {
+            int key = reader.readKey();
+            switch (key >>> 3) {
+                case 1:
+                    relation.setId(reader.readVarint());
+                    break;
+                case 2:
+                    reader.readVarints(key, keys, false);
+                    break;
+                case 3:
+                    reader.readVarints(key, values, false);
+                    break;
+                case 4:
+                    info = reader.readMessage();
+                    break;
+                case 8:
+                    reader.readVarints(key, roles, false);
+                    break;
+                case 9:
+                    reader.readVarints(key, memberIds, true);
+                    break;
+                case 10:
+                    reader.readVarints(key, types, false);
+                    break;
+                default:
+                    reader.skip(key);
+            }
+        }
+        if (roles.size != memberIds.size || types.size != memberIds.size) {
+            throw new IOException("Malformed PBF file, inconsistent members of the relation " + relation.getID());
+        }
+        setInfo(relation, info, context);
+        addTags(relation, keys, values, context);
+        Member[] members = new Member[memberIds.size];
+        long ref = 0;
+        for (int i = 0; i < members.length; i++) {
+            ref += memberIds.values[i];
+            long type = types.values[i];
+            if (type < 0 || type >= MEMBER_TYPES.length) {
+                throw new IOException("Malformed PBF file, unknown member type " + type);
+            }
+            members[i] = new Member(MEMBER_TYPES[(int) type], ref, context.getString(roles.values[i]));
+        }
+        block.relations.add(relation);
+        block.members.add(members);
+    }
+
+    private static void setInfo(OSMElement element, ProtoReader info, BlockContext context) throws IOException {
+        element.setVisible(true);
+        if (info == null) {
+            return;
+        }
+        while (info.hasNext()) {
+            int key = info.readKey();
+            switch (key >>> 3) {
+                case 1:
+                    element.setVersion((int) info.readVarint());
+                    break;
+                case 2:
+                    element.setTimestamp(new Timestamp(info.readVarint() * context.dateGranularity));
+                    break;
+                case 3:
+                    element.setChangeset((int) info.readVarint());
+                    break;
+                case 4:
+                    element.setUid((int) info.readVarint());
+                    break;
+                case 5:
+                    element.setUser(context.getString(info.readVarint()));
+                    break;
+                case 6:
+                    element.setVisible(info.readVarint() != 0);
+                    break;
+                default:
+                    info.skip(key);
+            }
+        }
+    }
+
+    private static void addTags(OSMElement element, LongArray keys, LongArray values, BlockContext context) throws IOException {
+        if (keys.size != values.size) {
+            throw new IOException("Malformed PBF file, inconsistent tags of the element " + element.getID());
+        }
+        for (int i = 0; i < keys.size; i++) {
+            element.addTag(context.getString(keys.values[i]), context.getString(values.values[i]));
+        }
+    }
+
+    /**
+     * A BlobHeader type and its Blob message.
+     */
+    public static class Frame {
+        private final String type;
+        private final byte[] blob;
+
+        private Frame(String type, byte[] blob) {
+            this.type = type;
+            this.blob = blob;
+        }
+
+        /**
+         * @return Blob type, {@link #OSM_HEADER} or {@link #OSM_DATA}
+         */
+        public String getType() {
+            return type;
+        }
+
+        /**
+         * @return Blob message
+         */
+        public byte[] getBlob() {
+            return blob;
+        }
+    }
+
+    /**
+     * Decoded elements of a PrimitiveBlock.
+     */
+    public static class PrimitiveBlock {
+        private final NodeColumns nodes = new NodeColumns();
+        private final List<WayOSMElement> ways = new ArrayList<WayOSMElement>();
+        private final List<OSMElement> relations = new ArrayList<OSMElement>();
+        private final List<Member[]> members = new ArrayList<Member[]>();
+
+        /**
+         * @return Number of nodes of the block
+         */
+        public int getNodeCount() {
+            return nodes.count;
+        }
+
+        /**
+         * Copy a node into an element reused for all the nodes.
+         *
+         * @param index Node index, from 0 to {@link #getNodeCount()} excluded
+         * @param node Node element, cleared before
+         * @param timestamp Timestamp instance reused as the node timestamp
+         */
+        public void readNode(int index, NodeOSMElement node, Timestamp timestamp) {
+            node.clear();
+            node.setId(nodes.ids[index]);
+            node.setPosition(nodes.latitudes[index], nodes.longitudes[index]);
+            node.setVersion(nodes.versions[index]);
+            if (nodes.hasTimestamp[index]) {
+                timestamp.setTime(nodes.timestamps[index]);
+                node.setTimestamp(timestamp);
+            }
+            node.setChangeset(nodes.changesets[index]);
+            node.setUid(nodes.uids[index]);
+            node.setUser(nodes.users[index]);
+            node.setVisible(nodes.visibles[index]);
+            for (int tag = index == 0 ? 0 : nodes.tagEnds[index - 1]; tag < nodes.tagEnds[index]; tag++) {
+                node.addTag(nodes.tagKeys[tag], nodes.tagValues[tag]);
+            }
+        }
+
+        public List<WayOSMElement> getWays() {
+            return ways;
+        }
+
+        public List<OSMElement> getRelations() {
+            return relations;
+        }
+
+        /**
+         * @return Members of each relation, in the order of {@link #getRelations()}
+         */
+        public List<Member[]> getMembers() {
+            return members;
+        }
+    }
+
+    /**
+     * Properties of the nodes of a block stored by column, the nodes are
+     * decoded without allocating an element, a tag map and a timestamp per
+     * node.
+     */
+    private static class NodeColumns {
+        private int count = 0;
+        private long[] ids = new long[0];
+        private double[] latitudes = new double[0];
+        private double[] longitudes = new double[0];
+        private int[] versions = new int[0];
+        private long[] timestamps = new long[0];
+        private boolean[] hasTimestamp = new boolean[0];
+        private int[] changesets = new int[0];
+        private long[] uids = new long[0];
+        private String[] users = new String[0];
+        private boolean[] visibles = new boolean[0];
+        // End of the tags of each node in tagKeys and tagValues
+        private int[] tagEnds = new int[0];
+        private int tagCount = 0;
+        private String[] tagKeys = new String[0];
+        private String[] tagValues = new String[0];
+
+        /**
+         * Add a visible node without info.
+         *
+         * @return Node index
+         */
+        private int add(long id, double latitude, double longitude) {
+            if (count == ids.length) {
+                int capacity = Math.max(64, count * 2);
+                ids = Arrays.copyOf(ids, capacity);
+                latitudes = Arrays.copyOf(latitudes, capacity);
+                longitudes = Arrays.copyOf(longitudes, capacity);
+                versions = Arrays.copyOf(versions, capacity);
+                timestamps = Arrays.copyOf(timestamps, capacity);
+                hasTimestamp = Arrays.copyOf(hasTimestamp, capacity);
+                changesets = Arrays.copyOf(changesets, capacity);
+                uids = Arrays.copyOf(uids, capacity);
+                users = Arrays.copyOf(users, capacity);
+                visibles = Arrays.copyOf(visibles, capacity);
+                tagEnds = Arrays.copyOf(tagEnds, capacity);
+            }
+            ids[count] = id;
+            latitudes[count] = latitude;
+            longitudes[count] = longitude;
+            visibles[count] = true;
+            tagEnds[count] = tagCount;
+            return count++;
+        }
+
+        /**
+         * Add a tag to the last node.
+         */
+        private void addTag(String key, String value) {
+            if (tagCount == tagKeys.length) {
+                int capacity = Math.max(64, tagCount * 2);
+                tagKeys = Arrays.copyOf(tagKeys, capacity);
+                tagValues = Arrays.copyOf(tagValues, capacity);
+            }
+            tagKeys[tagCount] = key;
+            tagValues[tagCount++] = value;
+            tagEnds[count - 1] = tagCount;
+        }
+    }
+
+    /**
+     * A member of a relation.
+     */
+    public static class Member {
+        private final TAG_LOCATION type;
+        private final long ref;
+        private final String role;
+
+        private Member(TAG_LOCATION type, long ref, String role) {
+            this.type = type;
+            this.ref = ref;
+            this.role = role;
+        }
+
+        /**
+         * @return NODE, WAY or RELATION
+         */
+        public TAG_LOCATION getType() {
+            return type;
+        }
+
+        public long getRef() {
+            return ref;
+        }
+
+        public String getRole() {
+            return role;
+        }
+    }
+
+    /**
+     * String table and coordinate encoding of a PrimitiveBlock.
+     */
+    private static class BlockContext {
+        private String[] strings;
+        private int granularity = 100;
+        private int dateGranularity = 1000;
+        private long latOffset = 0;
+        private long lonOffset = 0;
+
+        private double getLatitude(long lat) {
+            return (latOffset + granularity * lat) / 1e9;
+        }
+
+        private double getLongitude(long lon) {
+            return (lonOffset + granularity * lon) / 1e9;
+        }
+
+        private String getString(long index) throws IOException {
+            if (index < 0 || index >= strings.length) {
+                throw new IOException("Malformed PBF file, invalid string index " + index);
+            }
+            return strings[(int) index];
+        }
+    }
+
+    /**
+     * Growable array of repeated integer fields.
+     */
+    private static class LongArray {
+        private long[] values = new long[16];
+        private int size = 0;
+
+        private void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        /**
+         * @return The value or 0 if the optional array is shorter
+         */
+        private long get(int index) {
+            return index < size ? values[index] : 0;
+        }
+    }
+
+    /**
+     * Read the fields of a protocol buffer message.
+     */
+    private static class ProtoReader {
+        private final byte[] data;
+        private int position;
+        private final int limit;
+
+        private ProtoReader(byte[] data) {
+            this(data, 0, data.length);
+        }
+
+        private ProtoReader(byte[] data, int offset, int length) {
+            this.data = data;
+            this.position = offset;
+            this.limit = offset + length;
+        }
+
+        private boolean hasNext() {
+            return position < limit;
+        }
+
+        /**
+         * @return Field number and wire type
+         */
+        private int readKey() throws IOException {
+            return (int) readVarint();
+        }
+
+        private long readVarint() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (position >= limit) {
+                    throw new IOException("Malformed PBF file, truncated message");
+                }
+                byte b = data[position++];
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed PBF file, invalid varint");
+        }
+
+        private long readSignedVarint() throws IOException {
+            long value = readVarint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        private int readLength() throws IOException {
+            long length = readVarint();
+            if (length < 0 || length > limit - position) {
+                throw new IOException("Malformed PBF file, truncated message");
+            }
+            return (int) length;
+        }
+
+        private ProtoReader readMessage() throws IOException {
+            int length = readLength();
+            ProtoReader message = new ProtoReader(data, position, length);
+            position += length;
+            return message;
+        }
+
+        private byte[] readBytes() throws IOException {
+            int length = readLength();
+            byte[] bytes = Arrays.copyOfRange(data, position, position + length);
+            position += length;
+            return bytes;
+        }
+
+        private String readString() throws IOException {
+            int length = readLength();
+            String value = new String(data, position, length, UTF8);
+            position += length;
+            return value;
+        }
+
+        /**
+         * Read a repeated integer field, packed or not.
+         *
+         * @param key Field key
+         * @param values Array to complete
+         * @param signed True for zigzag encoded integers
+         */
+        private void readVarints(int key, LongArray values, boolean signed) throws IOException {
+            if ((key & 0x07) == LENGTH_DELIMITED) {
+                ProtoReader packed = readMessage();
+                while (packed.hasNext()) {
+                    values.add(signed ? packed.readSignedVarint() : packed.readVarint());
+                }
+            } else {
+                values.add(signed ? readSignedVarint() : readVarint());
+            }
+        }
+
+        private void skip(int key) throws IOException {
+            switch (key & 0x07) {
+                case VARINT:
+                    readVarint();
+                    break;
+                case FIXED64:
+                    position += 8;
+                    break;
+                case LENGTH_DELIMITED:
+                    int length = readLength();
+                    position += length;
+                    break;
+                case FIXED32:
+                    position += 4;
+                    break;
+                default:
+                    throw new IOException("Malformed PBF file, unknown wire type " + (key & 0x07));
+            }
+            if (position > limit) {
+                throw new IOException("Malformed PBF file, truncated message");
+            }
+        }
+    }
+}
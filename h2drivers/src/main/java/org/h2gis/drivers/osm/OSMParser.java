@@ -24,10 +24,11 @@
  */
 package org.h2gis.drivers.osm;
 
+import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
 import com.vividsolutions.jts.geom.PrecisionModel;
 import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
-import org.h2.api.ErrorCode;
 import org.h2gis.h2spatialapi.EmptyProgressVisitor;
 import org.h2gis.h2spatialapi.ProgressVisitor;
 import org.h2gis.utilities.JDBCUtilities;
@@ -39,6 +40,8 @@ import org.xml.sax.XMLReader;
 import org.xml.sax.helpers.DefaultHandler;
 import org.xml.sax.helpers.XMLReaderFactory;
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -46,18 +49,31 @@ import java.nio.channels.FileChannel;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.sql.Types;
 import java.text.ParseException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.zip.GZIPInputStream;
 
 /**
  * Parse an OSM file and store the elements into a database. The database model
  * contains 10 tables.
  *
+ * OSM XML files (.osm, .osm.gz, .osm.bz2) are read with SAX, OSM PBF files
+ * (.osm.pbf) are read with {@link OSMPBFDecoder}.
+ *
  *
  * @author Erwan Bocher
  */
@@ -98,13 +114,17 @@ public class OSMParser extends DefaultHandler {
     private int wayMemberPreparedStmtBatchSize = 0;
     private int relationMemberPreparedStmtBatchSize = 0;
     private int wayNodePreparedStmtBatchSize = 0;
-    private Set<String> insertedTagsKeys = new HashSet<String>();
+    // Tag keys dictionary, the identifiers are assigned in memory and the keys are inserted at the end
+    private final Map<String, Integer> tagKeys = new LinkedHashMap<String, Integer>();
     private int idMemberOrder = 1;
     private TAG_LOCATION tagLocation;
     private final GeometryFactory gf = new GeometryFactory(new PrecisionModel(), 4326);
-    private NodeOSMElement nodeOSMElement;
-    private WayOSMElement wayOSMElement;
-    private OSMElement relationOSMElement;
+    // The elements are reused for each element of the XML file
+    private final NodeOSMElement nodeOSMElement = new NodeOSMElement(0, 0);
+    // Timestamp of the PBF nodes, copied by the prepared statement
+    private final Timestamp pbfTimestamp = new Timestamp(0);
+    private final WayOSMElement wayOSMElement = new WayOSMElement();
+    private final OSMElement relationOSMElement = new OSMElement();
     private ProgressVisitor progress = new EmptyProgressVisitor();
     private FileChannel fc;
     private long fileSize = 0;
@@ -113,12 +133,53 @@ public class OSMParser extends DefaultHandler {
     private PreparedStatement tagPreparedStmt;
     // For progression information return
     private static final int AVERAGE_NODE_SIZE = 500;
-    private static String TAG_DUPLICATE_EXCEPTION = String.valueOf(ErrorCode.DUPLICATE_KEY_1);
+    private int threadCount = 1;
+    private boolean wayGeometry = false;
+    // Node coordinates used to build the way geometries
+    private NodeCoordinateStore nodeCoordinates;
+    // Exact double values of the powers of ten used to parse the coordinates
+    private static final double[] POWERS_OF_TEN = new double[]{1, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9,
+            1e10, 1e11, 1e12, 1e13, 1e14, 1e15};
 
     public OSMParser() {
 
     }
 
+    /**
+     * @param threadCount Number of threads that uncompress and decode the blocks
+     *                    of a PBF file, 1 to decode the blocks in the calling thread.
+     */
+    public void setThreadCount(int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("The thread count must be greater than 0");
+        }
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * @return Number of threads that uncompress and decode the blocks of a PBF file
+     */
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * @param wayGeometry True to build the way linestrings while the ways are read and to store them in the
+     *                    THE_GEOM column of the way table. The node coordinates are kept in a temporary file
+     *                    mapped in memory, 16 bytes per node, until the end of the import. The temporary
+     *                    directory (java.io.tmpdir) must have enough free space.
+     */
+    public void setWayGeometry(boolean wayGeometry) {
+        this.wayGeometry = wayGeometry;
+    }
+
+    /**
+     * @return True if the way linestrings are stored in the way table
+     */
+    public boolean isWayGeometry() {
+        return wayGeometry;
+    }
+
     /**
      * Read the OSM file and create its corresponding tables.
      *
@@ -148,15 +209,19 @@ public class OSMParser extends DefaultHandler {
             // Skip how many nodes in order to update progression at a step of 1%
             readFileSizeEachNode = Math.max(1, (this.fileSize / AVERAGE_NODE_SIZE) / 100);
             nodeCountProgress = 0;
-            XMLReader parser = XMLReaderFactory.createXMLReader();
-            parser.setErrorHandler(this);
-            parser.setContentHandler(this);
-            if(inputFile.getName().endsWith(".osm")) {
-                parser.parse(new InputSource(fs));
-            } else if(inputFile.getName().endsWith(".osm.gz")) {
-                parser.parse(new InputSource(new GZIPInputStream(fs)));
-            } else if(inputFile.getName().endsWith(".osm.bz2")) {
-                parser.parse(new InputSource(new BZip2CompressorInputStream(fs)));
+            if(inputFile.getName().endsWith(".osm.pbf")) {
+                readPBF(fs);
+            } else {
+                XMLReader parser = XMLReaderFactory.createXMLReader();
+                parser.setErrorHandler(this);
+                parser.setContentHandler(this);
+                if(inputFile.getName().endsWith(".osm")) {
+                    parser.parse(new InputSource(fs));
+                } else if(inputFile.getName().endsWith(".osm.gz")) {
+                    parser.parse(new InputSource(new GZIPInputStream(fs)));
+                } else if(inputFile.getName().endsWith(".osm.bz2")) {
+                    parser.parse(new InputSource(new BZip2CompressorInputStream(fs)));
+                }
             }
             success = true;
         } catch (SAXException ex) {
@@ -164,6 +229,10 @@ public class OSMParser extends DefaultHandler {
         } catch (IOException ex) {
             throw new SQLException("Cannot parse the file " + inputFile.getAbsolutePath(), ex);
         } finally {
+            if (nodeCoordinates != null) {
+                nodeCoordinates.clear();
+                nodeCoordinates = null;
+            }
             try {
                 if (fs != null) {
                     fs.close();
@@ -253,21 +322,24 @@ public class OSMParser extends DefaultHandler {
      */
     private void createOSMDatabaseModel(Connection connection, boolean isH2, TableLocation requestedTable, String osmTableName) throws SQLException {
         String tagTableName = caseIdentifier(requestedTable, osmTableName + TAG, isH2);
-        tagPreparedStmt =  OSMTablesFactory.createTagTable(connection, tagTableName);
+        tagPreparedStmt =  OSMTablesFactory.createTagKeyTable(connection, tagTableName);
         String nodeTableName = caseIdentifier(requestedTable, osmTableName + NODE, isH2);
         nodePreparedStmt = OSMTablesFactory.createNodeTable(connection, nodeTableName, isH2);
         String nodeTagTableName = caseIdentifier(requestedTable, osmTableName + NODE_TAG, isH2);
-        nodeTagPreparedStmt = OSMTablesFactory.createNodeTagTable(connection, nodeTagTableName, tagTableName);
+        nodeTagPreparedStmt = OSMTablesFactory.createNodeTagTable(connection, nodeTagTableName);
         String wayTableName = caseIdentifier(requestedTable, osmTableName + WAY, isH2);
-        wayPreparedStmt = OSMTablesFactory.createWayTable(connection, wayTableName, isH2);
+        wayPreparedStmt = OSMTablesFactory.createWayTable(connection, wayTableName, isH2, wayGeometry);
+        if (wayGeometry) {
+            nodeCoordinates = new NodeCoordinateStore();
+        }
         String wayTagTableName = caseIdentifier(requestedTable, osmTableName + WAY_TAG, isH2);
-        wayTagPreparedStmt = OSMTablesFactory.createWayTagTable(connection, wayTagTableName, tagTableName);
+        wayTagPreparedStmt = OSMTablesFactory.createWayTagTable(connection, wayTagTableName);
         String wayNodeTableName = caseIdentifier(requestedTable, osmTableName + WAY_NODE, isH2);
         wayNodePreparedStmt = OSMTablesFactory.createWayNodeTable(connection, wayNodeTableName);
         String relationTableName = caseIdentifier(requestedTable, osmTableName + RELATION, isH2);
         relationPreparedStmt = OSMTablesFactory.createRelationTable(connection, relationTableName);
         String relationTagTableName = caseIdentifier(requestedTable, osmTableName + RELATION_TAG, isH2);
-        relationTagPreparedStmt = OSMTablesFactory.createRelationTagTable(connection, relationTagTableName, tagTableName);
+        relationTagPreparedStmt = OSMTablesFactory.createRelationTagTable(connection, relationTagTableName);
         String nodeMemberTableName = caseIdentifier(requestedTable, osmTableName + NODE_MEMBER, isH2);
         nodeMemberPreparedStmt = OSMTablesFactory.createNodeMemberTable(connection, nodeMemberTableName);
         String wayMemberTableName = caseIdentifier(requestedTable, osmTableName + WAY_MEMBER, isH2);
@@ -283,78 +355,49 @@ public class OSMParser extends DefaultHandler {
             throw new SAXException("Canceled by user");
         }
         if (localName.compareToIgnoreCase("node") == 0) {
-            nodeOSMElement = new NodeOSMElement(Double.valueOf(attributes.getValue("lat")),Double.valueOf(attributes.getValue("lon")));
+            nodeOSMElement.clear();
+            nodeOSMElement.setPosition(parseCoordinate(attributes.getValue("lat")), parseCoordinate(attributes.getValue("lon")));
             setCommonsAttributes(nodeOSMElement, attributes);
             tagLocation = TAG_LOCATION.NODE;
         } else if (localName.compareToIgnoreCase("way") == 0) {
-            wayOSMElement = new WayOSMElement();
+            wayOSMElement.clear();
             setCommonsAttributes(wayOSMElement, attributes);
             tagLocation = TAG_LOCATION.WAY;
         } else if (localName.compareToIgnoreCase("tag") == 0) {
             String key = attributes.getValue("k");
             String value = attributes.getValue("v");
-            boolean insertTag = true;
             switch (tagLocation) {
                 case NODE:
-                    insertTag = nodeOSMElement.addTag(key, value);
+                    nodeOSMElement.addTag(key, value);
                     break;
                 case WAY:
-                    insertTag = wayOSMElement.addTag(key, value);
+                    wayOSMElement.addTag(key, value);
                     break;
                 case RELATION:
-                    insertTag = relationOSMElement.addTag(key, value);
+                    relationOSMElement.addTag(key, value);
                     break;
             }
-            try{
-                if(insertTag && !insertedTagsKeys.contains(key)) {
-                    tagPreparedStmt.setObject(1, key);
-                    tagPreparedStmt.execute();
-                    insertedTagsKeys.add(key);
-                }
-            } catch (SQLException ex) {
-                    if(ex.getErrorCode() != ErrorCode.DUPLICATE_KEY_1 && !TAG_DUPLICATE_EXCEPTION.equals(ex.getSQLState())) {
-                        throw new SAXException("Cannot insert the tag :  {" + key + " , " + value + "}", ex);
-                    }
-            }
         } else if (localName.compareToIgnoreCase("nd") == 0) {
             wayOSMElement.addRef(attributes.getValue("ref"));
         } else if (localName.compareToIgnoreCase("relation") == 0) {
-            relationOSMElement = new OSMElement();
+            relationOSMElement.clear();
             setCommonsAttributes(relationOSMElement, attributes);
             tagLocation = TAG_LOCATION.RELATION;
         } else if (localName.compareToIgnoreCase("member") == 0) {
+            TAG_LOCATION memberType = null;
             if (type.equalsIgnoreCase("node")) {
-                try {
-                    nodeMemberPreparedStmt.setObject(1, relationOSMElement.getID());
-                    nodeMemberPreparedStmt.setObject(2, Long.valueOf(attributes.getValue("ref")));
-                    nodeMemberPreparedStmt.setObject(3, attributes.getValue("role"));
-                    nodeMemberPreparedStmt.setObject(4, idMemberOrder);
-                    nodeMemberPreparedStmt.addBatch();
-                    nodeMemberPreparedStmtBatchSize++;
-                } catch (SQLException ex) {
-                    throw new SAXException("Cannot insert the node member for the relation :  " + relationOSMElement.getID(), ex);
-                }
+                memberType = TAG_LOCATION.NODE;
             } else if (type.equalsIgnoreCase("way")) {
-                try {
-                    wayMemberPreparedStmt.setObject(1, relationOSMElement.getID());
-                    wayMemberPreparedStmt.setObject(2, Long.valueOf(attributes.getValue("ref")));
-                    wayMemberPreparedStmt.setObject(3, attributes.getValue("role"));
-                    wayMemberPreparedStmt.setObject(4, idMemberOrder);
-                    wayMemberPreparedStmt.addBatch();
-                    wayMemberPreparedStmtBatchSize++;
-                } catch (SQLException ex) {
-                    throw new SAXException("Cannot insert the way member for the relation :  " + relationOSMElement.getID(), ex);
-                }
+                memberType = TAG_LOCATION.WAY;
             } else if (type.equalsIgnoreCase("relation")) {
+                memberType = TAG_LOCATION.RELATION;
+            }
+            if (memberType != null) {
                 try {
-                    relationMemberPreparedStmt.setObject(1, relationOSMElement.getID());
-                    relationMemberPreparedStmt.setObject(2, Long.valueOf(attributes.getValue("ref")));
-                    relationMemberPreparedStmt.setObject(3, attributes.getValue("role"));
-                    relationMemberPreparedStmt.setObject(4, idMemberOrder);
-                    relationMemberPreparedStmt.addBatch();
-                    relationMemberPreparedStmtBatchSize++;
+                    insertMember(relationOSMElement.getID(), memberType, Long.parseLong(attributes.getValue("ref")),
+                            attributes.getValue("role"));
                 } catch (SQLException ex) {
-                    throw new SAXException("Cannot insert the relation member for the relation :  " + relationOSMElement.getID(), ex);
+                    throw new SAXException("Cannot insert the " + type + " member for the relation :  " + relationOSMElement.getID(), ex);
                 }
             }
         }
@@ -362,104 +405,52 @@ public class OSMParser extends DefaultHandler {
 
     @Override
     public void endDocument() throws SAXException {
-        // Execute remaining batch
         try {
-            nodePreparedStmtBatchSize = insertBatch(nodePreparedStmt, nodePreparedStmtBatchSize, 1);
-            nodeTagPreparedStmtBatchSize = insertBatch(nodeTagPreparedStmt, nodeTagPreparedStmtBatchSize, 1);
-            wayPreparedStmtBatchSize = insertBatch(wayPreparedStmt, wayPreparedStmtBatchSize, 1);
-            wayTagPreparedStmtBatchSize = insertBatch(wayTagPreparedStmt, wayTagPreparedStmtBatchSize, 1);
-            relationPreparedStmtBatchSize = insertBatch(relationPreparedStmt, relationPreparedStmtBatchSize, 1);
-            relationTagPreparedStmtBatchSize = insertBatch(relationTagPreparedStmt, relationTagPreparedStmtBatchSize, 1);
-            nodeMemberPreparedStmtBatchSize = insertBatch(nodeMemberPreparedStmt,nodeMemberPreparedStmtBatchSize, 1);
-            wayMemberPreparedStmtBatchSize = insertBatch(wayMemberPreparedStmt, wayMemberPreparedStmtBatchSize, 1);
-            relationMemberPreparedStmtBatchSize = insertBatch(relationMemberPreparedStmt, relationMemberPreparedStmtBatchSize, 1);
-            wayNodePreparedStmtBatchSize = insertBatch(wayNodePreparedStmt, wayNodePreparedStmtBatchSize, 1);
+            insertRemainingBatch();
         } catch (SQLException ex) {
             throw new SAXException("Could not insert sql batch", ex);
         }
     }
 
+    /**
+     * Execute the remaining batch of each table and insert the tag keys.
+     *
+     * @throws SQLException
+     */
+    private void insertRemainingBatch() throws SQLException {
+        nodePreparedStmtBatchSize = insertBatch(nodePreparedStmt, nodePreparedStmtBatchSize, 1);
+        nodeTagPreparedStmtBatchSize = insertBatch(nodeTagPreparedStmt, nodeTagPreparedStmtBatchSize, 1);
+        wayPreparedStmtBatchSize = insertBatch(wayPreparedStmt, wayPreparedStmtBatchSize, 1);
+        wayTagPreparedStmtBatchSize = insertBatch(wayTagPreparedStmt, wayTagPreparedStmtBatchSize, 1);
+        relationPreparedStmtBatchSize = insertBatch(relationPreparedStmt, relationPreparedStmtBatchSize, 1);
+        relationTagPreparedStmtBatchSize = insertBatch(relationTagPreparedStmt, relationTagPreparedStmtBatchSize, 1);
+        nodeMemberPreparedStmtBatchSize = insertBatch(nodeMemberPreparedStmt,nodeMemberPreparedStmtBatchSize, 1);
+        wayMemberPreparedStmtBatchSize = insertBatch(wayMemberPreparedStmt, wayMemberPreparedStmtBatchSize, 1);
+        relationMemberPreparedStmtBatchSize = insertBatch(relationMemberPreparedStmt, relationMemberPreparedStmtBatchSize, 1);
+        wayNodePreparedStmtBatchSize = insertBatch(wayNodePreparedStmt, wayNodePreparedStmtBatchSize, 1);
+        insertTagKeys();
+    }
+
     @Override
     public void endElement(String uri, String localName, String qName) throws SAXException {
         if (localName.compareToIgnoreCase("node") == 0) {
             tagLocation = TAG_LOCATION.OTHER;
             try {
-                nodePreparedStmt.setObject(1, nodeOSMElement.getID());
-                nodePreparedStmt.setObject(2, nodeOSMElement.getPoint(gf));
-                nodePreparedStmt.setObject(3, nodeOSMElement.getElevation());
-                nodePreparedStmt.setObject(4, nodeOSMElement.getUser());
-                nodePreparedStmt.setObject(5, nodeOSMElement.getUID());
-                nodePreparedStmt.setObject(6, nodeOSMElement.getVisible());
-                nodePreparedStmt.setObject(7, nodeOSMElement.getVersion());
-                nodePreparedStmt.setObject(8, nodeOSMElement.getChangeSet());
-                nodePreparedStmt.setObject(9, nodeOSMElement.getTimeStamp(), Types.DATE);
-                nodePreparedStmt.setString(10, nodeOSMElement.getName());
-                nodePreparedStmt.addBatch();
-                nodePreparedStmtBatchSize++;
-                HashMap<String, String> tags = nodeOSMElement.getTags();
-                for (Map.Entry<String, String> entry : tags.entrySet()) {
-                    nodeTagPreparedStmt.setObject(1, nodeOSMElement.getID());
-                    nodeTagPreparedStmt.setObject(2, entry.getKey());
-                    nodeTagPreparedStmt.setObject(3, entry.getValue());
-                    nodeTagPreparedStmt.addBatch();
-                    nodeTagPreparedStmtBatchSize++;
-                }
+                insertNode(nodeOSMElement);
             } catch (SQLException ex) {
                 throw new SAXException("Cannot insert the node  :  " + nodeOSMElement.getID(), ex);
             }
         } else if (localName.compareToIgnoreCase("way") == 0) {
             tagLocation = TAG_LOCATION.OTHER;
             try {
-                wayPreparedStmt.setObject(1, wayOSMElement.getID());
-                wayPreparedStmt.setObject(2, wayOSMElement.getUser());
-                wayPreparedStmt.setObject(3, wayOSMElement.getUID());
-                wayPreparedStmt.setObject(4, wayOSMElement.getVisible());
-                wayPreparedStmt.setObject(5, wayOSMElement.getVersion());
-                wayPreparedStmt.setObject(6, wayOSMElement.getChangeSet());
-                wayPreparedStmt.setTimestamp(7, wayOSMElement.getTimeStamp());
-                wayPreparedStmt.setString(8, wayOSMElement.getName());
-                wayPreparedStmt.addBatch();
-                wayPreparedStmtBatchSize++;
-                HashMap<String, String> tags = wayOSMElement.getTags();
-                for (Map.Entry<String, String> entry : tags.entrySet()) {
-                    wayTagPreparedStmt.setObject(1, wayOSMElement.getID());
-                    wayTagPreparedStmt.setObject(2, entry.getKey());
-                    wayTagPreparedStmt.setObject(3, entry.getValue());
-                    wayTagPreparedStmt.addBatch();
-                    wayTagPreparedStmtBatchSize++;
-                }
-                int order = 1;
-                for (long ref :  wayOSMElement.getNodesRef()) {
-                    wayNodePreparedStmt.setObject(1, wayOSMElement.getID());
-                    wayNodePreparedStmt.setObject(2, ref);
-                    wayNodePreparedStmt.setObject(3, order++);
-                    wayNodePreparedStmt.addBatch();
-                    wayNodePreparedStmtBatchSize++;
-                }
+                insertWay(wayOSMElement);
             } catch (SQLException ex) {
                 throw new SAXException("Cannot insert the way  :  " + wayOSMElement.getID(), ex);
             }
         } else if (localName.compareToIgnoreCase("relation") == 0) {
             tagLocation = TAG_LOCATION.OTHER;
             try {
-                relationPreparedStmt.setObject(1, relationOSMElement.getID());
-                relationPreparedStmt.setObject(2, relationOSMElement.getUser());
-                relationPreparedStmt.setObject(3, relationOSMElement.getUID());
-                relationPreparedStmt.setObject(4, relationOSMElement.getVisible());
-                relationPreparedStmt.setObject(5, relationOSMElement.getVersion());
-                relationPreparedStmt.setObject(6, relationOSMElement.getChangeSet());
-                relationPreparedStmt.setTimestamp(7, relationOSMElement.getTimeStamp());
-                relationPreparedStmt.addBatch();
-                relationPreparedStmtBatchSize++;
-                HashMap<String, String> tags = relationOSMElement.getTags();
-                for (Map.Entry<String, String> entry : tags.entrySet()) {
-                    relationTagPreparedStmt.setObject(1, relationOSMElement.getID());
-                    relationTagPreparedStmt.setObject(2, entry.getKey());
-                    relationTagPreparedStmt.setObject(3, entry.getValue());
-                    relationTagPreparedStmt.addBatch();
-                    relationTagPreparedStmtBatchSize++;
-                }
-                idMemberOrder = 0;
+                insertRelation(relationOSMElement);
             } catch (SQLException ex) {
                 throw new SAXException("Cannot insert the relation  :  " + relationOSMElement.getID(), ex);
             }
@@ -481,6 +472,313 @@ public class OSMParser extends DefaultHandler {
         }
     }
 
+    /**
+     * Read an OSM PBF file. The calling thread reads the blobs, the blobs are uncompressed
+     * and decoded by {@link #threadCount} threads and the decoded blocks are inserted in the
+     * file order. The number of pending blocks is bounded in order to limit the memory usage
+     * when the database is slower than the decoding.
+     *
+     * @param fs File stream
+     * @throws IOException
+     * @throws SQLException
+     */
+    private void readPBF(FileInputStream fs) throws IOException, SQLException {
+        DataInputStream inputStream = new DataInputStream(new BufferedInputStream(fs));
+        final int maxPendingBlocks = threadCount * 2;
+        ExecutorService executorService = threadCount > 1 ? Executors.newFixedThreadPool(threadCount) : null;
+        try {
+            Queue<Future<OSMPBFDecoder.PrimitiveBlock>> pendingBlocks =
+                    new ArrayDeque<Future<OSMPBFDecoder.PrimitiveBlock>>(maxPendingBlocks);
+            boolean endOfFile = false;
+            while (!endOfFile || !pendingBlocks.isEmpty()) {
+                while (!endOfFile && pendingBlocks.size() < maxPendingBlocks) {
+                    OSMPBFDecoder.Frame frame = OSMPBFDecoder.readFrame(inputStream);
+                    if (frame == null) {
+                        endOfFile = true;
+                    } else if (OSMPBFDecoder.OSM_HEADER.equals(frame.getType())) {
+                        OSMPBFDecoder.checkHeader(OSMPBFDecoder.readBlobData(frame.getBlob()));
+                    } else if (OSMPBFDecoder.OSM_DATA.equals(frame.getType())) {
+                        final byte[] blob = frame.getBlob();
+                        Callable<OSMPBFDecoder.PrimitiveBlock> task = new Callable<OSMPBFDecoder.PrimitiveBlock>() {
+                            @Override
+                            public OSMPBFDecoder.PrimitiveBlock call() throws IOException {
+                                return OSMPBFDecoder.decodeBlock(OSMPBFDecoder.readBlobData(blob));
+                            }
+                        };
+                        if (executorService == null) {
+                            FutureTask<OSMPBFDecoder.PrimitiveBlock> futureTask =
+                                    new FutureTask<OSMPBFDecoder.PrimitiveBlock>(task);
+                            futureTask.run();
+                            pendingBlocks.add(futureTask);
+                        } else {
+                            pendingBlocks.add(executorService.submit(task));
+                        }
+                    }
+                    // Unknown blob types are skipped as required by the format
+                }
+                if (!pendingBlocks.isEmpty()) {
+                    if (progress.isCanceled()) {
+                        throw new SQLException("Canceled by user");
+                    }
+                    insertBlock(getBlock(pendingBlocks.remove()));
+                    progress.setStep((int) (((double) fc.position() / fileSize) * 100));
+                }
+            }
+            insertRemainingBatch();
+        } finally {
+            if (executorService != null) {
+                executorService.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Wait for the decoding of a PBF block.
+     *
+     * @param block
+     * @return The decoded block
+     */
+    private static OSMPBFDecoder.PrimitiveBlock getBlock(Future<OSMPBFDecoder.PrimitiveBlock> block) throws IOException {
+        try {
+            return block.get();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            } else if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            } else {
+                throw new IOException(ex.getCause());
+            }
+        } catch (InterruptedException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    /**
+     * Insert the elements of a decoded PBF block.
+     *
+     * @param block
+     * @throws SQLException
+     */
+    private void insertBlock(OSMPBFDecoder.PrimitiveBlock block) throws SQLException {
+        for (int i = 0; i < block.getNodeCount(); i++) {
+            block.readNode(i, nodeOSMElement, pbfTimestamp);
+            insertNode(nodeOSMElement);
+            insertBatch();
+        }
+        for (WayOSMElement way : block.getWays()) {
+            insertWay(way);
+            insertBatch();
+        }
+        List<OSMElement> relations = block.getRelations();
+        List<OSMPBFDecoder.Member[]> members = block.getMembers();
+        for (int i = 0; i < relations.size(); i++) {
+            OSMElement relation = relations.get(i);
+            for (OSMPBFDecoder.Member member : members.get(i)) {
+                insertMember(relation.getID(), member.getType(), member.getRef(), member.getRole());
+                idMemberOrder++;
+            }
+            insertRelation(relation);
+            insertBatch();
+        }
+    }
+
+    /**
+     * Return the identifier of a tag key, a new identifier is assigned to the
+     * keys that are not in the dictionary.
+     *
+     * @param key Tag key
+     * @return Tag identifier
+     */
+    private int getTagId(String key) {
+        Integer id = tagKeys.get(key);
+        if (id == null) {
+            id = tagKeys.size() + 1;
+            tagKeys.put(key, id);
+        }
+        return id;
+    }
+
+    /**
+     * Insert the tag keys dictionary.
+     *
+     * @throws SQLException
+     */
+    private void insertTagKeys() throws SQLException {
+        int batchSize = 0;
+        for (Map.Entry<String, Integer> entry : tagKeys.entrySet()) {
+            tagPreparedStmt.setInt(1, entry.getValue());
+            tagPreparedStmt.setString(2, entry.getKey());
+            tagPreparedStmt.addBatch();
+            batchSize = insertBatch(tagPreparedStmt, batchSize + 1);
+        }
+        insertBatch(tagPreparedStmt, batchSize, 1);
+    }
+
+    /**
+     * Add a node and its tags to the insert batch.
+     *
+     * @param node
+     * @throws SQLException
+     */
+    private void insertNode(NodeOSMElement node) throws SQLException {
+        nodePreparedStmt.setObject(1, node.getID());
+        nodePreparedStmt.setObject(2, node.getPoint(gf));
+        nodePreparedStmt.setObject(3, node.getElevation());
+        nodePreparedStmt.setObject(4, node.getUser());
+        nodePreparedStmt.setObject(5, node.getUID());
+        nodePreparedStmt.setObject(6, node.getVisible());
+        nodePreparedStmt.setObject(7, node.getVersion());
+        nodePreparedStmt.setObject(8, node.getChangeSet());
+        nodePreparedStmt.setObject(9, node.getTimeStamp(), Types.DATE);
+        nodePreparedStmt.setString(10, node.getName());
+        nodePreparedStmt.addBatch();
+        nodePreparedStmtBatchSize++;
+        if (nodeCoordinates != null) {
+            try {
+                nodeCoordinates.add(node.getID(), node.getLatitude(), node.getLongitude());
+            } catch (IOException ex) {
+                throw new SQLException(ex.getMessage(), ex);
+            }
+        }
+        HashMap<String, String> tags = node.getTags();
+        for (Map.Entry<String, String> entry : tags.entrySet()) {
+            nodeTagPreparedStmt.setLong(1, node.getID());
+            nodeTagPreparedStmt.setInt(2, getTagId(entry.getKey()));
+            nodeTagPreparedStmt.setString(3, entry.getValue());
+            nodeTagPreparedStmt.addBatch();
+            nodeTagPreparedStmtBatchSize++;
+        }
+    }
+
+    /**
+     * Add a way, its tags and its nodes to the insert batch.
+     *
+     * @param way
+     * @throws SQLException
+     */
+    private void insertWay(WayOSMElement way) throws SQLException {
+        wayPreparedStmt.setObject(1, way.getID());
+        wayPreparedStmt.setObject(2, way.getUser());
+        wayPreparedStmt.setObject(3, way.getUID());
+        wayPreparedStmt.setObject(4, way.getVisible());
+        wayPreparedStmt.setObject(5, way.getVersion());
+        wayPreparedStmt.setObject(6, way.getChangeSet());
+        wayPreparedStmt.setTimestamp(7, way.getTimeStamp());
+        wayPreparedStmt.setString(8, way.getName());
+        if (nodeCoordinates != null) {
+            wayPreparedStmt.setObject(9, getWayGeometry(way));
+        }
+        wayPreparedStmt.addBatch();
+        wayPreparedStmtBatchSize++;
+        HashMap<String, String> tags = way.getTags();
+        for (Map.Entry<String, String> entry : tags.entrySet()) {
+            wayTagPreparedStmt.setLong(1, way.getID());
+            wayTagPreparedStmt.setInt(2, getTagId(entry.getKey()));
+            wayTagPreparedStmt.setString(3, entry.getValue());
+            wayTagPreparedStmt.addBatch();
+            wayTagPreparedStmtBatchSize++;
+        }
+        for (int i = 0; i < way.getNodesRefCount(); i++) {
+            wayNodePreparedStmt.setLong(1, way.getID());
+            wayNodePreparedStmt.setLong(2, way.getNodeRef(i));
+            wayNodePreparedStmt.setInt(3, i + 1);
+            wayNodePreparedStmt.addBatch();
+            wayNodePreparedStmtBatchSize++;
+        }
+    }
+
+    /**
+     * Build the way linestring from the stored node coordinates. The nodes
+     * that are not in the file are skipped.
+     *
+     * @param way
+     * @return The way linestring or null if less than two nodes are found
+     */
+    private LineString getWayGeometry(WayOSMElement way) {
+        Coordinate[] coordinates = new Coordinate[way.getNodesRefCount()];
+        int coordinateCount = 0;
+        for (int i = 0; i < way.getNodesRefCount(); i++) {
+            long index = nodeCoordinates.find(way.getNodeRef(i));
+            if (index >= 0) {
+                coordinates[coordinateCount++] = new Coordinate(nodeCoordinates.getLongitude(index),
+                        nodeCoordinates.getLatitude(index));
+            }
+        }
+        if (coordinateCount < 2) {
+            return null;
+        }
+        if (coordinateCount < coordinates.length) {
+            coordinates = Arrays.copyOf(coordinates, coordinateCount);
+        }
+        return gf.createLineString(coordinates);
+    }
+
+    /**
+     * Add a relation and its tags to the insert batch, the members must have been added before.
+     *
+     * @param relation
+     * @throws SQLException
+     */
+    private void insertRelation(OSMElement relation) throws SQLException {
+        relationPreparedStmt.setObject(1, relation.getID());
+        relationPreparedStmt.setObject(2, relation.getUser());
+        relationPreparedStmt.setObject(3, relation.getUID());
+        relationPreparedStmt.setObject(4, relation.getVisible());
+        relationPreparedStmt.setObject(5, relation.getVersion());
+        relationPreparedStmt.setObject(6, relation.getChangeSet());
+        relationPreparedStmt.setTimestamp(7, relation.getTimeStamp());
+        relationPreparedStmt.addBatch();
+        relationPreparedStmtBatchSize++;
+        HashMap<String, String> tags = relation.getTags();
+        for (Map.Entry<String, String> entry : tags.entrySet()) {
+            relationTagPreparedStmt.setLong(1, relation.getID());
+            relationTagPreparedStmt.setInt(2, getTagId(entry.getKey()));
+            relationTagPreparedStmt.setString(3, entry.getValue());
+            relationTagPreparedStmt.addBatch();
+            relationTagPreparedStmtBatchSize++;
+        }
+        idMemberOrder = 0;
+    }
+
+    /**
+     * Add a relation member to the insert batch of the member table of its type.
+     *
+     * @param relationId Relation identifier
+     * @param type NODE, WAY or RELATION
+     * @param ref Member identifier
+     * @param role Member role
+     * @throws SQLException
+     */
+    private void insertMember(long relationId, TAG_LOCATION type, long ref, String role) throws SQLException {
+        switch (type) {
+            case NODE:
+                nodeMemberPreparedStmt.setObject(1, relationId);
+                nodeMemberPreparedStmt.setObject(2, ref);
+                nodeMemberPreparedStmt.setObject(3, role);
+                nodeMemberPreparedStmt.setObject(4, idMemberOrder);
+                nodeMemberPreparedStmt.addBatch();
+                nodeMemberPreparedStmtBatchSize++;
+                break;
+            case WAY:
+                wayMemberPreparedStmt.setObject(1, relationId);
+                wayMemberPreparedStmt.setObject(2, ref);
+                wayMemberPreparedStmt.setObject(3, role);
+                wayMemberPreparedStmt.setObject(4, idMemberOrder);
+                wayMemberPreparedStmt.addBatch();
+                wayMemberPreparedStmtBatchSize++;
+                break;
+            case RELATION:
+                relationMemberPreparedStmt.setObject(1, relationId);
+                relationMemberPreparedStmt.setObject(2, ref);
+                relationMemberPreparedStmt.setObject(3, role);
+                relationMemberPreparedStmt.setObject(4, idMemberOrder);
+                relationMemberPreparedStmt.addBatch();
+                relationMemberPreparedStmtBatchSize++;
+                break;
+        }
+    }
+
     private void insertBatch() throws SQLException {
         nodePreparedStmtBatchSize = insertBatch(nodePreparedStmt, nodePreparedStmtBatchSize);
         nodeTagPreparedStmtBatchSize = insertBatch(nodeTagPreparedStmt, nodeTagPreparedStmtBatchSize);
@@ -506,6 +804,48 @@ public class OSMParser extends DefaultHandler {
         return insertBatch(st, batchSize, BATCH_SIZE);
     }
 
+    /**
+     * Parse a latitude or a longitude. The OSM coordinates have at most 7
+     * decimals, so the digits are read as an exact long value and divided by
+     * an exact power of ten, this gives the same double value as
+     * {@link Double#parseDouble(String)} without its overhead. Other numbers
+     * are parsed by {@link Double#parseDouble(String)}.
+     *
+     * @param value Coordinate text
+     * @return Coordinate value
+     */
+    static double parseCoordinate(String value) {
+        int length = value.length();
+        int index = 0;
+        boolean negative = false;
+        if (length > 0 && (value.charAt(0) == '-' || value.charAt(0) == '+')) {
+            negative = value.charAt(0) == '-';
+            index++;
+        }
+        long digits = 0;
+        int digitCount = 0;
+        int decimals = -1;
+        for (; index < length; index++) {
+            char c = value.charAt(index);
+            if (c >= '0' && c <= '9') {
+                digits = digits * 10 + (c - '0');
+                digitCount++;
+                if (decimals >= 0) {
+                    decimals++;
+                }
+            } else if (c == '.' && decimals < 0) {
+                decimals = 0;
+            } else {
+                return Double.parseDouble(value);
+            }
+        }
+        if (digitCount == 0 || digitCount > 15 || decimals >= POWERS_OF_TEN.length) {
+            return Double.parseDouble(value);
+        }
+        double coordinate = decimals > 0 ? digits / POWERS_OF_TEN[decimals] : digits;
+        return negative ? -coordinate : coordinate;
+    }
+
     /**
      *
      * @param osmElement
@@ -52,7 +52,10 @@ public class OSMRead extends AbstractFunction implements ScalarFunction {
                 " (SELECT N.ID_NODE, N.THE_GEOM,WN.ID_WAY IDWAY FROM MAP_NODE N,MAP_WAY_NODE WN WHERE N.ID_NODE = WN" +
                 ".ID_NODE ORDER BY WN.NODE_ORDER) WHERE  IDWAY = W.ID_WAY) THE_GEOM ,W.ID_WAY FROM MAP_WAY W," +
                 "MAP_BUILDINGS B WHERE W.ID_WAY = B.ID_WAY) GEOM_TABLE WHERE ST_GEOMETRYN(THE_GEOM," +
-                "1) = ST_GEOMETRYN(THE_GEOM, ST_NUMGEOMETRIES(THE_GEOM)) AND ST_NUMGEOMETRIES(THE_GEOM) > 2;");
+                "1) = ST_GEOMETRYN(THE_GEOM, ST_NUMGEOMETRIES(THE_GEOM)) AND ST_NUMGEOMETRIES(THE_GEOM) > 2;\n" +
+                "Set the optional third argument to true in order to build the way linestrings during the import " +
+                "and store them in the THE_GEOM column of the way table, this avoids the previous join:\n" +
+                "CALL OSMRead('map.osm', 'MAP', true);");
     }
 
     @Override
@@ -69,11 +72,26 @@ public class OSMRead extends AbstractFunction implements ScalarFunction {
      * @throws SQLException 
      */
     public static void readOSM(Connection connection, String fileName, String tableReference) throws FileNotFoundException, SQLException {
+        readOSM(connection, fileName, tableReference, false);
+    }
+
+    /**
+     * 
+     * @param connection
+     * @param fileName
+     * @param tableReference
+     * @param wayGeometry True to store the way linestrings in the THE_GEOM column of the way table
+     * @throws FileNotFoundException
+     * @throws SQLException 
+     */
+    public static void readOSM(Connection connection, String fileName, String tableReference, boolean wayGeometry) throws FileNotFoundException, SQLException {
         File file = new File(fileName);
         if (!file.exists()) {
             throw new FileNotFoundException("The following file does not exists:\n" + fileName);
         }
         OSMParser osmp = new OSMParser();
+        osmp.setThreadCount(Runtime.getRuntime().availableProcessors());
+        osmp.setWayGeometry(wayGeometry);
         osmp.read(connection, tableReference, URIUtility.fileFromString(fileName), new EmptyProgressVisitor());
     }
 
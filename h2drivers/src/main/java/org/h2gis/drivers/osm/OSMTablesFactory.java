@@ -73,6 +73,26 @@ public class OSMTablesFactory {
         return connection.prepareStatement("INSERT INTO " + tagTableName + " (TAG_KEY) VALUES (?)");
     }
 
+    /**
+     * Create the tag table to store all keys. The tag identifiers are assigned
+     * by the parser, the element tag tables reference them.
+     *
+     * Since the tag ids are assigned in memory, ID_TAG is a BIGINT instead of
+     * a SERIAL column and the returned statement takes the id and the key.
+     * @param connection
+     * @param tagTableName
+     * @return The insert statement of the tag table (ID_TAG, TAG_KEY)
+     * @throws SQLException
+     */
+    public static PreparedStatement createTagKeyTable(Connection connection, String tagTableName) throws SQLException {
+        Statement stmt = connection.createStatement();
+        // PostgreSQL and H2 will automatically create an index on TAG_KEY when UNIQUE constraint is set
+        stmt.execute("CREATE TABLE " + tagTableName + "(ID_TAG BIGINT PRIMARY KEY, TAG_KEY VARCHAR UNIQUE);");
+        stmt.close();
+        //We return the prepared statement of the tag table
+        return connection.prepareStatement("INSERT INTO " + tagTableName + " (ID_TAG, TAG_KEY) VALUES (?, ?)");
+    }
+
     /**
      * Create the nodes table that will be used to import OSM nodes 
      * Example :
@@ -114,11 +134,10 @@ public class OSMTablesFactory {
      *
      * @param connection
      * @param nodeTagTableName
-     * @param tagTableName
      * @return
      * @throws SQLException
      */
-    public static PreparedStatement createNodeTagTable(Connection connection, String nodeTagTableName, String tagTableName) throws SQLException {
+    public static PreparedStatement createNodeTagTable(Connection connection, String nodeTagTableName) throws SQLException {
         Statement stmt = connection.createStatement();
         StringBuilder sb = new StringBuilder("CREATE TABLE ");
         sb.append(nodeTagTableName);
@@ -128,7 +147,29 @@ public class OSMTablesFactory {
         //We return the preparedstatement of the tag table
         StringBuilder insert = new StringBuilder("INSERT INTO ");
         insert.append(nodeTagTableName);
-        insert.append("VALUES ( ?, ");
+        insert.append(" VALUES ( ?, ?, ?);");
+        return connection.prepareStatement(insert.toString());
+    }
+
+    /**
+     * Create the node tags table, the returned statement resolves the tag
+     * key with a query on the tag table: (ID_NODE, TAG_KEY, TAG_VALUE). The
+     * tag key must have been inserted into the tag table before.
+     *
+     * @param connection
+     * @param nodeTagTableName
+     * @param tagTableName
+     * @return
+     * @throws SQLException
+     * @deprecated The tag ids are assigned by the parser, use
+     * {@link #createNodeTagTable(java.sql.Connection, String)} and insert the tag id.
+     */
+    @Deprecated
+    public static PreparedStatement createNodeTagTable(Connection connection, String nodeTagTableName, String tagTableName) throws SQLException {
+        createNodeTagTable(connection, nodeTagTableName).close();
+        StringBuilder insert = new StringBuilder("INSERT INTO ");
+        insert.append(nodeTagTableName);
+        insert.append(" VALUES ( ?, ");
         insert.append("(SELECT ID_TAG FROM ").append(tagTableName).append(" WHERE TAG_KEY = ? LIMIT 1)");
         insert.append(", ?);");
         return connection.prepareStatement(insert.toString());
@@ -146,13 +187,37 @@ public class OSMTablesFactory {
      * @throws SQLException
      */
     public static PreparedStatement createWayTable(Connection connection, String wayTableName, boolean isH2) throws SQLException {
+        return createWayTable(connection, wayTableName, isH2, false);
+    }
+
+    /**
+     * Create the ways table, with an optional geometry column that contains
+     * the way linestring.
+     *
+     * @param connection
+     * @param wayTableName
+     * @param isH2
+     * @param wayGeometry True to add the THE_GEOM column after the way properties
+     * @return
+     * @throws SQLException
+     */
+    public static PreparedStatement createWayTable(Connection connection, String wayTableName, boolean isH2, boolean wayGeometry) throws SQLException {
         Statement stmt = connection.createStatement();
         StringBuilder sb = new StringBuilder("CREATE TABLE ");
         sb.append(wayTableName);
-        sb.append("(ID_WAY BIGINT PRIMARY KEY, USER_NAME VARCHAR, UID BIGINT, VISIBLE BOOLEAN, VERSION INTEGER, CHANGESET INTEGER, LAST_UPDATE TIMESTAMP, NAME VARCHAR);");
+        sb.append("(ID_WAY BIGINT PRIMARY KEY, USER_NAME VARCHAR, UID BIGINT, VISIBLE BOOLEAN, VERSION INTEGER, CHANGESET INTEGER, LAST_UPDATE TIMESTAMP, NAME VARCHAR");
+        if (wayGeometry) {
+            sb.append(", THE_GEOM ");
+            if (isH2) {
+                sb.append("LINESTRING CHECK ST_SRID(THE_GEOM)=4326");
+            } else {
+                sb.append("GEOMETRY(LINESTRING, 4326)");
+            }
+        }
+        sb.append(");");
         stmt.execute(sb.toString());
         stmt.close();
-        return connection.prepareStatement("INSERT INTO " + wayTableName + " VALUES (?,?,?,?,?,?,?,?);");
+        return connection.prepareStatement("INSERT INTO " + wayTableName + (wayGeometry ? " VALUES (?,?,?,?,?,?,?,?,?);" : " VALUES (?,?,?,?,?,?,?,?);"));
     }
 
     /**
@@ -160,11 +225,10 @@ public class OSMTablesFactory {
      *
      * @param connection
      * @param wayTagTableName
-     * @param tagTableName
      * @return
      * @throws SQLException
      */
-    public static PreparedStatement createWayTagTable(Connection connection, String wayTagTableName, String tagTableName) throws SQLException {
+    public static PreparedStatement createWayTagTable(Connection connection, String wayTagTableName) throws SQLException {
         Statement stmt = connection.createStatement();
         StringBuilder sb = new StringBuilder("CREATE TABLE ");
         sb.append(wayTagTableName);
@@ -174,7 +238,29 @@ public class OSMTablesFactory {
         //We return the preparedstatement of the way tag table
         StringBuilder insert = new StringBuilder("INSERT INTO ");
         insert.append(wayTagTableName);
-        insert.append("VALUES ( ?, ");
+        insert.append(" VALUES ( ?, ?, ?);");
+        return connection.prepareStatement(insert.toString());
+    }
+
+    /**
+     * Create the way tags table, the returned statement resolves the tag
+     * key with a query on the tag table: (ID_WAY, TAG_KEY, VALUE). The
+     * tag key must have been inserted into the tag table before.
+     *
+     * @param connection
+     * @param wayTagTableName
+     * @param tagTableName
+     * @return
+     * @throws SQLException
+     * @deprecated The tag ids are assigned by the parser, use
+     * {@link #createWayTagTable(java.sql.Connection, String)} and insert the tag id.
+     */
+    @Deprecated
+    public static PreparedStatement createWayTagTable(Connection connection, String wayTagTableName, String tagTableName) throws SQLException {
+        createWayTagTable(connection, wayTagTableName).close();
+        StringBuilder insert = new StringBuilder("INSERT INTO ");
+        insert.append(wayTagTableName);
+        insert.append(" VALUES ( ?, ");
         insert.append("(SELECT ID_TAG FROM ").append(tagTableName).append(" WHERE TAG_KEY = ? LIMIT 1)");
         insert.append(", ?);");
         return connection.prepareStatement(insert.toString());
@@ -226,12 +312,11 @@ public class OSMTablesFactory {
      * Create the relation tags table
      *
      * @param connection
-     * @param tagTableName
      * @param relationTagTable
      * @return
      * @throws SQLException
      */
-    public static PreparedStatement createRelationTagTable(Connection connection, String relationTagTable, String tagTableName) throws SQLException {
+    public static PreparedStatement createRelationTagTable(Connection connection, String relationTagTable) throws SQLException {
         Statement stmt = connection.createStatement();
         StringBuilder sb = new StringBuilder("CREATE TABLE ");
         sb.append(relationTagTable);
@@ -241,7 +326,29 @@ public class OSMTablesFactory {
         //We return the preparedstatement of the way tag table
         StringBuilder insert = new StringBuilder("INSERT INTO ");
         insert.append(relationTagTable);
-        insert.append("VALUES ( ?, ");
+        insert.append(" VALUES ( ?, ?, ?);");
+        return connection.prepareStatement(insert.toString());
+    }
+
+    /**
+     * Create the relation tags table, the returned statement resolves the tag
+     * key with a query on the tag table: (ID_RELATION, TAG_KEY, TAG_VALUE). The
+     * tag key must have been inserted into the tag table before.
+     *
+     * @param connection
+     * @param relationTagTable
+     * @param tagTableName
+     * @return
+     * @throws SQLException
+     * @deprecated The tag ids are assigned by the parser, use
+     * {@link #createRelationTagTable(java.sql.Connection, String)} and insert the tag id.
+     */
+    @Deprecated
+    public static PreparedStatement createRelationTagTable(Connection connection, String relationTagTable, String tagTableName) throws SQLException {
+        createRelationTagTable(connection, relationTagTable).close();
+        StringBuilder insert = new StringBuilder("INSERT INTO ");
+        insert.append(relationTagTable);
+        insert.append(" VALUES ( ?, ");
         insert.append("(SELECT ID_TAG FROM ").append(tagTableName).append(" WHERE TAG_KEY = ? LIMIT 1)");
         insert.append(", ?);");
         return connection.prepareStatement(insert.toString());
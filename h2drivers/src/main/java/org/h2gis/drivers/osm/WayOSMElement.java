@@ -25,6 +25,7 @@
 package org.h2gis.drivers.osm;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -34,7 +35,8 @@ import java.util.List;
  */
 public class WayOSMElement extends OSMElement {
 
-    private final List<Long> nodesRef = new ArrayList<Long>();
+    private long[] nodesRef = new long[16];
+    private int nodesRefCount = 0;
 
     public WayOSMElement() {
         super();
@@ -46,16 +48,53 @@ public class WayOSMElement extends OSMElement {
      * @param ref
      */
     public void addRef(String ref) {
-        nodesRef.add(Long.valueOf(ref));
+        addRef(Long.parseLong(ref));
     }
 
     /**
-     * Return the list of nodes
+     * Add in a list the ref of the node used to describe the way.
      *
-     * @return
+     * @param ref
+     */
+    public void addRef(long ref) {
+        if (nodesRefCount == nodesRef.length) {
+            nodesRef = Arrays.copyOf(nodesRef, nodesRefCount * 2);
+        }
+        nodesRef[nodesRefCount++] = ref;
+    }
+
+    /**
+     * @return The number of nodes
+     */
+    public int getNodesRefCount() {
+        return nodesRefCount;
+    }
+
+    /**
+     * @param index Node index, from 0 to {@link #getNodesRefCount()} excluded
+     * @return The node ref
+     */
+    public long getNodeRef(int index) {
+        return nodesRef[index];
+    }
+
+    /**
+     * @return A copy of the node refs
+     * @deprecated Use {@link #getNodesRefCount()} and {@link #getNodeRef(int)}, they do not box the refs.
      */
+    @Deprecated
     public List<Long> getNodesRef() {
-        return nodesRef;
+        List<Long> refs = new ArrayList<Long>(nodesRefCount);
+        for (int i = 0; i < nodesRefCount; i++) {
+            refs.add(nodesRef[i]);
+        }
+        return refs;
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        nodesRefCount = 0;
     }
 
 }
@@ -44,8 +44,15 @@ import org.h2gis.utilities.jts_utils.GeometryMetaData;
 import java.io.File;
 import java.io.IOException;
 import java.sql.*;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Read/Write Shape files
@@ -53,7 +60,64 @@ import java.util.List;
  */
 public class SHPDriverFunction implements DriverFunction {
     public static String DESCRIPTION = "ESRI shapefile";
-    private static final int BATCH_MAX_SIZE = 100;
+    /** Default number of rows inserted with a single batch */
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private int importThreadCount = Runtime.getRuntime().availableProcessors();
+    private int exportThreadCount = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * @param batchSize Number of rows inserted with a single batch on import
+     */
+    public void setBatchSize(int batchSize) {
+        if(batchSize < 1) {
+            throw new IllegalArgumentException("The batch size must be greater than 0");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return Number of rows inserted with a single batch on import
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @param importThreadCount Number of threads that decode the geometries and the dbf records on import, 1 to
+     *                          read and insert the rows in the calling thread. Defaults to the processor count.
+     */
+    public void setImportThreadCount(int importThreadCount) {
+        if(importThreadCount < 1) {
+            throw new IllegalArgumentException("The thread count must be greater than 0");
+        }
+        this.importThreadCount = importThreadCount;
+    }
+
+    /**
+     * @return Number of threads that decode the rows on import
+     */
+    public int getImportThreadCount() {
+        return importThreadCount;
+    }
+
+    /**
+     * @param exportThreadCount Number of threads that encode the geometries and the dbf records on export, 1 to
+     *                          encode and write the rows in the calling thread. Defaults to the processor count.
+     */
+    public void setExportThreadCount(int exportThreadCount) {
+        if(exportThreadCount < 1) {
+            throw new IllegalArgumentException("The thread count must be greater than 0");
+        }
+        this.exportThreadCount = exportThreadCount;
+    }
+
+    /**
+     * @return Number of threads that encode the rows on export
+     */
+    public int getExportThreadCount() {
+        return exportThreadCount;
+    }
 
     @Override
     public void exportTable(Connection connection, String tableReference, File fileName, ProgressVisitor progress) throws SQLException, IOException {
@@ -94,28 +158,57 @@ public class SHPDriverFunction implements DriverFunction {
                 }
                 header.setNumRecords(recordCount);
                 SHPDriver shpDriver = null;
-                Object[] row = new Object[header.getNumFields() + 1];
-                while (rs.next()) {
-                    for(int columnId = 0; columnId < row.length; columnId++) {
-                        row[columnId] = rs.getObject(columnId + 1);
-                    }
-                    if(shpDriver == null) {
-                        int geoFieldIndex = JDBCUtilities.getFieldIndex(resultSetMetaData, spatialFieldNames.get(0));
-                        // If there is not shape type constraint read the first geometry and use the same type
-                        byte[] wkb = rs.getBytes(geoFieldIndex);
-                        if(wkb != null) {
-                            shapeType = getShapeTypeFromGeometryMetaData(GeometryMetaData.getMetaDataFromWKB(wkb));
+                // Rows are encoded by batch on worker threads, then written in the order of the result set
+                ExecutorService executorService = exportThreadCount > 1 ?
+                        Executors.newFixedThreadPool(exportThreadCount) : null;
+                Queue<Future<SHPDriver.EncodedRows>> pendingBatch = new ArrayDeque<Future<SHPDriver.EncodedRows>>();
+                List<Object[]> batch = new ArrayList<Object[]>(batchSize);
+                try {
+                    while (rs.next()) {
+                        Object[] row = new Object[header.getNumFields() + 1];
+                        for(int columnId = 0; columnId < row.length; columnId++) {
+                            row[columnId] = rs.getObject(columnId + 1);
+                        }
+                        if(shpDriver == null) {
+                            int geoFieldIndex = JDBCUtilities.getFieldIndex(resultSetMetaData, spatialFieldNames.get(0));
+                            // If there is not shape type constraint read the first geometry and use the same type
+                            byte[] wkb = rs.getBytes(geoFieldIndex);
+                            if(wkb != null) {
+                                shapeType = getShapeTypeFromGeometryMetaData(GeometryMetaData.getMetaDataFromWKB(wkb));
+                            }
+                            if(shapeType != null) {
+                                shpDriver = new SHPDriver();
+                                shpDriver.setGeometryFieldIndex(geoFieldIndex - 1);
+                                shpDriver.initDriver(fileName,shapeType , header);
+                            }
                         }
-                        if(shapeType != null) {
-                            shpDriver = new SHPDriver();
-                            shpDriver.setGeometryFieldIndex(geoFieldIndex - 1);
-                            shpDriver.initDriver(fileName,shapeType , header);
+                        if(shpDriver != null) {
+                            if(executorService == null) {
+                                shpDriver.insertRow(row);
+                            } else {
+                                batch.add(row);
+                                if(batch.size() >= batchSize) {
+                                    pendingBatch.add(submitBatch(executorService, shpDriver, batch));
+                                    batch = new ArrayList<Object[]>(batchSize);
+                                    // Bound the memory used when the encoding is slower than the result set
+                                    if(pendingBatch.size() > exportThreadCount * 2) {
+                                        insertEncodedRows(shpDriver, pendingBatch.remove());
+                                    }
+                                }
+                            }
                         }
+                        copyProgress.endStep();
                     }
-                    if(shpDriver != null) {
-                        shpDriver.insertRow(row);
+                    if(shpDriver != null && !batch.isEmpty()) {
+                        pendingBatch.add(submitBatch(executorService, shpDriver, batch));
+                    }
+                    while(!pendingBatch.isEmpty()) {
+                        insertEncodedRows(shpDriver, pendingBatch.remove());
+                    }
+                } finally {
+                    if(executorService != null) {
+                        executorService.shutdownNow();
                     }
-                    copyProgress.endStep();
                 }
                 if(shpDriver != null) {
                     shpDriver.close();
@@ -172,7 +265,8 @@ public class SHPDriverFunction implements DriverFunction {
         final boolean isH2 = JDBCUtilities.isH2DataBase(connection.getMetaData());
         SHPDriver shpDriver = new SHPDriver();
         shpDriver.initDriverFromFile(fileName, forceEncoding);
-        ProgressVisitor copyProgress = progress.subProcess((int)(shpDriver.getRowCount() / BATCH_MAX_SIZE));
+        // One step per batch, the last batch may be partial
+        ProgressVisitor copyProgress = progress.subProcess((int)((shpDriver.getRowCount() + batchSize - 1) / batchSize));
         // PostGIS does not show sql
         String lastSql = "";
         try {
@@ -208,23 +302,10 @@ public class SHPDriverFunction implements DriverFunction {
                                 DBFDriverFunction.getQuestionMark(dbfHeader.getNumFields() + 1));
                         PreparedStatement preparedStatement = connection.prepareStatement(lastSql);
                 try {
-                    long batchSize = 0;
-                    for (int rowId = 0; rowId < shpDriver.getRowCount(); rowId++) {
-                        Object[] values = shpDriver.getRow(rowId);
-                        for (int columnId = 0; columnId < values.length; columnId++) {
-                            preparedStatement.setObject(columnId + 1, values[columnId]);
-                        }
-                        preparedStatement.addBatch();
-                        batchSize++;
-                        if (batchSize >= BATCH_MAX_SIZE) {
-                            preparedStatement.executeBatch();
-                            preparedStatement.clearBatch();
-                            batchSize = 0;
-                            copyProgress.endStep();
-                        }
-                    }
-                    if(batchSize > 0) {
-                        preparedStatement.executeBatch();
+                    if(importThreadCount > 1 && shpDriver.getRowCount() > batchSize) {
+                        insertRowsPipeline(shpDriver, preparedStatement, copyProgress);
+                    } else {
+                        insertRows(shpDriver, preparedStatement, copyProgress);
                     }
                 } finally {
                     preparedStatement.close();
@@ -242,6 +323,119 @@ public class SHPDriverFunction implements DriverFunction {
         }
     }
 
+    /**
+     * Encode rows on a worker thread
+     */
+    private static Future<SHPDriver.EncodedRows> submitBatch(ExecutorService executorService, final SHPDriver shpDriver,
+                                                             final List<Object[]> batch) {
+        return executorService.submit(new Callable<SHPDriver.EncodedRows>() {
+            @Override
+            public SHPDriver.EncodedRows call() throws IOException {
+                return shpDriver.encodeRows(batch);
+            }
+        });
+    }
+
+    /**
+     * Wait for the encoding of rows then write them
+     */
+    private static void insertEncodedRows(SHPDriver shpDriver, Future<SHPDriver.EncodedRows> encodedRows)
+            throws IOException {
+        try {
+            shpDriver.insertEncodedRows(encodedRows.get());
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            } else if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            } else {
+                throw new IOException(ex.getCause());
+            }
+        } catch (InterruptedException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    /**
+     * Read and insert the rows in the calling thread.
+     */
+    private void insertRows(SHPDriver shpDriver, PreparedStatement preparedStatement, ProgressVisitor copyProgress)
+            throws SQLException, IOException {
+        long batchRowCount = 0;
+        for (int rowId = 0; rowId < shpDriver.getRowCount(); rowId++) {
+            Object[] values = shpDriver.getRow(rowId);
+            for (int columnId = 0; columnId < values.length; columnId++) {
+                preparedStatement.setObject(columnId + 1, values[columnId]);
+            }
+            preparedStatement.addBatch();
+            batchRowCount++;
+            if (batchRowCount >= batchSize) {
+                preparedStatement.executeBatch();
+                preparedStatement.clearBatch();
+                batchRowCount = 0;
+                copyProgress.endStep();
+            }
+        }
+        if(batchRowCount > 0) {
+            preparedStatement.executeBatch();
+            copyProgress.endStep();
+        }
+    }
+
+    /**
+     * Decode the rows with {@link #importThreadCount} threads, each task reads a range of {@link #batchSize} rows.
+     * The calling thread inserts the ranges in the file order. The number of pending ranges is bounded in order to
+     * limit the memory usage when the database is slower than the decoding.
+     */
+    private void insertRowsPipeline(final SHPDriver shpDriver, PreparedStatement preparedStatement,
+                                    ProgressVisitor copyProgress) throws SQLException, IOException, InterruptedException {
+        final long rowCount = shpDriver.getRowCount();
+        final int maxPendingBatch = importThreadCount * 2;
+        ExecutorService executorService = Executors.newFixedThreadPool(importThreadCount);
+        try {
+            Queue<Future<Object[][]>> pendingBatch = new ArrayDeque<Future<Object[][]>>(maxPendingBatch);
+            long nextRowId = 0;
+            while (nextRowId < rowCount || !pendingBatch.isEmpty()) {
+                while (nextRowId < rowCount && pendingBatch.size() < maxPendingBatch) {
+                    final long firstRowId = nextRowId;
+                    final int batchRowCount = (int) Math.min(batchSize, rowCount - firstRowId);
+                    pendingBatch.add(executorService.submit(new Callable<Object[][]>() {
+                        @Override
+                        public Object[][] call() throws IOException {
+                            Object[][] rows = new Object[batchRowCount][];
+                            for (int i = 0; i < batchRowCount; i++) {
+                                rows[i] = shpDriver.getRow(firstRowId + i);
+                            }
+                            return rows;
+                        }
+                    }));
+                    nextRowId += batchRowCount;
+                }
+                Object[][] rows;
+                try {
+                    rows = pendingBatch.remove().get();
+                } catch (ExecutionException ex) {
+                    if (ex.getCause() instanceof IOException) {
+                        throw (IOException) ex.getCause();
+                    } else {
+                        throw new IOException(ex.getCause());
+                    }
+                }
+                for (Object[] values : rows) {
+                    for (int columnId = 0; columnId < values.length; columnId++) {
+                        preparedStatement.setObject(columnId + 1, values[columnId]);
+                    }
+                    preparedStatement.addBatch();
+                }
+                preparedStatement.executeBatch();
+                preparedStatement.clearBatch();
+                copyProgress.endStep();
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
     private static ShapeType getShapeTypeFromGeometryMetaData(GeometryMetaData meta) throws SQLException {
         ShapeType shapeType;
         switch (meta.geometryType) {
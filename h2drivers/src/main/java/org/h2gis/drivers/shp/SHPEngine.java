@@ -48,7 +48,8 @@ public class SHPEngine extends FileEngine<SHPDriver> {
     @Override
     protected SHPDriver createDriver(File filePath, List<String> args) throws IOException {
         SHPDriver driver = new SHPDriver();
-        driver.initDriverFromFile(filePath, args.size() > 1 ? args.get(1) : null);
+        driver.setMemoryMapped(getBooleanOption(args, OPTION_MEMORY_MAPPED, false));
+        driver.initDriverFromFile(filePath, getFileEncoding(args));
         return driver;
     }
 
@@ -82,9 +82,52 @@ public class IndexFile {
 	 */
 	public IndexFile(FileChannel channel)
 			throws IOException {
+		this(channel, false);
+	}
+
+	/**
+	 * Load the index file from the given channel.
+	 *
+	 * @param channel
+	 *            The channel to read from.
+	 * @param memoryMapped
+	 *            Read offsets through a memory mapped segment of the file instead of a heap buffer.
+	 * @throws java.io.IOException
+	 *             If an error occurs.
+	 */
+	public IndexFile(FileChannel channel, boolean memoryMapped)
+			throws IOException {
 		readHeader(channel);
 		this.channel = channel;
-		this.buf = new ReadBufferManager(channel, 8 * 128);
+		if(memoryMapped) {
+			this.buf = new ReadBufferManager(channel, true);
+		} else {
+			this.buf = new ReadBufferManager(channel, 8 * 128);
+		}
+	}
+
+	/**
+	 * Copy constructor used by {@link #duplicate()}
+	 *
+	 * @param source
+	 *            Index file to share the channel and the header with.
+	 */
+	private IndexFile(IndexFile source) throws IOException {
+		this.header = source.header;
+		this.buf = source.buf.duplicate();
+	}
+
+	/**
+	 * Creates an index reader on the same file that can be used concurrently
+	 * with this one. The duplicate does not own the channel, closing it does
+	 * not close the file.
+	 *
+	 * @return A new index reader sharing the channel and the header.
+	 * @throws java.io.IOException
+	 *             If an error occurs.
+	 */
+	public IndexFile duplicate() throws IOException {
+		return new IndexFile(this);
 	}
 
 	/**
@@ -25,15 +25,24 @@
 
 package org.h2gis.drivers.shp.internal;
 
+import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
-import org.h2gis.drivers.FileDriver;
+import org.h2gis.drivers.PartialRowFileDriver;
+import org.h2gis.drivers.SpatialFileDriver;
+import org.h2gis.drivers.TypedFileDriver;
+import org.h2gis.drivers.TypedRow;
 import org.h2gis.drivers.dbf.internal.DBFDriver;
+import org.h2gis.drivers.dbf.internal.DbaseFileException;
 import org.h2gis.drivers.dbf.internal.DbaseFileHeader;
+import org.h2gis.drivers.dbf.internal.DbaseFileWriter;
+import org.h2gis.drivers.utility.ReaderPool;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.List;
 
 /**
  * Merge ShapeFileReader and DBFReader.
@@ -48,7 +57,7 @@ import java.io.IOException;
  *
  * @author Nicolas Fortin
  */
-public class SHPDriver implements FileDriver {
+public class SHPDriver implements SpatialFileDriver, TypedFileDriver, PartialRowFileDriver {
     private DBFDriver dbfDriver = new DBFDriver();
     private File shpFile;
     private File shxFile;
@@ -57,6 +66,36 @@ public class SHPDriver implements FileDriver {
     private IndexFile shxFileReader;
     private int geometryFieldIndex = 0;
     private ShapeType shapeType;
+    private boolean memoryMapped = false;
+    // Readers used by getRow and getEnvelope, shared by concurrent threads
+    private final ReaderPool<ShapefileReader> shapefileReaders = new ReaderPool<ShapefileReader>() {
+        @Override
+        protected ShapefileReader create() throws IOException {
+            return shapefileReader.duplicate();
+        }
+    };
+    private final ReaderPool<IndexFile> shxFileReaders = new ReaderPool<IndexFile>() {
+        @Override
+        protected IndexFile create() throws IOException {
+            return shxFileReader.duplicate();
+        }
+    };
+
+    /**
+     * @param memoryMapped If true, the files opened by {@link #initDriverFromFile(java.io.File, String)} are read
+     *                     through memory mapped segments.
+     */
+    public void setMemoryMapped(boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+        dbfDriver.setMemoryMapped(memoryMapped);
+    }
+
+    /**
+     * @return True if the files are read through memory mapped segments.
+     */
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
 
     /**
      * @param geometryFieldIndex The geometry field index in getRow() array.
@@ -66,6 +105,15 @@ public class SHPDriver implements FileDriver {
     }
 
     public void insertRow(Object[] values) throws IOException {
+        shapefileWriter.writeGeometry(checkGeometry(values));
+        dbfDriver.insertRow(getDbfValues(values));
+    }
+
+    /**
+     * @param values Row content
+     * @return The geometry of the row
+     */
+    private Geometry checkGeometry(Object[] values) throws IOException {
         if(!(values[geometryFieldIndex] instanceof Geometry)) {
             if(values[geometryFieldIndex]==null) {
                 throw new IOException("Shape files do not support NULL Geometry values.");
@@ -74,7 +122,14 @@ public class SHPDriver implements FileDriver {
                         " found "+values[geometryFieldIndex].getClass()+" instead.");
             }
         }
-        shapefileWriter.writeGeometry((Geometry)values[geometryFieldIndex]);
+        return (Geometry)values[geometryFieldIndex];
+    }
+
+    /**
+     * @param values Row content
+     * @return The DBF part of the row
+     */
+    private Object[] getDbfValues(Object[] values) {
         // Extract the DBF part of the row
         Object[] dbfValues = new Object[values.length - 1];
         // Copy DBF data before geometryFieldIndex
@@ -85,12 +140,55 @@ public class SHPDriver implements FileDriver {
         if(geometryFieldIndex + 1 < values.length) {
             System.arraycopy(values, geometryFieldIndex + 1, dbfValues, geometryFieldIndex, dbfValues.length - geometryFieldIndex);
         }
-        dbfDriver.insertRow(dbfValues);
+        return dbfValues;
     }
 
     /**
-     * @return The geometry field index in getRow() array.
+     * Encode rows in the calling thread, the rows are then written in the files by
+     * {@link #insertEncodedRows(org.h2gis.drivers.shp.internal.SHPDriver.EncodedRows)}. This method can be called
+     * concurrently by several threads.
+     * @param rows Rows content
+     * @return Encoded rows
+     * @throws IOException
      */
+    public EncodedRows encodeRows(List<Object[]> rows) throws IOException {
+        EncodedRows encodedRows = new EncodedRows(dbfDriver.getDbaseFileHeader().getRecordLength() * rows.size());
+        DbaseFileWriter.RecordEncoder recordEncoder = dbfDriver.newRecordEncoder();
+        try {
+            for(Object[] values : rows) {
+                shapefileWriter.encodeGeometry(checkGeometry(values), encodedRows.geometries);
+                encodedRows.records.write(recordEncoder.encode(getDbfValues(values)));
+            }
+        } catch (DbaseFileException ex) {
+            throw new IOException(ex.getLocalizedMessage(), ex);
+        }
+        return encodedRows;
+    }
+
+    /**
+     * Write rows encoded by {@link #encodeRows(java.util.List)}, in the order of the calls to this method.
+     * @param rows Encoded rows
+     * @throws IOException
+     */
+    public void insertEncodedRows(EncodedRows rows) throws IOException {
+        shapefileWriter.writeEncodedGeometries(rows.geometries);
+        dbfDriver.insertEncodedRows(rows.records.toByteArray(), 0, rows.records.size());
+    }
+
+    /**
+     * Rows encoded apart from the files
+     */
+    public static class EncodedRows {
+        private final ShapefileWriter.EncodedGeometries geometries;
+        private final ByteArrayOutputStream records;
+
+        private EncodedRows(int recordsSize) throws IOException {
+            geometries = new ShapefileWriter.EncodedGeometries();
+            records = new ByteArrayOutputStream(recordsSize);
+        }
+    }
+
+    @Override
     public int getGeometryFieldIndex() {
         return geometryFieldIndex;
     }
@@ -157,9 +255,13 @@ public class SHPDriver implements FileDriver {
             throw new IllegalArgumentException("DBF File not found");
         }
         FileInputStream shpFis = new FileInputStream(shpFile);
-        shapefileReader = new ShapefileReader(shpFis.getChannel());
+        shapefileReader = new ShapefileReader(shpFis.getChannel(), memoryMapped);
         FileInputStream shxFis = new FileInputStream(shxFile);
-        shxFileReader = new IndexFile(shxFis.getChannel());
+        shxFileReader = new IndexFile(shxFis.getChannel(), memoryMapped);
+        shapefileReaders.clear();
+        shapefileReaders.release(shapefileReader);
+        shxFileReaders.clear();
+        shxFileReaders.release(shxFileReader);
     }
 
     /**
@@ -185,6 +287,8 @@ public class SHPDriver implements FileDriver {
     public void close() throws IOException {
         dbfDriver.close();
         if(shapefileReader != null) {
+            shapefileReaders.clear();
+            shxFileReaders.clear();
             shapefileReader.close();
             shxFileReader.close();
         } else if(shapefileWriter != null) {
@@ -198,21 +302,147 @@ public class SHPDriver implements FileDriver {
         return dbfDriver.getFieldCount() + 1;
     }
 
+    /**
+     * @param rowId Row index
+     * @return Offset of the shape record in the shp file
+     * @throws IOException
+     */
+    private int getShapeOffset(long rowId) throws IOException {
+        IndexFile reader = shxFileReaders.acquire();
+        try {
+            return reader.getOffset((int)rowId);
+        } finally {
+            shxFileReaders.release(reader);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * This method can be called concurrently by several threads.
+     */
+    @Override
+    public Envelope getEnvelope(long rowId) throws IOException {
+        int offset = getShapeOffset(rowId);
+        ShapefileReader reader = shapefileReaders.acquire();
+        try {
+            return reader.envelopeAt(offset);
+        } finally {
+            shapefileReaders.release(reader);
+        }
+    }
+
+    /**
+     * @param rowId Row index
+     * @return The geometry of the row
+     * @throws IOException
+     */
+    private Geometry getGeometry(long rowId) throws IOException {
+        int offset = getShapeOffset(rowId);
+        ShapefileReader reader = shapefileReaders.acquire();
+        try {
+            return reader.geomAt(offset);
+        } finally {
+            shapefileReaders.release(reader);
+        }
+    }
+
     @Override
     public Object[] getRow(long rowId) throws IOException {
+        return getRow(rowId, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     * This method can be called concurrently by several threads.
+     */
+    @Override
+    public Object[] getRow(long rowId, boolean[] fields) throws IOException {
         final int fieldCount = getFieldCount();
-        Object[] values = new Object[fieldCount];
-        // Copy dbf values
-        Object[] dbfValues = dbfDriver.getRow(rowId);
-        // Copy dbf values before geometryFieldIndex
-        if(geometryFieldIndex > 0) {
-            System.arraycopy(dbfValues, 0, values, 0, geometryFieldIndex);
+        // Read the dbf record once, if at least one of its fields is requested
+        boolean[] dbfFields = null;
+        boolean readDbf = fields == null;
+        if(fields != null) {
+            dbfFields = new boolean[fieldCount - 1];
+            for(int fieldId = 0; fieldId < fieldCount; fieldId++) {
+                if(fieldId != geometryFieldIndex) {
+                    dbfFields[getDbfFieldId(fieldId)] = fields[fieldId];
+                    readDbf |= fields[fieldId];
+                }
+            }
         }
-        values[geometryFieldIndex] = shapefileReader.geomAt(shxFileReader.getOffset((int)rowId));
-        // Copy dbf values after geometryFieldIndex
-        if(geometryFieldIndex < dbfValues.length) {
-            System.arraycopy(dbfValues, geometryFieldIndex, values, geometryFieldIndex + 1, dbfValues.length);
+        Object[] dbfValues = readDbf ? dbfDriver.getRow(rowId, dbfFields) : null;
+        Object[] values = new Object[fieldCount];
+        for(int fieldId = 0; fieldId < fieldCount; fieldId++) {
+            if(fieldId == geometryFieldIndex) {
+                if(fields == null || fields[fieldId]) {
+                    values[fieldId] = getGeometry(rowId);
+                }
+            } else if(readDbf) {
+                values[fieldId] = dbfValues[getDbfFieldId(fieldId)];
+            }
         }
         return values;
     }
+
+    /**
+     * {@inheritDoc}
+     * This method can be called concurrently by several threads.
+     */
+    @Override
+    public void getTypedRow(long rowId, TypedRow row) throws IOException {
+        final int fieldCount = getFieldCount();
+        // Read the dbf record once, if at least one of its fields is requested
+        byte[] dbfReadModes = new byte[fieldCount - 1];
+        boolean readDbf = false;
+        for(int fieldId = 0; fieldId < fieldCount; fieldId++) {
+            if(fieldId != geometryFieldIndex) {
+                dbfReadModes[getDbfFieldId(fieldId)] = row.getReadMode(fieldId);
+                readDbf |= row.getReadMode(fieldId) != TypedRow.SKIP;
+            }
+        }
+        if(readDbf) {
+            TypedRow dbfRow = new TypedRow(dbfReadModes);
+            dbfDriver.getTypedRow(rowId, dbfRow);
+            for(int fieldId = 0; fieldId < fieldCount; fieldId++) {
+                if(fieldId != geometryFieldIndex) {
+                    dbfRow.copyField(getDbfFieldId(fieldId), row, fieldId);
+                }
+            }
+        }
+        if(row.getReadMode(geometryFieldIndex) != TypedRow.SKIP) {
+            row.setObject(geometryFieldIndex, getGeometry(rowId));
+        }
+    }
+
+    /**
+     * @param fieldId Field index in getRow() array
+     * @return Field index in the dbf file
+     */
+    private int getDbfFieldId(int fieldId) {
+        if(fieldId == geometryFieldIndex) {
+            throw new IllegalArgumentException("The geometry field is not a numeric field");
+        }
+        // Skip the geometry field in the dbf file
+        return fieldId < geometryFieldIndex ? fieldId : fieldId - 1;
+    }
+
+    @Override
+    public boolean isNull(long rowId, int fieldId) throws IOException {
+        return dbfDriver.isNull(rowId, getDbfFieldId(fieldId));
+    }
+
+    @Override
+    public int getInt(long rowId, int fieldId) throws IOException {
+        return dbfDriver.getInt(rowId, getDbfFieldId(fieldId));
+    }
+
+    @Override
+    public long getLong(long rowId, int fieldId) throws IOException {
+        return dbfDriver.getLong(rowId, getDbfFieldId(fieldId));
+    }
+
+    @Override
+    public double getDouble(long rowId, int fieldId) throws IOException {
+        return dbfDriver.getDouble(rowId, getDbfFieldId(fieldId));
+    }
 }
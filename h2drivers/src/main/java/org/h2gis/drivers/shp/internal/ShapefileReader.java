@@ -40,6 +40,7 @@
  */
 package org.h2gis.drivers.shp.internal;
 
+import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
 import org.h2gis.drivers.utility.ReadBufferManager;
 
@@ -75,6 +76,7 @@ public class ShapefileReader {
         private FileChannel channel;
         private ReadBufferManager buffer;
         private ShapeType fileShapeType = ShapeType.UNDEFINED;
+        private boolean memoryMapped = false;
 
         /**
          * Creates a new instance of ShapeFile.
@@ -87,11 +89,52 @@ public class ShapefileReader {
          *             If for some reason the file contains invalid records.
          */
         public ShapefileReader(FileChannel channel) throws IOException,
+                ShapefileException {
+                this(channel, false);
+        }
+
+        /**
+         * Creates a new instance of ShapeFile.
+         *
+         * @param channel
+         *            The ReadableByteChannel this reader will use.
+         * @param memoryMapped
+         *            Read records through memory mapped segments of the file instead of a heap buffer.
+         * @throws java.io.IOException
+         *             If problems arise.
+         * @throws ShapefileException
+         *             If for some reason the file contains invalid records.
+         */
+        public ShapefileReader(FileChannel channel, boolean memoryMapped) throws IOException,
                 ShapefileException {
                 this.channel = channel;
+                this.memoryMapped = memoryMapped;
                 init();
         }
 
+        /**
+         * Copy constructor used by {@link #duplicate()}
+         * @param source Reader to share the channel and the header with
+         */
+        private ShapefileReader(ShapefileReader source) throws IOException {
+                this.header = source.header;
+                this.fileShapeType = source.fileShapeType;
+                this.handler = source.handler;
+                this.memoryMapped = source.memoryMapped;
+                this.buffer = source.buffer.duplicate();
+        }
+
+        /**
+         * Creates a reader on the same file that can be used concurrently with this one. The duplicate does not own
+         * the channel, closing it does not close the file.
+         *
+         * @return A new reader sharing the channel and the header of this reader
+         * @throws java.io.IOException
+         */
+        public ShapefileReader duplicate() throws IOException {
+                return new ShapefileReader(this);
+        }
+
         // convenience to peak at a header
         /**
          * A short cut for reading the header from the given channel.
@@ -124,7 +167,7 @@ public class ShapefileReader {
                 if (handler == null) {
                         throw new IOException("Unsuported shape type:" + fileShapeType);
                 }
-                buffer = new ReadBufferManager(channel);
+                buffer = new ReadBufferManager(channel, memoryMapped);
         }
 
         /**
@@ -183,6 +226,40 @@ public class ShapefileReader {
                 return handler.read(buffer, recordType);
         }
 
+        /**
+         * Read only the bounding box of the record. The coordinates of the shape are not read.
+         *
+         * @param offset
+         * @throws java.io.IOException
+         * @return The envelope of the shape, null envelope for NULL shapes.
+         */
+        public Envelope envelopeAt(int offset) throws IOException {
+                buffer.position(offset);
+                // record header
+                buffer.skip(8);
+                // shape record is all little endian
+                buffer.order(ByteOrder.LITTLE_ENDIAN);
+                ShapeType recordType = ShapeType.forID(buffer.getInt());
+                if (recordType == ShapeType.NULL) {
+                        return new Envelope();
+                }
+                if (recordType != fileShapeType) {
+                        throw new IllegalStateException("ShapeType changed illegally from "
+                                + fileShapeType + " to " + recordType);
+                }
+                if (recordType.isPointType()) {
+                        double x = buffer.getDouble();
+                        double y = buffer.getDouble();
+                        return new Envelope(x, x, y, y);
+                }
+                // Bounding box Xmin, Ymin, Xmax, Ymax
+                double minX = buffer.getDouble();
+                double minY = buffer.getDouble();
+                double maxX = buffer.getDouble();
+                double maxY = buffer.getDouble();
+                return new Envelope(minX, maxX, minY, maxY);
+        }
+
         /**
          * @param handler
          *            The handler to set.
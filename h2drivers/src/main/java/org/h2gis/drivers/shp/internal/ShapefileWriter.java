@@ -44,9 +44,12 @@ import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
 import org.h2gis.drivers.utility.WriteBufferManager;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.ByteOrder;
+import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
+import java.util.Arrays;
 
 /**
  * ShapefileWriter allows for the storage of geometries in esris shp format.
@@ -192,6 +195,112 @@ public class ShapefileWriter {
 		offset += length + 4;
 	}
 
+	/**
+	 * Encode the content of a shape record, without the record header. This
+	 * method does not modify the writer, it can be called by several threads
+	 * once the headers are written. The records are written in the file by
+	 * {@link #writeEncodedGeometries(EncodedGeometries)}.
+	 *
+	 * @param g Geometry to encode, must be compatible with the ShapeType
+	 * @param records Encoded records of the calling thread
+	 * @throws java.io.IOException
+	 */
+	public void encodeGeometry(Geometry g, EncodedGeometries records) throws IOException {
+		if (type == null) {
+			throw new IllegalStateException("Header must be written before encodeGeometry");
+		}
+		int length;
+		if (g == null) {
+			length = 4;
+			records.buffer.putInt(0);
+		} else {
+			length = handler.getLength(g);
+			records.buffer.putInt(type.id);
+			handler.write(records.buffer, g);
+			records.expandBounds(g.getEnvelopeInternal());
+		}
+		records.addRecord(length / 2);
+	}
+
+	/**
+	 * Write the records encoded by {@link #encodeGeometry(Geometry, EncodedGeometries)}, the record numbers and
+	 * the shx offsets are computed here from the encoded lengths.
+	 *
+	 * @param records Encoded records
+	 * @throws java.io.IOException
+	 */
+	public void writeEncodedGeometries(EncodedGeometries records) throws IOException {
+		if (type == null) {
+			throw new IllegalStateException("Header must be written before writeEncodedGeometries");
+		}
+		if (records.bounds != null) {
+			if (bounds != null) {
+				bounds.expandToInclude(records.bounds);
+			} else {
+				bounds = new Envelope(records.bounds);
+			}
+		}
+		byte[] content = records.getContent();
+		int position = 0;
+		for (int i = 0; i < records.count; i++) {
+			int length = records.lengths[i];
+			shapeBuffer.order(ByteOrder.BIG_ENDIAN);
+			shapeBuffer.putInt(++cnt);
+			shapeBuffer.putInt(length);
+			shapeBuffer.order(ByteOrder.LITTLE_ENDIAN);
+			shapeBuffer.put(content, position, length * 2);
+			position += length * 2;
+			// write to the shx
+			indexBuffer.putInt(offset);
+			indexBuffer.putInt(length);
+			offset += length + 4;
+		}
+	}
+
+	/**
+	 * Shape records encoded apart from the file, by {@link #encodeGeometry(Geometry, EncodedGeometries)}.
+	 */
+	public static class EncodedGeometries {
+		private final ByteArrayOutputStream content = new ByteArrayOutputStream();
+		private final WriteBufferManager buffer;
+		// Length of each record content, in 16-bit words
+		private int[] lengths = new int[64];
+		private int count = 0;
+		private Envelope bounds;
+
+		public EncodedGeometries() throws IOException {
+			buffer = new WriteBufferManager(Channels.newChannel(content));
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+		}
+
+		private void addRecord(int length) {
+			if (count == lengths.length) {
+				lengths = Arrays.copyOf(lengths, count * 2);
+			}
+			lengths[count++] = length;
+		}
+
+		private void expandBounds(Envelope envelope) {
+			if (bounds == null) {
+				bounds = new Envelope(envelope);
+			} else {
+				bounds.expandToInclude(envelope);
+			}
+		}
+
+		private byte[] getContent() throws IOException {
+			buffer.flush();
+			return content.toByteArray();
+		}
+
+		/**
+		 * @return Number of encoded records
+		 */
+		public int getCount() {
+			return count;
+		}
+	}
+
 	/**
 	 * Close the underlying Channels.
          *
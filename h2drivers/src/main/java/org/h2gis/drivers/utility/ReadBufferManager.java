@@ -27,15 +27,22 @@ package org.h2gis.drivers.utility;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 
 public final class ReadBufferManager {
+        /** Size of a memory mapped segment, a single mapping cannot exceed 2 GB */
+        public static final int MAPPED_SEGMENT_SIZE = 1 << 30;
+        /** Each segment also maps this amount of bytes of the next segment, in order to read values across the limit */
+        public static final int MAPPED_SEGMENT_OVERLAP = 1 << 20;
 
         private int bufferSize;
         private ByteBuffer buffer;
         private FileChannel channel;
         private long windowStart;
         private long positionInFile;
+        private MappedByteBuffer[] segments;
+        private ByteOrder order = ByteOrder.BIG_ENDIAN;
 
         /**
          * Instantiates a ReadBufferManager to read the specified channel
@@ -64,6 +71,123 @@ public final class ReadBufferManager {
                 getWindowOffset(0, bufferSize);
         }
 
+        /**
+         * Instantiates a ReadBufferManager to read the specified channel. In memory mapped mode the content of the
+         * file is not copied into the java heap, the channel is mapped by segments of {@link #MAPPED_SEGMENT_SIZE}
+         * bytes and the values are read from the operating system page cache.
+         *
+         * @param channel
+         * @param memoryMapped If true map the channel into memory, else use a 32 KB buffer.
+         * @throws java.io.IOException
+         */
+        public ReadBufferManager(FileChannel channel, boolean memoryMapped) throws IOException {
+                this.channel = channel;
+                this.bufferSize = 1024 * 32;
+                windowStart = 0;
+                if (memoryMapped) {
+                        long segmentCount = channel.size() / MAPPED_SEGMENT_SIZE + 1;
+                        segments = new MappedByteBuffer[(int) segmentCount];
+                        buffer = getSegment(0);
+                } else {
+                        buffer = ByteBuffer.allocate(0);
+                        getWindowOffset(0, bufferSize);
+                }
+        }
+
+        /**
+         * Copy constructor used by {@link #duplicate()}
+         * @param source Buffer manager to share the channel and the mapped segments with
+         */
+        private ReadBufferManager(ReadBufferManager source) throws IOException {
+                this.channel = source.channel;
+                this.bufferSize = source.bufferSize;
+                this.order = source.order;
+                this.segments = source.segments;
+                windowStart = 0;
+                if (segments != null) {
+                        buffer = getSegment(0);
+                } else {
+                        buffer = ByteBuffer.allocate(0);
+                        buffer.order(order);
+                        getWindowOffset(0, bufferSize);
+                }
+        }
+
+        /**
+         * Creates a new buffer manager that reads the same channel. Both managers share the channel and the memory
+         * mapped segments, but each one has its own window and position, so that they can be used concurrently
+         * by different threads. Closing the channel is left to the owner of the original manager.
+         *
+         * @return A new buffer manager on the same channel
+         * @throws IOException
+         */
+        public ReadBufferManager duplicate() throws IOException {
+                return new ReadBufferManager(this);
+        }
+
+        /**
+         * Change the size of the channel content cached in memory, the new size is used on the next move of the
+         * window. A large buffer reduces the number of reads during a sequential scan of the channel. This size is
+         * ignored in memory mapped mode.
+         *
+         * @param bufferSize Buffer size in bytes
+         */
+        public void setBufferSize(int bufferSize) {
+                this.bufferSize = bufferSize;
+        }
+
+        /**
+         * @return True if the channel is read through memory mapped segments
+         */
+        public boolean isMemoryMapped() {
+                return segments != null;
+        }
+
+        /**
+         * Map the segment on the first access. The segments are shared between duplicated managers, then a view
+         * of the segment is returned in order to keep the position and byte order of this manager apart.
+         * @param segmentIndex Segment index
+         * @return A view of the segment
+         * @throws IOException
+         */
+        private ByteBuffer getSegment(int segmentIndex) throws IOException {
+                MappedByteBuffer segment;
+                synchronized (segments) {
+                        segment = segments[segmentIndex];
+                        if (segment == null) {
+                                long start = (long) segmentIndex * MAPPED_SEGMENT_SIZE;
+                                long length = Math.min(channel.size() - start, (long) MAPPED_SEGMENT_SIZE + MAPPED_SEGMENT_OVERLAP);
+                                segment = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+                                segments[segmentIndex] = segment;
+                        }
+                }
+                ByteBuffer view = segment.duplicate();
+                view.order(order);
+                return view;
+        }
+
+        /**
+         * Move the window on the memory mapped segment that contain the desired bytes
+         * @param bytePos Byte position in file
+         * @param length Bytes to read
+         * @return Position of the byte in the window
+         * @throws IOException
+         */
+        private int getMappedWindowOffset(long bytePos, int length) throws IOException {
+                int segmentIndex = (int) (bytePos / MAPPED_SEGMENT_SIZE);
+                long segmentStart = (long) segmentIndex * MAPPED_SEGMENT_SIZE;
+                if (segmentIndex < segments.length && bytePos + length <= segmentStart + MAPPED_SEGMENT_SIZE + MAPPED_SEGMENT_OVERLAP) {
+                        buffer = getSegment(segmentIndex);
+                        windowStart = segmentStart;
+                } else {
+                        // Very large value across two segments, map it alone
+                        buffer = channel.map(FileChannel.MapMode.READ_ONLY, bytePos, Math.min(length, channel.size() - bytePos));
+                        buffer.order(order);
+                        windowStart = bytePos;
+                }
+                return (int) (bytePos - windowStart);
+        }
+
         /**
          * Moves the window if necessary to contain the desired byte and returns the
          * position of the byte in the window
@@ -82,6 +206,8 @@ public final class ReadBufferManager {
                         } else {
                                 throw new IOException("this buffer is quite large...");
                         }
+                } else if (segments != null) {
+                        return getMappedWindowOffset(bytePos, length);
                 } else {
                         long bufferCapacity = Math.max(bufferSize, length);
                         long size = channel.size();
@@ -92,7 +218,6 @@ public final class ReadBufferManager {
                         }
                         windowStart = bytePos;
 
-                        channel.position(windowStart);
                         if (buffer.capacity() != bufferCapacity) {
                                 ByteOrder order = buffer.order();
                                 buffer = ByteBuffer.allocate((int)bufferCapacity);
@@ -100,7 +225,15 @@ public final class ReadBufferManager {
                         } else {
                                 buffer.clear();
                         }
-                        channel.read(buffer);
+                        // Positional read, the channel position is not modified and can be shared between threads
+                        long readPosition = windowStart;
+                        while (buffer.hasRemaining()) {
+                                int read = channel.read(buffer, readPosition);
+                                if (read < 0) {
+                                        break;
+                                }
+                                readPosition += read;
+                        }
                         buffer.flip();
                         return (int) (desiredMin - windowStart);
                 }
@@ -134,6 +267,7 @@ public final class ReadBufferManager {
          * @param order
          */
         public void order(ByteOrder order) {
+                this.order = order;
                 buffer.order(order);
         }
 
@@ -237,6 +371,21 @@ public final class ReadBufferManager {
                 return this.buffer.get(buffer);
         }
 
+        /**
+         * Copy length bytes at the specified position into the array
+         *
+         * @param pos Position in the channel
+         * @param dst Destination array
+         * @param offset Offset in the destination array
+         * @param length Number of bytes to copy
+         * @throws java.io.IOException
+         */
+        public void get(long pos, byte[] dst, int offset, int length) throws IOException {
+                int windowOffset = getWindowOffset(pos, length);
+                this.buffer.position(windowOffset);
+                this.buffer.get(dst, offset, length);
+        }
+
         /**
          * Moves the current position to the specified one
          *
@@ -0,0 +1,72 @@
+/*
+ * h2spatial is a library that brings spatial support to the H2 Java database.
+ *
+ * h2spatial is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2014 IRSTV (FR CNRS 2488)
+ *
+ * h2patial is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * h2spatial is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * h2spatial. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+
+package org.h2gis.drivers.utility;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Pool of file readers, used by the drivers to serve concurrent requests on the same file. Each thread borrows a
+ * reader with {@link #acquire()} and gives it back with {@link #release(Object)}. A new reader is created through
+ * {@link #create()} when all the pooled readers are in use.
+ * @param <T> Reader type
+ */
+public abstract class ReaderPool<T> {
+    private final ConcurrentLinkedQueue<T> readers = new ConcurrentLinkedQueue<T>();
+
+    /**
+     * @return A reader that is not used by another thread
+     * @throws IOException
+     */
+    public T acquire() throws IOException {
+        T reader = readers.poll();
+        if(reader == null) {
+            reader = create();
+        }
+        return reader;
+    }
+
+    /**
+     * Give back a reader acquired with {@link #acquire()}
+     * @param reader Reader instance
+     */
+    public void release(T reader) {
+        readers.offer(reader);
+    }
+
+    /**
+     * Remove all pooled readers
+     */
+    public void clear() {
+        readers.clear();
+    }
+
+    /**
+     * @return A new reader on the file
+     * @throws IOException
+     */
+    protected abstract T create() throws IOException;
+}
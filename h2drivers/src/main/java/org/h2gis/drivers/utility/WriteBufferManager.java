@@ -27,7 +27,7 @@ package org.h2gis.drivers.utility;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * Class to write files using nio.
@@ -38,18 +38,18 @@ public final class WriteBufferManager {
 
 	private static final int BUFFER_SIZE = 1024 * 128;
 
-	private FileChannel channel;
+	private WritableByteChannel channel;
 
 	private ByteBuffer buffer;
 
 	/**
-	 * Creates a new WriteBufferManager that writes to the specified file
+	 * Creates a new WriteBufferManager that writes to the specified
 	 * channel
 	 *
 	 * @param channel
 	 * @throws java.io.IOException
 	 */
-	public WriteBufferManager(FileChannel channel) throws IOException {
+	public WriteBufferManager(WritableByteChannel channel) throws IOException {
 		this.channel = channel;
 		buffer = ByteBuffer.allocate(BUFFER_SIZE);
 	}
@@ -74,7 +74,7 @@ public final class WriteBufferManager {
 	private void prepareToAddBytes(int numBytes) throws IOException {
 		if (buffer.remaining() < numBytes) {
 			buffer.flip();
-			channel.write(buffer);
+			writeBuffer();
 
 			int bufferCapacity = Math.max(BUFFER_SIZE, numBytes);
 			if (bufferCapacity != buffer.capacity()) {
@@ -98,6 +98,19 @@ public final class WriteBufferManager {
 		buffer.put(bs);
 	}
 
+	/**
+	 * Puts length bytes of the array at the current position
+	 *
+	 * @param bs
+	 * @param offset Offset in the array
+	 * @param length Number of bytes to put
+	 * @throws java.io.IOException
+	 */
+	public void put(byte[] bs, int offset, int length) throws IOException {
+		prepareToAddBytes(length);
+		buffer.put(bs, offset, length);
+	}
+
 	/**
 	 * flushes the cached contents into the channel. It is mandatory to call
 	 * this method to finish the writing of the channel
@@ -106,7 +119,20 @@ public final class WriteBufferManager {
 	 */
 	public void flush() throws IOException {
 		buffer.flip();
-		channel.write(buffer);
+		writeBuffer();
+		buffer.clear();
+	}
+
+	/**
+	 * Write the remaining bytes of the buffer, a channel may write only a
+	 * part of the buffer at once.
+	 *
+	 * @throws java.io.IOException
+	 */
+	private void writeBuffer() throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
 	}
 
 	/**
@@ -0,0 +1,251 @@
+/*
+ * h2spatial is a library that brings spatial support to the H2 Java database.
+ *
+ * h2spatial is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2014 IRSTV (FR CNRS 2488)
+ *
+ * h2patial is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * h2spatial is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * h2spatial. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+
+package org.h2gis.drivers;
+
+import org.apache.commons.io.FileUtils;
+import org.h2.jdbcx.JdbcDataSource;
+import org.h2gis.drivers.geojson.GeoJsonDriverFunction;
+import org.h2gis.drivers.shp.SHPDriverFunction;
+import org.h2gis.h2spatial.CreateSpatialExtension;
+import org.h2gis.h2spatial.ut.SpatialH2UT;
+import org.h2gis.h2spatialapi.EmptyProgressVisitor;
+import org.h2gis.utilities.JDBCUtilities;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BulkImportTest {
+    private static final String DB_NAME = "BulkImportTest";
+    private static final int TILE_COUNT = 12;
+    private static final File TILE_DIRECTORY = new File("target/bulk_tiles");
+    private static Connection connection;
+    private static JdbcDataSource dataSource;
+
+    @BeforeClass
+    public static void tearUp() throws Exception {
+        // Keep a connection alive to not close the DataBase on each unit test
+        connection = SpatialH2UT.createSpatialDataBase(DB_NAME);
+        CreateSpatialExtension.registerFunction(connection.createStatement(), new ImportFiles(), "");
+        dataSource = new JdbcDataSource();
+        dataSource.setURL(connection.getMetaData().getURL());
+        dataSource.setUser("sa");
+        dataSource.setPassword("sa");
+        // Write the tiles
+        TILE_DIRECTORY.mkdirs();
+        for (File file : TILE_DIRECTORY.listFiles()) {
+            file.delete();
+        }
+        Statement st = connection.createStatement();
+        SHPDriverFunction shpDriverFunction = new SHPDriverFunction();
+        for (int tile = 1; tile <= TILE_COUNT; tile++) {
+            st.execute("DROP TABLE IF EXISTS TILE");
+            st.execute("CREATE TABLE TILE(THE_GEOM POINT, NAME VARCHAR(20), VALUE DOUBLE)");
+            st.execute("INSERT INTO TILE SELECT ST_GeomFromText(CONCAT('POINT(', X, ' ', " + tile + ", ')')), " +
+                    "CONCAT('tile', " + tile + "), X * " + tile + " FROM SYSTEM_RANGE(1, 100)");
+            shpDriverFunction.exportTable(connection, "TILE", new File(TILE_DIRECTORY, "tile_" + tile + ".shp"),
+                    new EmptyProgressVisitor());
+        }
+        st.execute("DROP TABLE IF EXISTS TILE");
+        st.execute("CREATE TABLE TILE(THE_GEOM POINT, ID INT)");
+        st.execute("INSERT INTO TILE VALUES ('POINT(1 2)', 1), ('POINT(3 4)', 2)");
+        new GeoJsonDriverFunction().exportTable(connection, "TILE", new File(TILE_DIRECTORY, "zone.geojson"),
+                new EmptyProgressVisitor());
+        st.execute("DROP TABLE TILE");
+        st.close();
+    }
+
+    @AfterClass
+    public static void tearDown() throws Exception {
+        connection.close();
+    }
+
+    @Test
+    public void testListFiles() {
+        BulkImport bulkImport = new BulkImport(null);
+        // The dbf files of the shape files are not imported
+        assertEquals(TILE_COUNT + 1, bulkImport.listFiles(TILE_DIRECTORY).length);
+        File[] files = bulkImport.listFiles(new File(TILE_DIRECTORY, "tile_1*.shp"));
+        assertEquals(4, files.length);
+        assertEquals("tile_1.shp", files[0].getName());
+        assertEquals("tile_10.shp", files[1].getName());
+        assertEquals("tile_12.shp", files[3].getName());
+    }
+
+    @Test
+    public void testParallelUnionImport() throws Exception {
+        Statement st = connection.createStatement();
+        st.execute("DROP TABLE IF EXISTS BULK, BULK_2");
+        BulkImport bulkImport = new BulkImport(dataSource);
+        bulkImport.setThreadCount(4);
+        bulkImport.setUnion(true);
+        List<String> tables = bulkImport.importFiles(connection, TILE_DIRECTORY, "bulk", new EmptyProgressVisitor());
+        assertEquals(Arrays.asList("BULK", "BULK_2"), tables);
+        assertEquals(TILE_COUNT * 100, JDBCUtilities.getRowCount(connection, "BULK"));
+        assertEquals(2, JDBCUtilities.getRowCount(connection, "BULK_2"));
+        ResultSet rs = st.executeQuery("SELECT COUNT(DISTINCT PK), SUM(ST_Y(THE_GEOM)), COUNT(DISTINCT NAME) FROM BULK");
+        assertTrue(rs.next());
+        assertEquals(TILE_COUNT * 100, rs.getInt(1));
+        assertEquals(100 * TILE_COUNT * (TILE_COUNT + 1) / 2, rs.getDouble(2), 1e-6);
+        assertEquals(TILE_COUNT, rs.getInt(3));
+        rs.close();
+        // The tables of the files have been appended then removed
+        assertFalse(JDBCUtilities.tableExists(connection, "BULK_TILE_2"));
+        st.execute("DROP TABLE BULK, BULK_2");
+        st.close();
+    }
+
+    @Test
+    public void testImportFilesFunction() throws Exception {
+        Statement st = connection.createStatement();
+        st.execute("CALL IMPORT_FILES('" + TILE_DIRECTORY.getPath() + "/tile_1?.shp', 'sqlbulk')");
+        for (int tile = 10; tile <= TILE_COUNT; tile++) {
+            assertEquals(100, JDBCUtilities.getRowCount(connection, "SQLBULK_TILE_" + tile));
+            st.execute("DROP TABLE SQLBULK_TILE_" + tile);
+        }
+        assertFalse(JDBCUtilities.tableExists(connection, "SQLBULK_TILE_1"));
+        st.close();
+    }
+
+    private static File copyGpxFiles() throws Exception {
+        File directory = new File("target/bulk_gpx");
+        directory.mkdirs();
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        for (String name : new String[] {"route.gpx", "track.gpx", "waypoint.gpx"}) {
+            FileUtils.copyFile(new File(BulkImportTest.class.getResource("gpx/" + name).getPath()),
+                    new File(directory, name));
+        }
+        return directory;
+    }
+
+    @Test
+    public void testMultiTableImport() throws Exception {
+        File directory = copyGpxFiles();
+        BulkImport bulkImport = new BulkImport(dataSource);
+        bulkImport.setThreadCount(2);
+        List<String> tables = bulkImport.importFiles(connection, directory, "g", new EmptyProgressVisitor());
+        // The GPX driver creates several tables for each file
+        assertTrue(tables.size() > 3);
+        assertTrue(tables.contains("G_ROUTE_ROUTE"));
+        assertTrue(tables.contains("G_TRACK_TRACK"));
+        assertTrue(tables.contains("G_WAYPOINT_WAYPOINT"));
+        Statement st = connection.createStatement();
+        for (String table : tables) {
+            assertTrue(table, JDBCUtilities.tableExists(connection, table));
+            st.execute("DROP TABLE " + table);
+        }
+        st.close();
+    }
+
+    @Test
+    public void testMultiTableUnionImport() throws Exception {
+        File directory = copyGpxFiles();
+        BulkImport bulkImport = new BulkImport(dataSource);
+        bulkImport.setThreadCount(2);
+        bulkImport.setUnion(true);
+        try {
+            bulkImport.importFiles(connection, directory, "u", new EmptyProgressVisitor());
+            fail();
+        } catch (SQLException ex) {
+            assertTrue(ex.getMessage().contains("union"));
+        }
+        // The imported tables have been removed
+        ResultSet rs = connection.getMetaData().getTables(null, "PUBLIC", "U\\_%", null);
+        try {
+            assertFalse(rs.next());
+        } finally {
+            rs.close();
+        }
+    }
+
+    @Test
+    public void testUnionTableName() throws Exception {
+        File directory = new File("target/bulk_names");
+        directory.mkdirs();
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        // The table of the file 2.shp is BULKN_2
+        for (String name : new String[] {"shp", "shx", "dbf"}) {
+            FileUtils.copyFile(new File(TILE_DIRECTORY, "tile_1." + name), new File(directory, "2." + name));
+        }
+        FileUtils.copyFile(new File(TILE_DIRECTORY, "zone.geojson"), new File(directory, "zone.geojson"));
+        Statement st = connection.createStatement();
+        st.execute("DROP TABLE IF EXISTS BULKN, BULKN_2, BULKN_3");
+        st.execute("CREATE TABLE BULKN_3(ID INT)");
+        BulkImport bulkImport = new BulkImport(null);
+        bulkImport.setUnion(true);
+        List<String> tables = bulkImport.importFiles(connection, directory, "bulkn", new EmptyProgressVisitor());
+        assertEquals(Arrays.asList("BULKN", "BULKN_4"), tables);
+        assertEquals(100, JDBCUtilities.getRowCount(connection, "BULKN"));
+        assertEquals(2, JDBCUtilities.getRowCount(connection, "BULKN_4"));
+        assertEquals(0, JDBCUtilities.getRowCount(connection, "BULKN_3"));
+        assertFalse(JDBCUtilities.tableExists(connection, "BULKN_2"));
+        st.execute("DROP TABLE BULKN, BULKN_3, BULKN_4");
+        st.close();
+    }
+
+    @Test
+    public void testImportFilesCurrentSchema() throws Exception {
+        Statement st = connection.createStatement();
+        st.execute("CREATE SCHEMA IF NOT EXISTS BULK_SCHEMA");
+        st.execute("DROP TABLE IF EXISTS BULK_SCHEMA.SQLBULK");
+        st.execute("SET SCHEMA BULK_SCHEMA");
+        try {
+            st.execute("CALL PUBLIC.IMPORT_FILES('" + TILE_DIRECTORY.getPath() + "/tile_1?.shp', 'sqlbulk', true)");
+        } finally {
+            st.execute("SET SCHEMA PUBLIC");
+        }
+        assertEquals(300, JDBCUtilities.getRowCount(connection, "BULK_SCHEMA.SQLBULK"));
+        assertFalse(JDBCUtilities.tableExists(connection, "BULK_SCHEMA.SQLBULK_TILE_10"));
+        st.execute("DROP TABLE BULK_SCHEMA.SQLBULK");
+        st.execute("DROP SCHEMA BULK_SCHEMA");
+        st.close();
+    }
+
+    @Test
+    public void testImportFilesUnion() throws Exception {
+        Statement st = connection.createStatement();
+        st.execute("CALL IMPORT_FILES('" + TILE_DIRECTORY.getPath() + "/tile_1?.shp', 'sqlbulk', true)");
+        assertEquals(300, JDBCUtilities.getRowCount(connection, "SQLBULK"));
+        st.execute("DROP TABLE SQLBULK");
+        st.close();
+    }
+}
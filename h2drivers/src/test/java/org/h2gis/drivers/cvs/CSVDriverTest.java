@@ -31,16 +31,22 @@ import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import org.apache.commons.io.FileUtils;
+import org.h2.util.StringUtils;
 import org.h2gis.drivers.DriverManager;
+import org.h2gis.drivers.csv.CSVDriver;
 import org.h2gis.drivers.csv.CSVDriverFunction;
+import org.h2gis.drivers.csv.CSVEngine;
+import org.h2gis.h2spatial.CreateSpatialExtension;
 import org.h2gis.h2spatial.ut.SpatialH2UT;
 import org.h2gis.h2spatialapi.DriverFunction;
 import org.h2gis.h2spatialapi.EmptyProgressVisitor;
 import org.junit.After;
 import org.junit.AfterClass;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
-import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -60,6 +66,7 @@ public class CSVDriverTest {
     public static void tearUp() throws Exception {
         // Keep a connection alive to not close the DataBase on each unit test
         connection = SpatialH2UT.createSpatialDataBase(DB_NAME);
+        CreateSpatialExtension.registerFunction(connection.createStatement(), new DriverManager(), "");
     }
 
     @AfterClass
@@ -100,6 +107,276 @@ public class CSVDriverTest {
         }
     }
 
+    @Test
+    public void testTypedImport() throws SQLException, IOException {
+        Statement stat = connection.createStatement();
+        stat.execute("DROP TABLE IF EXISTS AREA");
+        stat.execute("create table area(the_geom GEOMETRY, idarea int primary key, name varchar)");
+        stat.execute("insert into area values('POLYGON ((-10 109, 90 109, 90 9, -10 9, -10 109))', 1, 'a, \"first\"')");
+        stat.execute("insert into area values('POLYGON ((90 109, 190 109, 190 9, 90 9, 90 109))', 2, 'second\nline')");
+        File csvFile = new File("target/area_typed.csv");
+        csvFile.delete();
+        CSVDriverFunction driver = new CSVDriverFunction();
+        driver.exportTable(connection, "AREA", csvFile, new EmptyProgressVisitor());
+        driver.setTypedImport(true);
+        stat.execute("DROP TABLE IF EXISTS mycsv");
+        driver.importFile(connection, "MYCSV", csvFile, new EmptyProgressVisitor());
+        ResultSet rs = stat.executeQuery("select SUM(ST_AREA(the_geom)), SUM(idarea) from mycsv");
+        try {
+            assertTrue(rs.next());
+            assertEquals(20000, rs.getDouble(1), 1e-6);
+            assertEquals(3, rs.getInt(2));
+        } finally {
+            rs.close();
+        }
+        rs = stat.executeQuery("select name from mycsv order by idarea");
+        try {
+            assertTrue(rs.next());
+            assertEquals("a, \"first\"", rs.getString(1));
+            assertTrue(rs.next());
+            assertEquals("second\nline", rs.getString(1));
+            assertFalse(rs.next());
+        } finally {
+            rs.close();
+        }
+        rs = stat.executeQuery("select data_type from information_schema.columns where table_name = 'MYCSV' order by ordinal_position");
+        try {
+            assertTrue(rs.next());
+            assertEquals(java.sql.Types.OTHER, rs.getInt(1));
+            assertTrue(rs.next());
+            assertEquals(java.sql.Types.INTEGER, rs.getInt(1));
+            assertTrue(rs.next());
+            assertEquals(java.sql.Types.VARCHAR, rs.getInt(1));
+        } finally {
+            rs.close();
+        }
+    }
+
+    @Test
+    public void testTypedImportLonLatParallel() throws SQLException, IOException {
+        File csvFile = new File("target/lonlat.csv");
+        StringBuilder csv = new StringBuilder("id,lon,lat,day,comment\n");
+        for (int i = 0; i < 500; i++) {
+            csv.append(i).append(',').append(i * 0.5).append(',').append(-i).append(",2014-06-")
+                    .append(10 + i % 20).append(i % 3 == 0 ? ",\"multi\nline\"\n" : ",\n");
+        }
+        FileUtils.writeStringToFile(csvFile, csv.toString(), "UTF-8");
+        CSVDriverFunction driver = new CSVDriverFunction();
+        driver.setTypedImport(true);
+        driver.setSampleSize(50);
+        driver.setBatchSize(7);
+        driver.setImportThreadCount(4);
+        Statement stat = connection.createStatement();
+        stat.execute("DROP TABLE IF EXISTS lonlat");
+        driver.importFile(connection, "LONLAT", csvFile, new EmptyProgressVisitor());
+        ResultSet rs = stat.executeQuery("select count(*), sum(id), max(day), count(comment), sum(ST_X(the_geom)), " +
+                "sum(ST_Y(the_geom)), max(ST_SRID(the_geom)) from lonlat");
+        try {
+            assertTrue(rs.next());
+            assertEquals(500, rs.getInt(1));
+            assertEquals(124750, rs.getInt(2));
+            assertEquals(java.sql.Date.valueOf("2014-06-29"), rs.getDate(3));
+            assertEquals(167, rs.getInt(4));
+            assertEquals(62375, rs.getDouble(5), 1e-6);
+            assertEquals(-124750, rs.getDouble(6), 1e-6);
+            assertEquals(4326, rs.getInt(7));
+        } finally {
+            rs.close();
+        }
+        rs = stat.executeQuery("select comment from lonlat where id = 3");
+        try {
+            assertTrue(rs.next());
+            assertEquals("multi\nline", rs.getString(1));
+        } finally {
+            rs.close();
+        }
+    }
+
+    @Test
+    public void testTypedImportWidenColumn() throws SQLException, IOException {
+        File csvFile = new File("target/widen.csv");
+        StringBuilder csv = new StringBuilder("id,zip,code\n");
+        for (int i = 0; i < 100; i++) {
+            csv.append(i).append(",0").append(7000 + i).append(',').append(i == 80 ? "A80" : String.valueOf(i)).append('\n');
+        }
+        FileUtils.writeStringToFile(csvFile, csv.toString(), "UTF-8");
+        CSVDriverFunction driver = new CSVDriverFunction();
+        driver.setTypedImport(true);
+        driver.setSampleSize(10);
+        driver.setBatchSize(7);
+        driver.setImportThreadCount(4);
+        Statement stat = connection.createStatement();
+        stat.execute("DROP TABLE IF EXISTS widen");
+        driver.importFile(connection, "WIDEN", csvFile, new EmptyProgressVisitor());
+        ResultSet rs = stat.executeQuery("select zip, code from widen where id in (1, 80) order by id");
+        try {
+            assertTrue(rs.next());
+            // The leading zero is kept
+            assertEquals("07001", rs.getString(1));
+            assertEquals("1", rs.getString(2));
+            assertTrue(rs.next());
+            assertEquals("07080", rs.getString(1));
+            assertEquals("A80", rs.getString(2));
+            assertFalse(rs.next());
+        } finally {
+            rs.close();
+        }
+        rs = stat.executeQuery("select count(*) from widen");
+        try {
+            assertTrue(rs.next());
+            assertEquals(100, rs.getInt(1));
+        } finally {
+            rs.close();
+        }
+        rs = stat.executeQuery("select data_type from information_schema.columns where table_name = 'WIDEN' order by ordinal_position");
+        try {
+            assertTrue(rs.next());
+            assertEquals(java.sql.Types.INTEGER, rs.getInt(1));
+            assertTrue(rs.next());
+            assertEquals(java.sql.Types.VARCHAR, rs.getInt(1));
+            assertTrue(rs.next());
+            assertEquals(java.sql.Types.VARCHAR, rs.getInt(1));
+        } finally {
+            rs.close();
+        }
+        stat.execute("DROP TABLE widen");
+        stat.close();
+    }
+
+    @Test
+    public void testTypedImportCanceled() throws SQLException, IOException {
+        File csvFile = new File("target/canceled.csv");
+        FileUtils.writeStringToFile(csvFile, "id,name\n1,a\n2,b\n", "UTF-8");
+        CSVDriverFunction driver = new CSVDriverFunction();
+        driver.setTypedImport(true);
+        Statement stat = connection.createStatement();
+        stat.execute("DROP TABLE IF EXISTS canceled");
+        try {
+            driver.importFile(connection, "CANCELED", csvFile, new EmptyProgressVisitor() {
+                @Override
+                public boolean isCanceled() {
+                    return true;
+                }
+            });
+            fail();
+        } catch (SQLException ex) {
+            // Expected
+        }
+        // The partial table is dropped
+        ResultSet rs = connection.getMetaData().getTables(null, null, "CANCELED", null);
+        try {
+            assertFalse(rs.next());
+        } finally {
+            rs.close();
+        }
+        stat.close();
+    }
+
+    @Test
+    public void testLinkedCSV() throws SQLException, IOException {
+        File csvFile = new File("target/linked.csv");
+        StringBuilder csv = new StringBuilder("name,longitude,latitude,count\n");
+        for (int i = 0; i < 1000; i++) {
+            csv.append(i % 10 == 0 ? "\"line\r\nbreak, \"\"quoted\"\"\"" : "name" + i).append(',').append(i % 360 - 180)
+                    .append(',').append(i % 90).append(',').append(i == 500 ? "" : Long.toString(i * 10000000000L))
+                    .append(i % 100 == 0 ? "\r\n\r\n" : "\n");
+        }
+        FileUtils.writeStringToFile(csvFile, csv.toString(), "UTF-8");
+        File offsetFile = CSVDriver.getOffsetFile(csvFile);
+        offsetFile.delete();
+        Statement stat = connection.createStatement();
+        stat.execute("DROP TABLE IF EXISTS linkedcsv");
+        stat.execute("CALL FILE_TABLE(" + StringUtils.quoteStringSQL(csvFile.getPath()) + ", 'LINKEDCSV')");
+        assertTrue(offsetFile.exists());
+        ResultSet rs = stat.executeQuery("select data_type from information_schema.columns where table_name = 'LINKEDCSV' order by ordinal_position");
+        try {
+            for (int type : new int[]{java.sql.Types.BIGINT, java.sql.Types.VARCHAR, java.sql.Types.INTEGER,
+                    java.sql.Types.INTEGER, java.sql.Types.BIGINT, java.sql.Types.OTHER}) {
+                assertTrue(rs.next());
+                assertEquals(type, rs.getInt(1));
+            }
+            assertFalse(rs.next());
+        } finally {
+            rs.close();
+        }
+        rs = stat.executeQuery("select count(*), count(count), sum(latitude), sum(ST_X(the_geom)) from linkedcsv");
+        try {
+            assertTrue(rs.next());
+            assertEquals(1000, rs.getInt(1));
+            assertEquals(999, rs.getInt(2));
+            assertEquals(44100, rs.getInt(3));
+            assertEquals(-11700, rs.getDouble(4), 1e-6);
+        } finally {
+            rs.close();
+        }
+        // Random access through the primary key
+        rs = stat.executeQuery("select name, count, ST_Y(the_geom) from linkedcsv where pk = 701");
+        try {
+            assertTrue(rs.next());
+            assertEquals("line\r\nbreak, \"quoted\"", rs.getString(1));
+            assertEquals(7000000000000L, rs.getLong(2));
+            assertEquals(70, rs.getDouble(3), 1e-6);
+            assertFalse(rs.next());
+        } finally {
+            rs.close();
+        }
+        stat.execute("DROP TABLE linkedcsv");
+        // The offset file is reused
+        long lastModified = offsetFile.lastModified();
+        stat.execute("CALL FILE_TABLE(" + StringUtils.quoteStringSQL(csvFile.getPath()) + ", 'LINKEDCSV')");
+        assertEquals(lastModified, offsetFile.lastModified());
+        rs = stat.executeQuery("select name from linkedcsv where pk = 1000");
+        try {
+            assertTrue(rs.next());
+            assertEquals("name999", rs.getString(1));
+        } finally {
+            rs.close();
+        }
+        stat.execute("DROP TABLE linkedcsv");
+    }
+
     
     
+
+    @Test
+    public void testLinkedCSVSampleSize() throws SQLException, IOException {
+        File csvFile = new File("target/linked_sample.csv");
+        StringBuilder csv = new StringBuilder("id,code\n");
+        for (int i = 0; i < 2000; i++) {
+            csv.append(i).append(',').append(i == 1500 ? "A1500" : String.valueOf(i)).append('\n');
+        }
+        FileUtils.writeStringToFile(csvFile, csv.toString(), "UTF-8");
+        CSVDriver.getOffsetFile(csvFile).delete();
+        Statement stat = connection.createStatement();
+        // All the records are sampled by default
+        stat.execute("DROP TABLE IF EXISTS linkedcsv");
+        stat.execute("CALL FILE_TABLE(" + StringUtils.quoteStringSQL(csvFile.getPath()) + ", 'LINKEDCSV')");
+        ResultSet rs = stat.executeQuery("select count(*), max(code) from linkedcsv where code like 'A%'");
+        try {
+            assertTrue(rs.next());
+            assertEquals(1, rs.getInt(1));
+            assertEquals("A1500", rs.getString(2));
+        } finally {
+            rs.close();
+        }
+        stat.execute("DROP TABLE linkedcsv");
+        // The column types are inferred from the first records only
+        stat.execute("CREATE TABLE linkedcsv ENGINE \"" + CSVEngine.class.getName() + "\" WITH " +
+                StringUtils.quoteJavaString(csvFile.getPath()) + ", \"" + CSVEngine.OPTION_SAMPLE_SIZE + "=10\"");
+        rs = stat.executeQuery("select data_type from information_schema.columns where table_name = 'LINKEDCSV' and column_name = 'CODE'");
+        try {
+            assertTrue(rs.next());
+            assertEquals(java.sql.Types.INTEGER, rs.getInt(1));
+        } finally {
+            rs.close();
+        }
+        try {
+            stat.executeQuery("select sum(code) from linkedcsv").close();
+            fail();
+        } catch (SQLException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains(CSVEngine.OPTION_SAMPLE_SIZE));
+        }
+        stat.execute("DROP TABLE linkedcsv");
+        stat.close();
+    }
 }
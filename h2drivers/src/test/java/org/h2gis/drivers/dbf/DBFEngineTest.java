@@ -28,6 +28,8 @@ package org.h2gis.drivers.dbf;
 import org.apache.commons.io.FileUtils;
 import org.h2.util.StringUtils;
 import org.h2gis.drivers.DriverManager;
+import org.h2gis.drivers.TypedRow;
+import org.h2gis.drivers.dbf.internal.DBFDriver;
 import org.h2gis.drivers.file_table.H2TableIndex;
 import org.h2gis.drivers.shp.SHPEngineTest;
 import org.h2gis.h2spatial.CreateSpatialExtension;
@@ -326,4 +328,254 @@ public class  DBFEngineTest {
             rs.close();
         }
     }
+
+    @Test
+    public void testReadOnlyQueryFields() throws SQLException {
+        Statement st = connection.createStatement();
+        st.execute("drop table if exists dbftable");
+        st.execute("CALL FILE_TABLE("+StringUtils.quoteStringSQL(SHPEngineTest.class.getResource("waternetwork.dbf").getPath())+", 'DBFTABLE');");
+        // Columns used only in condition, order by or join condition must be read
+        ResultSet rs = st.executeQuery("SELECT GID FROM DBFTABLE WHERE TYPE_AXE = 'ditch' ORDER BY LENGTH DESC LIMIT 2");
+        try {
+            assertTrue(rs.next());
+            int firstGid = rs.getInt(1);
+            assertTrue(rs.next());
+            assertFalse(rs.next());
+            rs = st.executeQuery("SELECT TYPE_AXE FROM DBFTABLE WHERE GID = " + firstGid);
+            assertTrue(rs.next());
+            assertEquals("ditch", rs.getString(1));
+        } finally {
+            rs.close();
+        }
+        rs = st.executeQuery("SELECT COUNT(*) FROM DBFTABLE A INNER JOIN DBFTABLE B ON A.GID = B.GID AND A.TYPE_AXE = B.TYPE_AXE");
+        try {
+            assertTrue(rs.next());
+            assertEquals(382, rs.getInt(1));
+        } finally {
+            rs.close();
+        }
+        rs = st.executeQuery("SELECT SUM(LENGTH) FROM DBFTABLE WHERE TYPE_AXE IN (SELECT TYPE_AXE FROM DBFTABLE WHERE GID = 1)");
+        try {
+            assertTrue(rs.next());
+            assertTrue(rs.getDouble(1) > 0);
+        } finally {
+            rs.close();
+        }
+        st.execute("drop table dbftable");
+    }
+
+    @Test
+    public void testReadFieldsInQueries() throws SQLException {
+        Statement st = connection.createStatement();
+        st.execute("drop table if exists dbftable, dbfcopy");
+        st.execute("drop view if exists dbfview");
+        String path = SHPEngineTest.class.getResource("waternetwork.dbf").getPath();
+        st.execute("CALL FILE_TABLE("+StringUtils.quoteStringSQL(path)+", 'DBFTABLE');");
+        // Imported copy, read without column pruning
+        st.execute("CALL DBFRead("+StringUtils.quoteStringSQL(path)+", 'DBFCOPY');");
+        // Every column
+        assertSameResult(st, "SELECT * FROM {T} ORDER BY GID");
+        // Join with another table
+        assertSameResult(st, "SELECT A.GID, A.LENGTH, B.TYPE_AXE FROM {T} A INNER JOIN DBFCOPY B ON A.GID = B.GID " +
+                "AND A.TYPE_AXE = B.TYPE_AXE ORDER BY A.GID");
+        assertSameResult(st, "SELECT A.GID AG, B.GID BG FROM {T} A LEFT JOIN {T} B ON A.GID = B.GID + 1 AND " +
+                "B.TYPE_AXE = A.TYPE_AXE ORDER BY A.GID");
+        // Correlated and derived subqueries
+        assertSameResult(st, "SELECT GID FROM {T} A WHERE LENGTH > (SELECT AVG(LENGTH) FROM {T} B " +
+                "WHERE B.TYPE_AXE = A.TYPE_AXE) ORDER BY GID");
+        assertSameResult(st, "SELECT SUM(L), COUNT(*) FROM (SELECT LENGTH L, TYPE_AXE T FROM {T}) WHERE T = 'ditch'");
+        assertSameResult(st, "SELECT GID FROM {T} A WHERE EXISTS(SELECT 1 FROM {T} B WHERE B.GID = A.GID + 1 " +
+                "AND B.TYPE_AXE = A.TYPE_AXE) ORDER BY GID");
+        // View
+        st.execute("CREATE VIEW DBFVIEW AS SELECT GID, TYPE_AXE, LENGTH FROM DBFTABLE");
+        ResultSet rs = st.executeQuery("SELECT SUM(LENGTH), MAX(TYPE_AXE) FROM DBFVIEW WHERE TYPE_AXE = 'ditch'");
+        ResultSet expected = connection.createStatement().executeQuery("SELECT SUM(LENGTH), MAX(TYPE_AXE) FROM " +
+                "DBFCOPY WHERE TYPE_AXE = 'ditch'");
+        try {
+            assertTrue(rs.next());
+            assertTrue(expected.next());
+            assertEquals(expected.getDouble(1), rs.getDouble(1), 1e-6);
+            assertEquals("ditch", rs.getString(2));
+        } finally {
+            rs.close();
+            expected.close();
+        }
+        st.execute("drop view dbfview");
+        st.execute("drop table dbftable, dbfcopy");
+    }
+
+    /**
+     * Check that a query returns the same rows on the linked table and on its imported copy.
+     * @param st Statement
+     * @param query Query with {T} in place of the table name
+     */
+    private static void assertSameResult(Statement st, String query) throws SQLException {
+        ResultSet expected = connection.createStatement().executeQuery(query.replace("{T}", "DBFCOPY"));
+        ResultSet rs = st.executeQuery(query.replace("{T}", "DBFTABLE"));
+        try {
+            int rowCount = 0;
+            while (expected.next()) {
+                assertTrue(rs.next());
+                for (int i = 1; i <= expected.getMetaData().getColumnCount(); i++) {
+                    String column = expected.getMetaData().getColumnLabel(i);
+                    if (!column.equals(H2TableIndex.PK_COLUMN_NAME)) {
+                        assertEquals(query + " " + column, expected.getObject(i), rs.getObject(column));
+                    }
+                }
+                rowCount++;
+            }
+            assertFalse(rs.next());
+            assertTrue(rowCount > 0);
+        } finally {
+            rs.close();
+            expected.close();
+        }
+    }
+
+    @Test
+    public void testDriverReadFields() throws Exception {
+        DBFDriver driver = new DBFDriver();
+        driver.initDriverFromFile(new File(SHPEngineTest.class.getResource("waternetwork.dbf").getPath()));
+        try {
+            Object[] allFields = driver.getRow(0);
+            boolean[] fields = new boolean[driver.getFieldCount()];
+            fields[1] = true;
+            Object[] someFields = driver.getRow(0, fields);
+            for(int fieldId = 0; fieldId < fields.length; fieldId++) {
+                if(fields[fieldId]) {
+                    assertEquals(allFields[fieldId], someFields[fieldId]);
+                } else {
+                    assertNull(someFields[fieldId]);
+                }
+            }
+        } finally {
+            driver.close();
+        }
+    }
+
+    @Test
+    public void testTypedAccessors() throws Exception {
+        Statement st = connection.createStatement();
+        st.execute("drop table if exists typedvalues");
+        st.execute("create table typedvalues(id int, big bigint, val double, day date, flag boolean, name varchar(10))");
+        st.execute("insert into typedvalues values(-42, 12345678901, -1.25, '2014-03-21', true, ' a b ')");
+        st.execute("insert into typedvalues values(7, -3, 1234567.5, '1999-12-31', false, 'c')");
+        st.execute("CALL DBFWrite('target/typedvalues.dbf', 'TYPEDVALUES')");
+        DBFDriver driver = new DBFDriver();
+        driver.initDriverFromFile(new File("target/typedvalues.dbf"));
+        try {
+            Object[] row = driver.getRow(0);
+            assertEquals(-42, row[0]);
+            assertEquals(12345678901L, row[1]);
+            assertEquals(-1.25, (Double) row[2], 1e-12);
+            assertEquals(Date.valueOf("2014-03-21"), new Date(((java.util.Date) row[3]).getTime()));
+            assertEquals(true, row[4]);
+            assertEquals("a b", row[5]);
+            assertEquals(-42, driver.getInt(0, 0));
+            assertEquals(12345678901L, driver.getLong(0, 1));
+            assertEquals(-1.25, driver.getDouble(0, 2), 1e-12);
+            assertEquals(1234567.5, driver.getDouble(1, 2), 1e-12);
+            assertFalse(driver.isNull(1, 1));
+            assertEquals(-3, driver.getLong(1, 1));
+        } finally {
+            driver.close();
+        }
+        st.execute("drop table typedvalues");
+        // The typed accessors read the same values than getRow
+        for(String fileName : new String[] {"null_values.dbf", "comma_separator.dbf", "sotchi.dbf"}) {
+            driver = new DBFDriver();
+            driver.initDriverFromFile(new File(DBFEngineTest.class.getResource(fileName).getPath()));
+            try {
+                byte[] readModes = new byte[driver.getFieldCount()];
+                for(int fieldId = 0; fieldId < readModes.length; fieldId++) {
+                    char type = driver.getDbaseFileHeader().getFieldType(fieldId);
+                    readModes[fieldId] = type == 'N' || type == 'F' ? TypedRow.DOUBLE : TypedRow.OBJECT;
+                }
+                for(long rowId = 0; rowId < driver.getRowCount(); rowId++) {
+                    Object[] values = driver.getRow(rowId);
+                    TypedRow typedRow = new TypedRow(readModes);
+                    driver.getTypedRow(rowId, typedRow);
+                    for(int fieldId = 0; fieldId < values.length; fieldId++) {
+                        assertEquals(values[fieldId] == null, typedRow.isNull(fieldId));
+                        if(readModes[fieldId] == TypedRow.DOUBLE) {
+                            assertEquals(values[fieldId] == null, driver.isNull(rowId, fieldId));
+                            if(values[fieldId] != null) {
+                                assertEquals(((Number) values[fieldId]).doubleValue(), driver.getDouble(rowId, fieldId), 1e-12);
+                                assertEquals(((Number) values[fieldId]).doubleValue(), typedRow.getDouble(fieldId), 1e-12);
+                            }
+                        } else {
+                            assertEquals(values[fieldId], typedRow.getObject(fieldId));
+                        }
+                    }
+                }
+            } finally {
+                driver.close();
+            }
+        }
+    }
+
+    @Test
+    public void testReadMultiByteRecord() throws Exception {
+        Statement st = connection.createStatement();
+        st.execute("drop table if exists multibyte, multibyte_link");
+        st.execute("create table multibyte(first varchar(12), id int, second varchar(12), third varchar(12))");
+        st.execute("insert into multibyte values('\u00e9t\u00e9', 1, ' \u00e0 b ', '\u20ac')");
+        st.execute("insert into multibyte values('abc', 2, null, '\u00e7a')");
+        st.execute("CALL DBFWrite('target/multibyte.dbf', 'MULTIBYTE', 'UTF-8')");
+        st.execute("CALL FILE_TABLE('target/multibyte.dbf', 'MULTIBYTE_LINK')");
+        ResultSet rs = st.executeQuery("select first, id, second, third from multibyte_link order by id");
+        try {
+            assertTrue(rs.next());
+            assertEquals("\u00e9t\u00e9", rs.getString(1));
+            assertEquals(1, rs.getInt(2));
+            assertEquals("\u00e0 b", rs.getString(3));
+            assertEquals("\u20ac", rs.getString(4));
+            assertTrue(rs.next());
+            assertEquals("abc", rs.getString(1));
+            assertEquals(2, rs.getInt(2));
+            assertEquals("\u00e7a", rs.getString(4));
+            assertFalse(rs.next());
+        } finally {
+            rs.close();
+        }
+        // Only the third field
+        rs = st.executeQuery("select third from multibyte_link where id = 2");
+        try {
+            assertTrue(rs.next());
+            assertEquals("\u00e7a", rs.getString(1));
+        } finally {
+            rs.close();
+        }
+        st.execute("drop table multibyte, multibyte_link");
+        st.close();
+    }
+
+    @Test
+    public void testSequentialAndRandomRecordReads() throws Exception {
+        File dbfFile = new File(SHPEngineTest.class.getResource("waternetwork.dbf").getPath());
+        DBFDriver scanDriver = new DBFDriver();
+        scanDriver.initDriverFromFile(dbfFile);
+        DBFDriver fieldDriver = new DBFDriver();
+        fieldDriver.initDriverFromFile(dbfFile);
+        try {
+            int rowCount = (int) scanDriver.getRowCount();
+            // Full scan, the reader switch to read-ahead mode
+            for(long rowId = 0; rowId < rowCount; rowId++) {
+                Object[] row = scanDriver.getRow(rowId);
+                for(int fieldId = 0; fieldId < row.length; fieldId++) {
+                    assertEquals(fieldDriver.getFieldValue(rowId, fieldId), row[fieldId]);
+                }
+            }
+            // Backward scan
+            for(long rowId = rowCount - 1; rowId >= 0; rowId--) {
+                Object[] row = scanDriver.getRow(rowId);
+                for(int fieldId = row.length - 1; fieldId >= 0; fieldId--) {
+                    assertEquals(fieldDriver.getFieldValue(rowId, fieldId), row[fieldId]);
+                }
+            }
+        } finally {
+            scanDriver.close();
+            fieldDriver.close();
+        }
+    }
 }
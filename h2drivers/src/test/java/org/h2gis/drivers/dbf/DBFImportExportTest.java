@@ -26,6 +26,7 @@ package org.h2gis.drivers.dbf;
 
 import org.h2.util.StringUtils;
 import org.h2gis.drivers.dbf.internal.DBFDriver;
+import org.h2gis.drivers.dbf.internal.DbaseFileHeader;
 import org.h2gis.drivers.file_table.H2TableIndex;
 import org.h2gis.drivers.shp.SHPEngineTest;
 import org.h2gis.h2spatial.CreateSpatialExtension;
@@ -186,4 +187,37 @@ public class DBFImportExportTest {
         assertEquals(H2TableIndex.PK_COLUMN_NAME+"2", rs.getMetaData().getColumnName(1));
         assertEquals(H2TableIndex.PK_COLUMN_NAME, rs.getMetaData().getColumnName(2));
     }
+
+    @Test
+    public void exportBufferedTest() throws Exception {
+        File dbfFile = new File("target/buffered_export.dbf");
+        DbaseFileHeader header = new DbaseFileHeader();
+        header.setEncoding("UTF-8");
+        header.addColumn("ID", 'N', 9, 0);
+        header.addColumn("VAL", 'N', 12, 3);
+        header.addColumn("NAME", 'C', 5, 0);
+        // More records than the write buffer size
+        final int rowCount = 20000;
+        header.setNumRecords(rowCount);
+        DBFDriver dbfDriver = new DBFDriver();
+        dbfDriver.initDriver(dbfFile, header);
+        for(int i = 0; i < rowCount; i++) {
+            dbfDriver.insertRow(new Object[] {i - 10, i / 8., i % 2 == 0 ? "ab" : "\u00e9\u00e9\u00e9"});
+        }
+        dbfDriver.close();
+        dbfDriver = new DBFDriver();
+        dbfDriver.initDriverFromFile(dbfFile);
+        try {
+            assertEquals(rowCount, dbfDriver.getRowCount());
+            for(int i = 0; i < rowCount; i++) {
+                Object[] row = dbfDriver.getRow(i);
+                assertEquals(i - 10, row[0]);
+                assertEquals(i / 8., (Double) row[1], 1e-12);
+                // Multi-byte characters that exceed the field length are truncated
+                assertEquals(i % 2 == 0 ? "ab" : "\u00e9\u00e9", row[2]);
+            }
+        } finally {
+            dbfDriver.close();
+        }
+    }
 }
@@ -25,16 +25,31 @@
 package org.h2gis.drivers.geojson;
 
 import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.Polygon;
 import com.vividsolutions.jts.io.WKTReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.sql.Connection;
 import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.sql.Statement;
+import org.apache.commons.io.FileUtils;
+import org.h2.util.StringUtils;
+import org.h2gis.drivers.DriverManager;
+import org.h2gis.drivers.file_table.SpatialFileIndex;
 import org.h2gis.h2spatial.CreateSpatialExtension;
 import org.h2gis.h2spatial.ut.SpatialH2UT;
+import org.h2gis.h2spatialapi.EmptyProgressVisitor;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  *
@@ -53,6 +68,7 @@ public class GeojsonImportExportTest {
         CreateSpatialExtension.registerFunction(connection.createStatement(), new ST_AsGeoJSON(), "");
         CreateSpatialExtension.registerFunction(connection.createStatement(), new GeoJsonWrite(), "");
         CreateSpatialExtension.registerFunction(connection.createStatement(), new GeoJsonRead(), "");
+        CreateSpatialExtension.registerFunction(connection.createStatement(), new DriverManager(), "");
     }
 
     @AfterClass
@@ -417,4 +433,293 @@ public class GeojsonImportExportTest {
         stat.execute("DROP TABLE IF EXISTS TABLE_MULTILINESTRINGS_READ");
         stat.close();
     }
+
+    @Test
+    public void testReadGeojsonParallelSampledSchema() throws Exception {
+        // The first feature does not contain all the properties and strings contain JSON delimiters
+        File file = new File("target/sampled_schema.geojson");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write("{\"type\":\"FeatureCollection\",\"bbox\":[0,0,1000,1000],\"features\":[\n");
+            for (int i = 0; i < 1000; i++) {
+                if (i > 0) {
+                    writer.write(",\n");
+                }
+                writer.write("{\"type\":\"Feature\",\"id\":" + i + ",\"properties\":{\"NAME\":\"a{[\\\"" + i + "\\\"]}\"");
+                if (i > 0) {
+                    writer.write(",\"HEIGHT\":" + (i % 2 == 0 ? i : i + 0.5));
+                }
+                writer.write("},\"geometry\":{\"type\":\"Point\",\"coordinates\":[" + i + "," + i + "]}}");
+            }
+            writer.write("]}");
+        } finally {
+            writer.close();
+        }
+        Statement stat = connection.createStatement();
+        stat.execute("DROP TABLE IF EXISTS TABLE_SAMPLED_SEQ, TABLE_SAMPLED_PAR");
+        GeoJsonDriverFunction driverFunction = new GeoJsonDriverFunction();
+        driverFunction.setSampleSize(10);
+        driverFunction.setImportThreadCount(1);
+        driverFunction.importFile(connection, "TABLE_SAMPLED_SEQ", file, new EmptyProgressVisitor());
+        driverFunction.setBatchSize(7);
+        driverFunction.setImportThreadCount(3);
+        driverFunction.importFile(connection, "TABLE_SAMPLED_PAR", file, new EmptyProgressVisitor());
+        ResultSet res = stat.executeQuery("SELECT * FROM TABLE_SAMPLED_PAR");
+        assertEquals(3, res.getMetaData().getColumnCount());
+        res.close();
+        res = stat.executeQuery("SELECT NAME, HEIGHT, THE_GEOM FROM TABLE_SAMPLED_PAR");
+        assertEquals("DOUBLE", res.getMetaData().getColumnTypeName(2));
+        res.next();
+        assertEquals("a{[\"0\"]}", res.getString(1));
+        assertNull(res.getObject(2));
+        assertTrue(((Geometry) res.getObject(3)).equals(WKTREADER.read("POINT(0 0)")));
+        res.close();
+        res = stat.executeQuery("SELECT COUNT(*) FROM TABLE_SAMPLED_PAR");
+        res.next();
+        assertEquals(1000, res.getInt(1));
+        res.close();
+        res = stat.executeQuery("SELECT COUNT(*) FROM TABLE_SAMPLED_SEQ S, TABLE_SAMPLED_PAR P " +
+                "WHERE S.NAME = P.NAME AND (S.HEIGHT = P.HEIGHT OR S.HEIGHT IS NULL AND P.HEIGHT IS NULL) " +
+                "AND ST_Equals(S.THE_GEOM, P.THE_GEOM)");
+        res.next();
+        assertEquals(1000, res.getInt(1));
+        res.close();
+        stat.execute("DROP TABLE IF EXISTS TABLE_SAMPLED_SEQ, TABLE_SAMPLED_PAR");
+        stat.close();
+    }
+
+    @Test
+    public void testReadGeojsonPropertiesOutOfSample() throws Exception {
+        // Properties and types not found in the sample, comments and single quoted strings allowed by the parser
+        File file = new File("target/out_of_sample.geojson");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write("{\"type\":\"FeatureCollection\",\"features\":[\n");
+            for (int i = 0; i < 100; i++) {
+                if (i > 0) {
+                    writer.write(", /* ] } feature " + i + " */\n");
+                }
+                writer.write("{\"type\":\"Feature\", // } ]\n\"properties\":{'NAME':'a}]" + i + "'");
+                if (i == 50) {
+                    writer.write(",\"COUNT\":1.5");
+                } else if (i == 60) {
+                    writer.write(",\"COUNT\":10000000000");
+                } else {
+                    writer.write(",\"COUNT\":" + i);
+                }
+                if (i >= 20) {
+                    writer.write(",\"EXTRA\":" + (i == 80 ? "\"x'}\"" : "true"));
+                }
+                writer.write("},\"geometry\":{\"type\":\"Point\",\"coordinates\":[" + i + "," + i + "]}}");
+            }
+            writer.write("]}");
+        } finally {
+            writer.close();
+        }
+        Statement stat = connection.createStatement();
+        for (int threadCount : new int[] {1, 3}) {
+            stat.execute("DROP TABLE IF EXISTS TABLE_OUT_OF_SAMPLE");
+            GeoJsonDriverFunction driverFunction = new GeoJsonDriverFunction();
+            driverFunction.setSampleSize(10);
+            driverFunction.setBatchSize(7);
+            driverFunction.setImportThreadCount(threadCount);
+            driverFunction.importFile(connection, "TABLE_OUT_OF_SAMPLE", file, new EmptyProgressVisitor());
+            ResultSet res = stat.executeQuery("SELECT NAME, COUNT, EXTRA, THE_GEOM FROM TABLE_OUT_OF_SAMPLE ORDER BY ST_X(THE_GEOM)");
+            assertEquals("DOUBLE", res.getMetaData().getColumnTypeName(2));
+            assertEquals("VARCHAR", res.getMetaData().getColumnTypeName(3));
+            for (int i = 0; i < 100; i++) {
+                assertTrue(res.next());
+                assertEquals("a}]" + i, res.getString(1));
+                assertEquals(i == 50 ? 1.5 : i == 60 ? 1e10 : i, res.getDouble(2), 1e-12);
+                assertEquals(i < 20 ? null : i == 80 ? "x'}" : "TRUE", res.getString(3));
+            }
+            assertFalse(res.next());
+            res.close();
+        }
+        stat.execute("DROP TABLE IF EXISTS TABLE_OUT_OF_SAMPLE");
+        stat.close();
+    }
+
+    @Test
+    public void testReadGeojsonPackedCoordinates() throws Exception {
+        Statement stat = connection.createStatement();
+        stat.execute("DROP TABLE IF EXISTS TABLE_GEOMETRIES, TABLE_GEOMETRIES_READ");
+        stat.execute("create table TABLE_GEOMETRIES(the_geom GEOMETRY, id INT)");
+        stat.execute("insert into TABLE_GEOMETRIES values( 'POINT(1 2 3)', 1)");
+        stat.execute("insert into TABLE_GEOMETRIES values( 'LINESTRING(1 2 3, 5 3 4, 10 19 5)', 2)");
+        stat.execute("insert into TABLE_GEOMETRIES values( 'POLYGON ((100 300, 210 300, 210 200, 100 200, 100 300), " +
+                "(120 280, 150 280, 150 250, 120 250, 120 280), (160 240, 190 240, 190 210, 160 210, 160 240))', 3)");
+        stat.execute("insert into TABLE_GEOMETRIES values( 'MULTIPOLYGON (((0 0, 10 0, 10 10, 0 10, 0 0), " +
+                "(2 2, 4 2, 4 4, 2 4, 2 2)), ((20 20, 30 20, 30 30, 20 20)))', 4)");
+        stat.execute("insert into TABLE_GEOMETRIES values( 'GEOMETRYCOLLECTION (MULTIPOINT ((1 1), (2 2)), " +
+                "MULTILINESTRING ((0 0, 1 1), (2 2, 3 3)))', 5)");
+        File file = new File("target/packed.geojson");
+        new GeoJsonDriverFunction().exportTable(connection, "TABLE_GEOMETRIES", file, new EmptyProgressVisitor());
+        GeoJsonDriverFunction driverFunction = new GeoJsonDriverFunction();
+        driverFunction.setPackedCoordinates(true);
+        driverFunction.importFile(connection, "TABLE_GEOMETRIES_READ", file, new EmptyProgressVisitor());
+        ResultSet res = stat.executeQuery("SELECT COUNT(*) FROM TABLE_GEOMETRIES S, TABLE_GEOMETRIES_READ P " +
+                "WHERE S.ID = P.ID AND S.THE_GEOM = P.THE_GEOM");
+        res.next();
+        assertEquals(5, res.getInt(1));
+        res.close();
+        res = stat.executeQuery("SELECT THE_GEOM FROM TABLE_GEOMETRIES_READ WHERE ID = 2");
+        res.next();
+        Geometry line = (Geometry) res.getObject(1);
+        assertEquals(5, line.getCoordinates()[2].z, 1e-12);
+        res.close();
+        res = stat.executeQuery("SELECT THE_GEOM FROM TABLE_GEOMETRIES_READ WHERE ID = 3");
+        res.next();
+        Geometry polygon = (Geometry) res.getObject(1);
+        assertTrue(Double.isNaN(polygon.getCoordinate().z));
+        assertEquals(2, ((Polygon) polygon).getNumInteriorRing());
+        res.close();
+        stat.execute("DROP TABLE IF EXISTS TABLE_GEOMETRIES, TABLE_GEOMETRIES_READ");
+        stat.close();
+    }
+
+    @Test
+    public void testWriteReadGeojsonSequence() throws Exception {
+        Statement stat = connection.createStatement();
+        stat.execute("DROP TABLE IF EXISTS TABLE_SEQ, TABLE_SEQ_READ, TABLE_RS_READ");
+        stat.execute("create table TABLE_SEQ(the_geom GEOMETRY, id INT, name VARCHAR)");
+        stat.execute("insert into TABLE_SEQ SELECT ST_GeomFromText('POINT(' || X || ' ' || X * 2 || ')'), X, 'name ' || X FROM SYSTEM_RANGE(1, 100)");
+        File lineFile = new File("target/sequence.geojsonl");
+        GeoJsonDriverFunction driverFunction = new GeoJsonDriverFunction();
+        driverFunction.exportTable(connection, "TABLE_SEQ", lineFile, new EmptyProgressVisitor());
+        driverFunction.setAppend(true);
+        driverFunction.exportTable(connection, "TABLE_SEQ", lineFile, new EmptyProgressVisitor());
+        driverFunction.setBatchSize(7);
+        driverFunction.setImportThreadCount(3);
+        driverFunction.importFile(connection, "TABLE_SEQ_READ", lineFile, new EmptyProgressVisitor());
+        ResultSet res = stat.executeQuery("SELECT COUNT(*), COUNT(DISTINCT ID), SUM(ST_X(THE_GEOM)) FROM TABLE_SEQ_READ");
+        res.next();
+        assertEquals(200, res.getInt(1));
+        assertEquals(100, res.getInt(2));
+        assertEquals(2 * 5050, res.getDouble(3), 1e-12);
+        res.close();
+        // RFC 8142 record separators
+        File rsFile = new File("target/sequence.geojsons");
+        driverFunction.setAppend(false);
+        driverFunction.exportTable(connection, "TABLE_SEQ", rsFile, new EmptyProgressVisitor());
+        driverFunction.setImportThreadCount(1);
+        driverFunction.importFile(connection, "TABLE_RS_READ", rsFile, new EmptyProgressVisitor());
+        res = stat.executeQuery("SELECT COUNT(*) FROM TABLE_SEQ S, TABLE_RS_READ R WHERE S.ID = R.ID " +
+                "AND S.NAME = R.NAME AND S.THE_GEOM = R.THE_GEOM");
+        res.next();
+        assertEquals(100, res.getInt(1));
+        res.close();
+        stat.execute("DROP TABLE IF EXISTS TABLE_SEQ, TABLE_SEQ_READ, TABLE_RS_READ");
+        stat.close();
+    }
+
+    @Test
+    public void testWriteGeojsonParallel() throws Exception {
+        Statement stat = connection.createStatement();
+        stat.execute("DROP TABLE IF EXISTS TABLE_EXPORT");
+        stat.execute("create table TABLE_EXPORT(the_geom GEOMETRY, id INT, name VARCHAR)");
+        stat.execute("insert into TABLE_EXPORT SELECT ST_GeomFromText('LINESTRING(' || X || ' ' || X * 2 || ', 0 0)'), X, " +
+                "'name ' || X FROM SYSTEM_RANGE(1, 1000)");
+        GeoJsonDriverFunction driverFunction = new GeoJsonDriverFunction();
+        driverFunction.setExportThreadCount(1);
+        File sequentialFile = new File("target/export_sequential.geojson");
+        driverFunction.exportTable(connection, "TABLE_EXPORT", sequentialFile, new EmptyProgressVisitor());
+        driverFunction.setExportThreadCount(3);
+        driverFunction.setBatchSize(7);
+        File parallelFile = new File("target/export_parallel.geojson");
+        driverFunction.exportTable(connection, "TABLE_EXPORT", parallelFile, new EmptyProgressVisitor());
+        assertTrue(FileUtils.contentEquals(sequentialFile, parallelFile));
+        driverFunction.importFile(connection, "TABLE_EXPORT_READ", parallelFile, new EmptyProgressVisitor());
+        ResultSet res = stat.executeQuery("SELECT COUNT(*) FROM TABLE_EXPORT S, TABLE_EXPORT_READ R WHERE S.ID = R.ID " +
+                "AND S.NAME = R.NAME AND S.THE_GEOM = R.THE_GEOM");
+        res.next();
+        assertEquals(1000, res.getInt(1));
+        res.close();
+        // A canceled export stops before writing the features
+        EmptyProgressVisitor canceledProgress = new EmptyProgressVisitor();
+        canceledProgress.cancel();
+        try {
+            driverFunction.exportTable(connection, "TABLE_EXPORT", parallelFile, canceledProgress);
+            fail();
+        } catch (SQLException ex) {
+            // expected
+        }
+        stat.execute("DROP TABLE IF EXISTS TABLE_EXPORT, TABLE_EXPORT_READ");
+        stat.close();
+    }
+
+    @Test
+    public void testLinkedGeojson() throws Exception {
+        Statement stat = connection.createStatement();
+        stat.execute("DROP TABLE IF EXISTS TABLE_LINK_SOURCE");
+        stat.execute("create table TABLE_LINK_SOURCE(the_geom GEOMETRY, id INT, name VARCHAR)");
+        stat.execute("insert into TABLE_LINK_SOURCE SELECT ST_GeomFromText('LINESTRING(' || X || ' ' || X * 2 || ', 0 0)'), X, " +
+                "'name {' || X || '}' FROM SYSTEM_RANGE(1, 500)");
+        stat.execute("insert into TABLE_LINK_SOURCE VALUES (ST_GeomFromText('GEOMETRYCOLLECTION(POINT(-10 -20), " +
+                "POLYGON((-5 -5, -1 -5, -1 -1, -5 -5)))'), 501, 'collection'), (null, 502, 'null geometry')");
+        for (String extension : new String[]{"geojson", "geojsonl"}) {
+            File linkedFile = new File("target/linked." + extension);
+            linkedFile.delete();
+            GeoJsonDriver.getOffsetFile(linkedFile).delete();
+            SpatialFileIndex.getIndexFile(linkedFile, "THE_GEOM").delete();
+            new GeoJsonDriverFunction().exportTable(connection, "TABLE_LINK_SOURCE", linkedFile, new EmptyProgressVisitor());
+            stat.execute("DROP TABLE IF EXISTS TABLE_LINKED");
+            stat.execute("CALL FILE_TABLE(" + StringUtils.quoteStringSQL(linkedFile.getPath()) + ", 'TABLE_LINKED')");
+            assertTrue(GeoJsonDriver.getOffsetFile(linkedFile).exists());
+            ResultSet res = stat.executeQuery("SELECT COUNT(*) FROM TABLE_LINK_SOURCE S, TABLE_LINKED L WHERE S.ID = L.ID " +
+                    "AND S.NAME = L.NAME AND (S.THE_GEOM = L.THE_GEOM OR (S.THE_GEOM IS NULL AND L.THE_GEOM IS NULL))");
+            res.next();
+            assertEquals(502, res.getInt(1));
+            res.close();
+            // Random access through the primary key
+            res = stat.executeQuery("SELECT NAME, ST_AsText(THE_GEOM) FROM TABLE_LINKED WHERE PK = 250");
+            assertTrue(res.next());
+            assertEquals("name {250}", res.getString(1));
+            assertEquals("LINESTRING (250 500, 0 0)", res.getString(2));
+            assertFalse(res.next());
+            res.close();
+            // The spatial index is built from the stored envelopes
+            stat.execute("CREATE SPATIAL INDEX ON TABLE_LINKED(THE_GEOM)");
+            res = stat.executeQuery("SELECT COUNT(*), MIN(ID), MAX(ID) FROM TABLE_LINKED WHERE THE_GEOM && " +
+                    "ST_GeomFromText('POLYGON((-11 -21, -3 -21, -3 -3, -11 -3, -11 -21))')");
+            res.next();
+            assertEquals(1, res.getInt(1));
+            assertEquals(501, res.getInt(2));
+            assertEquals(501, res.getInt(3));
+            res.close();
+            res = stat.executeQuery("SELECT COUNT(*) FROM TABLE_LINKED WHERE THE_GEOM && " +
+                    "ST_GeomFromText('POLYGON((100 500, 200 500, 200 600, 100 600, 100 500))')");
+            res.next();
+            assertEquals(251, res.getInt(1));
+            res.close();
+            stat.execute("DROP TABLE TABLE_LINKED");
+            // Read only the NAME column of a feature
+            GeoJsonDriver driver = new GeoJsonDriver();
+            driver.initDriverFromFile(linkedFile);
+            try {
+                boolean[] fields = new boolean[driver.getFieldCount()];
+                int nameField = -1;
+                for (int i = 0; i < fields.length; i++) {
+                    if (driver.getFieldName(i).equals("NAME")) {
+                        nameField = i;
+                    }
+                }
+                assertTrue(nameField >= 0);
+                fields[nameField] = true;
+                Object[] row = driver.getRow(249, fields);
+                assertEquals("name {250}", row[nameField]);
+                for (int i = 0; i < row.length; i++) {
+                    if (i != nameField) {
+                        assertNull(row[i]);
+                    }
+                }
+                assertEquals(driver.getFieldCount(), driver.getRow(249).length);
+                assertTrue(driver.getRow(249)[driver.getGeometryFieldIndex()] instanceof Geometry);
+            } finally {
+                driver.close();
+            }
+        }
+        stat.execute("DROP TABLE TABLE_LINK_SOURCE");
+        stat.close();
+    }
 }
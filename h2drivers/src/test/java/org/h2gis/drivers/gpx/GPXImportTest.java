@@ -24,6 +24,7 @@
  */
 package org.h2gis.drivers.gpx;
 
+import java.io.File;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -35,7 +36,10 @@ import org.h2gis.h2spatial.ut.SpatialH2UT;
 import org.junit.After;
 import org.junit.AfterClass;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -171,6 +175,103 @@ public class GPXImportTest {
     }
     
     
+    @Test
+    public void importGPXTrackPoints() throws SQLException {
+        st.execute("DROP TABLE IF EXISTS GPXDATA_WAYPOINT, GPXDATA_ROUTE, GPXDATA_ROUTEPOINT,GPXDATA_TRACK, GPXDATA_TRACKSEGMENT, GPXDATA_TRACKPOINT;");
+        st.execute("CALL GPXRead(" + StringUtils.quoteStringSQL(GPXImportTest.class.getResource("track.gpx").getPath()) + ", 'GPXDATA');");
+        // Each track point references its own segment
+        ResultSet rs = st.executeQuery("SELECT S.ID, COUNT(P.ID) FROM GPXDATA_TRACKSEGMENT S, GPXDATA_TRACKPOINT P"
+                + " WHERE S.ID = P.TRACK_SEGMENT_ID GROUP BY S.ID ORDER BY S.ID");
+        assertTrue(rs.next());
+        assertEquals(1, rs.getInt(1));
+        assertEquals(2, rs.getInt(2));
+        assertTrue(rs.next());
+        assertEquals(2, rs.getInt(1));
+        assertEquals(2, rs.getInt(2));
+        assertFalse(rs.next());
+        rs.close();
+        rs = st.executeQuery("SELECT ELE, NAME, SYM FROM GPXDATA_TRACKPOINT ORDER BY ID");
+        assertTrue(rs.next());
+        assertEquals(61.5696, rs.getDouble(1), 1e-6);
+        assertEquals("Dot", rs.getString(3));
+        assertTrue(rs.next());
+        assertTrue(rs.next());
+        assertEquals("T-0436", rs.getString(2));
+        rs.close();
+    }
+
+    @Test
+    public void importGPXDirectory() throws SQLException {
+        st.execute("DROP TABLE IF EXISTS GPXDIR_WAYPOINT, GPXDIR_ROUTE, GPXDIR_ROUTEPOINT,GPXDIR_TRACK, GPXDIR_TRACKSEGMENT, GPXDIR_TRACKPOINT;");
+        File directory = new File(GPXImportTest.class.getResource("waypoint.gpx").getPath()).getParentFile();
+        st.execute("CALL GPXRead(" + StringUtils.quoteStringSQL(directory.getPath()) + ", 'GPXDIR');");
+        ResultSet rs = st.executeQuery("SELECT SOURCE_FILE, COUNT(ID) FROM GPXDIR_WAYPOINT GROUP BY SOURCE_FILE");
+        assertTrue(rs.next());
+        assertEquals("waypoint.gpx", rs.getString(1));
+        assertEquals(3, rs.getInt(2));
+        assertFalse(rs.next());
+        rs.close();
+        rs = st.executeQuery("SELECT COUNT(ID) FROM GPXDIR_TRACKPOINT WHERE SOURCE_FILE = 'track.gpx'");
+        assertTrue(rs.next());
+        assertEquals(4, rs.getInt(1));
+        rs.close();
+        // Append the files matching a pattern, the identifiers follow the existing ones
+        st.execute("CALL GPXRead(" + StringUtils.quoteStringSQL(directory.getPath() + File.separator + "tr*.gpx") + ", 'GPXDIR');");
+        rs = st.executeQuery("SELECT COUNT(ID), COUNT(DISTINCT ID), MAX(ID) FROM GPXDIR_TRACKSEGMENT");
+        assertTrue(rs.next());
+        assertEquals(4, rs.getInt(1));
+        assertEquals(4, rs.getInt(2));
+        assertEquals(4, rs.getInt(3));
+        rs.close();
+        rs = st.executeQuery("SELECT COUNT(*) FROM GPXDIR_TRACKPOINT P, GPXDIR_TRACKSEGMENT S"
+                + " WHERE P.TRACK_SEGMENT_ID = S.ID AND S.ID_TRACK = 2");
+        assertTrue(rs.next());
+        assertEquals(4, rs.getInt(1));
+        rs.close();
+        rs = st.executeQuery("SELECT COUNT(*) FROM GPXDIR_WAYPOINT");
+        assertTrue(rs.next());
+        assertEquals(3, rs.getInt(1));
+        rs.close();
+    }
+
+    @Test
+    public void importGPXDirectoryAfterFile() throws SQLException {
+        st.execute("DROP TABLE IF EXISTS GPXAPP_WAYPOINT, GPXAPP_ROUTE, GPXAPP_ROUTEPOINT,GPXAPP_TRACK, GPXAPP_TRACKSEGMENT, GPXAPP_TRACKPOINT;");
+        File directory = new File(GPXImportTest.class.getResource("waypoint.gpx").getPath()).getParentFile();
+        st.execute("CALL GPXRead(" + StringUtils.quoteStringSQL(GPXImportTest.class.getResource("track.gpx").getPath()) + ", 'GPXAPP');");
+        // The source_file column is added to the tables of the single file import
+        st.execute("CALL GPXRead(" + StringUtils.quoteStringSQL(directory.getPath() + File.separator + "tr*.gpx") + ", 'GPXAPP');");
+        ResultSet rs = st.executeQuery("SELECT SOURCE_FILE, COUNT(ID) FROM GPXAPP_TRACKPOINT GROUP BY SOURCE_FILE ORDER BY SOURCE_FILE");
+        assertTrue(rs.next());
+        assertNull(rs.getString(1));
+        assertEquals(4, rs.getInt(2));
+        assertTrue(rs.next());
+        assertEquals("track.gpx", rs.getString(1));
+        assertEquals(4, rs.getInt(2));
+        assertFalse(rs.next());
+        rs.close();
+        st.execute("DROP TABLE GPXAPP_TRACK, GPXAPP_TRACKSEGMENT, GPXAPP_TRACKPOINT;");
+    }
+
+    @Test
+    public void importGPXDirectoryInvalidTable() throws SQLException {
+        st.execute("DROP TABLE IF EXISTS GPXBAD_WAYPOINT, GPXBAD_ROUTE, GPXBAD_ROUTEPOINT,GPXBAD_TRACK, GPXBAD_TRACKSEGMENT, GPXBAD_TRACKPOINT;");
+        st.execute("CREATE TABLE GPXBAD_TRACKPOINT(ID INT)");
+        File directory = new File(GPXImportTest.class.getResource("waypoint.gpx").getPath()).getParentFile();
+        try {
+            st.execute("CALL GPXRead(" + StringUtils.quoteStringSQL(directory.getPath()) + ", 'GPXBAD');");
+            fail();
+        } catch (JdbcSQLException e) {
+            assertTrue(e.getOriginalCause().getMessage().contains("does not have the columns of a GPX table"));
+        }
+        // The tables are checked before any row is inserted
+        ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_NAME LIKE 'GPXBAD%'");
+        assertTrue(rs.next());
+        assertEquals(1, rs.getInt(1));
+        rs.close();
+        st.execute("DROP TABLE GPXBAD_TRACKPOINT");
+    }
+
     @Test
     public void importGPXWaypointsFileName() throws SQLException {
         st.execute("DROP TABLE IF EXISTS WAYPOINT_WAYPOINT, WAYPOINT_ROUTE, WAYPOINT_ROUTEPOINT,WAYPOINT_TRACK, WAYPOINT_TRACKSEGMENT, WAYPOINT_TRACKPOINT;");
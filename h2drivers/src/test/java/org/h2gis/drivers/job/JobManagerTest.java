@@ -0,0 +1,367 @@
+/*
+ * h2spatial is a library that brings spatial support to the H2 Java database.
+ *
+ * h2spatial is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2014 IRSTV (FR CNRS 2488)
+ *
+ * h2patial is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * h2spatial is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * h2spatial. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+
+package org.h2gis.drivers.job;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.h2gis.drivers.ImportFiles;
+import org.h2gis.h2spatial.CreateSpatialExtension;
+import org.h2gis.h2spatial.ut.SpatialH2UT;
+import org.h2gis.h2spatialapi.ProgressVisitor;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JobManagerTest {
+    private static final String DB_NAME = "JobManagerTest";
+    private static Connection connection;
+    private static JobManager jobManager;
+
+    @BeforeClass
+    public static void tearUp() throws Exception {
+        // Keep a connection alive to not close the DataBase on each unit test
+        connection = SpatialH2UT.createSpatialDataBase(DB_NAME);
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL(connection.getMetaData().getURL());
+        dataSource.setUser("sa");
+        dataSource.setPassword("sa");
+        CreateSpatialExtension.registerFunction(connection.createStatement(), new JobImport(), "");
+        CreateSpatialExtension.registerFunction(connection.createStatement(), new JobExport(), "");
+        CreateSpatialExtension.registerFunction(connection.createStatement(), new JobStatus(), "");
+        CreateSpatialExtension.registerFunction(connection.createStatement(), new JobCancel(), "");
+        CreateSpatialExtension.registerFunction(connection.createStatement(), new ImportFiles(), "");
+        jobManager = new JobManager(dataSource, 2);
+        JobManager.register(jobManager);
+    }
+
+    @AfterClass
+    public static void tearDown() throws Exception {
+        jobManager.shutdown();
+        jobManager.awaitTermination(10000);
+        connection.close();
+    }
+
+    private static ResultSet waitForJob(Statement st, long jobId) throws Exception {
+        for (int i = 0; i < 600; i++) {
+            ResultSet rs = st.executeQuery("SELECT * FROM JOB_STATUS() WHERE JOB_ID = " + jobId);
+            assertTrue(rs.next());
+            String state = rs.getString("STATE");
+            if (!state.equals(Job.STATE.PENDING.name()) && !state.equals(Job.STATE.RUNNING.name())) {
+                return rs;
+            }
+            rs.close();
+            Thread.sleep(100);
+        }
+        fail("The job " + jobId + " is not finished");
+        return null;
+    }
+
+    private static long submitInSchema(Statement st, String query) throws SQLException {
+        st.execute("SET SCHEMA JOB_SCHEMA");
+        try {
+            ResultSet rs = st.executeQuery(query);
+            try {
+                assertTrue(rs.next());
+                return rs.getLong(1);
+            } finally {
+                rs.close();
+            }
+        } finally {
+            st.execute("SET SCHEMA PUBLIC");
+        }
+    }
+
+    @Test
+    public void testExportImportJob() throws Exception {
+        Statement st = connection.createStatement();
+        st.execute("DROP TABLE IF EXISTS JOB_POINTS, JOB_POINTS_IMPORT");
+        st.execute("CREATE TABLE JOB_POINTS(ID INT PRIMARY KEY, THE_GEOM POINT)");
+        st.execute("INSERT INTO JOB_POINTS SELECT X, ST_GeomFromText(CONCAT('POINT(', X, ' ', X * 2, ')')) FROM SYSTEM_RANGE(1, 5000)");
+        File file = new File("target/job_points.geojson");
+        file.delete();
+        ResultSet rs = st.executeQuery("SELECT JOB_EXPORT('target/job_points.geojson', 'JOB_POINTS')");
+        assertTrue(rs.next());
+        long exportId = rs.getLong(1);
+        rs.close();
+        rs = waitForJob(st, exportId);
+        assertEquals("EXPORT", rs.getString("JOB_TYPE"));
+        assertEquals("DONE", rs.getString("STATE"));
+        assertEquals(1, rs.getDouble("PROGRESSION"), 1e-12);
+        assertEquals(5000, rs.getLong("ROW_COUNT"));
+        assertEquals(file.length(), rs.getLong("BYTE_COUNT"));
+        assertNull(rs.getString("ERROR"));
+        rs.close();
+        rs = st.executeQuery("SELECT JOB_IMPORT('target/job_points.geojson', 'JOB_POINTS_IMPORT')");
+        assertTrue(rs.next());
+        long importId = rs.getLong(1);
+        rs.close();
+        assertTrue(importId > exportId);
+        rs = waitForJob(st, importId);
+        assertEquals("IMPORT", rs.getString("JOB_TYPE"));
+        assertEquals("DONE", rs.getString("STATE"));
+        assertEquals(5000, rs.getLong("ROW_COUNT"));
+        assertEquals(file.length(), rs.getLong("BYTE_COUNT"));
+        assertTrue(rs.getTimestamp("END_TIME").getTime() >= rs.getTimestamp("START_TIME").getTime());
+        rs.close();
+        rs = st.executeQuery("SELECT JOB_CANCEL(" + importId + ")");
+        assertTrue(rs.next());
+        assertFalse(rs.getBoolean(1));
+        rs.close();
+        rs = st.executeQuery("SELECT SUM(ST_X(THE_GEOM)), SUM(ST_Y(THE_GEOM)) FROM JOB_POINTS_IMPORT");
+        assertTrue(rs.next());
+        assertEquals(12502500, rs.getDouble(1), 1e-6);
+        assertEquals(25005000, rs.getDouble(2), 1e-6);
+        rs.close();
+        st.execute("DROP TABLE JOB_POINTS, JOB_POINTS_IMPORT");
+        st.close();
+    }
+
+    @Test
+    public void testFailedJob() throws Exception {
+        Statement st = connection.createStatement();
+        ResultSet rs = st.executeQuery("SELECT JOB_IMPORT('target/job_missing_file.shp', 'JOB_MISSING')");
+        assertTrue(rs.next());
+        long jobId = rs.getLong(1);
+        rs.close();
+        rs = waitForJob(st, jobId);
+        assertEquals("FAILED", rs.getString("STATE"));
+        assertTrue(rs.getString("ERROR") != null);
+        rs.close();
+        try {
+            st.executeQuery("SELECT JOB_IMPORT('target/job_file.unknown', 'JOB_UNKNOWN')");
+            fail();
+        } catch (SQLException ex) {
+            assertTrue(ex.getMessage().contains("No driver is available"));
+        }
+        st.close();
+    }
+
+    @Test
+    public void testFailedImportDropTable() throws Exception {
+        Statement st = connection.createStatement();
+        st.execute("DROP TABLE IF EXISTS JOB_BROKEN");
+        File file = new File("target/job_broken.geojson");
+        java.io.FileWriter writer = new java.io.FileWriter(file);
+        try {
+            writer.write("{\"type\":\"FeatureCollection\",\"features\":[" +
+                    "{\"type\":\"Feature\",\"geometry\":{\"type\":\"Point\",\"coordinates\":[1,2]}," +
+                    "\"properties\":{\"ID\":1}},{\"type\":\"Feature\",\"geometry\":{\"type\":");
+        } finally {
+            writer.close();
+        }
+        ResultSet rs = st.executeQuery("SELECT JOB_IMPORT('target/job_broken.geojson', 'JOB_BROKEN')");
+        assertTrue(rs.next());
+        long jobId = rs.getLong(1);
+        rs.close();
+        rs = waitForJob(st, jobId);
+        assertEquals("FAILED", rs.getString("STATE"));
+        rs.close();
+        rs = st.executeQuery("SELECT COUNT(*) FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_NAME = 'JOB_BROKEN'");
+        assertTrue(rs.next());
+        assertEquals(0, rs.getInt(1));
+        rs.close();
+        st.close();
+    }
+
+    @Test
+    public void testImportInCurrentSchema() throws Exception {
+        Statement st = connection.createStatement();
+        st.execute("CREATE SCHEMA IF NOT EXISTS JOB_SCHEMA");
+        st.execute("DROP TABLE IF EXISTS JOB_SCHEMA.JOB_POINTS, JOB_SCHEMA.JOB_POINTS_IMPORT");
+        st.execute("CREATE TABLE JOB_SCHEMA.JOB_POINTS(ID INT PRIMARY KEY, THE_GEOM POINT)");
+        st.execute("INSERT INTO JOB_SCHEMA.JOB_POINTS VALUES (1, 'POINT(1 2)'), (2, 'POINT(3 4)')");
+        long exportId = submitInSchema(st, "SELECT PUBLIC.JOB_EXPORT('target/job_schema_points.geojson', 'JOB_POINTS')");
+        ResultSet rs = waitForJob(st, exportId);
+        assertEquals("DONE", rs.getString("STATE"));
+        rs.close();
+        long importId = submitInSchema(st, "SELECT PUBLIC.JOB_IMPORT('target/job_schema_points.geojson', 'JOB_POINTS_IMPORT')");
+        rs = waitForJob(st, importId);
+        assertEquals("DONE", rs.getString("STATE"));
+        assertEquals(2, rs.getLong("ROW_COUNT"));
+        rs.close();
+        rs = st.executeQuery("SELECT COUNT(*) FROM JOB_SCHEMA.JOB_POINTS_IMPORT");
+        assertTrue(rs.next());
+        assertEquals(2, rs.getInt(1));
+        rs.close();
+        st.execute("DROP TABLE JOB_SCHEMA.JOB_POINTS, JOB_SCHEMA.JOB_POINTS_IMPORT");
+        st.execute("DROP SCHEMA JOB_SCHEMA");
+        st.close();
+    }
+
+    private static File exportFiles() throws Exception {
+        File directory = new File("target/job_files");
+        directory.mkdirs();
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        Statement st = connection.createStatement();
+        st.execute("DROP TABLE IF EXISTS JOB_TILE");
+        st.execute("CREATE TABLE JOB_TILE(THE_GEOM POINT, ID INT)");
+        st.execute("INSERT INTO JOB_TILE SELECT ST_GeomFromText(CONCAT('POINT(', X, ' 1)')), X FROM SYSTEM_RANGE(1, 10)");
+        for (int tile = 1; tile <= 4; tile++) {
+            ResultSet rs = st.executeQuery("SELECT JOB_EXPORT('" + directory.getPath() + "/tile_" + tile +
+                    ".geojson', 'JOB_TILE')");
+            assertTrue(rs.next());
+            long jobId = rs.getLong(1);
+            rs.close();
+            rs = waitForJob(st, jobId);
+            assertEquals("DONE", rs.getString("STATE"));
+            rs.close();
+        }
+        st.execute("DROP TABLE JOB_TILE");
+        st.close();
+        return directory;
+    }
+
+    @Test(timeout = 60000)
+    public void testImportFilesWithJobManager() throws Exception {
+        File directory = exportFiles();
+        Statement st = connection.createStatement();
+        st.execute("DROP TABLE IF EXISTS JOB_FILES");
+        // The SQL function imports the files with the calling connection, the threads of the job manager
+        // would wait for the database lock held by the calling session
+        st.execute("CALL IMPORT_FILES('" + directory.getPath() + "', 'JOB_FILES', true)");
+        ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM JOB_FILES");
+        assertTrue(rs.next());
+        assertEquals(40, rs.getInt(1));
+        rs.close();
+        st.execute("DROP TABLE JOB_FILES");
+        st.close();
+    }
+
+    @Test
+    public void testImportFilesJob() throws Exception {
+        File directory = exportFiles();
+        Statement st = connection.createStatement();
+        st.execute("DROP TABLE IF EXISTS JOB_FILES, JOB_FILES_TILE_1, JOB_FILES_TILE_2, JOB_FILES_TILE_3, JOB_FILES_TILE_4");
+        ResultSet rs = st.executeQuery("SELECT JOB_IMPORT('" + directory.getPath() + "/tile_*.geojson', 'JOB_FILES', true)");
+        assertTrue(rs.next());
+        long jobId = rs.getLong(1);
+        rs.close();
+        rs = waitForJob(st, jobId);
+        assertEquals("IMPORT_FILES", rs.getString("JOB_TYPE"));
+        assertEquals("DONE", rs.getString("STATE"));
+        assertEquals(1, rs.getDouble("PROGRESSION"), 1e-12);
+        assertEquals(40, rs.getLong("ROW_COUNT"));
+        rs.close();
+        rs = st.executeQuery("SELECT COUNT(*) FROM JOB_FILES");
+        assertTrue(rs.next());
+        assertEquals(40, rs.getInt(1));
+        rs.close();
+        st.execute("DROP TABLE JOB_FILES");
+        // Without union each file has its own table
+        rs = st.executeQuery("SELECT JOB_IMPORT('" + directory.getPath() + "', 'JOB_FILES')");
+        assertTrue(rs.next());
+        jobId = rs.getLong(1);
+        rs.close();
+        rs = waitForJob(st, jobId);
+        assertEquals("DONE", rs.getString("STATE"));
+        assertEquals(40, rs.getLong("ROW_COUNT"));
+        rs.close();
+        st.execute("DROP TABLE JOB_FILES_TILE_1, JOB_FILES_TILE_2, JOB_FILES_TILE_3, JOB_FILES_TILE_4");
+        st.close();
+    }
+
+    @Test
+    public void testJobUser() throws Exception {
+        Statement st = connection.createStatement();
+        st.execute("DROP USER IF EXISTS JOB_USER");
+        st.execute("CREATE USER JOB_USER PASSWORD 'job'");
+        st.execute("DROP TABLE IF EXISTS JOB_USER_POINTS");
+        st.execute("CREATE TABLE JOB_USER_POINTS(ID INT PRIMARY KEY, THE_GEOM POINT)");
+        ResultSet rs = st.executeQuery("SELECT JOB_EXPORT('target/job_user_points.geojson', 'JOB_USER_POINTS')");
+        assertTrue(rs.next());
+        long jobId = rs.getLong(1);
+        rs.close();
+        waitForJob(st, jobId).close();
+        Connection userConnection = java.sql.DriverManager.getConnection(connection.getMetaData().getURL(),
+                "JOB_USER", "job");
+        try {
+            Statement userSt = userConnection.createStatement();
+            // The jobs run with the rights of the job manager
+            try {
+                userSt.executeQuery("SELECT JOB_EXPORT('target/job_user_points.geojson', 'JOB_USER_POINTS')");
+                fail();
+            } catch (SQLException ex) {
+                assertTrue(ex.getMessage().contains("Admin rights are required"));
+            }
+            try {
+                userSt.executeQuery("SELECT JOB_IMPORT('target/job_user_points.geojson', 'JOB_USER_IMPORT')");
+                fail();
+            } catch (SQLException ex) {
+                assertTrue(ex.getMessage().contains("Admin rights are required"));
+            }
+            // The jobs of the other users are not listed
+            rs = userSt.executeQuery("SELECT * FROM JOB_STATUS()");
+            assertFalse(rs.next());
+            rs.close();
+            rs = userSt.executeQuery("SELECT JOB_CANCEL(" + jobId + ")");
+            assertTrue(rs.next());
+            assertFalse(rs.getBoolean(1));
+            rs.close();
+            userSt.close();
+        } finally {
+            userConnection.close();
+        }
+        rs = st.executeQuery("SELECT COUNT(*) FROM JOB_STATUS() WHERE JOB_ID = " + jobId);
+        assertTrue(rs.next());
+        assertEquals(1, rs.getInt(1));
+        rs.close();
+        st.execute("DROP TABLE JOB_USER_POINTS");
+        st.execute("DROP USER JOB_USER");
+        st.close();
+    }
+
+    @Test
+    public void testProgression() {
+        JobProgressVisitor progress = new JobProgressVisitor();
+        assertEquals(0, progress.getProgression(), 1e-12);
+        ProgressVisitor copyProgress = progress.subProcess(4);
+        copyProgress.endStep();
+        assertEquals(0.25, progress.getProgression(), 1e-12);
+        ProgressVisitor subProgress = copyProgress.subProcess(2);
+        subProgress.endStep();
+        assertEquals(0.375, progress.getProgression(), 1e-12);
+        subProgress.endOfProgress();
+        assertEquals(0.5, progress.getProgression(), 1e-12);
+        copyProgress.endOfProgress();
+        assertEquals(1, progress.getProgression(), 1e-12);
+        subProgress.cancel();
+        assertTrue(progress.isCanceled());
+        assertTrue(copyProgress.isCanceled());
+    }
+}
@@ -27,13 +27,20 @@ package org.h2gis.drivers.kml;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.io.WKTReader;
 import java.io.File;
+import java.io.InputStream;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.h2.jdbc.JdbcSQLException;
 import org.h2gis.h2spatial.CreateSpatialExtension;
 import org.h2gis.h2spatial.ut.SpatialH2UT;
+import org.h2gis.h2spatialapi.EmptyProgressVisitor;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -104,6 +111,39 @@ public class KMLImporterExporterTest {
         stat.close();
     }
 
+    @Test
+    public void exportKMZParallel() throws Exception {
+        Statement stat = connection.createStatement();
+        stat.execute("DROP TABLE IF EXISTS KML_LINES");
+        stat.execute("create table KML_LINES(id int primary key, the_geom LINESTRING, name varchar)");
+        stat.execute("insert into KML_LINES select X, ST_GeomFromText('LINESTRING (' || X || ' 47, ' || X || ' 48)', 4326),"
+                + " 'line' || X from system_range(1, 250)");
+        stat.close();
+        File kmlFile = new File("target/kml_lines.kml");
+        KMLWriterDriver kmlWriter = new KMLWriterDriver(connection, "KML_LINES", kmlFile);
+        kmlWriter.write(new EmptyProgressVisitor());
+        File kmzFile = new File("target/kml_lines.kmz");
+        kmlWriter = new KMLWriterDriver(connection, "KML_LINES", kmzFile);
+        kmlWriter.setThreadCount(4);
+        kmlWriter.setBatchSize(7);
+        kmlWriter.setCompressionLevel(Deflater.BEST_COMPRESSION);
+        kmlWriter.write(new EmptyProgressVisitor());
+        // The placemarks encoded by the worker threads keep the table order
+        ZipFile zipFile = new ZipFile(kmzFile);
+        try {
+            ZipEntry entry = zipFile.getEntry("kml_lines.kml");
+            assertNotNull(entry);
+            InputStream in = zipFile.getInputStream(entry);
+            try {
+                assertEquals(FileUtils.readFileToString(kmlFile, "UTF-8"), IOUtils.toString(in, "UTF-8"));
+            } finally {
+                in.close();
+            }
+        } finally {
+            zipFile.close();
+        }
+    }
+
     @Test
     public void createKMLPoint() throws Exception {
         Geometry geom = WKT_READER.read("POINT(1 2)");
@@ -30,6 +30,7 @@ import org.apache.commons.io.FileUtils;
 import org.h2.util.StringUtils;
 import org.h2gis.drivers.DriverManager;
 import org.h2gis.drivers.file_table.H2TableIndex;
+import org.h2gis.drivers.file_table.SpatialFileIndex;
 import org.h2gis.h2spatial.CreateSpatialExtension;
 import org.h2gis.h2spatial.ut.SpatialH2UT;
 import org.h2gis.utilities.GeometryTypeCodes;
@@ -192,6 +193,34 @@ public class SHPEngineTest {
         st.execute("drop table shptable");
     }
 
+    @Test
+    public void readSHPMemoryMappedTest() throws SQLException {
+        Statement st = connection.createStatement();
+        st.execute("drop table if exists shptable");
+        st.execute("CREATE TABLE SHPTABLE ENGINE \""+SHPEngine.class.getName()+"\" WITH "+
+                StringUtils.quoteJavaString(SHPEngineTest.class.getResource("waternetwork.shp").getPath())+", \"MMAP=TRUE\"");
+        ResultSet rs = st.executeQuery("SELECT the_geom, gid FROM shptable");
+        double sumLength = 0;
+        long sumGid = 0;
+        while(rs.next()) {
+            sumLength+=((Geometry)rs.getObject("the_geom")).getLength();
+            sumGid += rs.getLong("gid");
+        }
+        rs.close();
+        assertEquals(28469.778049948833, sumLength, 1e-12);
+        assertEquals(382 * 383 / 2, sumGid);
+        // Random access
+        rs = st.executeQuery("SELECT * FROM shptable where pk = 1");
+        try {
+            assertTrue(rs.next());
+            assertEquals("river",rs.getString("type_axe"));
+            assertEquals("MULTILINESTRING ((183299.71875 2425074.75, 183304.828125 2425066.75))",rs.getObject("the_geom").toString());
+        } finally {
+            rs.close();
+        }
+        st.execute("drop table shptable");
+    }
+
     @Test
     public void testReopenMovedShp() throws Exception {
         // Copy file in target
@@ -261,6 +290,47 @@ public class SHPEngineTest {
         st.execute("drop table shptable");
     }
 
+    @Test
+    public void testBoundingBoxQueryWithoutIndex() throws SQLException {
+        Statement st = connection.createStatement();
+        st.execute("DROP TABLE IF EXISTS shptable");
+        st.execute("CALL FILE_TABLE("+ StringUtils.quoteStringSQL(SHPEngineTest.class.getResource("waternetwork.shp").getPath()) + ", 'shptable');");
+        // The record envelopes are read instead of the geometries
+        ResultSet rs = st.executeQuery("EXPLAIN SELECT PK FROM SHPTABLE WHERE THE_GEOM && ST_BUFFER('POINT(183541 2426015)', 15)");
+        try{
+            assertTrue(rs.next());
+            assertTrue(rs.getString(1), rs.getString(1).contains("SHPTABLE_ENVELOPE_"));
+        } finally {
+            rs.close();
+        }
+        rs = st.executeQuery("SELECT PK FROM SHPTABLE WHERE THE_GEOM && ST_BUFFER('POINT(183541 2426015)', 15) ORDER BY PK");
+        try{
+            assertTrue(rs.next());
+            assertEquals(128, rs.getLong(1));
+            assertTrue(rs.next());
+            assertEquals(326, rs.getLong(1));
+            assertFalse(rs.next());
+        } finally {
+            rs.close();
+        }
+        rs = st.executeQuery("SELECT COUNT(*) = (SELECT COUNT(*) FROM SHPTABLE) FROM SHPTABLE WHERE THE_GEOM && " +
+                "ST_BUFFER('POINT(183541 2426015)', 1000000)");
+        try{
+            assertTrue(rs.next());
+            assertTrue(rs.getBoolean(1));
+        } finally {
+            rs.close();
+        }
+        // The hidden index is not a schema object
+        rs = st.executeQuery("select * from INFORMATION_SCHEMA.INDEXES WHERE TABLE_NAME = 'SHPTABLE' and COLUMN_NAME='THE_GEOM'");
+        try {
+            assertFalse(rs.next());
+        } finally {
+            rs.close();
+        }
+        st.execute("DROP TABLE shptable");
+    }
+
     @Test
     public void testAddIndexOnTableLink() throws SQLException {
         Statement st = connection.createStatement();
@@ -311,4 +381,67 @@ public class SHPEngineTest {
             rs.close();
         }
     }
+
+    @Test
+    public void testSpatialIndexFile() throws Exception {
+        File src = new File(SHPEngineTest.class.getResource("waternetwork.shp").getPath());
+        File srcDbf = new File(SHPEngineTest.class.getResource("waternetwork.dbf").getPath());
+        File srcShx = new File(SHPEngineTest.class.getResource("waternetwork.shx").getPath());
+        File dst = new File("target/sidx/waternetwork.shp");
+        FileUtils.copyFile(src, dst);
+        FileUtils.copyFile(srcDbf, new File("target/sidx/waternetwork.dbf"));
+        FileUtils.copyFile(srcShx, new File("target/sidx/waternetwork.shx"));
+        File indexFile = SpatialFileIndex.getIndexFile(dst, "THE_GEOM");
+        if(indexFile.exists()) {
+            assertTrue(indexFile.delete());
+        }
+        Statement st = connection.createStatement();
+        for(int i = 0; i < 3; i++) {
+            if(i == 2) {
+                // The linked file has been modified, the index must be rebuilt
+                assertTrue(dst.setLastModified(dst.lastModified() + 2000));
+            }
+            st.execute("DROP TABLE IF EXISTS shptable");
+            st.execute("CALL FILE_TABLE("+ StringUtils.quoteStringSQL(dst.getAbsolutePath()) + ", 'shptable', true);");
+            st.execute("CREATE SPATIAL INDEX ON shptable(the_geom)");
+            assertTrue(indexFile.exists());
+            ResultSet rs = st.executeQuery("SELECT PK FROM SHPTABLE WHERE THE_GEOM && ST_BUFFER('POINT(183541 2426015)', 15) ORDER BY PK");
+            try{
+                assertTrue(rs.next());
+                assertEquals(128, rs.getLong(1));
+                assertTrue(rs.next());
+                assertEquals(326, rs.getLong(1));
+                assertFalse(rs.next());
+            } finally {
+                rs.close();
+            }
+        }
+        // The index file is locked by the first table, the second table keeps its spatial index in memory
+        st.execute("DROP TABLE IF EXISTS shptable2");
+        st.execute("CALL FILE_TABLE("+ StringUtils.quoteStringSQL(dst.getAbsolutePath()) + ", 'shptable2', true);");
+        st.execute("CREATE SPATIAL INDEX ON shptable2(the_geom)");
+        ResultSet rs = st.executeQuery("SELECT PK FROM SHPTABLE2 WHERE THE_GEOM && ST_BUFFER('POINT(183541 2426015)', 15) ORDER BY PK");
+        try{
+            assertTrue(rs.next());
+            assertEquals(128, rs.getLong(1));
+            assertTrue(rs.next());
+            assertEquals(326, rs.getLong(1));
+            assertFalse(rs.next());
+        } finally {
+            rs.close();
+        }
+        st.execute("DROP TABLE IF EXISTS shptable2");
+        st.execute("DROP TABLE IF EXISTS shptable");
+        // The index file is not used by default
+        assertTrue(indexFile.delete());
+        st.execute("CALL FILE_TABLE("+ StringUtils.quoteStringSQL(dst.getAbsolutePath()) + ", 'shptable');");
+        st.execute("CREATE SPATIAL INDEX ON shptable(the_geom)");
+        assertFalse(indexFile.exists());
+        st.execute("DROP TABLE IF EXISTS shptable");
+        st.execute("CREATE TABLE SHPTABLE ENGINE \""+SHPEngine.class.getName()+"\" WITH "+
+                StringUtils.quoteJavaString(dst.getAbsolutePath())+", \"INDEX_FILE=FALSE\"");
+        st.execute("CREATE SPATIAL INDEX ON shptable(the_geom)");
+        assertFalse(indexFile.exists());
+        st.execute("DROP TABLE IF EXISTS shptable");
+    }
 }
@@ -25,8 +25,10 @@
 package org.h2gis.drivers.shp;
 
 import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.io.WKTWriter;
+import org.apache.commons.io.FileUtils;
 import org.h2.util.StringUtils;
 import org.h2gis.drivers.DriverManager;
 import org.h2gis.drivers.file_table.H2TableIndex;
@@ -35,6 +37,7 @@ import org.h2gis.h2spatial.CreateSpatialExtension;
 import org.h2gis.h2spatial.ut.SpatialH2UT;
 import org.h2gis.h2spatialapi.DriverFunction;
 import org.h2gis.h2spatialapi.EmptyProgressVisitor;
+import org.h2gis.h2spatialapi.ProgressVisitor;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -45,8 +48,15 @@ import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.h2.value.ValueGeometry;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
@@ -409,4 +419,161 @@ public class SHPImportExportTest {
         assertEquals(coords[1].z, 0, 10E-1);
         res.close();
     }
+
+    @Test
+    public void readEnvelopeTest() throws SQLException, IOException {
+        SHPDriver shpDriver = new SHPDriver();
+        shpDriver.initDriverFromFile(new File(SHPEngineTest.class.getResource("waternetwork.shp").getPath()));
+        try {
+            for(long rowId = 0; rowId < shpDriver.getRowCount(); rowId++) {
+                Geometry geom = (Geometry)shpDriver.getRow(rowId)[shpDriver.getGeometryFieldIndex()];
+                assertEquals(geom.getEnvelopeInternal(), shpDriver.getEnvelope(rowId));
+            }
+        } finally {
+            shpDriver.close();
+        }
+        // Point shape type
+        Statement stat = connection.createStatement();
+        stat.execute("DROP TABLE IF EXISTS PUNCTUAL");
+        stat.execute("create table punctual(idarea int primary key, the_geom POINT)");
+        stat.execute("insert into punctual values(1, 'POINT(-10 109)')");
+        stat.execute("insert into punctual values(2, 'POINT(15 -8)')");
+        stat.execute("CALL SHPWrite('target/punctual_envelope.shp', 'PUNCTUAL')");
+        shpDriver = new SHPDriver();
+        shpDriver.initDriverFromFile(new File("target/punctual_envelope.shp"));
+        try {
+            assertEquals(new Envelope(-10, -10, 109, 109), shpDriver.getEnvelope(0));
+            assertEquals(new Envelope(15, 15, -8, -8), shpDriver.getEnvelope(1));
+        } finally {
+            shpDriver.close();
+        }
+    }
+
+    @Test
+    public void concurrentReadTest() throws Exception {
+        for(final boolean memoryMapped : new boolean[] {false, true}) {
+            final SHPDriver shpDriver = new SHPDriver();
+            shpDriver.setMemoryMapped(memoryMapped);
+            shpDriver.initDriverFromFile(new File(SHPEngineTest.class.getResource("waternetwork.shp").getPath()));
+            try {
+                final int rowCount = (int) shpDriver.getRowCount();
+                final List<Object[]> expectedRows = new ArrayList<Object[]>(rowCount);
+                for(long rowId = 0; rowId < rowCount; rowId++) {
+                    expectedRows.add(shpDriver.getRow(rowId));
+                }
+                ExecutorService executorService = Executors.newFixedThreadPool(4);
+                try {
+                    List<Future<Void>> tasks = new ArrayList<Future<Void>>();
+                    for(int threadId = 0; threadId < 4; threadId++) {
+                        final int step = threadId + 1;
+                        tasks.add(executorService.submit(new Callable<Void>() {
+                            @Override
+                            public Void call() throws Exception {
+                                // Each thread read the rows in a different order
+                                for(int i = 0; i < rowCount; i++) {
+                                    int rowId = (i * step) % rowCount;
+                                    Object[] row = shpDriver.getRow(rowId);
+                                    assertArrayEquals(expectedRows.get(rowId), row);
+                                    Geometry geom = (Geometry) row[shpDriver.getGeometryFieldIndex()];
+                                    assertEquals(geom.getEnvelopeInternal(), shpDriver.getEnvelope(rowId));
+                                }
+                                return null;
+                            }
+                        }));
+                    }
+                    for(Future<Void> task : tasks) {
+                        task.get();
+                    }
+                } finally {
+                    executorService.shutdown();
+                }
+            } finally {
+                shpDriver.close();
+            }
+        }
+    }
+
+    @Test
+    public void importParallelTest() throws SQLException, IOException {
+        Statement stat = connection.createStatement();
+        stat.execute("DROP TABLE IF EXISTS WATERNETWORK_SEQ, WATERNETWORK_PAR");
+        File shpFile = new File(SHPEngineTest.class.getResource("waternetwork.shp").getPath());
+        SHPDriverFunction driverFunction = new SHPDriverFunction();
+        driverFunction.setImportThreadCount(1);
+        driverFunction.importFile(connection, "WATERNETWORK_SEQ", shpFile, new EmptyProgressVisitor());
+        driverFunction = new SHPDriverFunction();
+        driverFunction.setImportThreadCount(4);
+        driverFunction.setBatchSize(10);
+        driverFunction.importFile(connection, "WATERNETWORK_PAR", shpFile, new EmptyProgressVisitor());
+        ResultSet rs = stat.executeQuery("SELECT COUNT(*) FROM WATERNETWORK_PAR");
+        assertTrue(rs.next());
+        assertEquals(382, rs.getInt(1));
+        rs.close();
+        // Same rows, same order
+        rs = stat.executeQuery("SELECT COUNT(*) FROM WATERNETWORK_SEQ S, WATERNETWORK_PAR P WHERE S.PK = P.PK" +
+                " AND S.TYPE_AXE = P.TYPE_AXE AND S.GID = P.GID AND ST_EQUALS(S.THE_GEOM, P.THE_GEOM)");
+        assertTrue(rs.next());
+        assertEquals(382, rs.getInt(1));
+        rs.close();
+        stat.execute("DROP TABLE WATERNETWORK_SEQ, WATERNETWORK_PAR");
+    }
+
+    @Test
+    public void importProgressTest() throws SQLException, IOException {
+        Statement stat = connection.createStatement();
+        File shpFile = new File(SHPEngineTest.class.getResource("waternetwork.shp").getPath());
+        for (int threadCount : new int[] {1, 4}) {
+            stat.execute("DROP TABLE IF EXISTS WATERNETWORK");
+            SHPDriverFunction driverFunction = new SHPDriverFunction();
+            driverFunction.setImportThreadCount(threadCount);
+            driverFunction.setBatchSize(10);
+            StepCounter progress = new StepCounter();
+            driverFunction.importFile(connection, "WATERNETWORK", shpFile, progress);
+            // 382 rows, the last batch has 2 rows
+            assertEquals(39, progress.stepCount);
+            assertEquals(39, progress.endStepCount);
+        }
+        stat.execute("DROP TABLE WATERNETWORK");
+    }
+
+    /**
+     * Count the steps of the sub process and the ended steps.
+     */
+    private static class StepCounter extends EmptyProgressVisitor {
+        private int stepCount;
+        private int endStepCount;
+
+        @Override
+        public ProgressVisitor subProcess(int stepCount) {
+            this.stepCount = stepCount;
+            return this;
+        }
+
+        @Override
+        public void endStep() {
+            endStepCount++;
+        }
+    }
+
+    @Test
+    public void exportParallelTest() throws SQLException, IOException {
+        Statement stat = connection.createStatement();
+        stat.execute("DROP TABLE IF EXISTS WATERNETWORK");
+        SHPDriverFunction driverFunction = new SHPDriverFunction();
+        driverFunction.importFile(connection, "WATERNETWORK",
+                new File(SHPEngineTest.class.getResource("waternetwork.shp").getPath()), new EmptyProgressVisitor());
+        driverFunction.setExportThreadCount(1);
+        driverFunction.exportTable(connection, "WATERNETWORK", new File("target/waternetwork_seq.shp"),
+                new EmptyProgressVisitor());
+        driverFunction.setExportThreadCount(4);
+        driverFunction.setBatchSize(10);
+        driverFunction.exportTable(connection, "WATERNETWORK", new File("target/waternetwork_par.shp"),
+                new EmptyProgressVisitor());
+        // The files must be identical
+        for(String ext : new String[] {"shp", "shx", "dbf"}) {
+            assertTrue(ext, FileUtils.contentEquals(new File("target/waternetwork_seq." + ext),
+                    new File("target/waternetwork_par." + ext)));
+        }
+        stat.execute("DROP TABLE WATERNETWORK");
+    }
 }
@@ -28,12 +28,17 @@ import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Statement;
 import org.h2gis.drivers.DriverManager;
+import org.h2gis.drivers.ImportFiles;
 import org.h2gis.drivers.dbf.DBFRead;
 import org.h2gis.drivers.dbf.DBFWrite;
 import org.h2gis.drivers.geojson.GeoJsonRead;
 import org.h2gis.drivers.geojson.GeoJsonWrite;
 import org.h2gis.drivers.geojson.ST_AsGeoJSON;
 import org.h2gis.drivers.gpx.GPXRead;
+import org.h2gis.drivers.job.JobCancel;
+import org.h2gis.drivers.job.JobExport;
+import org.h2gis.drivers.job.JobImport;
+import org.h2gis.drivers.job.JobStatus;
 import org.h2gis.drivers.kml.KMLWrite;
 import org.h2gis.drivers.kml.ST_AsKml;
 import org.h2gis.drivers.shp.SHPRead;
@@ -92,6 +97,11 @@ public class CreateSpatialExtension {
                 new GPXRead(),
                 new GeoJsonRead(),
                 new GeoJsonWrite(),
+                new ImportFiles(),
+                new JobCancel(),
+                new JobExport(),
+                new JobImport(),
+                new JobStatus(),
                 new KMLWrite(),
                 new SHPRead(),
                 new SHPWrite(),
@@ -211,7 +211,110 @@ public class OSMImportTest {
         assertEquals(3, rs.getInt(1));
         rs.close();
     }
-    
+
+    @Test
+    public void importOSMFileTags() throws SQLException {
+        st.execute("DROP TABLE IF EXISTS OSM_TAG, OSM_NODE, OSM_NODE_TAG, OSM_WAY,OSM_WAY_TAG, OSM_WAY_NODE, OSM_RELATION, OSM_RELATION_TAG, OSM_NODE_MEMBER, OSM_WAY_MEMBER, OSM_RELATION_MEMBER;");
+        st.execute("CALL OSMRead(" + StringUtils.quoteStringSQL(OSMImportTest.class.getResource("saint_jean.osm").getPath()) + ", 'OSM');");
+        // One row per distinct key, name and numeric ele are stored in the element tables
+        ResultSet rs = st.executeQuery("SELECT count(ID_TAG), count(DISTINCT TAG_KEY) FROM OSM_TAG");
+        assertTrue(rs.next());
+        assertEquals(50, rs.getInt(1));
+        assertEquals(50, rs.getInt(2));
+        rs.close();
+        rs = st.executeQuery("SELECT count(*) FROM OSM_WAY_TAG WT, OSM_TAG T WHERE WT.ID_TAG = T.ID_TAG AND T.TAG_KEY = 'highway'");
+        assertTrue(rs.next());
+        assertEquals(22, rs.getInt(1));
+        rs.close();
+        rs = st.executeQuery("SELECT WT.VALUE FROM OSM_WAY_TAG WT, OSM_TAG T WHERE WT.ID_TAG = T.ID_TAG AND T.TAG_KEY = 'highway' AND WT.ID_WAY = 38895116");
+        assertTrue(rs.next());
+        assertEquals("residential", rs.getString(1));
+        rs.close();
+        // Every element tag references a key
+        rs = st.executeQuery("SELECT count(*) FROM OSM_NODE_TAG NT LEFT JOIN OSM_TAG T ON NT.ID_TAG = T.ID_TAG WHERE T.TAG_KEY IS NULL");
+        assertTrue(rs.next());
+        assertEquals(0, rs.getInt(1));
+        rs.close();
+    }
+
+    @Test
+    public void importOSMFileWayGeometry() throws SQLException {
+        st.execute("DROP TABLE IF EXISTS OSM_TAG, OSM_NODE, OSM_NODE_TAG, OSM_WAY,OSM_WAY_TAG, OSM_WAY_NODE, OSM_RELATION, OSM_RELATION_TAG, OSM_NODE_MEMBER, OSM_WAY_MEMBER, OSM_RELATION_MEMBER;");
+        st.execute("CALL OSMRead(" + StringUtils.quoteStringSQL(OSMImportTest.class.getResource("saint_jean.osm").getPath()) + ", 'OSM', true);");
+        ResultSet rs = st.executeQuery("SELECT count(THE_GEOM) FROM OSM_WAY");
+        assertTrue(rs.next());
+        assertEquals(472, rs.getInt(1));
+        rs.close();
+        rs = st.executeQuery("SELECT SRID FROM GEOMETRY_COLUMNS WHERE F_TABLE_NAME='OSM_WAY'");
+        assertTrue(rs.next());
+        assertEquals(4326, rs.getInt("SRID"));
+        rs.close();
+        // Same points as the join of the way nodes
+        rs = st.executeQuery("SELECT count(*) FROM OSM_WAY W WHERE ST_NUMPOINTS(W.THE_GEOM) = " +
+                "(SELECT count(*) FROM OSM_WAY_NODE WN WHERE WN.ID_WAY = W.ID_WAY) AND ST_STARTPOINT(W.THE_GEOM) = " +
+                "(SELECT N.THE_GEOM FROM OSM_WAY_NODE WN, OSM_NODE N WHERE WN.ID_NODE = N.ID_NODE AND WN.ID_WAY = W.ID_WAY " +
+                "ORDER BY WN.NODE_ORDER LIMIT 1)");
+        assertTrue(rs.next());
+        assertEquals(472, rs.getInt(1));
+        rs.close();
+        rs = st.executeQuery("SELECT ST_NUMPOINTS(THE_GEOM) FROM OSM_WAY WHERE ID_WAY = 38895116");
+        assertTrue(rs.next());
+        assertEquals(15, rs.getInt(1));
+        rs.close();
+    }
+
+    @Test
+    public void importPBFOSMFile() throws SQLException {
+        st.execute("DROP TABLE IF EXISTS OSM_TAG, OSM_NODE, OSM_NODE_TAG, OSM_WAY,OSM_WAY_TAG, OSM_WAY_NODE, OSM_RELATION, OSM_RELATION_TAG, OSM_NODE_MEMBER, OSM_WAY_MEMBER, OSM_RELATION_MEMBER;");
+        st.execute("CALL OSMRead(" + StringUtils.quoteStringSQL(OSMImportTest.class.getResource("saint_jean.osm.pbf").getPath()) + ", 'OSM');");
+        ResultSet rs = st.executeQuery("SELECT count(TABLE_NAME) FROM INFORMATION_SCHEMA.TABLES where TABLE_NAME LIKE 'OSM%'");
+        rs.next();
+        assertTrue(rs.getInt(1) == 11);
+        rs.close();
+        // Check number
+        rs = st.executeQuery("SELECT count(ID_NODE) FROM OSM_NODE");
+        rs.next();
+        assertEquals(3243, rs.getInt(1));
+        rs.close();
+        rs = st.executeQuery("SELECT count(ID_WAY) FROM OSM_WAY");
+        rs.next();
+        assertEquals(472, rs.getInt(1));
+        rs.close();
+        rs = st.executeQuery("SELECT count(ID_WAY) FROM OSM_WAY_NODE");
+        rs.next();
+        assertEquals(4180, rs.getInt(1));
+        rs.close();
+        // Check content
+
+        //NODE
+        rs = st.executeQuery("SELECT THE_GEOM FROM OSM_NODE WHERE ID_NODE=462020579");
+        assertTrue(rs.next());
+        assertEquals("POINT (-2.1213541 47.6347657)", rs.getString("the_geom"));
+        rs.close();
+
+        rs = st.executeQuery("SELECT * FROM OSM_NODE WHERE ID_NODE=670177172");
+        assertTrue(rs.next());
+        // NODE Z extraction
+        assertEquals(91.9,rs.getDouble("ELE"),0.1);
+        assertFalse(rs.wasNull());
+        assertEquals(4326,((Point)rs.getObject("THE_GEOM")).getSRID());
+        rs.close();
+
+        rs = st.executeQuery("SELECT THE_GEOM FROM OSM_NODE WHERE ID_NODE=3003052969");
+        assertTrue(rs.next());
+        assertEquals("POINT (-2.121123 47.635276)", rs.getString("the_geom"));
+        rs.close();
+
+        rs = st.executeQuery("SELECT count(ID_RELATION) FROM OSM_RELATION");
+        assertTrue(rs.next());
+        assertEquals(3, rs.getInt(1));
+        rs.close();
+        rs = st.executeQuery("SELECT count(ID_WAY) FROM OSM_WAY_MEMBER");
+        assertTrue(rs.next());
+        assertEquals(79, rs.getInt(1));
+        rs.close();
+    }
+
     //@Test Disable because of internet connection is not always active
     public void downloadOSMFile() throws SQLException, IOException {
         File file = File.createTempFile("osm_"+ System.currentTimeMillis(), ".osm");    